@@ -4,13 +4,18 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
 import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.allocator.*;
+import org.zstack.header.core.Completion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.host.HostInventory;
 import org.zstack.header.host.HostVO;
+import org.zstack.header.host.HostVO_;
 import org.zstack.header.vm.VmInstanceInventory;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
@@ -19,6 +24,8 @@ import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
 
+import static org.zstack.core.Platform.operr;
+
 /**
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
@@ -42,12 +49,22 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
 
     private Set<String> seriesErrorWhenPagination = new HashSet<String>();
 
+    // the candidates are seeded by the capacity index; if the allocation fails with them,
+    // it starts over in the usual way
+    private boolean seededByIndex;
+
     @Autowired
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
     @Autowired
     private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
+    @Autowired
+    private HostCapacityBatchUpdater batchUpdater;
+    @Autowired
+    private DatabaseFacade dbf;
 
     public HostAllocatorSpec getAllocationSpec() {
         return allocationSpec;
@@ -138,21 +155,35 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         marshalResult();
 
         try {
-            for (HostVO h : result) {
-                try {
-                    reserveCapacity(h.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity());
-                    logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] on host[uuid:%s] for vm[uuid:%s]",
-                            allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), h.getUuid(),
-                            allocationSpec.getVmInstance().getUuid()));
-                    completion.success(HostInventory.valueOf(h));
-                    return;
-                } catch (UnableToReserveHostCapacityException e) {
-                    logger.debug(String.format("[Host Allocation]: %s on host[uuid:%s]. try next one",
-                            e.getMessage(), h.getUuid()));
-                }
-            }
+            reserveCapacityOnCandidates(result.iterator());
+        } catch (Throwable t) {
+            logger.debug(t.getClass().getName(), t);
+            completion.fail(errf.throwableToInternalError(t));
+        }
+    }
 
-            if (paginationInfo != null) {
+    private void reserveCapacity(final String hostUuid, final long cpu, final long memory, final Completion completion) {
+        if (HostAllocatorGlobalConfig.BATCH_CAPACITY_UPDATE.booleanValue()) {
+            batchUpdater.reserve(hostUuid, cpu, memory, completion);
+            return;
+        }
+
+        try {
+            reserveCapacity(hostUuid, cpu, memory);
+        } catch (UnableToReserveHostCapacityException e) {
+            completion.fail(operr(e.getMessage()));
+            return;
+        }
+
+        completion.success();
+    }
+
+    private void reserveCapacityOnCandidates(final Iterator<HostVO> hosts) {
+        if (!hosts.hasNext()) {
+            if (seededByIndex) {
+                logger.debug("[Host Allocation]: unable to reserve cpu/memory on all candidate hosts found by the capacity index, allocation will start over without it");
+                startWithoutIndex();
+            } else if (paginationInfo != null) {
                 logger.debug("[Host Allocation]: unable to reserve cpu/memory on all candidate hosts; because of pagination is enabled, allocation will start over");
                 seriesErrorWhenPagination.add(String.format("{unable to reserve cpu[%s], memory[%s bytes] on all candidate hosts}",
                         allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity()));
@@ -161,10 +192,26 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
                 completion.fail(errf.instantiateErrorCode(HostAllocatorError.NO_AVAILABLE_HOST,
                         "reservation on cpu/memory failed on all candidates host"));
             }
-        } catch (Throwable t) {
-            logger.debug(t.getClass().getName(), t);
-            completion.fail(errf.throwableToInternalError(t));
+            return;
         }
+
+        final HostVO h = hosts.next();
+        reserveCapacity(h.getUuid(), allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), new Completion(completion) {
+            @Override
+            public void success() {
+                logger.debug(String.format("[Host Allocation]: successfully reserved cpu[%s], memory[%s bytes] on host[uuid:%s] for vm[uuid:%s]",
+                        allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity(), h.getUuid(),
+                        allocationSpec.getVmInstance().getUuid()));
+                completion.success(HostInventory.valueOf(h));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.debug(String.format("[Host Allocation]: %s on host[uuid:%s]. try next one",
+                        errorCode.getDetails(), h.getUuid()));
+                reserveCapacityOnCandidates(hosts);
+            }
+        });
     }
 
     private void startOver() {
@@ -198,14 +245,72 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
         }
     }
 
+    private boolean canSeedByIndex() {
+        if (isDryRun || !HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.booleanValue() || !capacityIndex.isLoaded()) {
+            return false;
+        }
+
+        // seeding the candidates by the index only moves the state and capacity filtering
+        // ahead, the chain must have them
+        boolean hasStateFlow = false;
+        boolean hasCapacityFlow = false;
+        for (AbstractHostAllocatorFlow flow : flows) {
+            if (flow instanceof HostStateAndHypervisorAllocatorFlow) {
+                hasStateFlow = true;
+            } else if (flow instanceof HostCapacityAllocatorFlow) {
+                hasCapacityFlow = true;
+            }
+        }
+
+        return hasStateFlow && hasCapacityFlow;
+    }
+
+    private List<HostVO> findCandidatesByIndex() {
+        List<String> huuids = capacityIndex.findHosts(allocationSpec.getHypervisorType(),
+                allocationSpec.getCpuCapacity(), allocationSpec.getMemoryCapacity());
+        if (huuids.isEmpty()) {
+            return new ArrayList<HostVO>();
+        }
+
+        int limit = HostAllocatorGlobalConfig.PAGINATION_LIMIT.intValue();
+        if (HostAllocatorGlobalConfig.USE_PAGINATION.booleanValue() && huuids.size() > limit) {
+            // like a page of the database path, the flows get a part of the hosts that fit;
+            // the part is picked at random so the index doesn't prefer any host over the
+            // allocation strategy of the chain
+            Collections.shuffle(huuids);
+            huuids = huuids.subList(0, limit);
+        }
+
+        SimpleQuery<HostVO> q = dbf.createQuery(HostVO.class);
+        q.add(HostVO_.uuid, Op.IN, huuids);
+        return q.list();
+    }
+
     private void start() {
         for (HostAllocatorPreStartExtensionPoint processor : pluginRgty.getExtensionList(HostAllocatorPreStartExtensionPoint.class)) {
             processor.beforeHostAllocatorStart(allocationSpec, flows);
         }
 
-        if (HostAllocatorGlobalConfig.USE_PAGINATION.value(Boolean.class)) {
+        if (canSeedByIndex()) {
+            List<HostVO> seeds = findCandidatesByIndex();
+            if (!seeds.isEmpty()) {
+                seededByIndex = true;
+                result = seeds;
+                it = flows.iterator();
+                runFlow(it.next());
+                return;
+            }
+        }
+
+        startWithoutIndex();
+    }
+
+    private void startWithoutIndex() {
+        seededByIndex = false;
+        result = null;
+        if (HostAllocatorGlobalConfig.USE_PAGINATION.booleanValue()) {
             paginationInfo = new HostAllocationPaginationInfo();
-            paginationInfo.setLimit(HostAllocatorGlobalConfig.PAGINATION_LIMIT.value(Integer.class));
+            paginationInfo.setLimit(HostAllocatorGlobalConfig.PAGINATION_LIMIT.intValue());
         }
         it = flows.iterator();
         DebugUtils.Assert(it.hasNext(), "can not run an empty host allocation chain");
@@ -268,6 +373,13 @@ public class HostAllocatorChain implements HostAllocatorTrigger, HostAllocatorSt
     }
 
     private void fail(ErrorCode errorCode) {
+        if (seededByIndex) {
+            logger.debug(String.format("[Host Allocation] flow[%s] failed with the candidates found by the capacity index, %s;" +
+                    " allocation will start over without the index", lastFlow.getClass().getName(), errorCode.getDetails()));
+            startWithoutIndex();
+            return;
+        }
+
         result = null;
         if (seriesErrorWhenPagination.isEmpty()) {
             logger.debug(String.format("[Host Allocation] flow[%s] failed to allocate host; %s",
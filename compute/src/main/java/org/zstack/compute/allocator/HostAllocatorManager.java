@@ -2,6 +2,7 @@ package org.zstack.compute.allocator;
 
 import org.zstack.header.allocator.HostAllocatorStrategyFactory;
 import org.zstack.header.allocator.HostAllocatorStrategyType;
+import org.zstack.header.allocator.UnableToReserveHostCapacityException;
 
 import java.util.List;
 import java.util.Map;
@@ -16,4 +17,12 @@ public interface HostAllocatorManager {
     List<String> getBackupStorageTypesByPrimaryStorageTypeFromMetrics(String psType);
 
     void returnComputeResourceCapacity(String uuid, long cpu, long memory);
+
+    /**
+     * reserve cpu and memory of count vms on the host in one update, each vm's capacity can be returned
+     * separately by returnComputeResourceCapacity() or ReturnHostCapacityMsg
+     *
+     * @throws UnableToReserveHostCapacityException if the host cannot hold all of them
+     */
+    void reserveComputeResourceCapacity(String hostUuid, long cpu, long memory, int count);
 }
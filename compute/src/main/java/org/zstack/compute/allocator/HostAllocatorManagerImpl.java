@@ -12,6 +12,7 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.*;
 import org.zstack.header.cluster.ReportHostCapacityMessage;
+import org.zstack.header.core.Completion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.Flow;
 import org.zstack.header.core.workflow.FlowRollback;
@@ -69,6 +70,8 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
     private HostCpuOverProvisioningManager cpuRatioMgr;
     @Autowired
     private ErrorFacade errf;
+    @Autowired
+    private HostCapacityBatchUpdater batchUpdater;
 
     @Override
     @MessageSafe
@@ -235,8 +238,23 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         }
     }
 
-    private void handle(ReturnHostCapacityMsg msg) {
-        returnComputeResourceCapacity(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity());
+    private void handle(final ReturnHostCapacityMsg msg) {
+        if (!HostAllocatorGlobalConfig.BATCH_CAPACITY_UPDATE.booleanValue()) {
+            returnComputeResourceCapacity(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity());
+            return;
+        }
+
+        batchUpdater.returnCapacity(msg.getHostUuid(), msg.getCpuCapacity(), msg.getMemoryCapacity(), new Completion(msg) {
+            @Override
+            public void success() {
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                logger.warn(String.format("unable to return cpu[%s], memory[%s bytes] to the host[uuid:%s], %s",
+                        msg.getCpuCapacity(), msg.getMemoryCapacity(), msg.getHostUuid(), errorCode));
+            }
+        });
     }
 
     private void handle(ReportHostCapacityMessage msg) {
@@ -541,6 +559,35 @@ public class HostAllocatorManagerImpl extends AbstractService implements HostAll
         });
     }
 
+    @Override
+    public void reserveComputeResourceCapacity(final String hostUuid, final long cpu, final long memory, final int count) {
+        // the memory is calculated by ratio per vm, as it is returned per vm
+        final long totalCpu = cpu * count;
+        final long totalMemory = ratioMgr.calculateMemoryByRatio(hostUuid, memory) * count;
+        boolean found = new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
+            @Override
+            public HostCapacityVO call(HostCapacityVO cap) {
+                if (cap.getAvailableCpu() < totalCpu) {
+                    throw new UnableToReserveHostCapacityException(
+                            String.format("no enough CPU[%s] for %s vms on the host[uuid:%s]", totalCpu, count, hostUuid));
+                }
+
+                if (cap.getAvailableMemory() < totalMemory) {
+                    throw new UnableToReserveHostCapacityException(
+                            String.format("no enough memory[%s] for %s vms on the host[uuid:%s]", totalMemory, count, hostUuid));
+                }
+
+                cap.setAvailableCpu(cap.getAvailableCpu() - totalCpu);
+                cap.setAvailableMemory(cap.getAvailableMemory() - totalMemory);
+                return cap;
+            }
+        });
+
+        if (!found) {
+            throw new UnableToReserveHostCapacityException(String.format("the host[uuid:%s] is not found", hostUuid));
+        }
+    }
+
     @Override
     public Flow createVmAbnormalLifeCycleHandlingFlow(final VmAbnormalLifeCycleStruct struct) {
         return new Flow() {
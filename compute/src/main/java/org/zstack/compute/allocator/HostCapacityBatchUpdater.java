@@ -0,0 +1,315 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.CoreGlobalProperty;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * Coalesces cpu/memory reservations and returns on a host into one update.
+ *
+ * Deltas submitted for a host while an update of the host is in flight are queued and
+ * applied together by the next update, in the order they are submitted; each reservation
+ * or return still succeeds or fails on its own, and a failed one changes nothing. An update
+ * is a compare-and-set on the capacity it read, so it doesn't hold the row lock; on a conflict
+ * it re-reads and retries, and falls back to HostCapacityUpdater after MAX_RETRIES.
+ */
+public class HostCapacityBatchUpdater {
+    private static final CLogger logger = Utils.getLogger(HostCapacityBatchUpdater.class);
+
+    public static final int MAX_RETRIES = 5;
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+    @Autowired
+    private HostCapacityIndex capacityIndex;
+
+    private static class Delta {
+        final boolean reserve;
+        final long cpu;
+        final long memory;
+        final Completion completion;
+        ErrorCode error;
+
+        Delta(boolean reserve, long cpu, long memory, Completion completion) {
+            this.reserve = reserve;
+            this.cpu = cpu;
+            this.memory = memory;
+            this.completion = completion;
+        }
+    }
+
+    private class HostQueue {
+        final String hostUuid;
+        List<Delta> pending = new ArrayList<>();
+        boolean updating;
+
+        HostQueue(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+    }
+
+    public static class Statistic {
+        private long deltas;
+        private long updates;
+        private long conflicts;
+        private long retries;
+        private long fallbacks;
+
+        public long getDeltas() {
+            return deltas;
+        }
+
+        /**
+         * database updates; deltas / updates is how many deltas an update coalesces on average
+         */
+        public long getUpdates() {
+            return updates;
+        }
+
+        /**
+         * updates that found the capacity changed by someone else since they read it
+         */
+        public long getConflicts() {
+            return conflicts;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        /**
+         * batches updated by HostCapacityUpdater after MAX_RETRIES conflicts
+         */
+        public long getFallbacks() {
+            return fallbacks;
+        }
+    }
+
+    private final Map<String, HostQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong deltaCount = new AtomicLong();
+    private final AtomicLong updateCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong fallbackCount = new AtomicLong();
+    // called with the host uuid between reading the capacity and the compare-and-set, for unit tests
+    private volatile Consumer<String> beforeCompareAndSetHook;
+
+    public void reserve(String hostUuid, long cpu, long memory, Completion completion) {
+        submit(hostUuid, new Delta(true, cpu, memory, completion));
+    }
+
+    public void returnCapacity(String hostUuid, long cpu, long memory, Completion completion) {
+        submit(hostUuid, new Delta(false, cpu, memory, completion));
+    }
+
+    public void setBeforeCompareAndSetHook(Consumer<String> beforeCompareAndSetHook) {
+        this.beforeCompareAndSetHook = beforeCompareAndSetHook;
+    }
+
+    public Statistic getStatistic() {
+        Statistic s = new Statistic();
+        s.deltas = deltaCount.get();
+        s.updates = updateCount.get();
+        s.conflicts = conflictCount.get();
+        s.retries = retryCount.get();
+        s.fallbacks = fallbackCount.get();
+        return s;
+    }
+
+    private void submit(String hostUuid, Delta delta) {
+        deltaCount.incrementAndGet();
+
+        HostQueue q = queues.computeIfAbsent(hostUuid, HostQueue::new);
+        synchronized (q) {
+            q.pending.add(delta);
+            if (q.updating) {
+                // coalesced into the next update
+                return;
+            }
+
+            q.updating = true;
+        }
+
+        thdf.submit(new Task<Void>() {
+            @Override
+            public String getName() {
+                return String.format("update-capacity-of-host-%s", hostUuid);
+            }
+
+            @Override
+            public Void call() throws Exception {
+                drain(q);
+                return null;
+            }
+        });
+    }
+
+    private void drain(HostQueue q) {
+        while (true) {
+            List<Delta> batch;
+            synchronized (q) {
+                if (q.pending.isEmpty()) {
+                    // the queue is kept, so deltas of a host are always applied by one thread in order
+                    q.updating = false;
+                    return;
+                }
+
+                batch = q.pending;
+                q.pending = new ArrayList<>();
+            }
+
+            try {
+                update(q.hostUuid, batch);
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to update capacity of the host[uuid:%s]", q.hostUuid), t);
+                for (Delta d : batch) {
+                    d.error = operr("unable to update capacity of the host[uuid:%s], %s", q.hostUuid, t.getMessage());
+                }
+            }
+
+            for (Delta d : batch) {
+                try {
+                    if (d.error == null) {
+                        d.completion.success();
+                    } else {
+                        d.completion.fail(d.error);
+                    }
+                } catch (Throwable t) {
+                    logger.warn("unhandled exception in the completion of a capacity update", t);
+                }
+            }
+        }
+    }
+
+    // applies the deltas on the capacity, a delta that cannot be applied is failed and skipped as a whole,
+    // like returnComputeResourceCapacity() rolling back on a return making memory exceed the total
+    private void apply(String hostUuid, HostCapacityVO cap, List<Delta> batch) {
+        for (Delta d : batch) {
+            d.error = null;
+            long memory = ratioMgr.calculateMemoryByRatio(hostUuid, d.memory);
+            if (d.reserve) {
+                if (cap.getAvailableCpu() - d.cpu < 0) {
+                    d.error = operr("no enough CPU[%s] on the host[uuid:%s]", d.cpu, hostUuid);
+                } else if (cap.getAvailableMemory() - memory < 0) {
+                    d.error = operr("no enough memory[%s] on the host[uuid:%s]", d.memory, hostUuid);
+                } else {
+                    cap.setAvailableCpu(cap.getAvailableCpu() - d.cpu);
+                    cap.setAvailableMemory(cap.getAvailableMemory() - memory);
+                }
+            } else {
+                long availMemory = cap.getAvailableMemory() + memory;
+                if (availMemory > cap.getTotalMemory()) {
+                    d.error = operr("invalid memory capacity of host[uuid:%s], available memory[%s] is greater than" +
+                            " total memory[%s] after returning memory[%s]", hostUuid, availMemory, cap.getTotalMemory(), memory);
+                } else {
+                    cap.setAvailableCpu(Math.min(cap.getAvailableCpu() + d.cpu, cap.getTotalCpu()));
+                    cap.setAvailableMemory(availMemory);
+                }
+            }
+        }
+    }
+
+    /**
+     * cap has the deltas applied. The totals it was read with are compared too, as the deltas are
+     * checked against them; the available capacity changed away and back between the read and the
+     * update is fine, the deltas are added to it
+     */
+    @Transactional
+    private boolean compareAndSet(HostCapacityVO cap, long oldCpu, long oldMemory) {
+        String sql = "update HostCapacityVO c set c.availableCpu = :cpu, c.availableMemory = :memory" +
+                " where c.uuid = :uuid and c.availableCpu = :oldCpu and c.availableMemory = :oldMemory" +
+                " and c.totalCpu = :totalCpu and c.totalMemory = :totalMemory";
+        Query q = dbf.getEntityManager().createQuery(sql);
+        q.setParameter("cpu", cap.getAvailableCpu());
+        q.setParameter("memory", cap.getAvailableMemory());
+        q.setParameter("uuid", cap.getUuid());
+        q.setParameter("oldCpu", oldCpu);
+        q.setParameter("oldMemory", oldMemory);
+        q.setParameter("totalCpu", cap.getTotalCpu());
+        q.setParameter("totalMemory", cap.getTotalMemory());
+        return q.executeUpdate() == 1;
+    }
+
+    private void update(final String hostUuid, final List<Delta> batch) {
+        updateCount.incrementAndGet();
+
+        for (int i = 0; i <= MAX_RETRIES; i++) {
+            if (i > 0) {
+                retryCount.incrementAndGet();
+            }
+
+            HostCapacityVO cap = dbf.findByUuid(hostUuid, HostCapacityVO.class);
+            if (cap == null) {
+                for (Delta d : batch) {
+                    d.error = operr("unable to update capacity of the host[uuid:%s], it may have been deleted", hostUuid);
+                }
+                return;
+            }
+
+            long oldCpu = cap.getAvailableCpu();
+            long oldMemory = cap.getAvailableMemory();
+            apply(hostUuid, cap, batch);
+            if (oldCpu == cap.getAvailableCpu() && oldMemory == cap.getAvailableMemory()) {
+                // all deltas failed
+                return;
+            }
+
+            Consumer<String> hook = beforeCompareAndSetHook;
+            if (CoreGlobalProperty.UNIT_TEST_ON && hook != null) {
+                hook.accept(hostUuid);
+            }
+
+            if (compareAndSet(cap, oldCpu, oldMemory)) {
+                capacityIndex.updateCapacity(cap);
+                if (batch.size() > 1) {
+                    logger.trace(String.format("[Host Capacity] updated capacity of the host[uuid:%s] by %s deltas:" +
+                                    " available cpu: %s --> %s, available memory: %s --> %s", hostUuid, batch.size(),
+                            oldCpu, cap.getAvailableCpu(), oldMemory, cap.getAvailableMemory()));
+                }
+                return;
+            }
+
+            conflictCount.incrementAndGet();
+        }
+
+        logger.debug(String.format("[Host Capacity] capacity of the host[uuid:%s] kept changing in %s retries," +
+                " update it with the row locked", hostUuid, MAX_RETRIES));
+        fallbackCount.incrementAndGet();
+        boolean updated = new HostCapacityUpdater(hostUuid).run(new HostCapacityUpdaterRunnable() {
+            @Override
+            public HostCapacityVO call(HostCapacityVO cap) {
+                apply(hostUuid, cap, batch);
+                return cap;
+            }
+        });
+
+        if (!updated) {
+            for (Delta d : batch) {
+                d.error = operr("unable to update capacity of the host[uuid:%s], it may have been deleted", hostUuid);
+            }
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.zstack.compute.allocator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
+import org.zstack.core.config.GlobalConfig;
+import org.zstack.core.config.GlobalConfigUpdateExtensionPoint;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.Component;
+import org.zstack.header.allocator.HostCapacityOverProvisioningManager;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.host.HostCanonicalEvents;
+import org.zstack.header.host.HostCanonicalEvents.HostDeletedData;
+import org.zstack.header.host.HostCanonicalEvents.HostStatusChangedData;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory index of the available capacity of all hosts, kept by every management node,
+ * so the host allocator chain can find the hosts having enough cpu/memory without loading
+ * and filtering the whole host table for every allocation.
+ *
+ * Hosts are kept sorted by available memory; a query starts from the smallest memory
+ * that can satisfy the request and checks cpu, state, status and hypervisor type of each
+ * host from there.
+ *
+ * The index is updated by HostCapacityUpdater and host status/deletion events, and synced
+ * from the database periodically to pick up changes made in other ways or by other
+ * management nodes. It's only a hint: the candidates it gives are still filtered by every
+ * allocator flow and capacity is reserved in the database.
+ */
+public class HostCapacityIndex implements Component {
+    private static final CLogger logger = Utils.getLogger(HostCapacityIndex.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private EventFacade evtf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private static class Entry implements Comparable<Entry> {
+        final String uuid;
+        final String hypervisorType;
+        final HostState state;
+        final HostStatus status;
+        final long availableCpu;
+        final long availableMemory;
+
+        Entry(String uuid, String hypervisorType, HostState state, HostStatus status, long availableCpu, long availableMemory) {
+            this.uuid = uuid;
+            this.hypervisorType = hypervisorType;
+            this.state = state;
+            this.status = status;
+            this.availableCpu = availableCpu;
+            this.availableMemory = availableMemory;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            int ret = Long.compare(availableMemory, o.availableMemory);
+            return ret != 0 ? ret : uuid.compareTo(o.uuid);
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> byMemory = new ConcurrentSkipListSet<>();
+    private volatile boolean loaded;
+    private Future<Void> syncThread;
+
+    private synchronized void put(Entry e) {
+        Entry old = entries.put(e.uuid, e);
+        if (old != null) {
+            byMemory.remove(old);
+        }
+        byMemory.add(e);
+    }
+
+    public synchronized void remove(String hostUuid) {
+        Entry old = entries.remove(hostUuid);
+        if (old != null) {
+            byMemory.remove(old);
+        }
+    }
+
+    public void updateCapacity(HostCapacityVO cap) {
+        synchronized (this) {
+            Entry old = entries.get(cap.getUuid());
+            if (old == null) {
+                // a host not known yet, it's picked up by the status event or the next sync
+                return;
+            }
+
+            put(new Entry(old.uuid, old.hypervisorType, old.state, old.status, cap.getAvailableCpu(), cap.getAvailableMemory()));
+        }
+    }
+
+    private void updateHost(HostInventory inv) {
+        if (inv == null || inv.getAvailableCpuCapacity() == null || inv.getAvailableMemoryCapacity() == null) {
+            return;
+        }
+
+        put(new Entry(inv.getUuid(), inv.getHypervisorType(), HostState.valueOf(inv.getState()),
+                HostStatus.valueOf(inv.getStatus()), inv.getAvailableCpuCapacity(), inv.getAvailableMemoryCapacity()));
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return uuids of Enabled and Connected hosts having the cpu and memory; they are not
+     * ranked, ordering them is left to the allocation strategy of the chain
+     */
+    public List<String> findHosts(String hypervisorType, long cpu, long memory) {
+        double maxRatio = ratioMgr.getMemoryGlobalRatio();
+        for (double r : ratioMgr.getAllMemoryRatio().values()) {
+            maxRatio = Math.max(maxRatio, r);
+        }
+
+        // no host with less memory than this can satisfy the request even by the largest over-provisioning ratio
+        long lowest = (long) Math.floor(memory / maxRatio);
+        Entry from = new Entry("", null, null, null, 0, lowest);
+
+        // a host updated while iterating may be seen twice
+        Set<String> ret = new LinkedHashSet<>();
+        for (Entry e : byMemory.tailSet(from, true)) {
+            if (e.state != HostState.Enabled || e.status != HostStatus.Connected) {
+                continue;
+            }
+
+            if (hypervisorType != null && !hypervisorType.equals(e.hypervisorType)) {
+                continue;
+            }
+
+            if (e.availableCpu < cpu || ratioMgr.calculateHostAvailableMemoryByRatio(e.uuid, e.availableMemory) < memory) {
+                continue;
+            }
+
+            ret.add(e.uuid);
+        }
+
+        return new ArrayList<>(ret);
+    }
+
+    @Transactional(readOnly = true)
+    private List<Tuple> loadFromDb() {
+        String sql = "select h.uuid, h.hypervisorType, h.state, h.status, cap.availableCpu, cap.availableMemory" +
+                " from HostVO h, HostCapacityVO cap where h.uuid = cap.uuid";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        return q.getResultList();
+    }
+
+    public void sync() {
+        List<Tuple> ts = loadFromDb();
+        Set<String> uuids = new HashSet<>(ts.size());
+        for (Tuple t : ts) {
+            String uuid = t.get(0, String.class);
+            uuids.add(uuid);
+            put(new Entry(uuid, t.get(1, String.class), t.get(2, HostState.class), t.get(3, HostStatus.class),
+                    t.get(4, Long.class), t.get(5, Long.class)));
+        }
+
+        for (String uuid : new ArrayList<>(entries.keySet())) {
+            if (!uuids.contains(uuid)) {
+                remove(uuid);
+            }
+        }
+
+        loaded = true;
+    }
+
+    private void startSyncThread() {
+        if (syncThread != null) {
+            syncThread.cancel(true);
+        }
+
+        syncThread = thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return HostAllocatorGlobalConfig.CAPACITY_INDEX_SYNC_INTERVAL.longValue();
+            }
+
+            @Override
+            public String getName() {
+                return "host-capacity-index-sync-" + Platform.getManagementServerId();
+            }
+
+            @Override
+            public void run() {
+                try {
+                    sync();
+                } catch (Throwable t) {
+                    logger.warn("unable to sync the host capacity index", t);
+                }
+            }
+        });
+    }
+
+    private void setupCanonicalEvents() {
+        evtf.on(HostCanonicalEvents.HOST_STATUS_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                HostStatusChangedData d = (HostStatusChangedData) data;
+                synchronized (HostCapacityIndex.this) {
+                    Entry old = entries.get(d.getHostUuid());
+                    if (old == null) {
+                        // a new host
+                        updateHost(d.getInventory());
+                        return;
+                    }
+
+                    // keep the capacity we have, it's newer than the one in the event
+                    HostState state = d.getInventory() == null ? old.state : HostState.valueOf(d.getInventory().getState());
+                    put(new Entry(old.uuid, old.hypervisorType, state, HostStatus.valueOf(d.getNewStatus()),
+                            old.availableCpu, old.availableMemory));
+                }
+            }
+        });
+
+        evtf.on(HostCanonicalEvents.HOST_DELETED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                HostDeletedData d = (HostDeletedData) data;
+                remove(d.getHostUuid());
+            }
+        });
+    }
+
+    @Override
+    public boolean start() {
+        sync();
+        setupCanonicalEvents();
+        startSyncThread();
+
+        HostAllocatorGlobalConfig.CAPACITY_INDEX_SYNC_INTERVAL.installUpdateExtension(new GlobalConfigUpdateExtensionPoint() {
+            @Override
+            public void updateGlobalConfig(GlobalConfig oldConfig, GlobalConfig newConfig) {
+                startSyncThread();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (syncThread != null) {
+            syncThread.cancel(true);
+        }
+        return true;
+    }
+}
@@ -67,7 +67,7 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         Map<String, ReservedHostCapacity> result = new HashMap<>();
 
         private void findReservedCapacityByHostTag() {
-            if (!HostAllocatorGlobalConfig.HOST_LEVEL_RESERVE_CAPACITY.value(Boolean.class)) {
+            if (!HostAllocatorGlobalConfig.HOST_LEVEL_RESERVE_CAPACITY.booleanValue()) {
                 return;
             }
 
@@ -87,7 +87,7 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         }
 
         private void findReservedCapacityByClusterTag() {
-            if (!HostAllocatorGlobalConfig.CLUSTER_LEVEL_RESERVE_CAPACITY.value(Boolean.class)) {
+            if (!HostAllocatorGlobalConfig.CLUSTER_LEVEL_RESERVE_CAPACITY.booleanValue()) {
                 return;
             }
 
@@ -139,7 +139,7 @@ public class HostCapacityReserveManagerImpl implements HostCapacityReserveManage
         }
 
         private void findReservedCapacityByZoneTag() {
-            if (!HostAllocatorGlobalConfig.ZONE_LEVEL_RESERVE_CAPACITY.value(Boolean.class)) {
+            if (!HostAllocatorGlobalConfig.ZONE_LEVEL_RESERVE_CAPACITY.booleanValue()) {
                 return;
             }
 
@@ -78,7 +78,7 @@ public class HostCpuOverProvisioningManagerImpl implements HostCpuOverProvisioni
 
     @Override
     public int getGlobalRatio() {
-        return globalRatio == null ? HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.value(Integer.class) : globalRatio;
+        return globalRatio == null ? HostGlobalConfig.HOST_CPU_OVER_PROVISIONING_RATIO.intValue() : globalRatio;
     }
 
     @Override
@@ -22,6 +22,7 @@ import org.zstack.header.allocator.HostAllocatorConstant;
 import org.zstack.header.core.Completion;
 import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.NopeCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
@@ -563,19 +564,37 @@ public abstract class HostBase extends AbstractHost {
     }
 
     private void handle(final PingHostMsg msg) {
+        ping(new ReturnValueCompletion<PingHostReply>(msg) {
+            @Override
+            public void success(PingHostReply reply) {
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                PingHostReply reply = new PingHostReply();
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+    /**
+     * ping the host without a PingHostMsg, it's called by HostManagerImpl for BatchPingHostMsg
+     */
+    void ping(final ReturnValueCompletion<PingHostReply> completion) {
         final PingHostReply reply = new PingHostReply();
         if (self.getStatus() == HostStatus.Connecting) {
-            reply.setError(operr("host is connecting"));
-            bus.reply(msg, reply);
+            completion.fail(operr("host is connecting"));
             return;
         }
 
-        pingHook(new Completion(msg) {
+        pingHook(new Completion(completion) {
             @Override
             public void success() {
                 reply.setConnected(true);
                 reply.setCurrentHostStatus(self.getStatus().toString());
-                bus.reply(msg, reply);
+                completion.success(reply);
 
                 extpEmitter.hostPingTask(HypervisorType.valueOf(self.getHypervisorType()), getSelfInventory());
             }
@@ -594,7 +613,7 @@ public abstract class HostBase extends AbstractHost {
                     new Event().log(HostLogLabel.HOST_STATUS_DISCONNECTED, self.getUuid(), self.getName(), errorCode.toString());
                 }
 
-                bus.reply(msg, reply);
+                completion.success(reply);
             }
         });
     }
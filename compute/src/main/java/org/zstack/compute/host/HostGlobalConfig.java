@@ -21,6 +21,12 @@ public class HostGlobalConfig {
     @GlobalConfigValidation(numberGreaterThan = 0)
     public static GlobalConfig PING_HOST_INTERVAL = new GlobalConfig(CATEGORY, "ping.interval");
     @GlobalConfigValidation
+    public static GlobalConfig PING_HOST_IN_BATCH = new GlobalConfig(CATEGORY, "ping.batch");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PING_HOST_BATCH_SIZE = new GlobalConfig(CATEGORY, "ping.batchSize");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig PING_HOST_TIMEOUT = new GlobalConfig(CATEGORY, "ping.timeout");
+    @GlobalConfigValidation
     public static GlobalConfig IGNORE_ERROR_ON_MAINTENANCE_MODE = new GlobalConfig(CATEGORY, "maintenanceMode.ignoreError");
     @GlobalConfigValidation(numberGreaterThan = 0, numberLessThan = Integer.MAX_VALUE)
     public static GlobalConfig HOST_CPU_OVER_PROVISIONING_RATIO = new GlobalConfig(CATEGORY, "cpu.overProvisioning.ratio");
@@ -3,6 +3,7 @@ package org.zstack.compute.host;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.CoreGlobalProperty;
 import org.zstack.core.Platform;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.*;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfig;
@@ -16,12 +17,15 @@ import org.zstack.core.errorcode.ErrorFacade;
 import org.zstack.core.logging.Log;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.SyncThread;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.header.AbstractService;
 import org.zstack.header.allocator.HostCpuOverProvisioningManager;
 import org.zstack.header.cluster.ClusterVO;
 import org.zstack.header.cluster.ClusterVO_;
 import org.zstack.header.core.Completion;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
@@ -44,6 +48,9 @@ import static org.zstack.core.Platform.operr;
 
 import javax.persistence.Tuple;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class HostManagerImpl extends AbstractService implements HostManager, ManagementNodeChangeListener,
         ManagementNodeReadyExtensionPoint {
@@ -69,6 +76,8 @@ public class HostManagerImpl extends AbstractService implements HostManager, Man
     private TagManager tagMgr;
     @Autowired
     private HostCpuOverProvisioningManager cpuRatioMgr;
+    @Autowired
+    private ThreadFacade thdf;
 
     private Map<Class, HostBaseExtensionFactory> hostBaseExtensionFactories = new HashMap<>();
 
@@ -164,11 +173,105 @@ public class HostManagerImpl extends AbstractService implements HostManager, Man
             passThrough((HostMessage) msg);
         } else if (msg instanceof AddHostMsg){
             handle((AddHostMsg) msg);
+        } else if (msg instanceof BatchPingHostMsg) {
+            handle((BatchPingHostMsg) msg);
         } else {
             bus.dealWithUnknownMessage(msg);
         }
     }
 
+    private void handle(final BatchPingHostMsg msg) {
+        final Map<String, PingHostReply> replies = new ConcurrentHashMap<>();
+
+        SimpleQuery<HostVO> q = dbf.createQuery(HostVO.class);
+        q.add(HostVO_.uuid, Op.IN, msg.getHostUuids());
+        List<HostVO> vos = q.list();
+
+        Set<String> found = new HashSet<>();
+        for (HostVO vo : vos) {
+            found.add(vo.getUuid());
+        }
+        for (String huuid : msg.getHostUuids()) {
+            if (!found.contains(huuid)) {
+                PingHostReply r = new PingHostReply();
+                r.setError(operr("Cannot find host: %s, it may have been deleted", huuid));
+                replies.put(huuid, r);
+            }
+        }
+
+        final BatchPingHostReply reply = new BatchPingHostReply();
+        if (vos.isEmpty()) {
+            reply.setReplies(replies);
+            bus.reply(msg, reply);
+            return;
+        }
+
+        final long timeout = HostGlobalConfig.PING_HOST_TIMEOUT.longValue();
+        new While<>(vos).step((vo, completion) -> {
+            // every host has its own timeout, a slow host doesn't hold the replies of the others
+            final AtomicBoolean replied = new AtomicBoolean(false);
+            final TimeoutTaskReceipt receipt = thdf.submitTimeoutTask(() -> {
+                if (replied.compareAndSet(false, true)) {
+                    PingHostReply r = new PingHostReply();
+                    r.setError(operr("ping host[uuid:%s] timeout after %s seconds", vo.getUuid(), timeout));
+                    replies.put(vo.getUuid(), r);
+                    completion.done();
+                }
+            }, TimeUnit.SECONDS, timeout);
+
+            pingHost(vo, new ReturnValueCompletion<PingHostReply>(completion) {
+                @Override
+                public void success(PingHostReply r) {
+                    if (replied.compareAndSet(false, true)) {
+                        receipt.cancel();
+                        replies.put(vo.getUuid(), r);
+                        completion.done();
+                    }
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    if (replied.compareAndSet(false, true)) {
+                        receipt.cancel();
+                        PingHostReply r = new PingHostReply();
+                        r.setError(errorCode);
+                        replies.put(vo.getUuid(), r);
+                        completion.done();
+                    }
+                }
+            });
+        }, HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class)).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                reply.setReplies(replies);
+                bus.reply(msg, reply);
+            }
+        });
+    }
+
+    private void pingHost(HostVO vo, final ReturnValueCompletion<PingHostReply> completion) {
+        Host host = getHypervisorFactory(HypervisorType.valueOf(vo.getHypervisorType())).getHost(vo);
+        if (host instanceof HostBase) {
+            ((HostBase) host).ping(completion);
+            return;
+        }
+
+        // not a HostBase, ping it by the message
+        PingHostMsg pmsg = new PingHostMsg();
+        pmsg.setHostUuid(vo.getUuid());
+        bus.makeLocalServiceId(pmsg, HostConstant.SERVICE_ID);
+        bus.send(pmsg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply r) {
+                if (r.isSuccess()) {
+                    completion.success(r.castReply());
+                } else {
+                    completion.fail(r.getError());
+                }
+            }
+        });
+    }
+
     private AddHostMsg getAddHostMsg(AddHostMessage msg) {
         if (msg instanceof AddHostMsg) {
             return (AddHostMsg) msg;
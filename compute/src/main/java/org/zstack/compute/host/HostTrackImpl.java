@@ -51,7 +51,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
         @Override
         public long getInterval() {
-            return HostGlobalConfig.PING_HOST_INTERVAL.value(Long.class);
+            return HostGlobalConfig.PING_HOST_INTERVAL.longValue();
         }
 
         @Override
@@ -69,10 +69,10 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
 
             if (!r.isNoReconnect()) {
                 boolean needReconnect = false;
-                if (!r.isConnected() && HostStatus.Connected.toString().equals(r.getCurrentHostStatus()) && HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class)) {
+                if (!r.isConnected() && HostStatus.Connected.toString().equals(r.getCurrentHostStatus()) && HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.booleanValue()) {
                     // cannot ping, but host is in Connected status
                     needReconnect = true;
-                } else if (r.isConnected() && HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.value(Boolean.class) && HostStatus.Disconnected.toString().equals(r.getCurrentHostStatus())) {
+                } else if (r.isConnected() && HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.booleanValue() && HostStatus.Disconnected.toString().equals(r.getCurrentHostStatus())) {
                     // can ping, but host is in Disconnected status
                     needReconnect = true;
                 } else if (!r.isConnected()) {
@@ -103,9 +103,84 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
             }
         }
 
+        private void batchPing(List<String> huuids) {
+            // group the hosts by the management nodes managing them
+            Map<String, List<String>> hostsByNode = new HashMap<String, List<String>>();
+            for (String huuid : huuids) {
+                String nodeUuid = destMaker.makeDestination(huuid);
+                List<String> lst = hostsByNode.get(nodeUuid);
+                if (lst == null) {
+                    lst = new ArrayList<String>();
+                    hostsByNode.put(nodeUuid, lst);
+                }
+                lst.add(huuid);
+            }
+
+            int batchSize = HostGlobalConfig.PING_HOST_BATCH_SIZE.intValue();
+            int parallelism = HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.intValue();
+            long pingTimeout = TimeUnit.SECONDS.toMillis(HostGlobalConfig.PING_HOST_TIMEOUT.longValue());
+            List<BatchPingHostMsg> msgs = new ArrayList<BatchPingHostMsg>();
+            for (Map.Entry<String, List<String>> e : hostsByNode.entrySet()) {
+                List<String> lst = e.getValue();
+                for (int i = 0; i < lst.size(); i += batchSize) {
+                    BatchPingHostMsg msg = new BatchPingHostMsg();
+                    msg.setHostUuids(new ArrayList<String>(lst.subList(i, Math.min(i + batchSize, lst.size()))));
+                    // at most parallelism hosts of a batch are pinged at a time, each bounded by the ping timeout
+                    int rounds = (msg.getHostUuids().size() + parallelism - 1) / parallelism;
+                    msg.setTimeout(pingTimeout * (rounds + 1));
+                    bus.makeServiceIdByManagementNodeId(msg, HostConstant.SERVICE_ID, e.getKey());
+                    msgs.add(msg);
+                }
+            }
+
+            bus.send(msgs, HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.intValue(),
+                    new CloudBusSteppingCallback(null) {
+                @Override
+                public void run(NeedReplyMessage msg, MessageReply reply) {
+                    BatchPingHostMsg bmsg = (BatchPingHostMsg) msg;
+                    try {
+                        if (!reply.isSuccess()) {
+                            for (String huuid : bmsg.getHostUuids()) {
+                                handleReply(huuid, reply);
+                            }
+                            return;
+                        }
+
+                        BatchPingHostReply br = reply.castReply();
+                        for (String huuid : bmsg.getHostUuids()) {
+                            PingHostReply r = br.getReplies().get(huuid);
+                            if (r != null) {
+                                handleReply(huuid, r);
+                            }
+                        }
+                    } finally {
+                        hostInTracking.removeAll(bmsg.getHostUuids());
+                    }
+                }
+            });
+        }
+
         @Override
         public void run() {
             try {
+                if (HostGlobalConfig.PING_HOST_IN_BATCH.booleanValue()) {
+                    List<String> huuids = new ArrayList<String>();
+                    synchronized (hostUuids) {
+                        for (String huuid : hostUuids) {
+                            if (!hostInTracking.contains(huuid)) {
+                                huuids.add(huuid);
+                                hostInTracking.add(huuid);
+                            }
+                        }
+                    }
+
+                    if (!huuids.isEmpty()) {
+                        batchPing(huuids);
+                    }
+
+                    return;
+                }
+
                 List<PingHostMsg> msgs;
                 synchronized (hostUuids) {
                     msgs = new ArrayList<PingHostMsg>();
@@ -126,7 +201,7 @@ public class HostTrackImpl implements HostTracker, ManagementNodeChangeListener,
                     return;
                 }
 
-                bus.send(msgs, HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.value(Integer.class),
+                bus.send(msgs, HostGlobalConfig.HOST_TRACK_PARALLELISM_DEGREE.intValue(),
                         new CloudBusSteppingCallback(null) {
                     @Override
                     public void run(NeedReplyMessage msg, MessageReply reply) {
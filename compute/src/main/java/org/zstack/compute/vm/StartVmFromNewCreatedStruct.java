@@ -2,6 +2,7 @@ package org.zstack.compute.vm;
 
 import org.zstack.header.vm.CreateVmInstanceMsg;
 import org.zstack.header.vm.StartNewCreatedVmInstanceMsg;
+import org.zstack.header.vm.VmPreAllocatedResources;
 
 import java.util.List;
 
@@ -13,6 +14,7 @@ public class StartVmFromNewCreatedStruct {
     private List<String> l3NetworkUuids;
     private String rootDiskOfferingUuid;
     private String primaryStorageUuidForRootVolume;
+    private VmPreAllocatedResources preAllocatedResources;
 
     public static String makeLabelKey(String vmUuid) {
         return String.format("not-start-vm-%s", vmUuid);
@@ -48,6 +50,7 @@ public class StartVmFromNewCreatedStruct {
         struct.setL3NetworkUuids(msg.getL3NetworkUuids());
         struct.setRootDiskOfferingUuid(msg.getRootDiskOfferingUuid());
         struct.setPrimaryStorageUuidForRootVolume(msg.getPrimaryStorageUuidForRootVolume());
+        struct.setPreAllocatedResources(msg.getPreAllocatedResources());
         return struct;
     }
 
@@ -68,4 +71,12 @@ public class StartVmFromNewCreatedStruct {
     public void setPrimaryStorageUuidForRootVolume(String primaryStorageUuidForRootVolume) {
         this.primaryStorageUuidForRootVolume = primaryStorageUuidForRootVolume;
     }
+
+    public VmPreAllocatedResources getPreAllocatedResources() {
+        return preAllocatedResources;
+    }
+
+    public void setPreAllocatedResources(VmPreAllocatedResources preAllocatedResources) {
+        this.preAllocatedResources = preAllocatedResources;
+    }
 }
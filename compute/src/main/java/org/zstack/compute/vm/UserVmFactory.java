@@ -4,6 +4,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.header.vm.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class UserVmFactory implements VmInstanceFactory {
     private static final VmInstanceType type = new VmInstanceType(VmInstanceConstant.USER_VM_TYPE);
     
@@ -22,6 +25,18 @@ public class UserVmFactory implements VmInstanceFactory {
         return vo;
     }
 
+    @Override
+    public List<VmInstanceVO> createVmInstances(List<VmInstanceVO> vos, CreateVmInstanceMsg msg) {
+        List<String> uuids = new ArrayList<>(vos.size());
+        for (VmInstanceVO vo : vos) {
+            vo.setType(type.toString());
+            uuids.add(vo.getUuid());
+        }
+
+        dbf.persistCollection(vos);
+        return dbf.listByPrimaryKeys(uuids, VmInstanceVO.class);
+    }
+
     @Override
     public VmInstance getVmInstance(VmInstanceVO vo) {
         return new VmInstanceBase(vo);
@@ -24,6 +24,7 @@ import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.header.vm.VmInstanceConstant.VmOperation;
 import org.zstack.header.vm.VmInstanceSpec;
 import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.header.vm.VmPreAllocatedResources;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.function.Function;
 
@@ -51,9 +52,7 @@ public class VmAllocateHostFlow implements Flow {
         return size;
     }
 
-    private AllocateHostMsg prepareMsg(Map<String, Object> ctx) {
-        VmInstanceSpec spec = (VmInstanceSpec) ctx.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
-
+    AllocateHostMsg prepareMsg(VmInstanceSpec spec) {
         DesignatedAllocateHostMsg msg = new DesignatedAllocateHostMsg();
 
         List<DiskOfferingInventory> diskOfferings = new ArrayList<>();
@@ -112,7 +111,17 @@ public class VmAllocateHostFlow implements Flow {
             throw new CloudRuntimeException("VmAllocateHostFlow is only for creating new VM");
         }
 
-        AllocateHostMsg msg = this.prepareMsg(data);
+        VmPreAllocatedResources pre = spec.getPreAllocatedResources();
+        if (pre != null && pre.getHost() != null) {
+            // reserved along with the other vms of the batch, it's returned by rollback() from now on
+            spec.setDestHost(pre.getHost());
+            pre.setHost(null);
+            updateVmHost(spec);
+            chain.next();
+            return;
+        }
+
+        AllocateHostMsg msg = this.prepareMsg(spec);
         new Log(spec.getVmInventory().getUuid()).log(VmLabels.VM_START_ALLOCATE_HOST);
 
         bus.send(msg, new CloudBusCallBack(chain) {
@@ -121,16 +130,7 @@ public class VmAllocateHostFlow implements Flow {
                 if (reply.isSuccess()) {
                     AllocateHostReply areply = (AllocateHostReply) reply;
                     spec.setDestHost(areply.getHost());
-
-                    // update the vm's host uuid and hypervisor type so even if the management node died later and the vm's state
-                    // is stuck in Starting, we know which host it's created on and can check its state on the host
-                    VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
-                    vmvo.setClusterUuid(spec.getDestHost().getClusterUuid());
-                    vmvo.setLastHostUuid(vmvo.getHostUuid());
-                    vmvo.setHostUuid(spec.getDestHost().getUuid());
-                    vmvo.setHypervisorType(spec.getDestHost().getHypervisorType());
-                    dbf.update(vmvo);
-
+                    updateVmHost(spec);
                     chain.next();
                 } else {
                     chain.fail(reply.getError());
@@ -139,6 +139,17 @@ public class VmAllocateHostFlow implements Flow {
         });
     }
 
+    // update the vm's host uuid and hypervisor type so even if the management node died later and the vm's state
+    // is stuck in Starting, we know which host it's created on and can check its state on the host
+    private void updateVmHost(VmInstanceSpec spec) {
+        VmInstanceVO vmvo = dbf.findByUuid(spec.getVmInventory().getUuid(), VmInstanceVO.class);
+        vmvo.setClusterUuid(spec.getDestHost().getClusterUuid());
+        vmvo.setLastHostUuid(vmvo.getHostUuid());
+        vmvo.setHostUuid(spec.getDestHost().getUuid());
+        vmvo.setHypervisorType(spec.getDestHost().getHypervisorType());
+        dbf.update(vmvo);
+    }
+
     @Override
     public void rollback(FlowRollback chain, Map data) {
         VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
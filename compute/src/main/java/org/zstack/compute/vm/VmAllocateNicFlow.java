@@ -84,17 +84,71 @@ public class VmAllocateNicFlow implements Flow {
         }
     }
 
+    // the nics are added in the order of the l3 networks, the ips not allocated are skipped
+    private void addNics(VmInstanceSpec spec, UsedIpInventory[] ips, BitSet deviceIdBitmap) {
+        for (UsedIpInventory ip : ips) {
+            if (ip == null) {
+                continue;
+            }
+
+            int deviceId = deviceIdBitmap.nextClearBit(0);
+            deviceIdBitmap.set(deviceId);
+            VmNicInventory nic = new VmNicInventory();
+            nic.setUuid(Platform.getUuid());
+            nic.setIp(ip.getIp());
+            nic.setUsedIpUuid(ip.getUuid());
+            nic.setVmInstanceUuid(spec.getVmInventory().getUuid());
+            nic.setL3NetworkUuid(ip.getL3NetworkUuid());
+            assert nic.getL3NetworkUuid() != null;
+            nic.setMac(NetworkUtils.generateMacWithDeviceId((short) deviceId));
+            nic.setDeviceId(deviceId);
+            nic.setNetmask(ip.getNetmask());
+            nic.setGateway(ip.getGateway());
+            nic.setInternalName(VmNicVO.generateNicInternalName(spec.getVmInventory().getInternalId(), nic.getDeviceId()));
+            spec.getDestNics().add(nic);
+        }
+    }
+
+    private void createNics(VmInstanceSpec spec, UsedIpInventory[] ips, BitSet deviceIdBitmap, ErrorCode err, FlowTrigger trigger) {
+        // the ips allocated are returned by rollback() along with the nics even if some l3 networks failed
+        addNics(spec, ips, deviceIdBitmap);
+
+        if (err != null) {
+            trigger.fail(err);
+            return;
+        }
+
+        persistNicToDb(spec.getDestNics());
+
+        String acntUuid = acntMgr.getOwnerAccountUuidOfResource(spec.getVmInventory().getUuid());
+        for (VmNicInventory nic : spec.getDestNics()) {
+            acntMgr.createAccountResourceRef(acntUuid, nic.getUuid(), VmNicVO.class);
+        }
+
+        trigger.next();
+    }
+
     @Override
     public void run(final FlowTrigger trigger, final Map data) {
         taskProgress("create nics");
 
         final VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
+        VmPreAllocatedResources pre = spec.getPreAllocatedResources();
 
         List<AllocateIpMsg> msgs = new ArrayList<AllocateIpMsg>();
+        final UsedIpInventory[] ips = new UsedIpInventory[spec.getL3Networks().size()];
+        final List<Integer> msgIndexes = new ArrayList<Integer>();
         Map<String, String> vmStaticIps = new StaticIpOperator().getStaticIpbyVmUuid(spec.getVmInventory().getUuid());
-        for (final L3NetworkInventory nw : spec.getL3Networks()) {
-            AllocateIpMsg msg = new AllocateIpMsg();
+        for (int i = 0; i < spec.getL3Networks().size(); i++) {
+            L3NetworkInventory nw = spec.getL3Networks().get(i);
             String staticIp = vmStaticIps.get(nw.getUuid());
+            if (staticIp == null && pre != null && pre.getIps().containsKey(nw.getUuid())) {
+                // allocated along with the other vms of the batch
+                ips[i] = pre.getIps().remove(nw.getUuid());
+                continue;
+            }
+
+            AllocateIpMsg msg = new AllocateIpMsg();
             if (staticIp != null) {
                 msg.setRequiredIp(staticIp);
             }
@@ -103,6 +157,7 @@ public class VmAllocateNicFlow implements Flow {
             msg.setAllocateStrategy(spec.getIpAllocatorStrategy());
             bus.makeTargetServiceIdByResourceUuid(msg, L3NetworkConstant.SERVICE_ID, nw.getUuid());
             msgs.add(msg);
+            msgIndexes.add(i);
         }
 
         // it's unlikely a vm having more than 512 nics
@@ -111,45 +166,26 @@ public class VmAllocateNicFlow implements Flow {
             deviceIdBitmap.set(nic.getDeviceId());
         }
 
+        if (msgs.isEmpty()) {
+            createNics(spec, ips, deviceIdBitmap, null, trigger);
+            return;
+        }
+
         bus.send(msgs, new CloudBusListCallBack(trigger) {
             @Override
             public void run(List<MessageReply> replies) {
                 ErrorCode err = null;
-                for (MessageReply r : replies) {
+                for (int i = 0; i < replies.size(); i++) {
+                    MessageReply r = replies.get(i);
                     if (r.isSuccess()) {
-                        int deviceId = deviceIdBitmap.nextClearBit(0);
-                        deviceIdBitmap.set(deviceId);
                         AllocateIpReply areply = r.castReply();
-                        VmNicInventory nic = new VmNicInventory();
-                        nic.setUuid(Platform.getUuid());
-                        nic.setIp(areply.getIpInventory().getIp());
-                        nic.setUsedIpUuid(areply.getIpInventory().getUuid());
-                        nic.setVmInstanceUuid(spec.getVmInventory().getUuid());
-                        nic.setL3NetworkUuid(areply.getIpInventory().getL3NetworkUuid());
-                        assert nic.getL3NetworkUuid() != null;
-                        nic.setMac(NetworkUtils.generateMacWithDeviceId((short) deviceId));
-                        nic.setDeviceId(deviceId);
-                        nic.setNetmask(areply.getIpInventory().getNetmask());
-                        nic.setGateway(areply.getIpInventory().getGateway());
-                        nic.setInternalName(VmNicVO.generateNicInternalName(spec.getVmInventory().getInternalId(), nic.getDeviceId()));
-                        spec.getDestNics().add(nic);
+                        ips[msgIndexes.get(i)] = areply.getIpInventory();
                     } else {
                         err = r.getError();
                     }
                 }
 
-                if (err != null) {
-                    trigger.fail(err);
-                } else {
-                    persistNicToDb(spec.getDestNics());
-
-                    String acntUuid = acntMgr.getOwnerAccountUuidOfResource(spec.getVmInventory().getUuid());
-                    for (VmNicInventory nic : spec.getDestNics()) {
-                        acntMgr.createAccountResourceRef(acntUuid, nic.getUuid(), VmNicVO.class);
-                    }
-
-                    trigger.next();
-                }
+                createNics(spec, ips, deviceIdBitmap, err, trigger);
             }
         });
     }
@@ -27,6 +27,7 @@ import org.zstack.header.storage.primary.*;
 import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.header.vm.VmInstanceSpec;
 import org.zstack.header.vm.VmInstanceSpec.VolumeSpec;
+import org.zstack.header.vm.VmPreAllocatedResources;
 import org.zstack.utils.DebugUtils;
 
 import java.util.ArrayList;
@@ -49,6 +50,15 @@ public class VmAllocatePrimaryStorageFlow implements Flow {
     public void run(final FlowTrigger trigger, final Map data) {
         final List<AllocatePrimaryStorageMsg> msgs = new ArrayList<>();
         final VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
+        VmPreAllocatedResources pre = spec.getPreAllocatedResources();
+        if (pre != null && !pre.getVolumeSpecs().isEmpty()) {
+            // reserved along with the other vms of the batch on the same host, it's returned by rollback() from now on
+            spec.getVolumeSpecs().addAll(pre.getVolumeSpecs());
+            pre.setVolumeSpecs(new ArrayList<>());
+            trigger.next();
+            return;
+        }
+
         HostInventory destHost = spec.getDestHost();
         final ImageInventory iminv = spec.getImageSpec().getInventory();
 
@@ -0,0 +1,446 @@
+package org.zstack.compute.vm;
+
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.compute.allocator.HostAllocatorManager;
+import org.zstack.compute.allocator.HostCapacityReserveManager;
+import org.zstack.core.asyncbatch.While;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.CloudBusListCallBack;
+import org.zstack.core.componentloader.PluginRegistry;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.allocator.*;
+import org.zstack.header.configuration.DiskOfferingInventory;
+import org.zstack.header.configuration.DiskOfferingVO;
+import org.zstack.header.core.NoErrorCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.image.ImageBackupStorageRefInventory;
+import org.zstack.header.image.ImageConstant.ImageMediaType;
+import org.zstack.header.image.ImageInventory;
+import org.zstack.header.image.ImageVO;
+import org.zstack.header.message.MessageReply;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.storage.backup.BackupStorageVO;
+import org.zstack.header.storage.backup.BackupStorageVO_;
+import org.zstack.header.storage.primary.*;
+import org.zstack.header.vm.*;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
+import org.zstack.header.vm.VmInstanceSpec.VolumeSpec;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * Allocates the host, primary storage and ips of the vms of APICreateVmInstancesMsg together, before
+ * they are started by their own create flow chains:
+ *
+ * 1. the backup storage is selected once
+ * 2. the candidate hosts are found by one dry run of the host allocator, the vms are spread over them
+ *    and the cpu/memory of all vms placed on a host is reserved in one update
+ * 3. the primary storage of the vms on a host is allocated by one AllocatePrimaryStorageMsg for the root
+ *    volumes and one for each data disk offering, unless the primary storage allocation flow is replaced
+ *    for the host, e.g. by local storage
+ * 4. the ips of each l3 network are allocated by one AllocateIpsMsg
+ *
+ * Nothing here fails the vms: a vm left without some resource allocates it in its own flow chain as
+ * usual, e.g. the vms that cannot be placed on the candidates fail there with their own errors.
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
+public class VmBatchAllocator {
+    private static final CLogger logger = Utils.getLogger(VmBatchAllocator.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private PluginRegistry pluginRgty;
+    @Autowired
+    private HostAllocatorManager hostAllocatorMgr;
+    @Autowired
+    private HostCapacityReserveManager reserveMgr;
+    @Autowired
+    private HostCapacityOverProvisioningManager ratioMgr;
+
+    private CreateVmInstanceMsg msg;
+    private List<VmInstanceVO> vms;
+    private VmInstanceSpec spec;
+    // vm uuid -> resources
+    private final Map<String, VmPreAllocatedResources> resources = new HashMap<>();
+    // host uuid -> vms placed on it
+    private final Map<HostInventory, List<VmInstanceVO>> vmsByHost = new LinkedHashMap<>();
+
+    private String selectBackupStorage(ImageInventory image, String zoneUuid) {
+        if (image.getBackupStorageRefs().size() == 1) {
+            return image.getBackupStorageRefs().iterator().next().getBackupStorageUuid();
+        }
+
+        if (zoneUuid == null) {
+            return null;
+        }
+
+        ImageBackupStorageSelector selector = new ImageBackupStorageSelector();
+        selector.setZoneUuid(zoneUuid);
+        selector.setImageUuid(image.getUuid());
+        return selector.select();
+    }
+
+    // the spec of the first vm, used to build the allocation messages shared by the batch
+    private VmInstanceSpec buildSpec() {
+        VmInstanceVO vm = vms.get(0);
+        ImageInventory image = ImageInventory.valueOf(dbf.findByUuid(msg.getImageUuid(), ImageVO.class));
+        String bsUuid = selectBackupStorage(image, vm.getZoneUuid());
+        if (bsUuid == null) {
+            return null;
+        }
+
+        VmInstanceSpec spec = new VmInstanceSpec();
+        spec.setVmInventory(VmInstanceInventory.valueOf(vm));
+        spec.setCurrentVmOperation(VmOperation.NewCreate);
+        spec.getImageSpec().setInventory(image);
+        for (ImageBackupStorageRefInventory ref : image.getBackupStorageRefs()) {
+            if (ref.getBackupStorageUuid().equals(bsUuid)) {
+                spec.getImageSpec().setSelectedBackupStorage(ref);
+            }
+        }
+
+        List<String> l3Uuids = msg.getL3NetworkUuids() == null ? new ArrayList<>() : msg.getL3NetworkUuids();
+        spec.setL3Networks(l3Uuids.isEmpty() ? new ArrayList<>() :
+                L3NetworkInventory.valueOf(dbf.listByPrimaryKeys(l3Uuids, L3NetworkVO.class)));
+
+        List<DiskOfferingInventory> disks = new ArrayList<>();
+        if (msg.getDataDiskOfferingUuids() != null) {
+            for (String duuid : msg.getDataDiskOfferingUuids()) {
+                disks.add(DiskOfferingInventory.valueOf(dbf.findByUuid(duuid, DiskOfferingVO.class)));
+            }
+        }
+        spec.setDataDiskOfferings(disks);
+
+        if (msg.getRootDiskOfferingUuid() != null) {
+            spec.setRootDiskOffering(DiskOfferingInventory.valueOf(dbf.findByUuid(msg.getRootDiskOfferingUuid(), DiskOfferingVO.class)));
+        }
+
+        if (vm.getZoneUuid() != null || vm.getClusterUuid() != null || vm.getHostUuid() != null) {
+            spec.setHostAllocatorStrategy(HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE);
+        }
+
+        return spec;
+    }
+
+    /**
+     * @param completion never fails, it's given the resources allocated for each vm by uuid
+     */
+    public void allocate(CreateVmInstanceMsg msg, List<VmInstanceVO> vms, ReturnValueCompletion<Map<String, VmPreAllocatedResources>> completion) {
+        this.msg = msg;
+        this.vms = vms;
+        spec = vms.isEmpty() ? null : buildSpec();
+        if (spec == null) {
+            completion.success(resources);
+            return;
+        }
+
+        for (VmInstanceVO vm : vms) {
+            VmPreAllocatedResources r = new VmPreAllocatedResources();
+            r.setBackupStorageUuid(spec.getImageSpec().getSelectedBackupStorage().getBackupStorageUuid());
+            resources.put(vm.getUuid(), r);
+        }
+
+        allocateHosts(new NoErrorCompletion(completion) {
+            @Override
+            public void done() {
+                allocatePrimaryStorage(new NoErrorCompletion(completion) {
+                    @Override
+                    public void done() {
+                        allocateIps(new NoErrorCompletion(completion) {
+                            @Override
+                            public void done() {
+                                completion.success(resources);
+                            }
+                        });
+                    }
+                });
+            }
+        });
+    }
+
+    // spreads the vms over the hosts by turns, as far as the capacity of each host goes
+    private Map<HostInventory, Integer> place(List<HostInventory> hosts) {
+        long cpu = spec.getVmInventory().getCpuNum();
+        long memory = spec.getVmInventory().getMemorySize();
+
+        Map<String, HostCapacityVO> caps = new HashMap<>();
+        for (HostCapacityVO cap : dbf.listByPrimaryKeys(hosts.stream().map(HostInventory::getUuid).collect(Collectors.toList()), HostCapacityVO.class)) {
+            caps.put(cap.getUuid(), cap);
+        }
+
+        Map<HostInventory, Integer> fits = new LinkedHashMap<>();
+        for (HostInventory h : hosts) {
+            HostCapacityVO cap = caps.get(h.getUuid());
+            if (cap == null) {
+                continue;
+            }
+
+            ReservedHostCapacity reserved = reserveMgr.getReservedHostCapacityByHosts(list(h.getUuid()));
+            long vmMemory = Math.max(1, ratioMgr.calculateMemoryByRatio(h.getUuid(), memory));
+            long fit = Math.min((cap.getAvailableCpu() - reserved.getReservedCpuCapacity()) / Math.max(1, cpu),
+                    (cap.getAvailableMemory() - reserved.getReservedMemoryCapacity()) / vmMemory);
+            if (fit > 0) {
+                fits.put(h, (int) Math.min(fit, vms.size()));
+            }
+        }
+
+        Map<HostInventory, Integer> placement = new LinkedHashMap<>();
+        int placed = 0;
+        boolean progress = true;
+        while (placed < vms.size() && progress) {
+            progress = false;
+            for (Map.Entry<HostInventory, Integer> e : fits.entrySet()) {
+                if (placed == vms.size()) {
+                    break;
+                }
+
+                int count = placement.getOrDefault(e.getKey(), 0);
+                if (count < e.getValue()) {
+                    placement.put(e.getKey(), count + 1);
+                    placed++;
+                    progress = true;
+                }
+            }
+        }
+
+        return placement;
+    }
+
+    private void allocateHosts(NoErrorCompletion completion) {
+        AllocateHostMsg amsg = new VmAllocateHostFlow().prepareMsg(spec);
+        amsg.setDryRun(true);
+        bus.send(amsg, new CloudBusCallBack(completion) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    logger.debug(String.format("unable to find candidate hosts for the batch of %s vms, they allocate hosts" +
+                            " by themselves, %s", vms.size(), reply.getError()));
+                    completion.done();
+                    return;
+                }
+
+                List<HostInventory> hosts = new ArrayList<>(((AllocateHostDryRunReply) reply).getHosts());
+                Collections.shuffle(hosts);
+
+                Iterator<VmInstanceVO> it = vms.iterator();
+                long cpu = spec.getVmInventory().getCpuNum();
+                long memory = spec.getVmInventory().getMemorySize();
+                for (Map.Entry<HostInventory, Integer> e : place(hosts).entrySet()) {
+                    HostInventory host = e.getKey();
+                    int count = e.getValue();
+                    try {
+                        hostAllocatorMgr.reserveComputeResourceCapacity(host.getUuid(), cpu, memory, count);
+                    } catch (UnableToReserveHostCapacityException ex) {
+                        logger.debug(String.format("unable to reserve capacity for %s vms on the host[uuid:%s], they allocate" +
+                                " hosts by themselves, %s", count, host.getUuid(), ex.getMessage()));
+                        continue;
+                    }
+
+                    List<VmInstanceVO> hvms = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        VmInstanceVO vm = it.next();
+                        resources.get(vm.getUuid()).setHost(host);
+                        hvms.add(vm);
+                    }
+                    vmsByHost.put(host, hvms);
+                }
+
+                completion.done();
+            }
+        });
+    }
+
+    private boolean isPrimaryStorageFlowReplaced(HostInventory host) {
+        spec.setDestHost(host);
+        try {
+            for (MarshalVmOperationFlowExtensionPoint ext : pluginRgty.getExtensionList(MarshalVmOperationFlowExtensionPoint.class)) {
+                if (ext.marshalVmOperationFlow(null, VmAllocatePrimaryStorageFlow.class.getName(), null, spec) != null) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            spec.setDestHost(null);
+        }
+    }
+
+    // the same messages as VmAllocatePrimaryStorageFlow sends, for count vms
+    private List<AllocatePrimaryStorageMsg> makePrimaryStorageMsgs(HostInventory host, int count) {
+        SimpleQuery<BackupStorageVO> q = dbf.createQuery(BackupStorageVO.class);
+        q.select(BackupStorageVO_.type);
+        q.add(BackupStorageVO_.uuid, Op.EQ, spec.getImageSpec().getSelectedBackupStorage().getBackupStorageUuid());
+        String bsType = q.findValue();
+        List<String> primaryStorageTypes = hostAllocatorMgr.getBackupStoragePrimaryStorageMetrics().get(bsType);
+
+        List<AllocatePrimaryStorageMsg> msgs = new ArrayList<>();
+        ImageInventory image = spec.getImageSpec().getInventory();
+        AllocatePrimaryStorageMsg rmsg = new AllocatePrimaryStorageMsg();
+        rmsg.setRequiredPrimaryStorageUuid(msg.getPrimaryStorageUuidForRootVolume());
+        rmsg.setVmInstanceUuid(spec.getVmInventory().getUuid());
+        rmsg.setImageUuid(image.getUuid());
+        rmsg.setRequiredHostUuid(host.getUuid());
+        if (ImageMediaType.ISO.toString().equals(image.getMediaType())) {
+            rmsg.setSize(spec.getRootDiskOffering().getDiskSize() * count);
+            rmsg.setAllocationStrategy(spec.getRootDiskOffering().getAllocatorStrategy());
+            rmsg.setDiskOfferingUuid(spec.getRootDiskOffering().getUuid());
+        } else {
+            rmsg.setSize(image.getSize() * count);
+        }
+        rmsg.setPurpose(PrimaryStorageAllocationPurpose.CreateNewVm.toString());
+        rmsg.setRequiredPrimaryStorageTypes(primaryStorageTypes);
+        bus.makeLocalServiceId(rmsg, PrimaryStorageConstant.SERVICE_ID);
+        msgs.add(rmsg);
+
+        for (DiskOfferingInventory dinv : spec.getDataDiskOfferings()) {
+            AllocatePrimaryStorageMsg amsg = new AllocatePrimaryStorageMsg();
+            amsg.setSize(dinv.getDiskSize() * count);
+            amsg.setRequiredHostUuid(host.getUuid());
+            amsg.setAllocationStrategy(dinv.getAllocatorStrategy());
+            amsg.setDiskOfferingUuid(dinv.getUuid());
+            amsg.setRequiredPrimaryStorageTypes(primaryStorageTypes);
+            bus.makeLocalServiceId(amsg, PrimaryStorageConstant.SERVICE_ID);
+            msgs.add(amsg);
+        }
+
+        return msgs;
+    }
+
+    private void returnPrimaryStorageCapacity(String psUuid, long size) {
+        ReturnPrimaryStorageCapacityMsg rmsg = new ReturnPrimaryStorageCapacityMsg();
+        rmsg.setDiskSize(size);
+        rmsg.setPrimaryStorageUuid(psUuid);
+        bus.makeTargetServiceIdByResourceUuid(rmsg, PrimaryStorageConstant.SERVICE_ID, psUuid);
+        bus.send(rmsg);
+    }
+
+    private void allocatePrimaryStorage(NoErrorCompletion completion) {
+        new While<>(vmsByHost.entrySet()).all((e, wcompletion) -> {
+            HostInventory host = e.getKey();
+            List<VmInstanceVO> hvms = e.getValue();
+            if (isPrimaryStorageFlowReplaced(host)) {
+                wcompletion.done();
+                return;
+            }
+
+            List<AllocatePrimaryStorageMsg> msgs = makePrimaryStorageMsgs(host, hvms.size());
+            bus.send(msgs, new CloudBusListCallBack(wcompletion) {
+                @Override
+                public void run(List<MessageReply> replies) {
+                    boolean success = replies.stream().allMatch(MessageReply::isSuccess);
+                    for (int i = 0; i < replies.size(); i++) {
+                        MessageReply r = replies.get(i);
+                        if (!r.isSuccess()) {
+                            logger.debug(String.format("unable to allocate primary storage for %s vms on the host[uuid:%s]," +
+                                    " they allocate primary storage by themselves, %s", hvms.size(), host.getUuid(), r.getError()));
+                            continue;
+                        }
+
+                        AllocatePrimaryStorageReply ar = r.castReply();
+                        if (!success) {
+                            returnPrimaryStorageCapacity(ar.getPrimaryStorageInventory().getUuid(), ar.getSize());
+                            continue;
+                        }
+
+                        AllocatePrimaryStorageMsg amsg = msgs.get(i);
+                        for (VmInstanceVO vm : hvms) {
+                            VolumeSpec vspec = new VolumeSpec();
+                            vspec.setPrimaryStorageInventory(ar.getPrimaryStorageInventory());
+                            vspec.setSize(amsg.getSize() / hvms.size());
+                            vspec.setRoot(amsg.getImageUuid() != null);
+                            if (!vspec.isRoot()) {
+                                vspec.setDiskOfferingUuid(amsg.getDiskOfferingUuid());
+                            }
+                            resources.get(vm.getUuid()).getVolumeSpecs().add(vspec);
+                        }
+                    }
+
+                    wcompletion.done();
+                }
+            });
+        }).run(completion);
+    }
+
+    private void allocateIps(NoErrorCompletion completion) {
+        // a static ip is allocated by the vm itself
+        Map<String, String> staticIps = new StaticIpOperator().getStaticIpbyVmUuid(spec.getVmInventory().getUuid());
+        Set<String> l3Uuids = new LinkedHashSet<>();
+        for (L3NetworkInventory l3 : spec.getL3Networks()) {
+            if (!staticIps.containsKey(l3.getUuid())) {
+                l3Uuids.add(l3.getUuid());
+            }
+        }
+
+        new While<>(l3Uuids).all((l3Uuid, wcompletion) -> {
+            AllocateIpsMsg amsg = new AllocateIpsMsg();
+            amsg.setL3NetworkUuid(l3Uuid);
+            amsg.setCount(vms.size());
+            amsg.setAllocateStrategy(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+            bus.makeTargetServiceIdByResourceUuid(amsg, L3NetworkConstant.SERVICE_ID, l3Uuid);
+            bus.send(amsg, new CloudBusCallBack(wcompletion) {
+                @Override
+                public void run(MessageReply reply) {
+                    if (!reply.isSuccess()) {
+                        logger.debug(String.format("unable to allocate ips in the l3 network[uuid:%s] for the batch of %s vms," +
+                                " they allocate ips by themselves, %s", l3Uuid, vms.size(), reply.getError()));
+                        wcompletion.done();
+                        return;
+                    }
+
+                    List<UsedIpInventory> ips = ((AllocateIpsReply) reply).getIpInventories();
+                    for (int i = 0; i < ips.size(); i++) {
+                        resources.get(vms.get(i).getUuid()).getIps().put(l3Uuid, ips.get(i));
+                    }
+
+                    wcompletion.done();
+                }
+            });
+        }).run(completion);
+    }
+
+    /**
+     * return the resources of the vm not taken by its create flow chain
+     */
+    public void release(VmInstanceInventory vm, VmPreAllocatedResources res) {
+        if (res == null || res.isEmpty()) {
+            return;
+        }
+
+        if (res.getHost() != null) {
+            ReturnHostCapacityMsg rmsg = new ReturnHostCapacityMsg();
+            rmsg.setCpuCapacity(vm.getCpuNum());
+            rmsg.setMemoryCapacity(vm.getMemorySize());
+            rmsg.setHostUuid(res.getHost().getUuid());
+            rmsg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+            bus.send(rmsg);
+            res.setHost(null);
+        }
+
+        for (VolumeSpec vspec : res.getVolumeSpecs()) {
+            returnPrimaryStorageCapacity(vspec.getPrimaryStorageInventory().getUuid(), vspec.getSize());
+        }
+        res.setVolumeSpecs(new ArrayList<>());
+
+        for (UsedIpInventory ip : res.getIps().values()) {
+            ReturnIpMsg rmsg = new ReturnIpMsg();
+            rmsg.setL3NetworkUuid(ip.getL3NetworkUuid());
+            rmsg.setUsedIpUuid(ip.getUuid());
+            bus.makeTargetServiceIdByResourceUuid(rmsg, L3NetworkConstant.SERVICE_ID, ip.getL3NetworkUuid());
+            bus.send(rmsg);
+        }
+        res.setIps(new HashMap<>());
+    }
+}
@@ -22,4 +22,6 @@ public class VmGlobalConfig {
     public static GlobalConfig VM_CLEAN_TRAFFIC = new GlobalConfig(CATEGORY, "cleanTraffic");
     @GlobalConfigValidation(validValues = {"cirrus","vga", "qxl"})
     public static GlobalConfig VM_VIDEO_TYPE = new GlobalConfig(CATEGORY, "videoType");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig BATCH_CREATE_PARALLELISM = new GlobalConfig(CATEGORY, "batchCreate.parallelismDegree");
 }
@@ -19,6 +19,7 @@ import org.zstack.header.vm.VmInstanceConstant;
 import org.zstack.header.vm.VmInstanceConstant.VmOperation;
 import org.zstack.header.vm.VmInstanceSpec;
 import org.zstack.header.vm.VmInstanceSpec.VolumeSpec;
+import org.zstack.header.vm.VmPreAllocatedResources;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.function.Function;
@@ -120,7 +121,9 @@ public class VmImageSelectBackupStorageFlow extends NoRollbackFlow {
         VmInstanceSpec spec = (VmInstanceSpec) data.get(VmInstanceConstant.Params.VmInstanceSpec.toString());
 
         if (VmOperation.NewCreate == spec.getCurrentVmOperation()) {
-            final String bsUuid = findBackupStorage(spec, spec.getImageSpec().getInventory().getUuid());
+            VmPreAllocatedResources pre = spec.getPreAllocatedResources();
+            final String bsUuid = pre != null && pre.getBackupStorageUuid() != null ? pre.getBackupStorageUuid() :
+                    findBackupStorage(spec, spec.getImageSpec().getInventory().getUuid());
             spec.getImageSpec().setSelectedBackupStorage(CollectionUtils.find(
                     spec.getImageSpec().getInventory().getBackupStorageRefs(),
                     new Function<ImageBackupStorageRefInventory, ImageBackupStorageRefInventory>() {
@@ -67,6 +67,8 @@ public class VmInstanceApiInterceptor implements ApiMessageInterceptor {
     public APIMessage intercept(APIMessage msg) throws ApiMessageInterceptionException {
         if (msg instanceof APIDestroyVmInstanceMsg) {
             validate((APIDestroyVmInstanceMsg) msg);
+        } else if (msg instanceof APICreateVmInstancesMsg) {
+            validate((APICreateVmInstancesMsg) msg);
         } else if (msg instanceof APICreateVmInstanceMsg) {
             validate((APICreateVmInstanceMsg) msg);
         } else if (msg instanceof APIGetVmAttachableDataVolumeMsg) {
@@ -333,6 +335,28 @@ public class VmInstanceApiInterceptor implements ApiMessageInterceptor {
         }
     }
 
+    private void validate(APICreateVmInstancesMsg msg) {
+        if (msg.getResourceUuid() != null) {
+            throw new ApiMessageInterceptionException(argerr("resourceUuid cannot be specified when creating vms in batch"));
+        }
+
+        if (msg.getType() != null && !VmInstanceConstant.USER_VM_TYPE.equals(msg.getType())) {
+            throw new ApiMessageInterceptionException(argerr("only %s can be created in batch, but got %s",
+                    VmInstanceConstant.USER_VM_TYPE, msg.getType()));
+        }
+
+        if (msg.getSystemTags() != null) {
+            for (String sysTag : msg.getSystemTags()) {
+                if (VmSystemTags.HOSTNAME.isMatch(sysTag) || VmSystemTags.STATIC_IP.isMatch(sysTag)) {
+                    throw new ApiMessageInterceptionException(argerr("the system tag[%s] is for a single vm," +
+                            " it cannot be used when creating vms in batch", sysTag));
+                }
+            }
+        }
+
+        validate((APICreateVmInstanceMsg) msg);
+    }
+
     private void validate(APICreateVmInstanceMsg msg) {
         SimpleQuery<InstanceOfferingVO> iq = dbf.createQuery(InstanceOfferingVO.class);
         iq.select(InstanceOfferingVO_.state);
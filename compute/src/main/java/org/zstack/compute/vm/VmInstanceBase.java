@@ -1953,12 +1953,11 @@ public class VmInstanceBase extends AbstractVmInstance {
     protected void startVmFromNewCreate(final StartNewCreatedVmInstanceMsg msg, final SyncTaskChain taskChain) {
         refreshVO();
         ErrorCode error = validateOperationByState(msg, self.getState(), SysErrors.OPERATION_ERROR);
-        if (error != null) {
-            throw new OperationFailureException(error);
+        if (error == null) {
+            error = extEmitter.preStartNewCreatedVm(msg.getVmInstanceInventory());
         }
-
-        error = extEmitter.preStartNewCreatedVm(msg.getVmInstanceInventory());
         if (error != null) {
+            new VmBatchAllocator().release(msg.getVmInstanceInventory(), msg.getPreAllocatedResources());
             throw new OperationFailureException(error);
         }
 
@@ -3800,6 +3799,7 @@ public class VmInstanceBase extends AbstractVmInstance {
 
         spec.getImageSpec().setInventory(ImageInventory.valueOf(imvo));
         spec.setCurrentVmOperation(VmOperation.NewCreate);
+        spec.setPreAllocatedResources(struct.getPreAllocatedResources());
         if (self.getZoneUuid() != null || self.getClusterUuid() != null || self.getHostUuid() != null) {
             spec.setHostAllocatorStrategy(HostAllocatorConstant.DESIGNATED_HOST_ALLOCATOR_STRATEGY_TYPE);
         }
@@ -3844,6 +3844,8 @@ public class VmInstanceBase extends AbstractVmInstance {
                 changeVmStateInDb(VmInstanceStateEvent.running);
                 logger.debug(String.format("vm[uuid:%s] is running ..", self.getUuid()));
                 VmInstanceInventory inv = VmInstanceInventory.valueOf(self);
+                // e.g. ips of l3 networks given static ips
+                new VmBatchAllocator().release(inv, spec.getPreAllocatedResources());
                 extEmitter.afterStartNewCreatedVm(inv);
                 completion.success();
             }
@@ -3851,6 +3853,7 @@ public class VmInstanceBase extends AbstractVmInstance {
             @Override
             public void handle(final ErrorCode errCode, Map data) {
                 extEmitter.failedToStartNewCreatedVm(VmInstanceInventory.valueOf(self), errCode);
+                new VmBatchAllocator().release(VmInstanceInventory.valueOf(self), spec.getPreAllocatedResources());
                 dbf.remove(self);
                 // clean up EO, otherwise API-retry may cause conflict if
                 // the resource uuid is set
@@ -5,6 +5,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
 import org.zstack.compute.allocator.HostAllocatorManager;
 import org.zstack.core.Platform;
+import org.zstack.core.asyncbatch.While;
 import org.zstack.core.cloudbus.*;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.config.GlobalConfig;
@@ -33,6 +34,7 @@ import org.zstack.header.configuration.DiskOfferingInventory;
 import org.zstack.header.configuration.DiskOfferingVO;
 import org.zstack.header.configuration.DiskOfferingVO_;
 import org.zstack.header.configuration.InstanceOfferingVO;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.scheduler.APICreateSchedulerMessage;
 import org.zstack.header.core.workflow.FlowChain;
@@ -86,6 +88,7 @@ import org.zstack.utils.network.NetworkUtils;
 
 import static org.zstack.core.Platform.argerr;
 import static org.zstack.core.Platform.operr;
+import static org.zstack.core.progress.ProgressReportService.taskProgress;
 
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
@@ -93,6 +96,7 @@ import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -205,7 +209,9 @@ public class VmInstanceManagerImpl extends AbstractService implements
     }
 
     private void handleApiMessage(APIMessage msg) {
-        if (msg instanceof APICreateVmInstanceMsg) {
+        if (msg instanceof APICreateVmInstancesMsg) {
+            handle((APICreateVmInstancesMsg) msg);
+        } else if (msg instanceof APICreateVmInstanceMsg) {
             handle((APICreateVmInstanceMsg) msg);
         } else if (msg instanceof APIListVmInstanceMsg) {
             handle((APIListVmInstanceMsg) msg);
@@ -593,35 +599,39 @@ public class VmInstanceManagerImpl extends AbstractService implements
         bus.reply(msg, reply);
     }
 
-    private void doCreateVmInstance(final CreateVmInstanceMsg msg, final APICreateMessage cmsg, ReturnValueCompletion<VmInstanceInventory> completion) {
-        final String instanceOfferingUuid = msg.getInstanceOfferingUuid();
+    private VmInstanceVO newVmInstanceVO(CreateVmInstanceMsg msg, ImagePlatform platform) {
         VmInstanceVO vo = new VmInstanceVO();
-        if (msg.getResourceUuid() != null) {
-            vo.setUuid(msg.getResourceUuid());
-        } else {
-            vo.setUuid(Platform.getUuid());
-        }
+        vo.setUuid(Platform.getUuid());
         vo.setName(msg.getName());
         vo.setClusterUuid(msg.getClusterUuid());
         vo.setDescription(msg.getDescription());
         vo.setHostUuid(msg.getHostUuid());
         vo.setImageUuid(msg.getImageUuid());
-        vo.setInstanceOfferingUuid(instanceOfferingUuid);
+        vo.setInstanceOfferingUuid(msg.getInstanceOfferingUuid());
         vo.setState(VmInstanceState.Created);
         vo.setZoneUuid(msg.getZoneUuid());
-        vo.setInternalId(dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class));
         vo.setDefaultL3NetworkUuid(msg.getDefaultL3NetworkUuid());
-
-        SimpleQuery<ImageVO> imgq = dbf.createQuery(ImageVO.class);
-        imgq.select(ImageVO_.platform);
-        imgq.add(ImageVO_.uuid, Op.EQ, msg.getImageUuid());
-        ImagePlatform platform = imgq.findValue();
         vo.setPlatform(platform.toString());
-
         vo.setCpuNum(msg.getCpuNum());
         vo.setCpuSpeed(msg.getCpuSpeed());
         vo.setMemorySize(msg.getMemorySize());
         vo.setAllocatorStrategy(msg.getAllocatorStrategy());
+        return vo;
+    }
+
+    private ImagePlatform getImagePlatform(String imageUuid) {
+        SimpleQuery<ImageVO> imgq = dbf.createQuery(ImageVO.class);
+        imgq.select(ImageVO_.platform);
+        imgq.add(ImageVO_.uuid, Op.EQ, imageUuid);
+        return imgq.findValue();
+    }
+
+    private void doCreateVmInstance(final CreateVmInstanceMsg msg, final APICreateMessage cmsg, ReturnValueCompletion<VmInstanceInventory> completion) {
+        VmInstanceVO vo = newVmInstanceVO(msg, getImagePlatform(msg.getImageUuid()));
+        if (msg.getResourceUuid() != null) {
+            vo.setUuid(msg.getResourceUuid());
+        }
+        vo.setInternalId(dbf.generateSequenceNumber(VmInstanceSequenceNumberVO.class));
 
         acntMgr.createAccountResourceRef(msg.getAccountUuid(), vo.getUuid(), VmInstanceVO.class);
 
@@ -630,6 +640,12 @@ public class VmInstanceManagerImpl extends AbstractService implements
         VmInstanceFactory factory = getVmInstanceFactory(type);
         vo = factory.createVmInstance(vo, msg);
 
+        createVmTags(msg, cmsg, vo);
+        startCreatedVmInstance(msg, vo, null, completion);
+    }
+
+    private void createVmTags(final CreateVmInstanceMsg msg, final APICreateMessage cmsg, VmInstanceVO vo) {
+        final String instanceOfferingUuid = msg.getInstanceOfferingUuid();
         if (cmsg != null) {
             tagMgr.createTagsFromAPICreateMessage(cmsg, vo.getUuid(), VmInstanceVO.class.getSimpleName());
         }
@@ -649,7 +665,9 @@ public class VmInstanceManagerImpl extends AbstractService implements
                     vo.getUuid(),
                     VmInstanceVO.class.getSimpleName());
         }
+    }
 
+    private void startCreatedVmInstance(final CreateVmInstanceMsg msg, VmInstanceVO vo, VmPreAllocatedResources pre, ReturnValueCompletion<VmInstanceInventory> completion) {
         if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(msg.getStrategy())) {
             VmInstanceInventory inv = VmInstanceInventory.valueOf(vo);
             createVmButNotStart(msg, inv);
@@ -663,6 +681,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
         smsg.setRootDiskOfferingUuid(msg.getRootDiskOfferingUuid());
         smsg.setVmInstanceInventory(VmInstanceInventory.valueOf(vo));
         smsg.setPrimaryStorageUuidForRootVolume(msg.getPrimaryStorageUuidForRootVolume());
+        smsg.setPreAllocatedResources(pre);
         bus.makeTargetServiceIdByResourceUuid(smsg, VmInstanceConstant.SERVICE_ID, vo.getUuid());
         bus.send(smsg, new CloudBusCallBack(smsg) {
             @Override
@@ -751,6 +770,102 @@ public class VmInstanceManagerImpl extends AbstractService implements
         });
     }
 
+    @Transactional
+    private void generateInternalIds(List<VmInstanceVO> vos) {
+        for (VmInstanceVO vo : vos) {
+            VmInstanceSequenceNumberVO seq = new VmInstanceSequenceNumberVO();
+            dbf.getEntityManager().persist(seq);
+            dbf.getEntityManager().flush();
+            vo.setInternalId(seq.getId());
+        }
+    }
+
+    /**
+     * the setup shared by the vms is done once for the batch: the offering and the image are read once,
+     * the internal ids are generated in one transaction and the VmInstanceVOs are inserted together by
+     * the factory. Then VmBatchAllocator allocates the hosts, primary storage and ips of the whole batch
+     * together, each vm's create flow chain takes its part and allocates whatever is missing by itself,
+     * so a failed vm rolls back only what it took and returns the rest
+     */
+    private void handle(final APICreateVmInstancesMsg msg) {
+        final CreateVmInstanceMsg cmsg = fromAPICreateVmInstanceMsg(msg);
+        ImagePlatform platform = getImagePlatform(msg.getImageUuid());
+
+        final List<APICreateVmInstancesEvent.Result> results = new ArrayList<>();
+        final Map<String, APICreateVmInstancesEvent.Result> resultByUuid = new HashMap<>();
+        List<VmInstanceVO> vos = new ArrayList<>();
+        List<AccountResourceRefVO> refs = new ArrayList<>();
+        for (int i = 0; i < msg.getCount(); i++) {
+            VmInstanceVO vo = newVmInstanceVO(cmsg, platform);
+            vo.setName(msg.getVmName(i));
+            vos.add(vo);
+            refs.add(AccountResourceRefVO.newOwn(cmsg.getAccountUuid(), vo.getUuid(), VmInstanceVO.class));
+
+            APICreateVmInstancesEvent.Result r = new APICreateVmInstancesEvent.Result();
+            r.setName(vo.getName());
+            results.add(r);
+            resultByUuid.put(vo.getUuid(), r);
+        }
+
+        generateInternalIds(vos);
+        dbf.persistCollection(refs);
+        String vmType = cmsg.getType() == null ? VmInstanceConstant.USER_VM_TYPE : cmsg.getType();
+        final List<VmInstanceVO> vms = getVmInstanceFactory(VmInstanceType.valueOf(vmType)).createVmInstances(vos, cmsg);
+        for (VmInstanceVO vo : vms) {
+            createVmTags(cmsg, msg, vo);
+        }
+
+        if (VmCreationStrategy.JustCreate == VmCreationStrategy.valueOf(cmsg.getStrategy())) {
+            startCreatedVmInstances(msg, cmsg, vms, new HashMap<>(), results, resultByUuid);
+            return;
+        }
+
+        new VmBatchAllocator().allocate(cmsg, vms, new ReturnValueCompletion<Map<String, VmPreAllocatedResources>>(msg) {
+            @Override
+            public void success(Map<String, VmPreAllocatedResources> resources) {
+                startCreatedVmInstances(msg, cmsg, vms, resources, results, resultByUuid);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                throw new CloudRuntimeException("VmBatchAllocator never fails");
+            }
+        });
+    }
+
+    private void startCreatedVmInstances(final APICreateVmInstancesMsg msg, final CreateVmInstanceMsg cmsg, List<VmInstanceVO> vms,
+                                         Map<String, VmPreAllocatedResources> resources,
+                                         List<APICreateVmInstancesEvent.Result> results,
+                                         Map<String, APICreateVmInstancesEvent.Result> resultByUuid) {
+        // vms are started in parallel, each with its part of the batch allocation
+        AtomicInteger done = new AtomicInteger();
+        new While<>(vms).step((vo, completion) -> {
+            APICreateVmInstancesEvent.Result r = resultByUuid.get(vo.getUuid());
+            startCreatedVmInstance(cmsg, vo, resources.get(vo.getUuid()), new ReturnValueCompletion<VmInstanceInventory>(completion) {
+                @Override
+                public void success(VmInstanceInventory inv) {
+                    r.setInventory(inv);
+                    taskProgress("created the vm[name:%s], %s of %s", r.getName(), done.incrementAndGet(), msg.getCount());
+                    completion.done();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    r.setError(errorCode);
+                    taskProgress("failed to create the vm[name:%s], %s of %s", r.getName(), done.incrementAndGet(), msg.getCount());
+                    completion.done();
+                }
+            });
+        }, VmGlobalConfig.BATCH_CREATE_PARALLELISM.intValue()).run(new NoErrorCompletion(msg) {
+            @Override
+            public void done() {
+                APICreateVmInstancesEvent evt = new APICreateVmInstancesEvent(msg.getId());
+                evt.setResults(results);
+                bus.publish(evt);
+            }
+        });
+    }
+
     @Override
     public String getId() {
         return bus.makeLocalServiceId(VmInstanceConstant.SERVICE_ID);
@@ -1501,15 +1616,16 @@ public class VmInstanceManagerImpl extends AbstractService implements
 
 
                 VmQuotaUtil.VmQuota vmQuotaUsed = new VmQuotaUtil().getUsedVmCpuMemory(currentAccountUuid);
+                long vmNumAsked = msg instanceof APICreateVmInstancesMsg ? ((APICreateVmInstancesMsg) msg).getCount() : 1;
 
-                if (vmQuotaUsed.totalVmNum + 1 > totalVmNumQuota) {
+                if (vmQuotaUsed.totalVmNum + vmNumAsked > totalVmNumQuota) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                             String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                     currentAccountUuid, VmInstanceConstant.QUOTA_VM_TOTAL_NUM, totalVmNumQuota)
                     ));
                 }
 
-                if (vmQuotaUsed.runningVmNum + 1 > runningVmNumQuota) {
+                if (vmQuotaUsed.runningVmNum + vmNumAsked > runningVmNumQuota) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                             String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                     currentAccountUuid, VmInstanceConstant.QUOTA_VM_RUNNING_NUM, runningVmNumQuota)
@@ -1525,14 +1641,14 @@ public class VmInstanceManagerImpl extends AbstractService implements
                 int cpuNumAsked = it.get(0, Integer.class);
                 long memoryAsked = it.get(1, Long.class);
 
-                if (vmQuotaUsed.runningVmCpuNum + cpuNumAsked > runningVmCpuNumQuota) {
+                if (vmQuotaUsed.runningVmCpuNum + cpuNumAsked * vmNumAsked > runningVmCpuNumQuota) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                             String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                     currentAccountUuid, VmInstanceConstant.QUOTA_VM_RUNNING_CPU_NUM, runningVmCpuNumQuota)
                     ));
                 }
 
-                if (vmQuotaUsed.runningVmMemorySize + memoryAsked > runningVmMemorySizeQuota) {
+                if (vmQuotaUsed.runningVmMemorySize + memoryAsked * vmNumAsked > runningVmMemorySizeQuota) {
                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                             String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
                                     currentAccountUuid, VmInstanceConstant.QUOTA_VM_RUNNING_MEMORY_SIZE, runningVmMemorySizeQuota)
@@ -1542,7 +1658,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
                 // check data volume num
                 if (msg.getDataDiskOfferingUuids() != null && !msg.getDataDiskOfferingUuids().isEmpty()) {
                     long dataVolumeNumUsed = new VmQuotaUtil().getUsedDataVolumeCount(currentAccountUuid);
-                    long dataVolumeNumAsked = msg.getDataDiskOfferingUuids().size();
+                    long dataVolumeNumAsked = msg.getDataDiskOfferingUuids().size() * vmNumAsked;
                     if (dataVolumeNumUsed + dataVolumeNumAsked > dataVolumeNumQuota) {
                         throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.QUOTA_EXCEEDING,
                                 String.format("quota exceeding. The account[uuid: %s] exceeds a quota[name: %s, value: %s]",
@@ -1601,7 +1717,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
                     quotaCompareInfo.quotaName = VolumeConstant.QUOTA_VOLUME_SIZE;
                     quotaCompareInfo.quotaValue = allVolumeSizeQuota;
                     quotaCompareInfo.currentUsed = allVolumeSizeUsed;
-                    quotaCompareInfo.request = allVolumeSizeAsked;
+                    quotaCompareInfo.request = allVolumeSizeAsked * vmNumAsked;
                     new QuotaUtil().CheckQuota(quotaCompareInfo);
                 }
             }
@@ -1685,6 +1801,7 @@ public class VmInstanceManagerImpl extends AbstractService implements
         quota.addPair(p);
 
         quota.addMessageNeedValidation(APICreateVmInstanceMsg.class);
+        quota.addMessageNeedValidation(APICreateVmInstancesMsg.class);
         quota.addMessageNeedValidation(APIRecoverVmInstanceMsg.class);
         quota.addMessageNeedValidation(APICreateDataVolumeMsg.class);
         quota.addMessageNeedValidation(APIRecoverDataVolumeMsg.class);
@@ -633,3 +633,7 @@ CREATE TABLE  `zstack`.`NotificationSubscriptionVO` (
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 ALTER TABLE LocalStorageResourceRefVO DROP FOREIGN KEY `fkLocalStorageResourceRefVOHostEO`;
+
+ALTER TABLE `zstack`.`VolumeSnapshotTreeEO` ADD COLUMN `version` bigint unsigned NOT NULL DEFAULT 0;
+DROP VIEW IF EXISTS `zstack`.`VolumeSnapshotTreeVO`;
+CREATE VIEW `zstack`.`VolumeSnapshotTreeVO` AS SELECT uuid, volumeUuid, current, version, createDate, lastOpDate FROM `zstack`.`VolumeSnapshotTreeEO` WHERE deleted IS NULL;
@@ -40,7 +40,7 @@ public class ConsoleProxyAgentTracker extends PingTracker {
 
     @Override
     public int getPingInterval() {
-        return ConsoleGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return ConsoleGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
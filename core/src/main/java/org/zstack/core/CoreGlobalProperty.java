@@ -34,6 +34,12 @@ public class CoreGlobalProperty {
     public static int REST_FACADE_READ_TIMEOUT;
     @GlobalProperty(name = "RESTFacade.connectTimeout", defaultValue = "300000")
     public static int REST_FACADE_CONNECT_TIMEOUT;
+    @GlobalProperty(name = "RESTFacade.nioClient", defaultValue = "false")
+    public static boolean REST_FACADE_NIO_CLIENT;
+    @GlobalProperty(name = "RESTFacade.maxConnectionsPerEndpoint", defaultValue = "8")
+    public static int REST_FACADE_MAX_CONNECTIONS_PER_ENDPOINT;
+    @GlobalProperty(name = "RESTFacade.maxConnections", defaultValue = "4096")
+    public static int REST_FACADE_MAX_CONNECTIONS;
     @GlobalProperty(name = "upgradeStartOn", defaultValue = "false")
     public static boolean IS_UPGRADE_START;
     @GlobalProperty(name = "shadowEntityOn", defaultValue = "false")
@@ -57,7 +57,7 @@ public class While<T> {
     }
 
     public While step(Do<T> consumer, int step) {
-        if (step < 0) {
+        if (step <= 0) {
             throw new IllegalArgumentException(String.format("step must be greater than zero, got %s", step));
         }
 
@@ -83,18 +83,26 @@ public class While<T> {
 
     private void runStep(NoErrorCompletion completion) {
         int s = Math.min(step, items.size());
+        if (s == 0) {
+            completion.done();
+            return;
+        }
 
         Iterator<T> it = items.iterator();
+        // the completion is called when the last worker finds no more items
+        AtomicInteger workers = new AtomicInteger(s);
         for (int i=0; i<s; i++) {
-            runStep(it, completion);
+            runStep(it, workers, completion);
         }
     }
 
-    private void runStep(Iterator<T> it, NoErrorCompletion completion) {
+    private void runStep(Iterator<T> it, AtomicInteger workers, NoErrorCompletion completion) {
         T t;
         synchronized (it) {
             if (!it.hasNext()) {
-                completion.done();
+                if (workers.decrementAndGet() == 0) {
+                    completion.done();
+                }
                 return;
             }
 
@@ -104,7 +112,7 @@ public class While<T> {
         consumer.accept(t, new NoErrorCompletion(completion) {
             @Override
             public void done() {
-                runStep(it, completion);
+                runStep(it, workers, completion);
             }
         });
     }
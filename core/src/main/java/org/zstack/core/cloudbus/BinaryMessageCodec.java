@@ -0,0 +1,420 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.Gson;
+import org.zstack.core.Platform;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+import org.zstack.utils.FieldUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact, schema driven codec.
+ *
+ * The layout is:
+ *
+ * version(byte) | type id(int) | [class name if type id is 0] | field count(short) | fields...
+ *
+ * each field is: field tag(int) | kind(byte) | value
+ *
+ * The type id and the field tag are the hash of the class name and the field name, so
+ * they are stable across management nodes and unknown fields are skipped by the receiver.
+ * Fields of String/primitive/enum types are written natively, other fields(inventories,
+ * collections, maps ...) are written as JSON by the gson of {@link JsonMessageCodec}
+ */
+public class BinaryMessageCodec implements MessageCodec {
+    private static final CLogger logger = Utils.getLogger(BinaryMessageCodec.class);
+
+    public static final String NAME = "binary";
+
+    private static final byte VERSION = 1;
+    private static final int TYPE_BY_NAME = 0;
+
+    private static final byte KIND_STRING = 1;
+    private static final byte KIND_INT = 2;
+    private static final byte KIND_LONG = 3;
+    private static final byte KIND_BOOLEAN = 4;
+    private static final byte KIND_DOUBLE = 5;
+    private static final byte KIND_FLOAT = 6;
+    private static final byte KIND_SHORT = 7;
+    private static final byte KIND_BYTE = 8;
+    private static final byte KIND_ENUM = 9;
+    private static final byte KIND_JSON = 10;
+
+    private final Gson gson;
+    private final Map<Integer, Class> typeTable = new HashMap<>();
+    private final Map<Class, Schema> schemas = new ConcurrentHashMap<>();
+
+    private class FieldAccessor {
+        Field field;
+        int tag;
+        byte kind;
+
+        FieldAccessor(Field f) {
+            field = f;
+            field.setAccessible(true);
+            tag = f.getName().hashCode();
+            kind = kindOf(f.getType());
+        }
+
+        Object get(Message msg) {
+            try {
+                return field.get(msg);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        void set(Message msg, Object value) {
+            try {
+                field.set(msg, value);
+            } catch (IllegalAccessException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
+        void write(DataOutputStream out, Object value) throws IOException {
+            switch (kind) {
+                case KIND_STRING:
+                    writeString(out, (String) value);
+                    break;
+                case KIND_INT:
+                    out.writeInt((Integer) value);
+                    break;
+                case KIND_LONG:
+                    out.writeLong((Long) value);
+                    break;
+                case KIND_BOOLEAN:
+                    out.writeBoolean((Boolean) value);
+                    break;
+                case KIND_DOUBLE:
+                    out.writeDouble((Double) value);
+                    break;
+                case KIND_FLOAT:
+                    out.writeFloat((Float) value);
+                    break;
+                case KIND_SHORT:
+                    out.writeShort((Short) value);
+                    break;
+                case KIND_BYTE:
+                    out.writeByte((Byte) value);
+                    break;
+                case KIND_ENUM:
+                    writeString(out, ((Enum) value).name());
+                    break;
+                default:
+                    writeString(out, gson.toJson(value, field.getType() == Message.class ? Message.class : value.getClass()));
+            }
+        }
+
+        Object read(DataInputStream in, byte k, boolean raw) throws IOException {
+            if (k != kind) {
+                throw new CloudRuntimeException(String.format("field[%s] of %s is encoded as kind[%s] but expected kind[%s]",
+                        field.getName(), field.getDeclaringClass().getName(), k, kind));
+            }
+
+            if (kind == KIND_ENUM) {
+                String name = readString(in);
+                return raw ? name : Enum.valueOf((Class<Enum>) field.getType(), name);
+            } else if (kind == KIND_JSON) {
+                String json = readString(in);
+                return raw ? gson.fromJson(json, Object.class) : gson.fromJson(json, field.getGenericType());
+            } else {
+                return readNative(in, kind);
+            }
+        }
+    }
+
+    private class Schema {
+        Class clazz;
+        Constructor constructor;
+        int typeId;
+        List<FieldAccessor> accessors = new ArrayList<>();
+        Map<Integer, FieldAccessor> accessorsByTag = new HashMap<>();
+        boolean supported = true;
+
+        Schema(Class clazz) {
+            this.clazz = clazz;
+
+            Integer id = clazz.getName().hashCode();
+            typeId = typeTable.get(id) == clazz ? id : TYPE_BY_NAME;
+
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                logger.debug(String.format("%s has no default constructor, it will be encoded by the %s codec",
+                        clazz.getName(), JsonMessageCodec.NAME));
+                supported = false;
+                return;
+            }
+
+            for (Field f : FieldUtils.getAllFields(clazz)) {
+                if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers())
+                        || f.isAnnotationPresent(GsonTransient.class)) {
+                    continue;
+                }
+
+                FieldAccessor accessor = new FieldAccessor(f);
+                if (accessorsByTag.containsKey(accessor.tag)) {
+                    logger.debug(String.format("%s has duplicate field tags, it will be encoded by the %s codec",
+                            clazz.getName(), JsonMessageCodec.NAME));
+                    supported = false;
+                    return;
+                }
+
+                accessors.add(accessor);
+                accessorsByTag.put(accessor.tag, accessor);
+            }
+        }
+
+        Message newInstance() {
+            try {
+                return (Message) constructor.newInstance();
+            } catch (Exception e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+    }
+
+    public BinaryMessageCodec(JsonMessageCodec jsonCodec) {
+        this(jsonCodec, Platform.getReflections().getSubTypesOf(Message.class));
+    }
+
+    public BinaryMessageCodec(JsonMessageCodec jsonCodec, Collection<Class<? extends Message>> messageClasses) {
+        gson = jsonCodec.getGson();
+
+        Set<Integer> collisions = new HashSet<>();
+        for (Class clz : messageClasses) {
+            int id = clz.getName().hashCode();
+            if (id == TYPE_BY_NAME || collisions.contains(id)) {
+                continue;
+            }
+
+            if (typeTable.containsKey(id)) {
+                // two classes share the same type id, both are encoded by name
+                typeTable.remove(id);
+                collisions.add(id);
+                continue;
+            }
+
+            typeTable.put(id, clz);
+        }
+    }
+
+    private static byte kindOf(Class type) {
+        if (type == String.class) {
+            return KIND_STRING;
+        } else if (type == int.class || type == Integer.class) {
+            return KIND_INT;
+        } else if (type == long.class || type == Long.class) {
+            return KIND_LONG;
+        } else if (type == boolean.class || type == Boolean.class) {
+            return KIND_BOOLEAN;
+        } else if (type == double.class || type == Double.class) {
+            return KIND_DOUBLE;
+        } else if (type == float.class || type == Float.class) {
+            return KIND_FLOAT;
+        } else if (type == short.class || type == Short.class) {
+            return KIND_SHORT;
+        } else if (type == byte.class || type == Byte.class) {
+            return KIND_BYTE;
+        } else if (type.isEnum()) {
+            return KIND_ENUM;
+        } else {
+            return KIND_JSON;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static Object readNative(DataInputStream in, byte kind) throws IOException {
+        switch (kind) {
+            case KIND_STRING:
+                return readString(in);
+            case KIND_INT:
+                return in.readInt();
+            case KIND_LONG:
+                return in.readLong();
+            case KIND_BOOLEAN:
+                return in.readBoolean();
+            case KIND_DOUBLE:
+                return in.readDouble();
+            case KIND_FLOAT:
+                return in.readFloat();
+            case KIND_SHORT:
+                return in.readShort();
+            case KIND_BYTE:
+                return in.readByte();
+            case KIND_ENUM:
+            case KIND_JSON:
+                return readString(in);
+            default:
+                throw new CloudRuntimeException(String.format("unknown field kind[%s]", kind));
+        }
+    }
+
+    private Schema getSchema(Class clazz) {
+        Schema schema = schemas.get(clazz);
+        if (schema == null) {
+            schema = new Schema(clazz);
+            schemas.put(clazz, schema);
+        }
+        return schema;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isSupported(Message msg) {
+        return getSchema(msg.getClass()).supported;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        Schema schema = getSchema(msg.getClass());
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(VERSION);
+        out.writeInt(schema.typeId);
+        if (schema.typeId == TYPE_BY_NAME) {
+            writeString(out, schema.clazz.getName());
+        }
+
+        Object[] values = new Object[schema.accessors.size()];
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            values[i] = schema.accessors.get(i).get(msg);
+            if (values[i] != null) {
+                count++;
+            }
+        }
+
+        out.writeShort(count);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                continue;
+            }
+
+            FieldAccessor accessor = schema.accessors.get(i);
+            out.writeInt(accessor.tag);
+            out.writeByte(accessor.kind);
+            accessor.write(out, values[i]);
+        }
+
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    private Schema readSchema(DataInputStream in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new CloudRuntimeException(String.format("unsupported %s codec version[%s]", NAME, version));
+        }
+
+        int typeId = in.readInt();
+        Class clazz;
+        if (typeId == TYPE_BY_NAME) {
+            String className = readString(in);
+            try {
+                clazz = Class.forName(className);
+            } catch (ClassNotFoundException e) {
+                throw new CloudRuntimeException(String.format("unable to decode message class[%s]", className), e);
+            }
+        } else {
+            clazz = typeTable.get(typeId);
+            if (clazz == null) {
+                throw new CloudRuntimeException(String.format("unable to find message class of type id[%s]", typeId));
+            }
+        }
+
+        return getSchema(clazz);
+    }
+
+    private void readFields(DataInputStream in, Schema schema, Message msg, Map raw) throws IOException {
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            int tag = in.readInt();
+            byte kind = in.readByte();
+            FieldAccessor accessor = schema.accessorsByTag.get(tag);
+            if (accessor == null) {
+                // a field unknown to us, probably from a management node of other version
+                readNative(in, kind);
+                continue;
+            }
+
+            if (raw != null) {
+                raw.put(accessor.field.getName(), accessor.read(in, kind, true));
+            } else {
+                accessor.set(msg, accessor.read(in, kind, false));
+            }
+        }
+    }
+
+    @Override
+    public Message decode(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Schema schema = readSchema(in);
+        Message msg = schema.newInstance();
+        readFields(in, schema, msg, null);
+        return msg;
+    }
+
+    @Override
+    public Map toRawObject(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        Schema schema = readSchema(in);
+        Map raw = new LinkedHashMap();
+        readFields(in, schema, null, raw);
+        return raw;
+    }
+
+    @Override
+    public Message decodeForReply(byte[] data) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            Schema schema = readSchema(in);
+            Message msg = schema.newInstance();
+            int count = in.readShort();
+            for (int i = 0; i < count; i++) {
+                int tag = in.readInt();
+                byte kind = in.readByte();
+                FieldAccessor accessor = schema.accessorsByTag.get(tag);
+                if (accessor != null && accessor.field.getDeclaringClass() == Message.class
+                        && ("id".equals(accessor.field.getName()) || "headers".equals(accessor.field.getName()))) {
+                    accessor.set(msg, accessor.read(in, kind, false));
+                } else {
+                    // other fields are skipped, they may be the ones failing the decoding
+                    readNative(in, kind);
+                }
+            }
+
+            return msg.getId() == null ? null : msg;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
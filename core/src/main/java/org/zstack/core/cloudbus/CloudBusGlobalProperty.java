@@ -37,8 +37,12 @@ public class CloudBusGlobalProperty {
     public static int RABBITMQ_NETWORK_RECOVER_INTERVAL;
     @GlobalProperty(name="CloudBus.compressNonApiMessage", defaultValue = "false")
     public static boolean COMPRESS_NON_API_MESSAGE;
+    @GlobalProperty(name="CloudBus.messageCodec", defaultValue = "json")
+    public static String MESSAGE_CODEC;
     @GlobalProperty(name="CloudBus.channelPoolSize", defaultValue = "100")
     public static int CHANNEL_POOL_SIZE;
     @GlobalProperty(name="CloudBus.messageTTL", defaultValue = "300")
     public static int MESSAGE_TTL;
+    @GlobalProperty(name="CloudBus.resourceDestinationCacheSize", defaultValue = "100000")
+    public static int RESOURCE_DESTINATION_CACHE_SIZE;
 }
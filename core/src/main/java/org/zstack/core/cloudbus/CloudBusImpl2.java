@@ -1,6 +1,5 @@
 package org.zstack.core.cloudbus;
 
-import com.google.gson.*;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.impl.recovery.AutorecoveringConnection;
 import com.rabbitmq.client.impl.recovery.RecoveryAwareAMQConnection;
@@ -32,8 +31,6 @@ import org.zstack.header.search.APISearchMessage;
 import org.zstack.header.search.APISearchReply;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
-import org.zstack.utils.gson.GsonTypeCoder;
-import org.zstack.utils.gson.GsonUtil;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 import static org.zstack.core.Platform.*;
@@ -108,6 +105,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     private final String TASK_CONTEXT = "task-context";
 
     private final String AMQP_PROPERTY_HEADER__COMPRESSED = "compressed";
+    private final String AMQP_PROPERTY_HEADER__CODEC = "codec";
 
     private String SERVICE_ID = makeLocalServiceId("cloudbus");
 
@@ -375,7 +373,7 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
     };
 
 
-    private class Wire implements GsonTypeCoder<Message> {
+    private class Wire {
         private List<String> filterMsgNames = new ArrayList<String>();
 
         {
@@ -387,19 +385,48 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private final Gson gson = new GsonUtil().setCoder(Message.class, this).setExclusionStrategies(new ExclusionStrategy[]{
-                new ExclusionStrategy() {
-                    @Override
-                    public boolean shouldSkipField(FieldAttributes fieldAttributes) {
-                        return fieldAttributes.getAnnotation(GsonTransient.class) != null;
-                    }
+        private final JsonMessageCodec jsonCodec = new JsonMessageCodec();
+        private final Map<String, MessageCodec> codecs = new HashMap<String, MessageCodec>();
+        private MessageCodec defaultCodec = jsonCodec;
 
-                    @Override
-                    public boolean shouldSkipClass(Class<?> aClass) {
-                        return false;
+        {
+            codecs.put(jsonCodec.getName(), jsonCodec);
+            if (BinaryMessageCodec.NAME.equals(CloudBusGlobalProperty.MESSAGE_CODEC)) {
+                MessageCodec binaryCodec = new BinaryMessageCodec(jsonCodec);
+                codecs.put(binaryCodec.getName(), binaryCodec);
+                defaultCodec = binaryCodec;
+            } else if (!JsonMessageCodec.NAME.equals(CloudBusGlobalProperty.MESSAGE_CODEC)) {
+                throw new CloudRuntimeException(String.format("unknown message codec[%s], CloudBus.messageCodec can only be %s or %s",
+                        CloudBusGlobalProperty.MESSAGE_CODEC, JsonMessageCodec.NAME, BinaryMessageCodec.NAME));
+            }
+        }
+
+        private MessageCodec getCodec(AMQP.BasicProperties basicProperties) {
+            Map<String, Object> headers = basicProperties.getHeaders();
+            Object name = headers == null ? null : headers.get(AMQP_PROPERTY_HEADER__CODEC);
+            if (name == null) {
+                // messages from the management nodes not knowing codecs are always JSON
+                return jsonCodec;
+            }
+
+            MessageCodec codec = codecs.get(name.toString());
+            if (codec == null && BinaryMessageCodec.NAME.equals(name.toString())) {
+                // we can always decode a binary message even if we are not sending them
+                synchronized (codecs) {
+                    codec = codecs.get(name.toString());
+                    if (codec == null) {
+                        codec = new BinaryMessageCodec(jsonCodec);
+                        codecs.put(codec.getName(), codec);
                     }
                 }
-        }).create();
+            }
+
+            if (codec == null) {
+                throw new CloudRuntimeException(String.format("unknown message codec[%s]", name));
+            }
+
+            return codec;
+        }
 
         private class RecoverableSend {
             Channel chan;
@@ -436,12 +463,17 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
 
             private byte[] compressMessageIfNeeded(Message msg) throws IOException {
+                MessageCodec codec = defaultCodec.isSupported(msg) ? defaultCodec : jsonCodec;
+                if (codec != jsonCodec) {
+                    msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__CODEC, codec.getName());
+                }
+
                 if (!CloudBusGlobalProperty.COMPRESS_NON_API_MESSAGE || msg instanceof APIEvent || msg instanceof APIMessage) {
-                    return gson.toJson(msg, Message.class).getBytes();
+                    return codec.encode(msg);
                 }
 
                 msg.getAMQPHeaders().put(AMQP_PROPERTY_HEADER__COMPRESSED, "true");
-                return Compresser.deflate(gson.toJson(msg, Message.class).getBytes());
+                return Compresser.deflate(codec.encode(msg));
             }
 
             private boolean recoverSend() throws IOException {
@@ -484,27 +516,6 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        @Override
-        public Message deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
-            JsonObject jObj = jsonElement.getAsJsonObject();
-            Map.Entry<String, JsonElement> entry = jObj.entrySet().iterator().next();
-            String className = entry.getKey();
-            Class<?> clazz;
-            try {
-                clazz = Class.forName(className);
-            } catch (ClassNotFoundException e) {
-                throw new JsonParseException(String.format("Unable to deserialize class[%s]", className), e);
-            }
-            return (Message) gson.fromJson(entry.getValue(), clazz);
-        }
-
-        @Override
-        public JsonElement serialize(Message message, Type type, JsonSerializationContext jsonSerializationContext) {
-            JsonObject jObj = new JsonObject();
-            jObj.add(message.getClass().getName(), gson.toJsonTree(message));
-            return jObj;
-        }
-
         public void send(Message msg) {
             // for unit test finding invocation chain
             MessageCommandRecorder.record(msg.getClass());
@@ -608,14 +619,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private void restoreFromSchema(Message msg, byte[] binary) throws ClassNotFoundException {
+        private void restoreFromSchema(Message msg, MessageCodec codec, byte[] binary) throws ClassNotFoundException, IOException {
             Map<String, String> schema = msg.getHeaderEntry("schema");
-            if (schema == null) {
+            if (schema == null || schema.isEmpty()) {
                 return;
             }
 
-            Map raw = JSONObjectUtil.toObject(new String(binary), LinkedHashMap.class);
-            raw = (Map) raw.values().iterator().next();
+            Map raw = codec.toRawObject(binary);
             List<String> paths = new ArrayList<>();
             paths.addAll(schema.keySet());
             //paths.sort(Comparator.reverseOrder());
@@ -633,32 +643,18 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             }
         }
 
-        private void tryBestToReplyError(byte[] binary, String errMsg) {
-            // try best to reply an error message to invalid JSON formed message
-            String msgStr = new String(binary);
-            try {
-                Map msgObj = JSONObjectUtil.toObject(msgStr, HashMap.class);
-                if (msgObj.size() != 1) {
-                    return;
-                }
-
-                Map msg = (Map) msgObj.values().iterator().next();
-                if (!msg.containsKey("id")) {
-                    return;
-                }
-                Map headers = (Map) msg.get("headers");
-                if (headers == null) {
-                    return;
-                }
+        private void tryBestToReplyError(MessageCodec codec, byte[] data, String errMsg) {
+            // try best to reply an error to the sender of a message failing to decode, otherwise it waits until timeout
+            Message msg = codec.decodeForReply(data);
+            if (msg == null || !(msg instanceof APIMessage) && msg.getHeaderEntry(REPLY_TO) == null) {
+                logger.warn(String.format("unable to reply an error to the sender of a message failing to decode by the %s codec", codec.getName()));
+                return;
+            }
 
-                String msgName = (String) msgObj.keySet().iterator().next();
-                Class msgClass = Class.forName(msgName);
-                Message msgInstance = (Message) msgClass.newInstance();
-                msgInstance.setHeaders(headers);
-                msgInstance.setId((String) msg.get("id"));
-                replyErrorByMessageType(msgInstance, argerr("message is not in corrected JSON mediaType, %s", errMsg));
+            try {
+                replyErrorByMessageType(msg, argerr("message cannot be decoded by the %s codec, %s", codec.getName(), errMsg));
             } catch (Exception e) {
-                logger.warn(String.format("unable to handle JsonSyntaxException of message: %s", msgStr), e);
+                logger.warn(String.format("unable to reply an error to the message[%s, id:%s] failing to decode", msg.getClass().getName(), msg.getId()), e);
             }
         }
 
@@ -667,19 +663,21 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
             StopWatch watch = new StopWatch();
             watch.start();
             */
+            MessageCodec codec = null;
+            byte[] data = null;
             try {
-                byte[] data;
                 if (basicProperties.getHeaders() != null && basicProperties.getHeaders().containsKey(AMQP_PROPERTY_HEADER__COMPRESSED)) {
                     data = Compresser.inflate(binary);
                 } else {
                     data = binary;
                 }
 
-                Message msg = gson.fromJson(new String(data), Message.class);
+                codec = getCodec(basicProperties);
+                Message msg = codec.decode(data);
                 msg.setAMQPProperties(basicProperties);
 
                 try {
-                    restoreFromSchema(msg, data);
+                    restoreFromSchema(msg, codec, data);
                 } catch (Exception e) {
                     logger.warn(String.format("error to restore the msg:\n%s", JSONObjectUtil.toJsonString(msg)), e);
                     throw new CloudRuntimeException(e);
@@ -692,15 +690,21 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
                 return msg;
             } catch (RuntimeException je) {
                 logger.warn(je.getMessage(), je);
-                tryBestToReplyError(binary, je.getMessage());
+                if (codec != null) {
+                    tryBestToReplyError(codec, data, je.getMessage());
+                }
                 throw je;
             } catch (IOException e) {
+                logger.warn(e.getMessage(), e);
+                if (codec != null) {
+                    tryBestToReplyError(codec, data, e.getMessage());
+                }
                 throw new CloudRuntimeException(e);
             }
         }
 
         public String dumpMessage(Message msg) {
-            return gson.toJson(msg, Message.class);
+            return jsonCodec.toJsonString(msg);
         }
     }
 
@@ -827,13 +831,13 @@ public class CloudBusImpl2 implements CloudBus, CloudBusIN, ManagementNodeChange
         long startTime;
 
         {
-            if (CloudBusGlobalConfig.STATISTICS_ON.value(Boolean.class)) {
+            if (CloudBusGlobalConfig.STATISTICS_ON.booleanValue()) {
                 startTime = System.currentTimeMillis();
             }
         }
 
         void count(Message msg) {
-            if (!CloudBusGlobalConfig.STATISTICS_ON.value(Boolean.class)) {
+            if (!CloudBusGlobalConfig.STATISTICS_ON.booleanValue()) {
                 return;
             }
 
@@ -21,18 +21,19 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
 
     private final Map<String, CallbackWrapper> global = Collections.synchronizedMap(new HashMap<>());
     private final Map<String, CallbackWrapper> local =  Collections.synchronizedMap(new HashMap<>());
+    private final EventPathTrie<CallbackWrapper> globalRouter = new EventPathTrie<>();
+    private final EventPathTrie<CallbackWrapper> localRouter = new EventPathTrie<>();
 
     private EventSubscriberReceipt unsubscriber;
 
     private class CallbackWrapper {
         String path;
-        String glob;
         AbstractEventFacadeCallback callback;
         AtomicBoolean hasRun;
+        EventPathTrie<CallbackWrapper>.Subscription subscription;
 
         CallbackWrapper(String path, AbstractEventFacadeCallback callback) {
             this.path = path;
-            this.glob = createRegexFromGlob(path.replaceAll("\\{.*\\}", ".*"));
             this.callback = callback;
             if (callback instanceof AutoOffEventCallback) {
                 hasRun = new AtomicBoolean(false);
@@ -43,16 +44,11 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
             return callback;
         }
 
-        public String getGlob() {
-            return glob;
-        }
-
         @AsyncThread
-        void call(CanonicalEvent e) {
+        void call(CanonicalEvent e, Map<String, String> tokens) {
             if (callback instanceof EventRunnable) {
                 ((EventRunnable) callback).run();
             } else {
-                Map<String, String> tokens = tokenize(e.getPath(), path);
                 tokens.put(EventFacade.META_DATA_MANAGEMENT_NODE_ID, e.getManagementNodeId());
                 tokens.put(EventFacade.META_DATA_PATH, e.getPath());
                 Object data = null;
@@ -79,82 +75,68 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
     }
 
-    public String createRegexFromGlob(String glob) {
-        String out = "^";
-        for(int i = 0; i < glob.length(); ++i) {
-            final char c = glob.charAt(i);
-            switch(c) {
-                case '*': out += ".*"; break;
-                case '?': out += '.'; break;
-                case '\\': out += "\\\\"; break;
-                default: out += c;
+    private void subscribe(Map<String, CallbackWrapper> wrappers, EventPathTrie<CallbackWrapper> router,
+                           String path, AbstractEventFacadeCallback cb) {
+        CallbackWrapper w = new CallbackWrapper(path, cb);
+        synchronized (wrappers) {
+            CallbackWrapper old = wrappers.put(cb.uniqueIdentity, w);
+            if (old != null) {
+                router.remove(old.subscription);
             }
+            w.subscription = router.add(path, w);
         }
-        out += '$';
-        return out;
     }
 
-    private Map<String, String> tokenize(String str1, String str2) {
-        StringTokenizer token = new StringTokenizer(str1, "/");
-        List<String> origins =  new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            origins.add(token.nextToken());
-        }
-
-        token = new StringTokenizer(str2, "/");
-        List<String> t = new ArrayList<String>();
-        while (token.hasMoreElements()) {
-            t.add(token.nextToken());
-        }
-
-        Map ret = new HashMap();
-        for (int i=0;i<t.size(); i++) {
-            String key = t.get(i);
-            if (!key.startsWith("{") || !key.endsWith("}")) {
-                continue;
+    private void unsubscribe(Map<String, CallbackWrapper> wrappers, EventPathTrie<CallbackWrapper> router,
+                             AbstractEventFacadeCallback cb) {
+        synchronized (wrappers) {
+            CallbackWrapper w = wrappers.remove(cb.uniqueIdentity);
+            if (w != null) {
+                router.remove(w.subscription);
             }
-
-            key = key.replaceAll("\\{", "").replaceAll("\\}", "");
-            ret.put(key, origins.get(i));
         }
+    }
 
-        return ret;
+    private void dispatch(EventPathTrie<CallbackWrapper> router, CanonicalEvent cevt) {
+        for (EventPathTrie.Match<CallbackWrapper> m : router.match(cevt.getPath())) {
+            m.getValue().call(cevt, m.getTokens());
+        }
     }
 
     @Override
     public void on(String path, AutoOffEventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalRouter, path, cb);
     }
 
     @Override
     public void on(String path, final EventCallback cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalRouter, path, cb);
     }
 
     @Override
     public void on(String path, EventRunnable cb) {
-        global.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(global, globalRouter, path, cb);
     }
 
     @Override
     public void off(AbstractEventFacadeCallback cb) {
-        global.remove(cb.uniqueIdentity);
-        local.remove(cb.uniqueIdentity);
+        unsubscribe(global, globalRouter, cb);
+        unsubscribe(local, localRouter, cb);
     }
 
     @Override
     public void onLocal(String path, AutoOffEventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localRouter, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventCallback cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localRouter, path, cb);
     }
 
     @Override
     public void onLocal(String path, EventRunnable cb) {
-        local.put(cb.uniqueIdentity, new CallbackWrapper(path, cb));
+        subscribe(local, localRouter, path, cb);
     }
 
     @Override
@@ -179,14 +161,7 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
     }
 
     private void fireLocal(CanonicalEvent cevt) {
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(local);
-
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
-        }
+        dispatch(localRouter, cevt);
     }
 
     @Override
@@ -201,13 +176,7 @@ public class EventFacadeImpl implements EventFacade, CloudBusEventListener, Comp
         }
 
         CanonicalEvent cevt = (CanonicalEvent)evt;
-        Map<String, CallbackWrapper> wrappers = new HashMap<>();
-        wrappers.putAll(global);
-        for (CallbackWrapper w : wrappers.values()) {
-            if (cevt.getPath().matches(w.getGlob())) {
-                w.call(cevt);
-            }
-        }
+        dispatch(globalRouter, cevt);
 
         return false;
     }
@@ -0,0 +1,237 @@
+package org.zstack.core.cloudbus;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * Routes canonical event paths to subscribers in O(path depth).
+ *
+ * A subscription path is split by '/' and compiled when it's added, every segment is one of:
+ * 1. a literal, matched by a hash lookup
+ * 2. {token}, matches any single segment, which is captured as the token
+ * 3. *, matches one or more segments
+ * 4. a glob containing '*' or '?', matched by a precompiled pattern. As the regex matching of whole
+ * paths used before, '*' and '?' in a glob match '/' too, e.g. /vm/sta* matches /vm/state/change
+ *
+ * Tokens are taken from the segments of the event path by their positions, so the event
+ * path is split only once.
+ */
+public class EventPathTrie<T> {
+    private static final String MULTI_SEGMENTS = "*";
+
+    private class Node {
+        final Node parent;
+        final String segment;
+        final Map<String, Node> literals = new HashMap<String, Node>();
+        final Map<String, Node> globs = new HashMap<String, Node>();
+        Pattern pattern;
+        Node token;
+        Node multi;
+        final List<Subscription> subscriptions = new ArrayList<Subscription>();
+
+        Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        boolean isEmpty() {
+            return subscriptions.isEmpty() && literals.isEmpty() && globs.isEmpty() && token == null && multi == null;
+        }
+    }
+
+    public class Subscription {
+        private final T value;
+        private final Node node;
+        // token name of each segment, null for segments not capturing a token
+        private final String[] tokenNames;
+
+        private Subscription(T value, Node node, String[] tokenNames) {
+            this.value = value;
+            this.node = node;
+            this.tokenNames = tokenNames;
+        }
+
+        public T getValue() {
+            return value;
+        }
+    }
+
+    public static class Match<T> {
+        private final T value;
+        private final Map<String, String> tokens;
+
+        Match(T value, Map<String, String> tokens) {
+            this.value = value;
+            this.tokens = tokens;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public Map<String, String> getTokens() {
+            return tokens;
+        }
+    }
+
+    private final Node root = new Node(null, null);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private static String[] split(String path) {
+        return path.split("/", -1);
+    }
+
+    private static boolean isToken(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    private static Pattern compileGlob(String glob) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : glob.split("((?<=[*?])|(?=[*?]))")) {
+            if (s.equals("*")) {
+                sb.append(".*");
+            } else if (s.equals("?")) {
+                sb.append('.');
+            } else if (!s.isEmpty()) {
+                sb.append(Pattern.quote(s));
+            }
+        }
+        return Pattern.compile(sb.toString());
+    }
+
+    public Subscription add(String path, T value) {
+        String[] segments = split(path);
+        String[] tokenNames = new String[segments.length];
+
+        lock.writeLock().lock();
+        try {
+            Node n = root;
+            for (int i = 0; i < segments.length; i++) {
+                String seg = segments[i];
+                if (isToken(seg)) {
+                    tokenNames[i] = seg.substring(1, seg.length() - 1);
+                    if (n.token == null) {
+                        n.token = new Node(n, seg);
+                    }
+                    n = n.token;
+                } else if (seg.equals(MULTI_SEGMENTS)) {
+                    if (n.multi == null) {
+                        n.multi = new Node(n, seg);
+                    }
+                    n = n.multi;
+                } else if (seg.contains("*") || seg.contains("?")) {
+                    Node c = n.globs.get(seg);
+                    if (c == null) {
+                        c = new Node(n, seg);
+                        c.pattern = compileGlob(seg);
+                        n.globs.put(seg, c);
+                    }
+                    n = c;
+                } else {
+                    Node c = n.literals.get(seg);
+                    if (c == null) {
+                        c = new Node(n, seg);
+                        n.literals.put(seg, c);
+                    }
+                    n = c;
+                }
+            }
+
+            Subscription s = new Subscription(value, n, tokenNames);
+            n.subscriptions.add(s);
+            return s;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Subscription s) {
+        lock.writeLock().lock();
+        try {
+            Node n = s.node;
+            n.subscriptions.remove(s);
+
+            // prune the branch nobody subscribes to
+            while (n.parent != null && n.isEmpty()) {
+                Node p = n.parent;
+                if (p.token == n) {
+                    p.token = null;
+                } else if (p.multi == n) {
+                    p.multi = null;
+                } else if (n.pattern != null) {
+                    p.globs.remove(n.segment);
+                } else {
+                    p.literals.remove(n.segment);
+                }
+                n = p;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<Match<T>> match(String path) {
+        String[] segments = split(path);
+        // a subscription may be reached more than once through '*'
+        Set<Subscription> found = new LinkedHashSet<Subscription>();
+
+        lock.readLock().lock();
+        try {
+            match(root, segments, 0, found);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        List<Match<T>> ret = new ArrayList<Match<T>>(found.size());
+        for (Subscription s : found) {
+            Map<String, String> tokens = new HashMap<String, String>();
+            for (int i = 0; i < s.tokenNames.length; i++) {
+                if (s.tokenNames[i] != null) {
+                    tokens.put(s.tokenNames[i], segments[i]);
+                }
+            }
+            ret.add(new Match<T>(s.value, tokens));
+        }
+
+        return ret;
+    }
+
+    private void match(Node n, String[] segments, int index, Set<Subscription> found) {
+        if (index == segments.length) {
+            found.addAll(n.subscriptions);
+            return;
+        }
+
+        String seg = segments[index];
+        Node c = n.literals.get(seg);
+        if (c != null) {
+            match(c, segments, index + 1, found);
+        }
+
+        for (Node g : n.globs.values()) {
+            // a glob may span several segments of the event path
+            StringBuilder sb = new StringBuilder();
+            for (int i = index; i < segments.length; i++) {
+                if (i > index) {
+                    sb.append('/');
+                }
+                sb.append(segments[i]);
+                if (g.pattern.matcher(sb).matches()) {
+                    match(g, segments, i + 1, found);
+                }
+            }
+        }
+
+        if (n.token != null) {
+            match(n.token, segments, index + 1, found);
+        }
+
+        if (n.multi != null) {
+            for (int i = index + 1; i <= segments.length; i++) {
+                match(n.multi, segments, i, found);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.zstack.core.cloudbus;
+
+import com.google.gson.*;
+import org.zstack.header.message.GsonTransient;
+import org.zstack.header.message.Message;
+import org.zstack.utils.gson.GsonTypeCoder;
+import org.zstack.utils.gson.GsonUtil;
+import org.zstack.utils.gson.JSONObjectUtil;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The default codec, a message is encoded as {"className": {fields...}}
+ */
+public class JsonMessageCodec implements MessageCodec, GsonTypeCoder<Message> {
+    public static final String NAME = "json";
+
+    private final Gson gson = new GsonUtil().setCoder(Message.class, this).setExclusionStrategies(new ExclusionStrategy[]{
+            new ExclusionStrategy() {
+                @Override
+                public boolean shouldSkipField(FieldAttributes fieldAttributes) {
+                    return fieldAttributes.getAnnotation(GsonTransient.class) != null;
+                }
+
+                @Override
+                public boolean shouldSkipClass(Class<?> aClass) {
+                    return false;
+                }
+            }
+    }).create();
+
+    public Gson getGson() {
+        return gson;
+    }
+
+    @Override
+    public Message deserialize(JsonElement jsonElement, Type type, JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
+        JsonObject jObj = jsonElement.getAsJsonObject();
+        Map.Entry<String, JsonElement> entry = jObj.entrySet().iterator().next();
+        String className = entry.getKey();
+        Class<?> clazz;
+        try {
+            clazz = Class.forName(className);
+        } catch (ClassNotFoundException e) {
+            throw new JsonParseException(String.format("Unable to deserialize class[%s]", className), e);
+        }
+        return (Message) gson.fromJson(entry.getValue(), clazz);
+    }
+
+    @Override
+    public JsonElement serialize(Message message, Type type, JsonSerializationContext jsonSerializationContext) {
+        JsonObject jObj = new JsonObject();
+        jObj.add(message.getClass().getName(), gson.toJsonTree(message));
+        return jObj;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isSupported(Message msg) {
+        return true;
+    }
+
+    @Override
+    public byte[] encode(Message msg) {
+        return gson.toJson(msg, Message.class).getBytes();
+    }
+
+    @Override
+    public Message decode(byte[] data) {
+        return gson.fromJson(new String(data), Message.class);
+    }
+
+    @Override
+    public Map toRawObject(byte[] data) {
+        Map raw = JSONObjectUtil.toObject(new String(data), LinkedHashMap.class);
+        return (Map) raw.values().iterator().next();
+    }
+
+    @Override
+    public Message decodeForReply(byte[] data) {
+        try {
+            Map msgObj = JSONObjectUtil.toObject(new String(data), HashMap.class);
+            if (msgObj.size() != 1) {
+                return null;
+            }
+
+            Map msg = (Map) msgObj.values().iterator().next();
+            Map headers = (Map) msg.get("headers");
+            if (!msg.containsKey("id") || headers == null) {
+                return null;
+            }
+
+            Class msgClass = Class.forName((String) msgObj.keySet().iterator().next());
+            Message msgInstance = (Message) msgClass.newInstance();
+            msgInstance.setHeaders(headers);
+            msgInstance.setId((String) msg.get("id"));
+            return msgInstance;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    public String toJsonString(Message msg) {
+        return gson.toJson(msg, Message.class);
+    }
+}
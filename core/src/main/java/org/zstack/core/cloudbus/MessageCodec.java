@@ -0,0 +1,35 @@
+package org.zstack.core.cloudbus;
+
+import org.zstack.header.message.Message;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes/decodes a message to/from the AMQP body. The codec used for a message
+ * is carried in the AMQP header, so the receiver always picks the right one.
+ */
+public interface MessageCodec {
+    String getName();
+
+    boolean isSupported(Message msg);
+
+    byte[] encode(Message msg) throws IOException;
+
+    Message decode(byte[] data) throws IOException;
+
+    /**
+     * the message as a map keyed by field name, it's used to restore the
+     * polymorphic fields recorded in the message schema
+     */
+    Map toRawObject(byte[] data) throws IOException;
+
+    /**
+     * best effort to read the class, id and headers of a message failing to decode,
+     * so an error can be replied to its sender
+     *
+     * @return an empty message of the class with only the id and headers set, or null
+     * if they can't be read
+     */
+    Message decodeForReply(byte[] data);
+}
@@ -22,7 +22,8 @@ import java.util.List;
  * To change this template use File | Settings | File Templates.
  */
 public class ResourceDestinationMakerImpl implements ManagementNodeChangeListener, ResourceDestinationMaker {
-    private ConsistentHash<String> nodeHash = new ConsistentHash<String>(new ApacheHash(), 500, new ArrayList<String>()) ;
+    private ConsistentHash<String> nodeHash = new ConsistentHash<String>(new ApacheHash(), 500, new ArrayList<String>(),
+            CloudBusGlobalProperty.RESOURCE_DESTINATION_CACHE_SIZE);
 
     @Autowired
     private DatabaseFacade dbf;
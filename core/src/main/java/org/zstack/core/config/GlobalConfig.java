@@ -38,12 +38,61 @@ public class GlobalConfig {
     private String validatorRegularExpression;
     private String defaultValue;
     private volatile String value;
+    private transient volatile TypedValue typedValue;
     private boolean linked;
     private transient List<GlobalConfigUpdateExtensionPoint> updateExtensions = new ArrayList<GlobalConfigUpdateExtensionPoint>();
     private transient List<GlobalConfigValidatorExtensionPoint> validators = new ArrayList<GlobalConfigValidatorExtensionPoint>();
     private transient List<GlobalConfigUpdateExtensionPoint> localUpdateExtensions = new ArrayList<GlobalConfigUpdateExtensionPoint>();
     private GlobalConfigDef configDef;
 
+    /**
+     * the value pre-parsed into the types it's commonly read as. It's swapped as a whole when the
+     * value changes, so reading a config on a hot path is a volatile read without parsing
+     */
+    private static class TypedValue {
+        final String raw;
+        final Integer intValue;
+        final Long longValue;
+        final Double doubleValue;
+        final Boolean booleanValue;
+
+        TypedValue(String raw) {
+            this.raw = raw;
+            intValue = parse(raw, Integer.class);
+            longValue = parse(raw, Long.class);
+            doubleValue = parse(raw, Double.class);
+            booleanValue = Boolean.valueOf(raw);
+        }
+
+        private static <T> T parse(String raw, Class<T> clz) {
+            if (raw == null) {
+                return null;
+            }
+
+            try {
+                return TypeUtils.stringToValue(raw, clz);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        Object get(Class clz) {
+            if (clz == Integer.class || clz == Integer.TYPE) {
+                return intValue;
+            } else if (clz == Long.class || clz == Long.TYPE) {
+                return longValue;
+            } else if (clz == Boolean.class || clz == Boolean.TYPE) {
+                return booleanValue;
+            } else if (clz == Double.class || clz == Double.TYPE) {
+                return doubleValue;
+            } else if (clz == String.class) {
+                return raw;
+            } else {
+                return null;
+            }
+        }
+    }
+
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
@@ -151,10 +200,49 @@ public class GlobalConfig {
 
     void setValue(String value) {
         this.value = value;
+        typedValue = new TypedValue(value);
+    }
+
+    private TypedValue typedValue() {
+        TypedValue t = typedValue;
+        String v = value;
+        // the value may be set without setValue(), e.g. by deserializing
+        if (t == null || t.raw != v) {
+            t = new TypedValue(v);
+            typedValue = t;
+        }
+        return t;
     }
 
     public <T> T value(Class<T> clz) {
-        return TypeUtils.stringToValue(value, clz);
+        TypedValue t = typedValue();
+        Object v = t.get(clz);
+        if (v != null) {
+            return (T) v;
+        }
+
+        // not a pre-parsed type, or a value the type cannot parse; leave it to TypeUtils
+        // which returns null or throws as it always did
+        return TypeUtils.stringToValue(t.raw, clz);
+    }
+
+    public int intValue() {
+        TypedValue t = typedValue();
+        return t.intValue != null ? t.intValue : Integer.valueOf(t.raw);
+    }
+
+    public long longValue() {
+        TypedValue t = typedValue();
+        return t.longValue != null ? t.longValue : Long.valueOf(t.raw);
+    }
+
+    public double doubleValue() {
+        TypedValue t = typedValue();
+        return t.doubleValue != null ? t.doubleValue : Double.valueOf(t.raw);
+    }
+
+    public boolean booleanValue() {
+        return typedValue().booleanValue;
     }
 
     public static GlobalConfig valueOf(GlobalConfigVO vo) {
@@ -247,7 +335,7 @@ public class GlobalConfig {
         GlobalConfigVO vo = q.find();
         final GlobalConfig origin = valueOf(vo);
 
-        value = newValue;
+        setValue(newValue);
 
         if (localUpdate) {
             vo.setValue(newValue);
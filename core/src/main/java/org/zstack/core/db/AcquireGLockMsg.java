@@ -0,0 +1,47 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * sent to the management node owning the lock in the hash ring, or the one still serving it
+ * after the ring changes
+ */
+public class AcquireGLockMsg extends NeedReplyMessage {
+    private String name;
+    private long lockTimeout;
+    private String holderNodeUuid;
+    // how many times the message has been forwarded between management nodes
+    private int hops;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getLockTimeout() {
+        return lockTimeout;
+    }
+
+    public void setLockTimeout(long lockTimeout) {
+        this.lockTimeout = lockTimeout;
+    }
+
+    public String getHolderNodeUuid() {
+        return holderNodeUuid;
+    }
+
+    public void setHolderNodeUuid(String holderNodeUuid) {
+        this.holderNodeUuid = holderNodeUuid;
+    }
+
+    public int getHops() {
+        return hops;
+    }
+
+    public void setHops(int hops) {
+        this.hops = hops;
+    }
+}
@@ -0,0 +1,27 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.MessageReply;
+
+/**
+ */
+public class AcquireGLockReply extends MessageReply {
+    private long fencingToken;
+    // the management node granting the lock, the lock must be released there
+    private String ownerNodeUuid;
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    public String getOwnerNodeUuid() {
+        return ownerNodeUuid;
+    }
+
+    public void setOwnerNodeUuid(String ownerNodeUuid) {
+        this.ownerNodeUuid = ownerNodeUuid;
+    }
+}
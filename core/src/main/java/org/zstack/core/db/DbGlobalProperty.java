@@ -9,4 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class DbGlobalProperty {
     @GlobalProperty(name="entityPackages", defaultValue = "org.zstack")
     public static String ENTITY_PACKAGES;
+    @GlobalProperty(name="GLock.service", defaultValue = "mysql")
+    public static String GLOCK_SERVICE;
+    @GlobalProperty(name="GLock.leaseTimeout", defaultValue = "600")
+    public static long GLOCK_LEASE_TIMEOUT;
+    @GlobalProperty(name="GLock.mysqlLockNames")
+    public static String GLOCK_MYSQL_LOCK_NAMES;
 }
@@ -8,11 +8,6 @@ import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
-import javax.sql.DataSource;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -27,8 +22,7 @@ public class GLock {
 
     private static final Map<String, ReentrantLock> memLocks = new HashMap<String, ReentrantLock>();
 
-    private DataSource dataSource;
-    private Connection conn;
+    private GLockLease lease;
     private final String name;
     private final long timeout;
     private boolean success = false;
@@ -43,12 +37,18 @@ public class GLock {
     private boolean separateThreadEnabled;
 
     @Autowired
-    private DatabaseFacade dbf;
+    private GLockService lockService;
 
     public GLock(String name, long timeout) {
         this.name = name;
         this.timeout = timeout;
-        dataSource = dbf.getDataSource();
+    }
+
+    /**
+     * @return the fencing token of the lock, only valid after lock() succeeds
+     */
+    public long getFencingToken() {
+        return lease == null ? 0 : lease.getFencingToken();
     }
 
     public boolean isSeparateThreadEnabled() {
@@ -105,43 +105,9 @@ public class GLock {
                 }
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                conn = dataSource.getConnection();
-                conn.setAutoCommit(true);
-                pstmt = conn.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    String err = "Unable to get DB lock: " + name + ", internal database error happened";
-                    throw new CloudRuntimeException(err);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
-            }
+            lease = lockService.lock(name, timeout);
             success = true;
         } catch (Throwable t) {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-            }
-
             if (separateThreadEnabled) {
                 mlock.unlock();
             }
@@ -186,37 +152,7 @@ public class GLock {
                 logger.trace(String.format("[GLock]: thread[%s] is releasing lock[%s]", Thread.currentThread().getName(), name));
             }
 
-            PreparedStatement pstmt = null;
-            try {
-                pstmt = conn.prepareStatement(String.format("select release_lock('%s')", name));
-                ResultSet rs = pstmt.executeQuery();
-                if (rs == null) {
-                    throw new CloudRuntimeException("Mysql cannot find lock: " + name);
-                } else if (rs.first() && rs.getInt(1) == 0) {
-                    String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
-                    throw new CloudRuntimeException(err);
-                }
-
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
-                }
-            } catch (SQLException e) {
-                throw new CloudRuntimeException("Unable to release lock: " + name, e);
-            } finally {
-                if (pstmt != null) {
-                    try {
-                        pstmt.close();
-                    } catch (SQLException e) {
-                        logger.warn("Unable to close PreparedStatement for lock: " + name, e);
-                    }
-                }
-
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    logger.warn(e.getMessage(), e);
-                }
-            }
+            lockService.unlock(lease);
         } finally {
             if (separateThreadEnabled) {
                 if (lock != null) {
@@ -0,0 +1,13 @@
+package org.zstack.core.db;
+
+/**
+ */
+public interface GLockConstant {
+    String SERVICE_ID = "glock";
+
+    String MYSQL_LOCK_SERVICE = "mysql";
+    String DISTRIBUTED_LOCK_SERVICE = "distributed";
+
+    // locks taken before the management node joins the hash ring, they are always MySQL locks
+    String BOOT_LOCK_NAMES = "ManagementNodeManager.inventory_lock,GlobalFacade.lock,JobQueueFacade.lock,JobQueueFacade.orphanJobLock,org.zstack.core.jsonlabel.JsonLabel";
+}
@@ -0,0 +1,56 @@
+package org.zstack.core.db;
+
+import java.sql.Connection;
+import java.util.concurrent.Future;
+
+/**
+ * A granted global lock.
+ *
+ * The fencing token increases every time a lock is granted, a resource protected by the lock
+ * can reject writes carrying a token smaller than the last one it has seen, which protects it
+ * from a holder whose lease has expired.
+ *
+ * The lease of a distributed lock is renewed while the lock is held, a lease that can't be renewed is
+ * lost, see isLost().
+ */
+public class GLockLease {
+    private final String name;
+    private final long fencingToken;
+    // the management node owning the lock, null for MySQL locks
+    private final String ownerNodeUuid;
+    // the connection holding a MySQL lock
+    Connection connection;
+    // the task renewing the lease of a distributed lock while it's held
+    Future<Void> renewTask;
+    private volatile boolean lost;
+
+    public GLockLease(String name, long fencingToken, String ownerNodeUuid) {
+        this.name = name;
+        this.fencingToken = fencingToken;
+        this.ownerNodeUuid = ownerNodeUuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public String getOwnerNodeUuid() {
+        return ownerNodeUuid;
+    }
+
+    /**
+     * @return true if the lease of a distributed lock couldn't be renewed, the lock may have been
+     * granted to others since then
+     */
+    public boolean isLost() {
+        return lost;
+    }
+
+    void setLost(boolean lost) {
+        this.lost = lost;
+    }
+}
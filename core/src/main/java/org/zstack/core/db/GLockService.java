@@ -0,0 +1,15 @@
+package org.zstack.core.db;
+
+/**
+ * The service behind GLock that actually owns global locks.
+ *
+ * lock() blocks until the lock is acquired or throws CloudRuntimeException when timeout, a distributed
+ * lock can't be taken in a thread of the thread pool.
+ *
+ * unlock() throws CloudRuntimeException if the lease of the lock was lost while it was held
+ */
+public interface GLockService {
+    GLockLease lock(String name, long timeoutInSeconds);
+
+    void unlock(GLockLease lease);
+}
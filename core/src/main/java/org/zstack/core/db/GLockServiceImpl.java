@@ -0,0 +1,812 @@
+package org.zstack.core.db;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.CloudBusCallBack;
+import org.zstack.core.cloudbus.MessageSafe;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.header.AbstractService;
+import org.zstack.header.core.FutureReturnValueCompletion;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.MessageReply;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zstack.core.Platform.operr;
+
+/**
+ * The GLockService used by GLock.
+ *
+ * With GLock.service = mysql(the default), every lock is a MySQL get_lock().
+ *
+ * With GLock.service = distributed, a lock is owned by the management node that the lock name
+ * is mapped to by the ResourceDestinationMaker hash ring; the owner keeps locks in memory and
+ * grants them to holders(local threads or AcquireGLockMsg from other nodes) in FIFO order.
+ * A granted lock carries a lease, the owner frees the lock if the holder doesn't renew
+ * it in GLock.leaseTimeout seconds, or the holder's management node leaves. The holder's node
+ * renews the lease every third of GLock.leaseTimeout until the lock is released; if a renewal is
+ * refused or can't reach the owner, the lease is lost and unlock() fails the holder. Every grant
+ * gets a new fencing token, the owner only renews or releases a lock for its current token.
+ *
+ * A distributed lock() parks the calling thread until the owner grants the lock, which takes
+ * threads of the pool to deliver messages and fire timeouts, so it must not be called from a
+ * thread of the pool; it throws CloudRuntimeException there. Locks taken in the pool must be
+ * listed in GLock.mysqlLockNames.
+ *
+ * When a management node joins the ring, a lock held or waited for on its old owner is fenced:
+ * the old owner keeps serving it and tells the new owner with a HandOffGLockMsg, the new owner
+ * forwards requests of the lock to the old owner until an UnfenceGLockMsg confirms nobody holds
+ * or waits for it there. A joining management node grants no lock until every other node in the
+ * ring has sent it the HandOffGLockMsg. Locks owned by a management node that dies are lost with
+ * it, the fencing token is the protection for that case.
+ *
+ * The backend of a lock only depends on its name: names in GLock.mysqlLockNames and the locks
+ * taken before the management node joins the ring(GLockConstant.BOOT_LOCK_NAMES) are always
+ * MySQL locks, others are always distributed locks and wait for this node to join the ring.
+ */
+public class GLockServiceImpl extends AbstractService implements GLockService, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(GLockServiceImpl.class);
+
+    // an AcquireGLockMsg forwarded more times means the management nodes don't agree on the owner
+    private static final int MAX_FORWARD_HOPS = 3;
+
+    @Autowired
+    private CloudBus bus;
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ErrorFacade errf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    private MysqlGLockService mysqlLockService;
+    private boolean distributed;
+    private Set<String> mysqlLockNames = new HashSet<String>();
+
+    // all fields below are guarded by locks
+    private final Map<String, LockEntry> locks = new HashMap<String, LockEntry>();
+    // locks served by us though the ring maps them to other nodes, lock name -> the owner in the ring
+    private final Map<String, String> fencedOut = new HashMap<String, String>();
+    // locks mapped to us but still served by other nodes, lock name -> fence
+    private final Map<String, Fence> fencedIn = new HashMap<String, Fence>();
+    // the nodes that haven't sent us HandOffGLockMsg since we joined the ring
+    private final Set<String> handOffPendingNodes = new HashSet<String>();
+    // requests waiting for us to join the ring or for HandOffGLockMsg
+    private final List<AcquireRequest> waitingForRing = new LinkedList<AcquireRequest>();
+
+    // tokens start from the boot time so a new owner of a lock is unlikely to hand out smaller ones
+    private final AtomicLong tokenSeed = new AtomicLong(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+
+    private class AcquireRequest {
+        String name;
+        long timeout;
+        String holderNodeUuid;
+        int hops;
+        ReturnValueCompletion<GLockLease> completion;
+        TimeoutTaskReceipt timeoutTask;
+    }
+
+    private class Fence {
+        String servingNodeUuid;
+        boolean unfencing;
+        List<AcquireRequest> queued = new ArrayList<AcquireRequest>();
+    }
+
+    private class Waiter {
+        String holderNodeUuid;
+        ReturnValueCompletion<Long> completion;
+        TimeoutTaskReceipt timeoutTask;
+    }
+
+    private class LockEntry {
+        String name;
+        long token;
+        String holderNodeUuid;
+        TimeoutTaskReceipt leaseTask;
+        LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    }
+
+    public GLockServiceImpl() {
+        distributed = GLockConstant.DISTRIBUTED_LOCK_SERVICE.equals(DbGlobalProperty.GLOCK_SERVICE);
+        if (!distributed && !GLockConstant.MYSQL_LOCK_SERVICE.equals(DbGlobalProperty.GLOCK_SERVICE)) {
+            throw new CloudRuntimeException(String.format("unknown GLock.service[%s], it can only be %s or %s",
+                    DbGlobalProperty.GLOCK_SERVICE, GLockConstant.MYSQL_LOCK_SERVICE, GLockConstant.DISTRIBUTED_LOCK_SERVICE));
+        }
+
+        mysqlLockNames.addAll(Arrays.asList(GLockConstant.BOOT_LOCK_NAMES.split(",")));
+        if (DbGlobalProperty.GLOCK_MYSQL_LOCK_NAMES != null) {
+            for (String name : DbGlobalProperty.GLOCK_MYSQL_LOCK_NAMES.split(",")) {
+                mysqlLockNames.add(name.trim());
+            }
+        }
+    }
+
+    // GLock may be used by other components' init() before this bean is initialized
+    private synchronized MysqlGLockService getMysqlLockService() {
+        if (mysqlLockService == null) {
+            mysqlLockService = new MysqlGLockService(dbf.getDataSource());
+        }
+
+        return mysqlLockService;
+    }
+
+    private boolean useMysqlLock(String name) {
+        return !distributed || mysqlLockNames.contains(name);
+    }
+
+    @Override
+    public GLockLease lock(String name, long timeout) {
+        if (useMysqlLock(name)) {
+            return getMysqlLockService().lock(name, timeout);
+        }
+
+        if (ThreadFacadeImpl.isPoolThread()) {
+            throw new CloudRuntimeException(String.format("lock[%s] is a distributed lock, it can't be taken in the thread[%s]" +
+                    " of the thread pool, add it to GLock.mysqlLockNames", name, Thread.currentThread().getName()));
+        }
+
+        FutureReturnValueCompletion completion = new FutureReturnValueCompletion(null);
+        AcquireRequest req = new AcquireRequest();
+        req.name = name;
+        req.timeout = timeout;
+        req.holderNodeUuid = Platform.getManagementServerId();
+        req.completion = completion;
+        dispatch(req);
+
+        completion.await(TimeUnit.SECONDS.toMillis(timeout) + TimeUnit.SECONDS.toMillis(30));
+        if (!completion.isSuccess()) {
+            throw new CloudRuntimeException(String.format("lock[%s] failed, %s", name, completion.getErrorCode()));
+        }
+
+        GLockLease lease = completion.getResult();
+        startRenewing(lease);
+        return lease;
+    }
+
+    private void startRenewing(final GLockLease lease) {
+        final long interval = Math.max(1, DbGlobalProperty.GLOCK_LEASE_TIMEOUT / 3);
+        lease.renewTask = thdf.submitCancelablePeriodicTask(new CancelablePeriodicTask() {
+            @Override
+            public boolean run() {
+                renew(lease);
+                return lease.isLost();
+            }
+
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return interval;
+            }
+
+            @Override
+            public String getName() {
+                return String.format("renew-lease-of-glock-%s", lease.getName());
+            }
+        }, interval);
+    }
+
+    private void leaseLost(GLockLease lease, String reason) {
+        if (lease.renewTask.isCancelled()) {
+            // released meanwhile
+            return;
+        }
+
+        lease.setLost(true);
+        logger.warn(String.format("the lease of lock[%s, token:%s] served by management node[uuid:%s] is lost, %s",
+                lease.getName(), lease.getFencingToken(), lease.getOwnerNodeUuid(), reason));
+    }
+
+    private void renew(final GLockLease lease) {
+        if (lease.getOwnerNodeUuid().equals(Platform.getManagementServerId())) {
+            if (!renew(lease.getName(), lease.getFencingToken())) {
+                leaseLost(lease, "it has expired");
+            }
+            return;
+        }
+
+        RenewGLockMsg msg = new RenewGLockMsg();
+        msg.setName(lease.getName());
+        msg.setFencingToken(lease.getFencingToken());
+        bus.makeServiceIdByManagementNodeId(msg, GLockConstant.SERVICE_ID, lease.getOwnerNodeUuid());
+        bus.send(msg, new CloudBusCallBack(null) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    leaseLost(lease, reply.getError().toString());
+                }
+            }
+        });
+    }
+
+    @Override
+    public void unlock(GLockLease lease) {
+        if (lease.getOwnerNodeUuid() == null) {
+            getMysqlLockService().unlock(lease);
+            return;
+        }
+
+        lease.renewTask.cancel(false);
+        if (lease.isLost()) {
+            throw new CloudRuntimeException(String.format("the lease of lock[%s, token:%s] was lost while it was held," +
+                    " the work done under the lock may have not been exclusive", lease.getName(), lease.getFencingToken()));
+        }
+
+        if (lease.getOwnerNodeUuid().equals(Platform.getManagementServerId())) {
+            release(lease.getName(), lease.getFencingToken());
+            return;
+        }
+
+        ReleaseGLockMsg msg = new ReleaseGLockMsg();
+        msg.setName(lease.getName());
+        msg.setFencingToken(lease.getFencingToken());
+        bus.makeServiceIdByManagementNodeId(msg, GLockConstant.SERVICE_ID, lease.getOwnerNodeUuid());
+        MessageReply reply = bus.call(msg);
+        if (!reply.isSuccess()) {
+            // the owner frees the lock when the lease expires anyway
+            logger.warn(String.format("unable to release lock[%s] on management node[uuid:%s], %s",
+                    lease.getName(), lease.getOwnerNodeUuid(), reply.getError()));
+        }
+    }
+
+    // must be called with locks held
+    private boolean isReady() {
+        return handOffPendingNodes.isEmpty() && destMaker.getManagementNodesInHashRing().contains(Platform.getManagementServerId());
+    }
+
+    private void dispatch(final AcquireRequest req) {
+        Runnable action;
+        synchronized (locks) {
+            if (locks.containsKey(req.name) || fencedOut.containsKey(req.name)) {
+                action = serve(req);
+            } else if (fencedIn.containsKey(req.name)) {
+                final Fence fence = fencedIn.get(req.name);
+                fence.queued.add(req);
+                if (fence.unfencing) {
+                    action = null;
+                } else {
+                    fence.unfencing = true;
+                    action = new Runnable() {
+                        @Override
+                        public void run() {
+                            unfence(req.name, fence);
+                        }
+                    };
+                }
+            } else if (!isReady()) {
+                waitForRing(req);
+                action = null;
+            } else {
+                final String ownerUuid = destMaker.makeDestination(req.name);
+                if (ownerUuid.equals(Platform.getManagementServerId())) {
+                    action = serve(req);
+                } else {
+                    // the sender has an out-of-date hash ring
+                    action = new Runnable() {
+                        @Override
+                        public void run() {
+                            forward(req, ownerUuid);
+                        }
+                    };
+                }
+            }
+        }
+
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    // must be called with locks held
+    private void waitForRing(final AcquireRequest req) {
+        req.timeoutTask = thdf.submitTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (locks) {
+                    if (!waitingForRing.remove(req)) {
+                        return;
+                    }
+                }
+
+                req.completion.fail(errf.stringToTimeoutError(String.format("lock[%s] failed, timeout after %s seconds" +
+                        " waiting for the management node to join the hash ring", req.name, req.timeout)));
+            }
+        }, TimeUnit.SECONDS, req.timeout);
+        waitingForRing.add(req);
+    }
+
+    private void dispatchWaitingForRing() {
+        List<AcquireRequest> reqs;
+        synchronized (locks) {
+            if (waitingForRing.isEmpty() || !isReady()) {
+                return;
+            }
+
+            reqs = new ArrayList<AcquireRequest>(waitingForRing);
+            waitingForRing.clear();
+        }
+
+        for (AcquireRequest req : reqs) {
+            req.timeoutTask.cancel();
+            dispatch(req);
+        }
+    }
+
+    private void forward(final AcquireRequest req, String nodeUuid) {
+        if (req.hops >= MAX_FORWARD_HOPS) {
+            req.completion.fail(operr("lock[%s] failed, it has been forwarded %s times, the management nodes don't agree on its owner",
+                    req.name, req.hops));
+            return;
+        }
+
+        AcquireGLockMsg msg = new AcquireGLockMsg();
+        msg.setName(req.name);
+        msg.setLockTimeout(req.timeout);
+        msg.setHolderNodeUuid(req.holderNodeUuid);
+        msg.setHops(req.hops + 1);
+        msg.setTimeout(TimeUnit.SECONDS.toMillis(req.timeout) + TimeUnit.SECONDS.toMillis(30));
+        bus.makeServiceIdByManagementNodeId(msg, GLockConstant.SERVICE_ID, nodeUuid);
+        bus.send(msg, new CloudBusCallBack(req.completion) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    req.completion.fail(reply.getError());
+                    return;
+                }
+
+                AcquireGLockReply r = reply.castReply();
+                req.completion.success(new GLockLease(req.name, r.getFencingToken(), r.getOwnerNodeUuid()));
+            }
+        });
+    }
+
+    private void unfence(final String name, final Fence fence) {
+        UnfenceGLockMsg msg = new UnfenceGLockMsg();
+        msg.setName(name);
+        bus.makeServiceIdByManagementNodeId(msg, GLockConstant.SERVICE_ID, fence.servingNodeUuid);
+        bus.send(msg, new CloudBusCallBack(null) {
+            @Override
+            public void run(MessageReply reply) {
+                boolean unfenced = reply.isSuccess() && ((UnfenceGLockReply) reply).isUnfenced();
+                if (!reply.isSuccess()) {
+                    logger.warn(String.format("unable to unfence lock[%s] on management node[uuid:%s], %s",
+                            name, fence.servingNodeUuid, reply.getError()));
+                }
+
+                List<AcquireRequest> reqs;
+                synchronized (locks) {
+                    reqs = fence.queued;
+                    fence.queued = new ArrayList<AcquireRequest>();
+                    fence.unfencing = false;
+                    if (unfenced && fencedIn.get(name) == fence) {
+                        fencedIn.remove(name);
+                    }
+                }
+
+                for (AcquireRequest req : reqs) {
+                    if (unfenced) {
+                        dispatch(req);
+                    } else {
+                        // still held or waited for there, the lock can only be served by that node
+                        forward(req, fence.servingNodeUuid);
+                    }
+                }
+            }
+        });
+    }
+
+    // must be called with locks held, the returned runnable notifies the holder and must be called without locks held
+    private Runnable serve(final AcquireRequest req) {
+        final String name = req.name;
+        final long timeout = req.timeout;
+        final ReturnValueCompletion<Long> completion = new ReturnValueCompletion<Long>(req.completion) {
+            @Override
+            public void success(Long token) {
+                req.completion.success(new GLockLease(name, token, Platform.getManagementServerId()));
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                req.completion.fail(errorCode);
+            }
+        };
+
+        LockEntry entry = locks.get(name);
+        if (entry == null) {
+            entry = new LockEntry();
+            entry.name = name;
+            locks.put(name, entry);
+        }
+
+        if (entry.holderNodeUuid == null) {
+            return grant(entry, req.holderNodeUuid, completion);
+        }
+
+        final Waiter waiter = new Waiter();
+        waiter.holderNodeUuid = req.holderNodeUuid;
+        waiter.completion = completion;
+        waiter.timeoutTask = thdf.submitTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                waiterTimeout(name, waiter, timeout);
+            }
+        }, TimeUnit.SECONDS, timeout);
+        entry.waiters.add(waiter);
+        return null;
+    }
+
+    private void waiterTimeout(String name, Waiter waiter, long timeout) {
+        synchronized (locks) {
+            LockEntry entry = locks.get(name);
+            if (entry == null || !entry.waiters.remove(waiter)) {
+                // granted already
+                return;
+            }
+        }
+
+        waiter.completion.fail(errf.stringToTimeoutError(String.format("lock[%s] failed, timeout after %s seconds", name, timeout)));
+    }
+
+    // must be called with locks held, the returned runnable notifies the holder and must be called without locks held
+    private Runnable grant(final LockEntry entry, String holderNodeUuid, final ReturnValueCompletion<Long> completion) {
+        final long token = tokenSeed.incrementAndGet();
+        entry.token = token;
+        entry.holderNodeUuid = holderNodeUuid;
+        scheduleLeaseExpiry(entry);
+
+        return new Runnable() {
+            @Override
+            public void run() {
+                completion.success(token);
+            }
+        };
+    }
+
+    // must be called with locks held
+    private void scheduleLeaseExpiry(final LockEntry entry) {
+        final long token = entry.token;
+        entry.leaseTask = thdf.submitTimeoutTask(new Runnable() {
+            @Override
+            public void run() {
+                logger.warn(String.format("the lease of lock[%s, token:%s] held by management node[uuid:%s] expired after %s seconds" +
+                        " without renewal, force to release it", entry.name, token, entry.holderNodeUuid, DbGlobalProperty.GLOCK_LEASE_TIMEOUT));
+                release(entry.name, token);
+            }
+        }, TimeUnit.SECONDS, DbGlobalProperty.GLOCK_LEASE_TIMEOUT);
+    }
+
+    private boolean renew(String name, long token) {
+        synchronized (locks) {
+            LockEntry entry = locks.get(name);
+            if (entry == null || entry.token != token || entry.holderNodeUuid == null) {
+                logger.warn(String.format("lock[%s] is not held by the token[%s], it may have expired, refuse the renewal", name, token));
+                return false;
+            }
+
+            entry.leaseTask.cancel();
+            scheduleLeaseExpiry(entry);
+            return true;
+        }
+    }
+
+    // must be called with locks held
+    private Runnable grantNextOrRemove(LockEntry entry) {
+        entry.holderNodeUuid = null;
+        if (entry.leaseTask != null) {
+            entry.leaseTask.cancel();
+            entry.leaseTask = null;
+        }
+
+        Waiter waiter = entry.waiters.poll();
+        if (waiter == null) {
+            locks.remove(entry.name);
+            return null;
+        }
+
+        waiter.timeoutTask.cancel();
+        return grant(entry, waiter.holderNodeUuid, waiter.completion);
+    }
+
+    private void release(String name, long token) {
+        Runnable grant;
+        synchronized (locks) {
+            LockEntry entry = locks.get(name);
+            if (entry == null || entry.token != token || entry.holderNodeUuid == null) {
+                logger.warn(String.format("lock[%s] is not held by the token[%s], it may have expired, ignore the release", name, token));
+                return;
+            }
+
+            grant = grantNextOrRemove(entry);
+        }
+
+        if (grant != null) {
+            grant.run();
+        }
+    }
+
+    @Override
+    @MessageSafe
+    public void handleMessage(Message msg) {
+        if (msg instanceof AcquireGLockMsg) {
+            handle((AcquireGLockMsg) msg);
+        } else if (msg instanceof ReleaseGLockMsg) {
+            handle((ReleaseGLockMsg) msg);
+        } else if (msg instanceof RenewGLockMsg) {
+            handle((RenewGLockMsg) msg);
+        } else if (msg instanceof HandOffGLockMsg) {
+            handle((HandOffGLockMsg) msg);
+        } else if (msg instanceof UnfenceGLockMsg) {
+            handle((UnfenceGLockMsg) msg);
+        } else {
+            bus.dealWithUnknownMessage(msg);
+        }
+    }
+
+    private void handle(final AcquireGLockMsg msg) {
+        AcquireRequest req = new AcquireRequest();
+        req.name = msg.getName();
+        req.timeout = msg.getLockTimeout();
+        req.holderNodeUuid = msg.getHolderNodeUuid();
+        req.hops = msg.getHops();
+        req.completion = new ReturnValueCompletion<GLockLease>(msg) {
+            @Override
+            public void success(GLockLease lease) {
+                AcquireGLockReply reply = new AcquireGLockReply();
+                reply.setFencingToken(lease.getFencingToken());
+                reply.setOwnerNodeUuid(lease.getOwnerNodeUuid());
+                bus.reply(msg, reply);
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                AcquireGLockReply reply = new AcquireGLockReply();
+                reply.setError(errorCode);
+                bus.reply(msg, reply);
+            }
+        };
+
+        dispatch(req);
+    }
+
+    private void handle(ReleaseGLockMsg msg) {
+        release(msg.getName(), msg.getFencingToken());
+        bus.reply(msg, new MessageReply());
+    }
+
+    private void handle(RenewGLockMsg msg) {
+        MessageReply reply = new MessageReply();
+        if (!renew(msg.getName(), msg.getFencingToken())) {
+            reply.setError(operr("lock[%s] is not held by the token[%s]", msg.getName(), msg.getFencingToken()));
+        }
+        bus.reply(msg, reply);
+    }
+
+    private void handle(HandOffGLockMsg msg) {
+        synchronized (locks) {
+            for (Map.Entry<String, String> e : msg.getServingNodeUuids().entrySet()) {
+                String name = e.getKey();
+                if (e.getValue().equals(Platform.getManagementServerId())) {
+                    continue;
+                }
+
+                if (locks.containsKey(name)) {
+                    logger.warn(String.format("management node[uuid:%s] says lock[%s] is served by management node[uuid:%s]," +
+                            " but it's served by us", msg.getFromNodeUuid(), name, e.getValue()));
+                    continue;
+                }
+
+                Fence fence = fencedIn.get(name);
+                if (fence == null) {
+                    fence = new Fence();
+                    fencedIn.put(name, fence);
+                }
+                fence.servingNodeUuid = e.getValue();
+            }
+
+            handOffPendingNodes.remove(msg.getFromNodeUuid());
+        }
+
+        bus.reply(msg, new MessageReply());
+        dispatchWaitingForRing();
+    }
+
+    private void handle(UnfenceGLockMsg msg) {
+        UnfenceGLockReply reply = new UnfenceGLockReply();
+        synchronized (locks) {
+            reply.setUnfenced(!locks.containsKey(msg.getName()));
+            if (reply.isUnfenced()) {
+                fencedOut.remove(msg.getName());
+            }
+        }
+
+        bus.reply(msg, reply);
+    }
+
+    private void handOff(final String nodeUuid, Map<String, String> servingNodeUuids) {
+        HandOffGLockMsg msg = new HandOffGLockMsg();
+        msg.setFromNodeUuid(Platform.getManagementServerId());
+        msg.setServingNodeUuids(servingNodeUuids);
+        bus.makeServiceIdByManagementNodeId(msg, GLockConstant.SERVICE_ID, nodeUuid);
+        bus.send(msg, new CloudBusCallBack(null) {
+            @Override
+            public void run(MessageReply reply) {
+                if (!reply.isSuccess()) {
+                    logger.warn(String.format("unable to hand off locks%s to management node[uuid:%s], %s",
+                            servingNodeUuids.keySet(), nodeUuid, reply.getError()));
+                }
+            }
+        });
+    }
+
+    private void releaseLocksOfNode(String nodeUuid) {
+        List<Runnable> grants = new ArrayList<Runnable>();
+        List<Waiter> removedWaiters = new ArrayList<Waiter>();
+        synchronized (locks) {
+            for (LockEntry entry : new ArrayList<LockEntry>(locks.values())) {
+                Iterator<Waiter> it = entry.waiters.iterator();
+                while (it.hasNext()) {
+                    Waiter w = it.next();
+                    if (nodeUuid.equals(w.holderNodeUuid)) {
+                        w.timeoutTask.cancel();
+                        removedWaiters.add(w);
+                        it.remove();
+                    }
+                }
+
+                if (nodeUuid.equals(entry.holderNodeUuid)) {
+                    logger.warn(String.format("management node[uuid:%s] left, release lock[%s, token:%s] held by it",
+                            nodeUuid, entry.name, entry.token));
+                    Runnable grant = grantNextOrRemove(entry);
+                    if (grant != null) {
+                        grants.add(grant);
+                    }
+                }
+            }
+        }
+
+        for (Waiter w : removedWaiters) {
+            w.completion.fail(operr("management node[uuid:%s] left", nodeUuid));
+        }
+
+        for (Runnable grant : grants) {
+            grant.run();
+        }
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+        if (!distributed) {
+            return;
+        }
+
+        // the hash ring has been updated, fence locks we serve that are now mapped to the new node
+        Map<String, String> servingNodeUuids = new HashMap<String, String>();
+        synchronized (locks) {
+            Set<String> names = new HashSet<String>(locks.keySet());
+            names.addAll(fencedOut.keySet());
+            for (String name : names) {
+                if (nodeId.equals(destMaker.makeDestination(name))) {
+                    fencedOut.put(name, nodeId);
+                    servingNodeUuids.put(name, Platform.getManagementServerId());
+                }
+            }
+
+            Iterator<Map.Entry<String, Fence>> it = fencedIn.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Fence> e = it.next();
+                if (nodeId.equals(destMaker.makeDestination(e.getKey()))) {
+                    servingNodeUuids.put(e.getKey(), e.getValue().servingNodeUuid);
+                    it.remove();
+                }
+            }
+        }
+
+        // always sent, the new node waits for it before granting any lock
+        handOff(nodeId, servingNodeUuids);
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        if (!distributed) {
+            return;
+        }
+
+        releaseLocksOfNode(nodeId);
+
+        List<AcquireRequest> reqs = new ArrayList<AcquireRequest>();
+        Map<String, Map<String, String>> handOffs = new HashMap<String, Map<String, String>>();
+        synchronized (locks) {
+            handOffPendingNodes.remove(nodeId);
+
+            // locks served by the left node are lost with it
+            Iterator<Map.Entry<String, Fence>> it = fencedIn.entrySet().iterator();
+            while (it.hasNext()) {
+                Fence fence = it.next().getValue();
+                if (nodeId.equals(fence.servingNodeUuid)) {
+                    reqs.addAll(fence.queued);
+                    fence.queued = new ArrayList<AcquireRequest>();
+                    it.remove();
+                }
+            }
+
+            // locks we fenced for the left node are mapped to another node now
+            for (Map.Entry<String, String> e : new ArrayList<Map.Entry<String, String>>(fencedOut.entrySet())) {
+                if (!nodeId.equals(e.getValue())) {
+                    continue;
+                }
+
+                String ownerUuid = destMaker.makeDestination(e.getKey());
+                if (ownerUuid.equals(Platform.getManagementServerId())) {
+                    fencedOut.remove(e.getKey());
+                } else {
+                    fencedOut.put(e.getKey(), ownerUuid);
+                    Map<String, String> names = handOffs.computeIfAbsent(ownerUuid, k -> new HashMap<String, String>());
+                    names.put(e.getKey(), Platform.getManagementServerId());
+                }
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> e : handOffs.entrySet()) {
+            handOff(e.getKey(), e.getValue());
+        }
+
+        for (AcquireRequest req : reqs) {
+            dispatch(req);
+        }
+
+        dispatchWaitingForRing();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+        if (!distributed) {
+            return;
+        }
+
+        synchronized (locks) {
+            // the hash ring has been loaded, wait for all other nodes to tell us the locks they still serve
+            handOffPendingNodes.addAll(destMaker.getManagementNodesInHashRing());
+            handOffPendingNodes.remove(nodeId);
+        }
+
+        dispatchWaitingForRing();
+    }
+
+    @Override
+    public String getId() {
+        return bus.makeLocalServiceId(GLockConstant.SERVICE_ID);
+    }
+
+    @Override
+    public boolean start() {
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        return true;
+    }
+}
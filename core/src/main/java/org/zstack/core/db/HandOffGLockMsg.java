@@ -0,0 +1,33 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * sent to a management node joining the hash ring, tells it which of the lock names now mapped
+ * to it are still served by other management nodes. The joining node grants no lock until it
+ * receives this message from every other management node in the ring
+ */
+public class HandOffGLockMsg extends NeedReplyMessage {
+    private String fromNodeUuid;
+    // lock name -> the management node serving it
+    private Map<String, String> servingNodeUuids = new HashMap<String, String>();
+
+    public String getFromNodeUuid() {
+        return fromNodeUuid;
+    }
+
+    public void setFromNodeUuid(String fromNodeUuid) {
+        this.fromNodeUuid = fromNodeUuid;
+    }
+
+    public Map<String, String> getServingNodeUuids() {
+        return servingNodeUuids;
+    }
+
+    public void setServingNodeUuids(Map<String, String> servingNodeUuids) {
+        this.servingNodeUuids = servingNodeUuids;
+    }
+}
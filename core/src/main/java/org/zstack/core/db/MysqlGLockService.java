@@ -0,0 +1,104 @@
+package org.zstack.core.db;
+
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Global locks by MySQL get_lock(), each lock holds a DB connection until it's released
+ */
+public class MysqlGLockService implements GLockService {
+    private static final CLogger logger = Utils.getLogger(MysqlGLockService.class);
+
+    private final DataSource dataSource;
+
+    public MysqlGLockService(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public GLockLease lock(String name, long timeout) {
+        GLockLease lease = new GLockLease(name, 0, null);
+        PreparedStatement pstmt = null;
+        try {
+            lease.connection = dataSource.getConnection();
+            lease.connection.setAutoCommit(true);
+            pstmt = lease.connection.prepareStatement(String.format("select get_lock('%s', %s)", name, timeout));
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null) {
+                String err = "Unable to get DB lock: " + name + ", internal database error happened";
+                throw new CloudRuntimeException(err);
+            } else if (rs.first() && rs.getInt(1) == 0) {
+                throw new CloudRuntimeException(String.format("lock[%s] failed, timeout after %s seconds", name, timeout));
+            }
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock DB Lock]: thread: %s got DB lock[%s], during timeout[%s secs]", Thread.currentThread().getName(), name, timeout));
+            }
+
+            return lease;
+        } catch (SQLException e) {
+            closeConnection(lease);
+            throw new CloudRuntimeException(String.format("[GLock Error]: cannon get DB connection for lock[%s]", name), e);
+        } catch (RuntimeException e) {
+            closeConnection(lease);
+            throw e;
+        } finally {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                }
+            }
+        }
+    }
+
+    private void closeConnection(GLockLease lease) {
+        if (lease.connection != null) {
+            try {
+                lease.connection.close();
+            } catch (SQLException e) {
+                logger.warn(e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    public void unlock(GLockLease lease) {
+        String name = lease.getName();
+        PreparedStatement pstmt = null;
+        try {
+            pstmt = lease.connection.prepareStatement(String.format("select release_lock('%s')", name));
+            ResultSet rs = pstmt.executeQuery();
+            if (rs == null) {
+                throw new CloudRuntimeException("Mysql cannot find lock: " + name);
+            } else if (rs.first() && rs.getInt(1) == 0) {
+                String err = "Unable to release DB lock: " + name + ", lock: " + name + " is not held by this connection, internal error";
+                throw new CloudRuntimeException(err);
+            }
+
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("[GLock Release DB Lock] thread[%s] released DB lock[%s]", Thread.currentThread().getName(), name));
+            }
+        } catch (SQLException e) {
+            throw new CloudRuntimeException("Unable to release lock: " + name, e);
+        } finally {
+            if (pstmt != null) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    logger.warn("Unable to close PreparedStatement for lock: " + name, e);
+                }
+            }
+
+            closeConnection(lease);
+        }
+    }
+}
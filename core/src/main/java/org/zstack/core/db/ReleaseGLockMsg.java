@@ -0,0 +1,26 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ */
+public class ReleaseGLockMsg extends NeedReplyMessage {
+    private String name;
+    private long fencingToken;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+}
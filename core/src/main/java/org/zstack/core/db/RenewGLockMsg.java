@@ -0,0 +1,28 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * sent by the management node holding a lock to the one serving it, to extend the lease of the lock;
+ * the reply fails if the lock is no longer held by the fencing token
+ */
+public class RenewGLockMsg extends NeedReplyMessage {
+    private String name;
+    private long fencingToken;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+}
@@ -0,0 +1,19 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * sent by the owner of a lock in the hash ring to the management node still serving it,
+ * asks it to stop serving the lock if nobody holds or waits for the lock
+ */
+public class UnfenceGLockMsg extends NeedReplyMessage {
+    private String name;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
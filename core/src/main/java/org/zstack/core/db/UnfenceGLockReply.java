@@ -0,0 +1,18 @@
+package org.zstack.core.db;
+
+import org.zstack.header.message.MessageReply;
+
+/**
+ */
+public class UnfenceGLockReply extends MessageReply {
+    // false if the lock is still held or waited for
+    private boolean unfenced;
+
+    public boolean isUnfenced() {
+        return unfenced;
+    }
+
+    public void setUnfenced(boolean unfenced) {
+        this.unfenced = unfenced;
+    }
+}
@@ -0,0 +1,165 @@
+package org.zstack.core.rest;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.util.EntityUtils;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+import org.zstack.header.core.ReturnValueCompletion;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.zstack.core.Platform.err;
+import static org.zstack.core.Platform.operr;
+
+/**
+ * Posts http requests on non-blocking sockets, so a request in flight doesn't hold a thread.
+ *
+ * Connections are pooled and kept alive per endpoint(host:port); a post waits for a connection
+ * when maxConnectionsPerEndpoint requests to the endpoint are in flight.
+ */
+public class NioHttpClient {
+    private static final CLogger logger = Utils.getLogger(NioHttpClient.class);
+
+    private final CloseableHttpAsyncClient client;
+    private final PoolingNHttpClientConnectionManager connectionManager;
+
+    public NioHttpClient(int connectTimeout, int readTimeout, int maxConnectionsPerEndpoint, int maxConnections) throws IOReactorException {
+        IOReactorConfig ioConfig = IOReactorConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSoTimeout(readTimeout)
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .build();
+        connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioConfig));
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerEndpoint);
+        connectionManager.setMaxTotal(maxConnections);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        client = HttpAsyncClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+        client.start();
+    }
+
+    private HttpPost toHttpPost(String url, HttpEntity<String> req) {
+        HttpPost post = new HttpPost(url);
+        for (Map.Entry<String, List<String>> e : req.getHeaders().entrySet()) {
+            // set by the entity
+            if (HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(e.getKey()) || HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(e.getKey())) {
+                continue;
+            }
+
+            for (String v : e.getValue()) {
+                post.addHeader(e.getKey(), v);
+            }
+        }
+
+        String body = req.getBody() == null ? "" : req.getBody();
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        return post;
+    }
+
+    private ResponseEntity<String> toResponseEntity(HttpResponse rsp) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        for (Header h : rsp.getAllHeaders()) {
+            headers.add(h.getName(), h.getValue());
+        }
+
+        String body = rsp.getEntity() == null ? null : EntityUtils.toString(rsp.getEntity(), StandardCharsets.UTF_8);
+        return new ResponseEntity<>(body, headers, HttpStatus.valueOf(rsp.getStatusLine().getStatusCode()));
+    }
+
+    /**
+     * the completion is called in an IO thread of the client, it must not block
+     */
+    public void post(String url, HttpEntity<String> req, ReturnValueCompletion<ResponseEntity<String>> completion) {
+        client.execute(toHttpPost(url, req), new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse rsp) {
+                ResponseEntity<String> entity;
+                try {
+                    entity = toResponseEntity(rsp);
+                } catch (Throwable t) {
+                    logger.warn(String.format("unable to read the response of %s", url), t);
+                    completion.fail(err(SysErrors.IO_ERROR, "unable to read the response of %s, %s", url, t.getMessage()));
+                    return;
+                }
+
+                completion.success(entity);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                logger.warn(String.format("unable to post to %s", url), e);
+                completion.fail(e instanceof IOException ? err(SysErrors.IO_ERROR, "%s", e.getMessage()) :
+                        operr("unable to post to %s, %s", url, e.getMessage()));
+            }
+
+            @Override
+            public void cancelled() {
+                completion.fail(operr("the post to %s is cancelled", url));
+            }
+        });
+    }
+
+    /**
+     * blocks until the response arrives; an IO error is thrown as ResourceAccessException like
+     * RestTemplate does, so the callers can retry in the same way
+     */
+    public ResponseEntity<String> post(String url, HttpEntity<String> req) {
+        Future<HttpResponse> f = client.execute(toHttpPost(url, req), null);
+        try {
+            return toResponseEntity(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException(String.format("interrupted when posting to %s", url));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() == null ? e : e.getCause();
+            if (cause instanceof IOException) {
+                throw new ResourceAccessException(String.format("I/O error on POST request for %s: %s", url, cause.getMessage()), (IOException) cause);
+            }
+
+            throw new ResourceAccessException(String.format("unable to post to %s, %s", url, cause.getMessage()));
+        } catch (IOException e) {
+            throw new ResourceAccessException(String.format("I/O error on POST request for %s: %s", url, e.getMessage()), e);
+        }
+    }
+
+    public int getLeasedConnections() {
+        return connectionManager.getTotalStats().getLeased();
+    }
+
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.warn("unable to close the nio http client", e);
+        }
+    }
+}
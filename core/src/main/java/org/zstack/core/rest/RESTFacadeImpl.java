@@ -1,6 +1,7 @@
 package org.zstack.core.rest;
 
 import org.apache.http.HttpStatus;
+import org.apache.http.nio.reactor.IOReactorException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.*;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
@@ -16,11 +17,13 @@ import org.zstack.core.retry.Retry;
 import org.zstack.core.retry.RetryCondition;
 import org.zstack.core.thread.AsyncThread;
 import org.zstack.core.thread.CancelablePeriodicTask;
+import org.zstack.core.thread.Task;
 import org.zstack.core.thread.ThreadFacade;
 import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
 import org.zstack.core.timeout.ApiTimeoutManager;
 import org.zstack.core.validation.ValidationFacade;
 import org.zstack.header.core.Completion;
+import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.errorcode.ErrorCode;
 import org.zstack.header.errorcode.OperationFailureException;
 import org.zstack.header.errorcode.SysErrors;
@@ -48,6 +51,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RESTFacadeImpl implements RESTFacade {
     private static final CLogger logger = Utils.getLogger(RESTFacadeImpl.class);
+    // the defaults of RetryCondition, which the blocking post retries with
+    private static final int NIO_POST_RETRY_TIMES = 5;
+    private static final int NIO_POST_RETRY_INTERVAL = 1;
     
     @Autowired
     private ThreadFacade thdf;
@@ -63,6 +69,7 @@ public class RESTFacadeImpl implements RESTFacade {
     private String path;
     private String callbackUrl;
     private RestTemplate template;
+    private NioHttpClient nioClient;
     private String baseUrl;
     private String sendCommandUrl;
 
@@ -116,6 +123,27 @@ public class RESTFacadeImpl implements RESTFacade {
         factory.setReadTimeout(CoreGlobalProperty.REST_FACADE_READ_TIMEOUT);
         factory.setConnectTimeout(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT);
         template = new RestTemplate(factory);
+
+        if (CoreGlobalProperty.REST_FACADE_NIO_CLIENT) {
+            try {
+                nioClient = new NioHttpClient(CoreGlobalProperty.REST_FACADE_CONNECT_TIMEOUT, CoreGlobalProperty.REST_FACADE_READ_TIMEOUT,
+                        CoreGlobalProperty.REST_FACADE_MAX_CONNECTIONS_PER_ENDPOINT, CoreGlobalProperty.REST_FACADE_MAX_CONNECTIONS);
+            } catch (IOReactorException e) {
+                throw new CloudRuntimeException(e);
+            }
+
+            logger.debug("RESTFacade uses the nio http client");
+        }
+    }
+
+    void destroy() {
+        if (nioClient != null) {
+            nioClient.close();
+        }
+    }
+
+    private ResponseEntity<String> exchange(String url, HttpEntity<String> req) {
+        return nioClient != null ? nioClient.post(url, req) : template.exchange(url, HttpMethod.POST, req, String.class);
     }
 
     void notifyCallback(HttpServletRequest req, HttpServletResponse rsp) {
@@ -219,11 +247,26 @@ public class RESTFacadeImpl implements RESTFacade {
     }
 
     @Override
-    public void asyncJsonPost(final String url, final String body, Map<String, String> headers, final AsyncRESTCallback callback, final TimeUnit unit, final long timeout) {
+    public String registerAsyncCallback(String url, String body, AsyncRESTCallback callback, TimeUnit unit, long timeout) {
         for (BeforeAsyncJsonPostInterceptor ic : interceptors) {
             ic.beforeAsyncJsonPost(url, body, unit, timeout);
         }
 
+        String taskUuid = Platform.getUuid();
+        wrappers.put(taskUuid, createAsyncHttpWrapper(taskUuid, url, body, callback, unit, timeout));
+        return taskUuid;
+    }
+
+    @Override
+    public void failAsyncCallback(String taskUuid, ErrorCode err) {
+        AsyncHttpWrapper wrapper = wrappers.get(taskUuid);
+        if (wrapper != null) {
+            wrapper.fail(err);
+        }
+    }
+
+    private AsyncHttpWrapper createAsyncHttpWrapper(final String taskUuid, final String url, final String body,
+                                                    final AsyncRESTCallback callback, final TimeUnit unit, final long timeout) {
         long stime = 0;
         if (CoreGlobalProperty.PROFILER_HTTP_CALL) {
             stime = System.currentTimeMillis();
@@ -235,9 +278,8 @@ public class RESTFacadeImpl implements RESTFacade {
             }
         }
 
-        final String taskUuid = Platform.getUuid();
         final long finalStime = stime;
-        AsyncHttpWrapper wrapper = new AsyncHttpWrapper() {
+        return new AsyncHttpWrapper() {
             AtomicBoolean called = new AtomicBoolean(false);
 
             final AsyncHttpWrapper self = this;
@@ -315,6 +357,88 @@ public class RESTFacadeImpl implements RESTFacade {
                 }
             }
         };
+    }
+
+    /**
+     * posts with the same retry policy as the Retry of the blocking post, but waits for the next attempt
+     * on a timeout task rather than sleeping in a thread
+     */
+    private void nioAsyncJsonPost(final String url, final HttpEntity<String> req, final String taskUuid, final AsyncHttpWrapper wrapper, final int times) {
+        nioClient.post(url, req, new ReturnValueCompletion<ResponseEntity<String>>(null) {
+            @Override
+            public void success(ResponseEntity<String> rsp) {
+                if (rsp.getStatusCode() == org.springframework.http.HttpStatus.OK) {
+                    return;
+                }
+
+                String err = String.format("http status: %s, response body:%s", rsp.getStatusCode().toString(), rsp.getBody());
+                logger.warn(err);
+                ErrorCode errorCode = errf.instantiateErrorCode(SysErrors.HTTP_ERROR, err);
+                // RestTemplate throws a RestClientException on 4xx and 5xx, which the blocking post retries
+                if (rsp.getStatusCode().is4xxClientError() || rsp.getStatusCode().is5xxServerError()) {
+                    retryOrFail(errorCode);
+                } else {
+                    failWrapper(errorCode);
+                }
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                retryOrFail(errorCode);
+            }
+
+            private void retryOrFail(ErrorCode errorCode) {
+                if (!wrappers.containsKey(taskUuid)) {
+                    // called back or timed out already
+                    return;
+                }
+
+                if (times <= 1) {
+                    failWrapper(errorCode);
+                    return;
+                }
+
+                logger.debug(String.format("posting to %s encounters an error[%s], will retry %s times with the interval[%s]",
+                        url, errorCode, times - 1, NIO_POST_RETRY_INTERVAL));
+                thdf.submitTimeoutTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            nioAsyncJsonPost(url, req, taskUuid, wrapper, times - 1);
+                        } catch (Throwable t) {
+                            logger.warn(String.format("Unable to post to %s", url), t);
+                            wrapper.fail(errf.throwableToInternalError(t));
+                        }
+                    }
+                }, TimeUnit.SECONDS, NIO_POST_RETRY_INTERVAL);
+            }
+
+            private void failWrapper(ErrorCode errorCode) {
+                // not to run the callback in an IO thread of the client
+                thdf.submit(new Task<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        wrapper.fail(errorCode);
+                        return null;
+                    }
+
+                    @Override
+                    public String getName() {
+                        return String.format("fail-async-http-call-%s", taskUuid);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void asyncJsonPost(final String url, final String body, Map<String, String> headers, final AsyncRESTCallback callback, final TimeUnit unit, final long timeout) {
+        for (BeforeAsyncJsonPostInterceptor ic : interceptors) {
+            ic.beforeAsyncJsonPost(url, body, unit, timeout);
+        }
+
+        final String taskUuid = Platform.getUuid();
+        AsyncHttpWrapper wrapper = createAsyncHttpWrapper(taskUuid, url, body, callback, unit, timeout);
 
         try {
             wrappers.put(taskUuid, wrapper);
@@ -335,6 +459,11 @@ public class RESTFacadeImpl implements RESTFacade {
                 logger.trace(String.format("json post[%s], %s", url, req.toString()));
             }
 
+            if (nioClient != null) {
+                nioAsyncJsonPost(url, req, taskUuid, wrapper, CoreGlobalProperty.UNIT_TEST_ON ? 1 : NIO_POST_RETRY_TIMES);
+                return;
+            }
+
             ResponseEntity<String> rsp;
 
             try {
@@ -446,7 +575,7 @@ public class RESTFacadeImpl implements RESTFacade {
             @Override
             @RetryCondition(onExceptions = {IOException.class, RestClientException.class})
             protected ResponseEntity<String> call() {
-                return template.exchange(url, HttpMethod.POST, req, String.class);
+                return exchange(url, req);
             }
         }.run();
 
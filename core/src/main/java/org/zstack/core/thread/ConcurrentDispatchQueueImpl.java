@@ -0,0 +1,328 @@
+package org.zstack.core.thread;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Autowire;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Configurable;
+import org.zstack.core.debug.DebugManager;
+import org.zstack.core.debug.DebugSignal;
+import org.zstack.core.debug.DebugSignalHandler;
+import org.zstack.core.thread.DispatchQueueImpl.ChainFuture;
+import org.zstack.core.thread.DispatchQueueImpl.SyncTaskFuture;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A DispatchQueue without the global monitor of DispatchQueueImpl.
+ *
+ * Signatures are kept in a ConcurrentHashMap, each signature has a lock-free pending queue
+ * and an atomic counter of running workers. When the last worker of a signature finds nothing
+ * to do, it retires the queue by CAS the counter from 0 to RETIRED. Nobody polls a retired queue,
+ * so a submitter that lost the race simply takes its task back and submits it to a new queue of
+ * the same signature; this keeps tasks from one submitter in order.
+ *
+ * Enabled by ThreadFacade.concurrentDispatchQueue = true
+ */
+@Configurable(preConstruction = true, autowire = Autowire.BY_TYPE, dependencyCheck = true)
+class ConcurrentDispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
+    private static final CLogger logger = Utils.getLogger(ConcurrentDispatchQueueImpl.class);
+
+    private static final int RETIRED = -1;
+
+    @Autowired
+    ThreadFacade _threadFacade;
+
+    private final ConcurrentHashMap<String, SyncTaskQueue> syncTasks = new ConcurrentHashMap<String, SyncTaskQueue>();
+    private final ConcurrentHashMap<String, ChainTaskQueue> chainTasks = new ConcurrentHashMap<String, ChainTaskQueue>();
+
+    public ConcurrentDispatchQueueImpl() {
+        DebugManager.registerDebugSignalHandler(DebugSignal.DumpTaskQueue, this);
+    }
+
+    @Override
+    public void handleDebugSignal(DebugSignal sig) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("\n================= BEGIN TASK QUEUE DUMP ================");
+        sb.append("\nASYNC TASK QUEUE DUMP:");
+        sb.append(String.format("\nTASK QUEUE NUMBER: %s\n", chainTasks.size()));
+        List<String> asyncTasks = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, ChainTaskQueue> e : chainTasks.entrySet()) {
+            StringBuilder tb = new StringBuilder(String.format("\nQUEUE SYNC SIGNATURE: %s", e.getKey()));
+            ChainTaskQueue q = e.getValue();
+            tb.append(String.format("\nRUNNING TASK NUMBER: %s", q.runningQueue.size()));
+            tb.append(String.format("\nPENDING TASK NUMBER: %s", q.pendingQueue.size()));
+            int index = 0;
+            for (ChainFuture cf : q.runningQueue) {
+                tb.append(String.format("\nRUNNING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
+                        cf.getTask().getName(), cf.getTask().getClass(),
+                        TimeUnit.MILLISECONDS.toSeconds(now - cf.getTimestamp()), index++,
+                        DispatchQueueImpl.getChainContext(cf.getTask())
+                ));
+            }
+
+            for (ChainFuture cf : q.pendingQueue) {
+                tb.append(String.format("\nPENDING TASK[NAME: %s, CLASS: %s EXECUTION TIME: %s secs, INDEX: %s] %s",
+                        cf.getTask().getName(), cf.getTask().getClass(),
+                        TimeUnit.MILLISECONDS.toSeconds(now - cf.getTimestamp()), index++,
+                        DispatchQueueImpl.getChainContext(cf.getTask())
+                ));
+            }
+            asyncTasks.add(tb.toString());
+        }
+        sb.append(StringUtils.join(asyncTasks, "\n"));
+        sb.append("\n================= END TASK QUEUE DUMP ==================\n");
+        logger.debug(sb.toString());
+    }
+
+    /**
+     * the pending queue and the running counter shared by sync tasks and chain tasks
+     */
+    private abstract class SignatureQueue<F> {
+        final ConcurrentLinkedQueue<F> pendingQueue = new ConcurrentLinkedQueue<F>();
+        final AtomicInteger counter = new AtomicInteger(0);
+        final int maxThreadNum;
+        final String syncSignature;
+
+        SignatureQueue(String syncSignature, int maxThreadNum) {
+            this.syncSignature = syncSignature;
+            this.maxThreadNum = maxThreadNum;
+        }
+
+        abstract void startWorker();
+
+        /**
+         * @return false if the queue has been retired, the caller should take
+         * back its task and submit it to a new queue
+         */
+        boolean startWorkerIfNeeded() {
+            while (true) {
+                int c = counter.get();
+                if (c == RETIRED) {
+                    return false;
+                }
+
+                if (c >= maxThreadNum) {
+                    return true;
+                }
+
+                if (counter.compareAndSet(c, c + 1)) {
+                    startWorker();
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * called by a worker finding the pending queue empty
+         *
+         * @return true if the worker should continue to poll the pending queue
+         */
+        boolean workerIdle() {
+            int c = counter.decrementAndGet();
+            if (pendingQueue.isEmpty()) {
+                if (c == 0 && counter.compareAndSet(0, RETIRED)) {
+                    retire(this);
+                }
+
+                return false;
+            }
+
+            // a task comes after we found the queue empty, try to take our slot back
+            while (true) {
+                c = counter.get();
+                if (c == RETIRED || c >= maxThreadNum) {
+                    return false;
+                }
+
+                if (counter.compareAndSet(c, c + 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private class SyncTaskQueue extends SignatureQueue<SyncTaskFuture> {
+        SyncTaskQueue(String syncSignature, int maxThreadNum) {
+            super(syncSignature, maxThreadNum);
+        }
+
+        @Override
+        void startWorker() {
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return syncSignature;
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    do {
+                        SyncTaskFuture stask;
+                        while ((stask = pendingQueue.poll()) != null) {
+                            stask.run();
+                        }
+                    } while (workerIdle());
+
+                    return null;
+                }
+            });
+        }
+    }
+
+    private class ChainTaskQueue extends SignatureQueue<ChainFuture> {
+        final ConcurrentLinkedQueue<ChainFuture> runningQueue = new ConcurrentLinkedQueue<ChainFuture>();
+
+        ChainTaskQueue(String syncSignature, int maxThreadNum) {
+            super(syncSignature, maxThreadNum);
+        }
+
+        @Override
+        void startWorker() {
+            _threadFacade.submit(new Task<Void>() {
+                @Override
+                public String getName() {
+                    return "sync-chain-thread";
+                }
+
+                // start a new thread every time to avoid stack overflow
+                @AsyncThread
+                private void runQueue() {
+                    final ChainFuture cf = pendingQueue.poll();
+                    if (cf == null) {
+                        if (workerIdle()) {
+                            runQueue();
+                        }
+
+                        return;
+                    }
+
+                    runningQueue.offer(cf);
+
+                    cf.run(new SyncTaskChain() {
+                        @Override
+                        public void next() {
+                            runningQueue.remove(cf);
+                            runQueue();
+                        }
+                    });
+                }
+
+                @Override
+                public Void call() throws Exception {
+                    runQueue();
+                    return null;
+                }
+            });
+        }
+    }
+
+    private void retire(SignatureQueue q) {
+        if (q instanceof ChainTaskQueue) {
+            chainTasks.remove(q.syncSignature, q);
+        } else {
+            syncTasks.remove(q.syncSignature, q);
+        }
+    }
+
+    private void submitSyncFuture(SyncTaskFuture f) {
+        while (true) {
+            SyncTaskQueue q = syncTasks.get(f.getSyncSignature());
+            if (q == null) {
+                q = new SyncTaskQueue(f.getSyncSignature(), f.getSyncLevel());
+                SyncTaskQueue old = syncTasks.putIfAbsent(f.getSyncSignature(), q);
+                q = old == null ? q : old;
+            }
+
+            q.pendingQueue.offer(f);
+            if (q.startWorkerIfNeeded()) {
+                return;
+            }
+
+            // the queue has been retired, take the task back and try again
+            q.pendingQueue.remove(f);
+            syncTasks.remove(f.getSyncSignature(), q);
+        }
+    }
+
+    private void submitChainFuture(ChainFuture f) {
+        while (true) {
+            ChainTaskQueue q = chainTasks.get(f.getSyncSignature());
+            if (q == null) {
+                q = new ChainTaskQueue(f.getSyncSignature(), f.getSyncLevel());
+                ChainTaskQueue old = chainTasks.putIfAbsent(f.getSyncSignature(), q);
+                q = old == null ? q : old;
+            }
+
+            q.pendingQueue.offer(f);
+            if (q.startWorkerIfNeeded()) {
+                return;
+            }
+
+            q.pendingQueue.remove(f);
+            chainTasks.remove(f.getSyncSignature(), q);
+        }
+    }
+
+    @Override
+    public <T> Future<T> syncSubmit(SyncTask<T> task) {
+        if (task.getSyncLevel() <= 0) {
+            return _threadFacade.submit(task);
+        }
+
+        assert task.getSyncSignature() != null : "How can you submit a sync task without sync signature ???";
+
+        SyncTaskFuture<T> f = new SyncTaskFuture<T>(task);
+        submitSyncFuture(f);
+        return f;
+    }
+
+    @Override
+    public Future<Void> chainSubmit(ChainTask task) {
+        assert task.getSyncSignature() != null : "How can you submit a chain task without sync signature ???";
+        DebugUtils.Assert(task.getSyncLevel() >= 1, String.format("getSyncLevel() must return 1 at least "));
+
+        ChainFuture cf = new ChainFuture(task);
+        submitChainFuture(cf);
+        return cf;
+    }
+
+    @Override
+    public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
+        Map<String, SyncTaskStatistic> ret = new HashMap<String, SyncTaskStatistic>();
+        for (SyncTaskQueue q : syncTasks.values()) {
+            SyncTaskStatistic statistic = new SyncTaskStatistic(
+                    q.syncSignature,
+                    q.maxThreadNum,
+                    Math.max(q.counter.intValue(), 0),
+                    q.pendingQueue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public Map<String, ChainTaskStatistic> getChainTaskStatistics() {
+        Map<String, ChainTaskStatistic> ret = new HashMap<String, ChainTaskStatistic>();
+        for (ChainTaskQueue q : chainTasks.values()) {
+            ChainTaskStatistic statistic = new ChainTaskStatistic(
+                    q.syncSignature,
+                    q.maxThreadNum,
+                    Math.max(q.counter.intValue(), 0),
+                    q.pendingQueue.size()
+            );
+            ret.put(statistic.getSyncSignature(), statistic);
+        }
+        return ret;
+    }
+}
@@ -72,7 +72,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         logger.debug(sb.toString());
     }
 
-    private String getChainContext(ChainTask task) {
+    static String getChainContext(ChainTask task) {
         List<String> context = new ArrayList<>();
         for (AsyncBackup backup : task.getBackups()) {
             if (backup instanceof Message) {
@@ -91,12 +91,12 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
         DebugManager.registerDebugSignalHandler(DebugSignal.DumpTaskQueue, this);
     }
 
-    private class SyncTaskFuture<T> extends AbstractFuture<T> {
+    static class SyncTaskFuture<T> extends AbstractFuture<T> {
         public SyncTaskFuture(SyncTask<T> task) {
             super(task);
         }
 
-        private SyncTask getTask() {
+        SyncTask getTask() {
             return (SyncTask) task;
         }
 
@@ -220,7 +220,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
     }
 
 
-    class ChainFuture extends AbstractFuture {
+    static class ChainFuture extends AbstractFuture {
         private AtomicBoolean isNextCalled = new AtomicBoolean(false);
         // in running queue: means execution time
         // in pending queue: means pending time
@@ -234,7 +234,7 @@ class DispatchQueueImpl implements DispatchQueue, DebugSignalHandler {
             super(task);
         }
 
-        private ChainTask getTask() {
+        ChainTask getTask() {
             return (ChainTask) task;
         }
 
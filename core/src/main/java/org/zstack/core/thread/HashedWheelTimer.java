@@ -0,0 +1,283 @@
+package org.zstack.core.thread;
+
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A timer for a large number of timeout tasks that are mostly cancelled before they expire,
+ * e.g. timeouts of http calls and messages.
+ *
+ * Tasks are put into a wheel of buckets by their deadlines, a worker thread moves to the next
+ * bucket every tick and expires the tasks of the bucket whose deadlines have come. Scheduling
+ * and cancelling a task are O(1); a task expires up to one tick later than its deadline.
+ * Expired tasks are run by the executor, never by the worker thread.
+ */
+public class HashedWheelTimer {
+    private static final CLogger logger = Utils.getLogger(HashedWheelTimer.class);
+
+    private static final int INIT = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    // new timeouts moved into the wheel in one tick at most, so a flood of them can't stall the wheel
+    private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final long startTime;
+    private final Thread worker;
+
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private volatile boolean stopped;
+    // accessed by the worker thread only
+    private long tick;
+
+    private class Timeout implements TimeoutTaskReceipt {
+        final Runnable task;
+        final long deadline;
+        final AtomicInteger state = new AtomicInteger(INIT);
+        long remainingRounds;
+
+        // accessed by the worker thread only
+        Bucket bucket;
+        Timeout prev;
+        Timeout next;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(INIT, CANCELLED)) {
+                return false;
+            }
+
+            pendingCount.decrementAndGet();
+            // unlinked from its bucket by the worker thread in the next tick
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(INIT, EXPIRED)) {
+                return;
+            }
+
+            pendingCount.decrementAndGet();
+            expiredCount.incrementAndGet();
+            try {
+                executor.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (Throwable t) {
+                        logger.warn(String.format("unhandled exception happened when running the timeout task %s", task.getClass().getName()), t);
+                    }
+                });
+            } catch (Throwable t) {
+                logger.warn(String.format("unable to run the timeout task %s", task.getClass().getName()), t);
+            }
+        }
+    }
+
+    private static class Bucket {
+        Timeout head;
+        Timeout tail;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            if (head == null) {
+                head = tail = t;
+            } else {
+                tail.next = t;
+                t.prev = tail;
+                tail = t;
+            }
+        }
+
+        Timeout remove(Timeout t) {
+            Timeout next = t.next;
+            if (t.prev != null) {
+                t.prev.next = next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            if (t == head) {
+                head = next;
+            }
+            if (t == tail) {
+                tail = t.prev;
+            }
+
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+            return next;
+        }
+
+        void expireTimeouts() {
+            Timeout t = head;
+            while (t != null) {
+                if (t.state.get() != INIT) {
+                    t = remove(t);
+                } else if (t.remainingRounds <= 0) {
+                    // the deadline of a timeout in its last round is always before the deadline of the tick
+                    Timeout next = remove(t);
+                    t.expire();
+                    t = next;
+                } else {
+                    t.remainingRounds--;
+                    t = t.next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name name of the worker thread
+     * @param tickDuration precision of the timer, tasks expire up to one tick late
+     * @param ticksPerWheel number of buckets in the wheel, rounded up to a power of 2
+     * @param executor runs the expired tasks
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException(String.format("tickDuration must be greater than 0, but got %s", tickDuration));
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+            throw new IllegalArgumentException(String.format("ticksPerWheel must be in (0, 2^30], but got %s", ticksPerWheel));
+        }
+
+        int size = 1;
+        while (size < ticksPerWheel) {
+            size <<= 1;
+        }
+
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        tickNanos = unit.toNanos(tickDuration);
+        this.executor = executor;
+
+        startTime = System.nanoTime();
+        worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public TimeoutTaskReceipt newTimeout(Runnable task, TimeUnit unit, long delay) {
+        if (stopped) {
+            throw new IllegalStateException("the timer has been stopped");
+        }
+
+        long deadline = System.nanoTime() - startTime + Math.max(unit.toNanos(delay), 0);
+        if (deadline < 0) {
+            // overflow of a huge delay
+            deadline = Long.MAX_VALUE;
+        }
+
+        Timeout t = new Timeout(task, deadline);
+        pendingCount.incrementAndGet();
+        newTimeouts.add(t);
+        return t;
+    }
+
+    /**
+     * tasks neither expired nor cancelled
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!stopped) {
+            if (!waitForNextTick()) {
+                continue;
+            }
+
+            try {
+                removeCancelledTimeouts();
+                transferNewTimeouts();
+                wheel[(int) (tick & mask)].expireTimeouts();
+            } catch (Throwable t) {
+                logger.warn("unhandled exception happened in the hashed wheel timer", t);
+            }
+
+            tick++;
+        }
+    }
+
+    // returns false if the timer is stopped while waiting
+    private boolean waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long current = System.nanoTime() - startTime;
+            long sleepMs = (deadline - current + 999999) / 1000000;
+            if (sleepMs <= 0) {
+                return true;
+            }
+
+            try {
+                Thread.sleep(sleepMs);
+            } catch (InterruptedException e) {
+                if (stopped) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Timeout t;
+        while ((t = cancelledTimeouts.poll()) != null) {
+            if (t.bucket != null) {
+                t.bucket.remove(t);
+            }
+        }
+    }
+
+    private void transferNewTimeouts() {
+        for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+            Timeout t = newTimeouts.poll();
+            if (t == null) {
+                return;
+            }
+
+            if (t.state.get() != INIT) {
+                continue;
+            }
+
+            long expectedTick = t.deadline / tickNanos;
+            t.remainingRounds = (expectedTick - tick) / wheel.length;
+            // a timeout already overdue goes into the current bucket
+            long ticks = Math.max(expectedTick, tick);
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+}
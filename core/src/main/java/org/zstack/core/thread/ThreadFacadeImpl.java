@@ -6,10 +6,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.logging.CLoggerImpl;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -21,60 +18,18 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     private Map<PeriodicTask, ScheduledFuture<?>> _periodicTasks = new ConcurrentHashMap<PeriodicTask, ScheduledFuture<?>>();
     private Map<CancelablePeriodicTask, ScheduledFuture<?>> cancelablePeriodicTasks = new ConcurrentHashMap<CancelablePeriodicTask, ScheduledFuture<?>>();
     private static AtomicInteger seqNum = new AtomicInteger(0);
+    // timeout tasks expire up to 10ms late, a wheel turns in about 40 seconds
+    private static final long TIMEOUT_TIMER_TICK_MS = 10;
+    private static final int TIMEOUT_TIMER_TICKS_PER_WHEEL = 4096;
     private ScheduledThreadPoolExecutorExt _pool;
+    private VirtualThreadExecutor virtualThreadExecutor;
     private DispatchQueue dpq;
     private TimerPool timerPool = new TimerPool(5);
+    private HashedWheelTimer timeoutTimer;
 
     @Autowired
     private JmxFacade jmxf;
 
-    private class TimerWrapper extends Timer {
-        private int cancelledTimerTaskCount = 0;
-        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
-
-        void notifyCancel() {
-            if (cancelledTimerTaskCount++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
-                cancelledTimerTaskCount = 0;
-                this.purge();
-            }
-        }
-    }
-
-    private class TimerPool {
-        int poolSize;
-        List<TimerWrapper> pool;
-
-        // never use a long type counter for self increment. two issues
-        // 1) Java will silently overflow a number; even a long will be overflow someday
-        // 2) big number causes extremely bad performance for mod operation
-        // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
-        // decent performance for mod operation.
-        int counter = 0;
-        static final int COUNTER_RESET_THRESHOLD = 1000000;
-
-        private TimerPool(int poolSize) {
-            this.poolSize = poolSize;
-            pool = new ArrayList<TimerWrapper>(poolSize);
-            for (int i = 0; i < poolSize; i++) {
-                pool.add(new TimerWrapper());
-            }
-        }
-
-        TimerWrapper getTimer() {
-            int index = ++counter % poolSize;
-            if (counter > COUNTER_RESET_THRESHOLD) {
-                counter = 0;
-            }
-            return pool.get(index);
-        }
-
-        void stop() {
-            for (TimerWrapper wrapper : pool) {
-                wrapper.cancel();
-            }
-        }
-    }
-
     @Override
     public Map<String, SyncTaskStatistic> getSyncTaskStatistics() {
         return dpq.getSyncTaskStatistics();
@@ -100,6 +55,24 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         );
     }
 
+    @Override
+    public TimeoutTaskStatistic getTimeoutTaskStatistic() {
+        if (timeoutTimer == null) {
+            return new TimeoutTaskStatistic(false, 0, 0);
+        }
+
+        return new TimeoutTaskStatistic(true, timeoutTimer.getPendingCount(), timeoutTimer.getExpiredCount());
+    }
+
+    @Override
+    public VirtualThreadStatistic getVirtualThreadStatistic() {
+        if (virtualThreadExecutor == null) {
+            return new VirtualThreadStatistic(false, 0, 0, 0, 0);
+        }
+
+        return virtualThreadExecutor.getStatistic();
+    }
+
     public static class Worker<T> implements Callable<T> {
         private final Task<T> _task;
 
@@ -130,23 +103,66 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
         }
         _pool = new ScheduledThreadPoolExecutorExt(totalThreadNum, this, this);
         _logger.debug(String.format("create ThreadFacade with max thread number:%s", totalThreadNum));
-        dpq = new DispatchQueueImpl();
+        if (ThreadGlobalProperty.VIRTUAL_THREAD) {
+            virtualThreadExecutor = VirtualThreadExecutor.create(_pool);
+            if (virtualThreadExecutor != null) {
+                _logger.debug("ThreadFacade runs submitted tasks in virtual threads");
+            }
+        }
+        dpq = ThreadGlobalProperty.CONCURRENT_DISPATCH_QUEUE ? new ConcurrentDispatchQueueImpl() : new DispatchQueueImpl();
+        if (ThreadGlobalProperty.HASHED_WHEEL_TIMER) {
+            timeoutTimer = new HashedWheelTimer("zs-timeout-timer", TIMEOUT_TIMER_TICK_MS, TimeUnit.MILLISECONDS,
+                    TIMEOUT_TIMER_TICKS_PER_WHEEL, task -> submit(new Task<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    task.run();
+                    return null;
+                }
+
+                @Override
+                public String getName() {
+                    return "timeout-task";
+                }
+            }));
+        }
 
         jmxf.registerBean("ThreadFacade", this);
     }
 
     public void destroy() {
         _pool.shutdownNow();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
     }
 
     @Override
     public <T> Future<T> submit(Task<T> task) {
+        if (virtualThreadExecutor != null) {
+            return virtualThreadExecutor.submit(new Worker<T>(task));
+        }
+
         return _pool.submit(new Worker<T>(task));
     }
 
+    // threads of the pool, see isPoolThread()
+    private static class PoolThread extends Thread {
+        PoolThread(Runnable target, String name) {
+            super(target, name);
+        }
+    }
+
+    /**
+     * @return true if the current thread is a thread of the pool, which must not be parked waiting for
+     * work that needs the pool itself
+     */
+    public static boolean isPoolThread() {
+        return Thread.currentThread() instanceof PoolThread;
+    }
+
     @Override
     public Thread newThread(Runnable arg0) {
-        return new Thread(arg0, "zs-thread-" + String.valueOf(seqNum.getAndIncrement()));
+        return new PoolThread(arg0, "zs-thread-" + String.valueOf(seqNum.getAndIncrement()));
     }
 
 
@@ -226,49 +242,16 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
 
     @Override
     public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-
-        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
-            @Override
-            @AsyncThread
-            public void run() {
-                try {
-                    task.run();
-                } catch (Throwable t) {
-                    _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                } finally {
-                    this.cancel();
-                }
-            }
-
-            @Override
-            public boolean cancel() {
-                boolean ret = super.cancel();
-                timer.notifyCancel();
-                return ret;
-            }
+        if (timeoutTimer != null) {
+            return timeoutTimer.newTimeout(task, unit, delay);
         }
 
-        TimerTaskWorker worker = new TimerTaskWorker();
-        timer.schedule(worker, unit.toMillis(delay));
-        return worker;
+        return timerPool.submitTimeoutTask(task, unit, delay);
     }
 
     @Override
     public void submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
-        final TimerWrapper timer = timerPool.getTimer();
-        timer.schedule(new java.util.TimerTask() {
-            @Override
-            public void run() {
-                try {
-                    if (task.run()) {
-                        cancel();
-                    }
-                } catch (Throwable t) {
-                    _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
-                }
-            }
-        }, unit.toMillis(delay));
+        timerPool.submitTimerTask(task, unit, delay);
     }
 
     @Override
@@ -279,7 +262,13 @@ public class ThreadFacadeImpl implements ThreadFacade, ThreadFactory, RejectedEx
     @Override
     public boolean stop() {
         _pool.shutdown();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
         timerPool.stop();
+        if (timeoutTimer != null) {
+            timeoutTimer.stop();
+        }
         return true;
     }
 
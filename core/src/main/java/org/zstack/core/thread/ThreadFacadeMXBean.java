@@ -10,4 +10,8 @@ public interface ThreadFacadeMXBean {
     Map<String, ChainTaskStatistic> getChainTaskStatistics();
 
     ThreadPoolStatistic getThreadPoolStatistic();
+
+    VirtualThreadStatistic getVirtualThreadStatistic();
+
+    TimeoutTaskStatistic getTimeoutTaskStatistic();
 }
@@ -9,4 +9,10 @@ import org.zstack.core.GlobalPropertyDefinition;
 public class ThreadGlobalProperty {
     @GlobalProperty(name="ThreadFacade.maxThreadNum", defaultValue = "100")
     public static int MAX_THREAD_NUM;
+    @GlobalProperty(name="ThreadFacade.concurrentDispatchQueue", defaultValue = "false")
+    public static boolean CONCURRENT_DISPATCH_QUEUE;
+    @GlobalProperty(name="ThreadFacade.virtualThread", defaultValue = "false")
+    public static boolean VIRTUAL_THREAD;
+    @GlobalProperty(name="ThreadFacade.hashedWheelTimer", defaultValue = "false")
+    public static boolean HASHED_WHEEL_TIMER;
 }
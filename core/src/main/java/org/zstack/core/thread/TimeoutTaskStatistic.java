@@ -0,0 +1,36 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class TimeoutTaskStatistic {
+    private boolean hashedWheelTimer;
+    private long pendingTaskNum;
+    private long expiredTaskNum;
+
+    @ConstructorProperties({"hashedWheelTimer", "pendingTaskNum", "expiredTaskNum"})
+    public TimeoutTaskStatistic(boolean hashedWheelTimer, long pendingTaskNum, long expiredTaskNum) {
+        this.hashedWheelTimer = hashedWheelTimer;
+        this.pendingTaskNum = pendingTaskNum;
+        this.expiredTaskNum = expiredTaskNum;
+    }
+
+    /**
+     * false if timeout tasks run in the java.util.Timer pool, which doesn't count them
+     */
+    public boolean isHashedWheelTimer() {
+        return hashedWheelTimer;
+    }
+
+    /**
+     * timeout tasks neither expired nor cancelled
+     */
+    public long getPendingTaskNum() {
+        return pendingTaskNum;
+    }
+
+    public long getExpiredTaskNum() {
+        return expiredTaskNum;
+    }
+}
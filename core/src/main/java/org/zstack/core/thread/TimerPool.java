@@ -0,0 +1,108 @@
+package org.zstack.core.thread;
+
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.logging.CLoggerImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * java.util.Timer instances used in turn for timer tasks and, when ThreadFacade.hashedWheelTimer
+ * is false, for timeout tasks
+ */
+public class TimerPool {
+    private static final CLogger _logger = CLoggerImpl.getLogger(TimerPool.class);
+
+    private static class TimerWrapper extends Timer {
+        private int cancelledTimerTaskCount = 0;
+        private static final int PURGE_CANCELLED_TIMER_TASK_THRESHOLD = 2000;
+
+        void notifyCancel() {
+            if (cancelledTimerTaskCount++ >= PURGE_CANCELLED_TIMER_TASK_THRESHOLD) {
+                cancelledTimerTaskCount = 0;
+                this.purge();
+            }
+        }
+    }
+
+    private int poolSize;
+    private List<TimerWrapper> pool;
+
+    // never use a long type counter for self increment. two issues
+    // 1) Java will silently overflow a number; even a long will be overflow someday
+    // 2) big number causes extremely bad performance for mod operation
+    // instead, reset the counter when it exceeds COUNTER_RESET_THRESHOLD to maintain
+    // decent performance for mod operation.
+    private int counter = 0;
+    private static final int COUNTER_RESET_THRESHOLD = 1000000;
+
+    public TimerPool(int poolSize) {
+        this.poolSize = poolSize;
+        pool = new ArrayList<TimerWrapper>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(new TimerWrapper());
+        }
+    }
+
+    private TimerWrapper getTimer() {
+        int index = ++counter % poolSize;
+        if (counter > COUNTER_RESET_THRESHOLD) {
+            counter = 0;
+        }
+        return pool.get(index);
+    }
+
+    public TimeoutTaskReceipt submitTimeoutTask(final Runnable task, TimeUnit unit, long delay) {
+        final TimerWrapper timer = getTimer();
+
+        class TimerTaskWorker extends java.util.TimerTask implements TimeoutTaskReceipt {
+            @Override
+            @AsyncThread
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+                } finally {
+                    this.cancel();
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                boolean ret = super.cancel();
+                timer.notifyCancel();
+                return ret;
+            }
+        }
+
+        TimerTaskWorker worker = new TimerTaskWorker();
+        timer.schedule(worker, unit.toMillis(delay));
+        return worker;
+    }
+
+    public void submitTimerTask(final TimerTask task, TimeUnit unit, long delay) {
+        final TimerWrapper timer = getTimer();
+        timer.schedule(new java.util.TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    if (task.run()) {
+                        cancel();
+                    }
+                } catch (Throwable t) {
+                    _logger.warn(String.format("Unhandled exception happened when running %s", task.getClass().getName()), t);
+                }
+            }
+        }, unit.toMillis(delay));
+    }
+
+    public void stop() {
+        for (TimerWrapper wrapper : pool) {
+            wrapper.cancel();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.zstack.core.thread;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Runs each task in its own virtual thread, so tasks blocking on DB locks or HTTP
+ * calls don't occupy the platform threads of ThreadFacade.
+ *
+ * Virtual threads are only available since JDK 21, all JDK APIs are called by reflection;
+ * on older JDKs create() returns null and ThreadFacade keeps using the thread pool.
+ */
+class VirtualThreadExecutor {
+    private static final CLogger logger = Utils.getLogger(VirtualThreadExecutor.class);
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutorExt hookSource;
+    private Object pinnedEventStream;
+
+    private final AtomicLong submitted = new AtomicLong(0);
+    private final AtomicLong running = new AtomicLong(0);
+    private final AtomicLong completed = new AtomicLong(0);
+    private final AtomicLong pinned = new AtomicLong(0);
+
+    private VirtualThreadExecutor(ExecutorService executor, ScheduledThreadPoolExecutorExt hookSource) {
+        this.executor = executor;
+        this.hookSource = hookSource;
+    }
+
+    static VirtualThreadExecutor create(ScheduledThreadPoolExecutorExt hookSource) {
+        ExecutorService executor;
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            executor = (ExecutorService) m.invoke(null);
+        } catch (NoSuchMethodException e) {
+            logger.warn(String.format("virtual threads are not supported by the JVM[%s], use the thread pool",
+                    System.getProperty("java.version")));
+            return null;
+        } catch (Exception e) {
+            logger.warn("unable to create the virtual thread executor, use the thread pool", e);
+            return null;
+        }
+
+        VirtualThreadExecutor vexec = new VirtualThreadExecutor(executor, hookSource);
+        vexec.startPinnedEventStream();
+        return vexec;
+    }
+
+    private void startPinnedEventStream() {
+        try {
+            Class clz = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Object stream = clz.newInstance();
+            clz.getMethod("enable", String.class).invoke(stream, PINNED_EVENT);
+            Consumer<Object> counter = e -> pinned.incrementAndGet();
+            clz.getMethod("onEvent", String.class, Consumer.class).invoke(stream, PINNED_EVENT, counter);
+            clz.getMethod("startAsync").invoke(stream);
+            pinnedEventStream = stream;
+        } catch (Exception e) {
+            logger.warn(String.format("unable to listen to %s events, the pinned event number will always be 0", PINNED_EVENT), e);
+        }
+    }
+
+    <T> Future<T> submit(Callable<T> callable) {
+        final FutureTask<T> ft = new FutureTask<T>(callable);
+        submitted.incrementAndGet();
+        executor.execute(() -> {
+            running.incrementAndGet();
+            hookSource.beforeExecute(Thread.currentThread(), ft);
+            try {
+                // FutureTask catches exceptions of the task itself
+                ft.run();
+            } finally {
+                hookSource.afterExecute(ft, null);
+                running.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        });
+        return ft;
+    }
+
+    VirtualThreadStatistic getStatistic() {
+        return new VirtualThreadStatistic(true, submitted.get(), running.get(), completed.get(), pinned.get());
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+
+        if (pinnedEventStream != null) {
+            try {
+                pinnedEventStream.getClass().getMethod("close").invoke(pinnedEventStream);
+            } catch (Exception e) {
+                logger.warn(String.format("failed to close the %s event stream", PINNED_EVENT), e);
+            }
+        }
+    }
+}
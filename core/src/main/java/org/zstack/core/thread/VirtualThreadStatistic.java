@@ -0,0 +1,46 @@
+package org.zstack.core.thread;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class VirtualThreadStatistic {
+    private boolean enabled;
+    private long submittedTaskNum;
+    private long runningTaskNum;
+    private long completedTaskNum;
+    private long pinnedEventNum;
+
+    @ConstructorProperties({"enabled", "submittedTaskNum", "runningTaskNum", "completedTaskNum", "pinnedEventNum"})
+    public VirtualThreadStatistic(boolean enabled, long submittedTaskNum, long runningTaskNum, long completedTaskNum, long pinnedEventNum) {
+        this.enabled = enabled;
+        this.submittedTaskNum = submittedTaskNum;
+        this.runningTaskNum = runningTaskNum;
+        this.completedTaskNum = completedTaskNum;
+        this.pinnedEventNum = pinnedEventNum;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getSubmittedTaskNum() {
+        return submittedTaskNum;
+    }
+
+    public long getRunningTaskNum() {
+        return runningTaskNum;
+    }
+
+    public long getCompletedTaskNum() {
+        return completedTaskNum;
+    }
+
+    /**
+     * number of jdk.VirtualThreadPinned events, a virtual thread blocked while
+     * pinned to its carrier thread(e.g. in a synchronized block or a native call)
+     */
+    public long getPinnedEventNum() {
+        return pinnedEventNum;
+    }
+}
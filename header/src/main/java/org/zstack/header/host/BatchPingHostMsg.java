@@ -0,0 +1,20 @@
+package org.zstack.header.host;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+import java.util.List;
+
+/**
+ * ping a batch of hosts managed by the same management node in one message
+ */
+public class BatchPingHostMsg extends NeedReplyMessage {
+    private List<String> hostUuids;
+
+    public List<String> getHostUuids() {
+        return hostUuids;
+    }
+
+    public void setHostUuids(List<String> hostUuids) {
+        this.hostUuids = hostUuids;
+    }
+}
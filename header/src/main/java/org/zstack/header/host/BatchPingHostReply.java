@@ -0,0 +1,18 @@
+package org.zstack.header.host;
+
+import org.zstack.header.message.MessageReply;
+
+import java.util.Map;
+
+public class BatchPingHostReply extends MessageReply {
+    // host uuid -> the ping result of the host
+    private Map<String, PingHostReply> replies;
+
+    public Map<String, PingHostReply> getReplies() {
+        return replies;
+    }
+
+    public void setReplies(Map<String, PingHostReply> replies) {
+        this.replies = replies;
+    }
+}
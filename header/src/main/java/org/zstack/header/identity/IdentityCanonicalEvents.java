@@ -3,6 +3,7 @@ package org.zstack.header.identity;
 import org.zstack.header.message.NeedJsonSchema;
 
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by xing5 on 2016/3/21.
@@ -10,6 +11,7 @@ import java.util.Date;
 public class IdentityCanonicalEvents {
     public static final String ACCOUNT_DELETED_PATH = "/account/delete";
     public static final String USER_DELETED_PATH = "/user/delete";
+    public static final String PERMISSION_CHANGED_PATH = "/identity/permission/change";
 
     @NeedJsonSchema
     public static class AccountDeletedData {
@@ -72,4 +74,27 @@ public class IdentityCanonicalEvents {
             this.date = date;
         }
     }
+
+    @NeedJsonSchema
+    public static class PermissionChangedData {
+        // null means the permissions of all users changed
+        private List<String> userUuids;
+        private Date date = new Date();
+
+        public List<String> getUserUuids() {
+            return userUuids;
+        }
+
+        public void setUserUuids(List<String> userUuids) {
+            this.userUuids = userUuids;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
 }
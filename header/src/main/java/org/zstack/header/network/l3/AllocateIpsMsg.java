@@ -0,0 +1,43 @@
+package org.zstack.header.network.l3;
+
+import org.zstack.header.message.NeedReplyMessage;
+
+/**
+ * allocate count ips of the l3 network at once, the reply may carry fewer if the network runs out of ips
+ */
+public class AllocateIpsMsg extends NeedReplyMessage implements L3NetworkMessage, IpAllocateMessage {
+    private String allocateStrategy;
+    private String l3NetworkUuid;
+    private int count;
+
+    @Override
+    public String getAllocatorStrategy() {
+        return allocateStrategy;
+    }
+
+    public void setAllocateStrategy(String allocateStrategy) {
+        this.allocateStrategy = allocateStrategy;
+    }
+
+    public void setL3NetworkUuid(String l3NetworkUuid) {
+        this.l3NetworkUuid = l3NetworkUuid;
+    }
+
+    @Override
+    public String getL3NetworkUuid() {
+        return l3NetworkUuid;
+    }
+
+    @Override
+    public String getRequiredIp() {
+        return null;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
@@ -1,7 +1,25 @@
 package org.zstack.header.network.l3;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface IpAllocatorStrategy {
     IpAllocatorType getType();
 
     UsedIpInventory allocateIp(IpAllocateMessage msg);
+
+    /**
+     * allocate count ips, fewer are returned if no more ip is available
+     */
+    default List<UsedIpInventory> allocateIps(IpAllocateMessage msg, int count) {
+        List<UsedIpInventory> ret = new ArrayList<>(count);
+        while (ret.size() < count) {
+            UsedIpInventory ip = allocateIp(msg);
+            if (ip == null) {
+                break;
+            }
+            ret.add(ip);
+        }
+        return ret;
+    }
 }
@@ -0,0 +1,8 @@
+package org.zstack.header.network.l3;
+
+/**
+ * called after an used ip is returned to its l3 network by ReturnIpMsg
+ */
+public interface ReturnIpExtensionPoint {
+    void afterReturnIp(String l3NetworkUuid, String usedIpUuid);
+}
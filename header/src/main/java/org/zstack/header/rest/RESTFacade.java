@@ -3,6 +3,7 @@ package org.zstack.header.rest;
 import org.springframework.http.HttpEntity;
 import org.springframework.web.client.RestTemplate;
 import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.Map;
@@ -23,6 +24,16 @@ public interface RESTFacade {
 
     void asyncJsonPost(String url, String body, AsyncRESTCallback callback);
 
+    /**
+     * registers the callback of an async json post without sending the request, for callers
+     * sending the request in their own way, e.g. along with other requests in one batch.
+     * The callback is called when a response carrying the returned task uuid is posted to
+     * the callback url, or failed when it times out or by failAsyncCallback()
+     */
+    String registerAsyncCallback(String url, String body, AsyncRESTCallback callback, TimeUnit unit, long timeout);
+
+    void failAsyncCallback(String taskUuid, ErrorCode err);
+
     <T> T syncJsonPost(String url, Object body, Class<T> returnClass);
 
     <T> T syncJsonPost(String url, String body, Class<T> returnClass);
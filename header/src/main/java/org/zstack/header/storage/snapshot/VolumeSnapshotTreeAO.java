@@ -25,6 +25,9 @@ public class VolumeSnapshotTreeAO {
     @Column
     private boolean current;
 
+    @Column
+    private long version;
+
     @Column
     private Timestamp createDate;
 
@@ -75,4 +78,12 @@ public class VolumeSnapshotTreeAO {
     public void setCurrent(boolean current) {
         this.current = current;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
 }
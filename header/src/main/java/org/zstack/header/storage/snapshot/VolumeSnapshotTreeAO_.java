@@ -11,6 +11,7 @@ public class VolumeSnapshotTreeAO_ {
     public static volatile SingularAttribute<VolumeSnapshotTreeAO, String> uuid;
     public static volatile SingularAttribute<VolumeSnapshotTreeAO, Boolean> current;
     public static volatile SingularAttribute<VolumeSnapshotTreeAO, String> volumeUuid;
+    public static volatile SingularAttribute<VolumeSnapshotTreeAO, Long> version;
     public static volatile SingularAttribute<VolumeSnapshotTreeAO, Timestamp> createDate;
     public static volatile SingularAttribute<VolumeSnapshotTreeAO, Timestamp> lastOpDate;
 }
@@ -0,0 +1,35 @@
+package org.zstack.header.tag;
+
+import org.zstack.header.message.NeedJsonSchema;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ */
+public class TagCanonicalEvents {
+    public static final String SYSTEM_TAG_CHANGED_PATH = "/systemTag/change";
+
+    @NeedJsonSchema
+    public static class SystemTagChangedData {
+        // uuids of resources whose system tags are created, updated or deleted
+        private List<String> resourceUuids;
+        private Date date = new Date();
+
+        public List<String> getResourceUuids() {
+            return resourceUuids;
+        }
+
+        public void setResourceUuids(List<String> resourceUuids) {
+            this.resourceUuids = resourceUuids;
+        }
+
+        public Date getDate() {
+            return date;
+        }
+
+        public void setDate(Date date) {
+            this.date = date;
+        }
+    }
+}
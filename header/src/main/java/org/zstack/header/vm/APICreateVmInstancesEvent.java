@@ -0,0 +1,90 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.message.APIEvent;
+import org.zstack.header.rest.RestResponse;
+import org.zstack.header.rest.SDK;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+
+/**
+ * @apiResult api event for message :ref:`APICreateVmInstancesMsg`. The event succeeds once all vms
+ * are processed, whether a vm is created or not is told by its own result
+ * @since 1.11.0
+ */
+@RestResponse(allTo = "results")
+public class APICreateVmInstancesEvent extends APIEvent {
+    @SDK(sdkClassName = "CreateVmInstancesItem")
+    public static class Result {
+        private String name;
+        private VmInstanceInventory inventory;
+        private ErrorCode error;
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public VmInstanceInventory getInventory() {
+            return inventory;
+        }
+
+        public void setInventory(VmInstanceInventory inventory) {
+            this.inventory = inventory;
+        }
+
+        public ErrorCode getError() {
+            return error;
+        }
+
+        public void setError(ErrorCode error) {
+            this.error = error;
+        }
+    }
+
+    /**
+     * @desc one result for each vm, in the order of the vm names
+     */
+    private List<Result> results = new ArrayList<>();
+
+    public APICreateVmInstancesEvent() {
+        super(null);
+    }
+
+    public APICreateVmInstancesEvent(String apiId) {
+        super(apiId);
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    public void setResults(List<Result> results) {
+        this.results = results;
+    }
+
+    public static APICreateVmInstancesEvent __example__() {
+        APICreateVmInstancesEvent evt = new APICreateVmInstancesEvent();
+
+        Result r1 = new Result();
+        r1.setName("web-1");
+        r1.setInventory(APICreateVmInstanceEvent.__example__().getInventory());
+        r1.getInventory().setName("web-1");
+
+        Result r2 = new Result();
+        r2.setName("web-2");
+        ErrorCode err = new ErrorCode();
+        err.setCode("HOST_ALLOCATION.1001");
+        err.setDescription("no available host found");
+        r2.setError(err);
+
+        evt.setResults(asList(r1, r2));
+        return evt;
+    }
+}
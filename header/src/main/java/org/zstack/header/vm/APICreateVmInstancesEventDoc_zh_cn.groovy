@@ -0,0 +1,26 @@
+package org.zstack.header.vm
+
+import org.zstack.header.errorcode.ErrorCode
+import org.zstack.header.vm.APICreateVmInstancesEvent.Result
+
+doc {
+
+    title "批量创建云主机结果"
+
+    ref {
+        name "error"
+        path "org.zstack.header.vm.APICreateVmInstancesEvent.error"
+        desc "错误码，若不为null，则表示操作失败, 操作成功时该字段为null", false
+        type "ErrorCode"
+        since "1.11"
+        clz ErrorCode.class
+    }
+    ref {
+        name "results"
+        path "org.zstack.header.vm.APICreateVmInstancesEvent.results"
+        desc "每台云主机的创建结果，创建失败的云主机inventory为null，error为失败原因"
+        type "List"
+        since "1.11"
+        clz Result.class
+    }
+}
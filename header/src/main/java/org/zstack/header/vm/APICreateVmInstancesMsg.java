@@ -0,0 +1,94 @@
+package org.zstack.header.vm;
+
+import org.springframework.http.HttpMethod;
+import org.zstack.header.identity.Action;
+import org.zstack.header.message.APIEvent;
+import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.notification.ApiNotification;
+import org.zstack.header.rest.RestRequest;
+import org.zstack.header.tag.TagResourceType;
+
+import static java.util.Arrays.asList;
+
+/**
+ * @api create a batch of vm instances of the same spec. The offering and image are checked once and the
+ * vms are inserted together, their hosts, primary storage and ips are allocated together, then every vm
+ * is started by its own create flow chain in parallel, allocating by itself whatever the batch couldn't
+ * @cli
+ * @httpMsg {
+ * "org.zstack.header.vm.APICreateVmInstancesMsg": {
+ * "name": "web",
+ * "count": 100,
+ * "instanceOfferingUuid": "1618154b462a48749ca9b114cf4a2979",
+ * "imageUuid": "99a5eea648954ef7be2b8ede8f34fe26",
+ * "l3NetworkUuids": [
+ * "c4f6a370f80443798cc460ee07d56ff1"
+ * ],
+ * "session": {
+ * "uuid": "49c7e4c1fc18499a9477dd426436a8a4"
+ * }
+ * }
+ * }
+ * @result See :ref:`APICreateVmInstancesEvent`
+ * @since 1.11.0
+ */
+@TagResourceType(VmInstanceVO.class)
+@Action(category = VmInstanceConstant.ACTION_CATEGORY)
+@RestRequest(
+        path = "/vm-instances/batch",
+        method = HttpMethod.POST,
+        responseClass = APICreateVmInstancesEvent.class,
+        parameterName = "params"
+)
+public class APICreateVmInstancesMsg extends APICreateVmInstanceMsg {
+    /**
+     * @desc how many vms to create, the vms are named as name-1, name-2 ...
+     */
+    @APIParam(numberRange = {1, 1000})
+    private int count;
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public String getVmName(int index) {
+        return String.format("%s-%s", getName(), index + 1);
+    }
+
+    public static APICreateVmInstancesMsg __example__() {
+        APICreateVmInstancesMsg msg = new APICreateVmInstancesMsg();
+        msg.setName("web");
+        msg.setCount(100);
+        msg.setDescription("web servers");
+        msg.setImageUuid(uuid());
+        msg.setInstanceOfferingUuid(uuid());
+        msg.setL3NetworkUuids(asList(uuid()));
+        return msg;
+    }
+
+    @Override
+    public ApiNotification __notification__() {
+        APIMessage that = this;
+
+        return new ApiNotification() {
+            @Override
+            public void after(APIEvent evt) {
+                if (!evt.isSuccess()) {
+                    return;
+                }
+
+                for (APICreateVmInstancesEvent.Result r : ((APICreateVmInstancesEvent) evt).getResults()) {
+                    if (r.getInventory() != null) {
+                        ntfy("Created").resource(r.getInventory().getUuid(), VmInstanceVO.class.getSimpleName())
+                                .messageAndEvent(that, evt).done();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -12,6 +12,7 @@ public class StartNewCreatedVmInstanceMsg extends NeedReplyMessage implements Vm
     private List<String> dataDiskOfferingUuids;
     private String rootDiskOfferingUuid;
     private String primaryStorageUuidForRootVolume;
+    private VmPreAllocatedResources preAllocatedResources;
 
     public VmInstanceInventory getVmInstanceInventory() {
         return vmInstanceInventory;
@@ -57,4 +58,12 @@ public class StartNewCreatedVmInstanceMsg extends NeedReplyMessage implements Vm
     public void setPrimaryStorageUuidForRootVolume(String primaryStorageUuidForRootVolume) {
         this.primaryStorageUuidForRootVolume = primaryStorageUuidForRootVolume;
     }
+
+    public VmPreAllocatedResources getPreAllocatedResources() {
+        return preAllocatedResources;
+    }
+
+    public void setPreAllocatedResources(VmPreAllocatedResources preAllocatedResources) {
+        this.preAllocatedResources = preAllocatedResources;
+    }
 }
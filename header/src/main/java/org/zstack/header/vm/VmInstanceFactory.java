@@ -1,9 +1,24 @@
 package org.zstack.header.vm;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public interface VmInstanceFactory {
     VmInstanceType getType();
 
     VmInstanceVO createVmInstance(VmInstanceVO vo, CreateVmInstanceMsg msg);
 
+    /**
+     * create vms of the same spec by APICreateVmInstancesMsg, msg is the spec shared by all of them.
+     * They are created one by one by default, a factory able to insert them together overrides it
+     */
+    default List<VmInstanceVO> createVmInstances(List<VmInstanceVO> vos, CreateVmInstanceMsg msg) {
+        List<VmInstanceVO> ret = new ArrayList<>(vos.size());
+        for (VmInstanceVO vo : vos) {
+            ret.add(createVmInstance(vo, msg));
+        }
+        return ret;
+    }
+
     VmInstance getVmInstance(VmInstanceVO vo);
 }
@@ -191,6 +191,7 @@ public class VmInstanceSpec implements Serializable {
     private String consolePassword;
     private boolean instanceOfferingOnlineChange;
     private VmAccountPreference accountPerference;
+    private VmPreAllocatedResources preAllocatedResources;
 
     public VmAccountPreference getAccountPerference() {
         return accountPerference;
@@ -395,6 +396,14 @@ public class VmInstanceSpec implements Serializable {
         this.currentVmOperation = currentVmOperation;
     }
 
+    public VmPreAllocatedResources getPreAllocatedResources() {
+        return preAllocatedResources;
+    }
+
+    public void setPreAllocatedResources(VmPreAllocatedResources preAllocatedResources) {
+        this.preAllocatedResources = preAllocatedResources;
+    }
+
     public VmInstanceInventory getVmInventory() {
         return vmInventory;
     }
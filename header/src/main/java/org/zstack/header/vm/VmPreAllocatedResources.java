@@ -0,0 +1,60 @@
+package org.zstack.header.vm;
+
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.network.l3.UsedIpInventory;
+import org.zstack.header.vm.VmInstanceSpec.VolumeSpec;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resources allocated for a vm of APICreateVmInstancesMsg together with the other vms of the batch,
+ * before its create flow chain runs. A flow of the chain takes its part and removes it from here instead
+ * of allocating it, what is left when the chain ends is returned.
+ */
+public class VmPreAllocatedResources implements Serializable {
+    private String backupStorageUuid;
+    private HostInventory host;
+    private List<VolumeSpec> volumeSpecs = new ArrayList<>();
+    // l3 network uuid -> ip
+    private Map<String, UsedIpInventory> ips = new HashMap<>();
+
+    public String getBackupStorageUuid() {
+        return backupStorageUuid;
+    }
+
+    public void setBackupStorageUuid(String backupStorageUuid) {
+        this.backupStorageUuid = backupStorageUuid;
+    }
+
+    public HostInventory getHost() {
+        return host;
+    }
+
+    public void setHost(HostInventory host) {
+        this.host = host;
+    }
+
+    public List<VolumeSpec> getVolumeSpecs() {
+        return volumeSpecs;
+    }
+
+    public void setVolumeSpecs(List<VolumeSpec> volumeSpecs) {
+        this.volumeSpecs = volumeSpecs;
+    }
+
+    public Map<String, UsedIpInventory> getIps() {
+        return ips;
+    }
+
+    public void setIps(Map<String, UsedIpInventory> ips) {
+        this.ips = ips;
+    }
+
+    public boolean isEmpty() {
+        return host == null && volumeSpecs.isEmpty() && ips.isEmpty();
+    }
+}
@@ -318,20 +318,33 @@ public class AccountBase extends AbstractAccount {
         bus.publish(evt);
     }
 
+    private List<String> getGroupUserUuids(String groupUuid) {
+        SimpleQuery<UserGroupUserRefVO> q = dbf.createQuery(UserGroupUserRefVO.class);
+        q.select(UserGroupUserRefVO_.userUuid);
+        q.add(UserGroupUserRefVO_.groupUuid, Op.EQ, groupUuid);
+        return q.listValue();
+    }
+
     @Transactional
-    private void handle(APIDetachPoliciesFromUserMsg msg) {
+    private void detachPoliciesFromUser(APIDetachPoliciesFromUserMsg msg) {
         String sql = "delete from UserPolicyRefVO ref where ref.policyUuid in (:puuids) and ref.userUuid = :userUuid";
         Query q = dbf.getEntityManager().createQuery(sql);
         q.setParameter("puuids", msg.getPolicyUuids());
         q.setParameter("userUuid", msg.getUserUuid());
         q.executeUpdate();
+    }
+
+    private void handle(APIDetachPoliciesFromUserMsg msg) {
+        detachPoliciesFromUser(msg);
+        // invalidate after the transaction commits, or the old policies may be cached again
+        acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
 
         APIDetachPoliciesFromUserEvent evt = new APIDetachPoliciesFromUserEvent(msg.getId());
         bus.publish(evt);
     }
 
     @Transactional
-    private void handle(APIAttachPoliciesToUserMsg msg) {
+    private void attachPoliciesToUser(APIAttachPoliciesToUserMsg msg) {
         for (String puuid : msg.getPolicyUuids()) {
             try {
                 UserPolicyRefVO refVO = new UserPolicyRefVO();
@@ -347,6 +360,11 @@ public class AccountBase extends AbstractAccount {
                 // the policy is already attached
             }
         }
+    }
+
+    private void handle(APIAttachPoliciesToUserMsg msg) {
+        attachPoliciesToUser(msg);
+        acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
 
         APIAttachPoliciesToUserEvent evt = new APIAttachPoliciesToUserEvent(msg.getId());
         bus.publish(evt);
@@ -527,6 +545,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupUserRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
         }
 
         bus.publish(new APIRemoveUserFromGroupEvent(msg.getId()));
@@ -539,6 +558,7 @@ public class AccountBase extends AbstractAccount {
         UserGroupPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.invalidatePermissionCache(getGroupUserUuids(msg.getGroupUuid()));
         }
 
         bus.publish(new APIDetachPolicyFromUserGroupEvent(msg.getId()));
@@ -551,6 +571,7 @@ public class AccountBase extends AbstractAccount {
         UserPolicyRefVO ref = q.find();
         if (ref != null) {
             dbf.remove(ref);
+            acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
         }
 
         bus.publish(new APIDetachPolicyFromUserEvent(msg.getId()));
@@ -558,6 +579,8 @@ public class AccountBase extends AbstractAccount {
 
     private void handle(APIDeletePolicyMsg msg) {
         dbf.removeByPrimaryKey(msg.getUuid(), PolicyVO.class);
+        // the policy may be attached to any users and groups
+        acntMgr.invalidatePermissionCache(null);
         APIDeletePolicyEvent evt = new APIDeletePolicyEvent(msg.getId());
         bus.publish(evt);
     }
@@ -579,7 +602,9 @@ public class AccountBase extends AbstractAccount {
     }
 
     private void handle(APIDeleteUserGroupMsg msg) {
+        List<String> userUuids = getGroupUserUuids(msg.getUuid());
         dbf.removeByPrimaryKey(msg.getUuid(), UserGroupVO.class);
+        acntMgr.invalidatePermissionCache(userUuids);
         APIDeleteUserGroupEvent evt = new APIDeleteUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -589,6 +614,7 @@ public class AccountBase extends AbstractAccount {
         ugvo.setGroupUuid(msg.getGroupUuid());
         ugvo.setUserUuid(msg.getUserUuid());
         dbf.persist(ugvo);
+        acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
         APIAddUserToGroupEvent evt = new APIAddUserToGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -608,6 +634,8 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        acntMgr.invalidatePermissionCache(getGroupUserUuids(msg.getGroupUuid()));
+
         APIAttachPolicyToUserGroupEvent evt = new APIAttachPolicyToUserGroupEvent(msg.getId());
         bus.publish(evt);
     }
@@ -646,6 +674,8 @@ public class AccountBase extends AbstractAccount {
             // the policy is already attached
         }
 
+        acntMgr.invalidatePermissionCache(list(msg.getUserUuid()));
+
         APIAttachPolicyToUserEvent evt = new APIAttachPolicyToUserEvent(msg.getId());
         bus.publish(evt);
     }
@@ -5,6 +5,7 @@ import org.zstack.header.identity.Quota;
 import org.zstack.header.identity.SessionInventory;
 import org.zstack.header.message.APIMessage;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -26,4 +27,11 @@ public interface AccountManager {
     void checkApiMessagePermission(APIMessage msg);
 
     boolean isAdmin(SessionInventory session);
+
+    /**
+     * drop the cached permission decisions of the users on all management nodes
+     *
+     * @param userUuids null means all users
+     */
+    void invalidatePermissionCache(Collection<String> userUuids);
 }
@@ -27,6 +27,7 @@ import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.identity.*;
 import org.zstack.header.identity.AccountConstant.StatementEffect;
 import org.zstack.header.identity.IdentityCanonicalEvents.AccountDeletedData;
+import org.zstack.header.identity.IdentityCanonicalEvents.PermissionChangedData;
 import org.zstack.header.identity.IdentityCanonicalEvents.UserDeletedData;
 import org.zstack.header.identity.PolicyInventory.Statement;
 import org.zstack.header.identity.Quota.QuotaPair;
@@ -92,6 +93,54 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
     private HashSet<Class> accountApiControlInternal = new HashSet<>();
     private List<Quota> definedQuotas = new ArrayList<>();
 
+    // user uuid -> the compiled policies of the user and the decisions made on them
+    private final Map<String, UserPermission> userPermissions = new ConcurrentHashMap<>();
+    // bumped by every invalidation, a permission loaded across an invalidation is not cached
+    private volatile long permissionGeneration;
+
+    private static class CompiledStatement {
+        PolicyInventory policy;
+        Statement statement;
+        List<Pattern> patterns = new ArrayList<>();
+    }
+
+    private static class Decision {
+        PolicyInventory policy;
+        String action;
+        Statement statement;
+        String actionRule;
+        StatementEffect effect;
+        boolean userPolicy;
+    }
+
+    // the user has no policy set for the API
+    private static final Decision NO_DECISION = new Decision();
+
+    private class UserPermission {
+        String username;
+        List<CompiledStatement> userStatements;
+        List<CompiledStatement> groupStatements;
+        Map<Class, Decision> decisions = new ConcurrentHashMap<>();
+
+        Decision decide(Class apiClass, MessageAction action) {
+            Decision d = decisions.get(apiClass);
+            if (d != null) {
+                return d;
+            }
+
+            d = AccountManagerImpl.this.decide(apiClass, action.actions, userStatements, true);
+            if (d == null) {
+                d = AccountManagerImpl.this.decide(apiClass, action.actions, groupStatements, false);
+            }
+            if (d == null) {
+                d = NO_DECISION;
+            }
+
+            decisions.put(apiClass, d);
+            return d;
+        }
+    }
+
     @Override
     public Map<Class, ApiNotificationFactory> apiNotificationFactory() {
         Map<Class, ApiNotificationFactory> factories = new HashMap<>();
@@ -241,6 +290,127 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
         return AccountConstant.INITIAL_SYSTEM_ADMIN_UUID.equals(session.getAccountUuid());
     }
 
+    @Override
+    public void invalidatePermissionCache(Collection<String> userUuids) {
+        // drop our own cache now, the canonical event arrives asynchronously
+        dropPermissionCache(userUuids);
+
+        PermissionChangedData d = new PermissionChangedData();
+        d.setUserUuids(userUuids == null ? null : new ArrayList<>(userUuids));
+        evtf.fire(IdentityCanonicalEvents.PERMISSION_CHANGED_PATH, d);
+    }
+
+    private void dropPermissionCache(Collection<String> userUuids) {
+        synchronized (userPermissions) {
+            permissionGeneration++;
+            if (userUuids == null) {
+                userPermissions.clear();
+            } else {
+                userPermissions.keySet().removeAll(userUuids);
+            }
+        }
+    }
+
+    private UserPermission getUserPermission(String userUuid) {
+        if (!IdentityGlobalProperty.PERMISSION_CACHE) {
+            return loadUserPermission(userUuid);
+        }
+
+        UserPermission perm = userPermissions.get(userUuid);
+        if (perm != null) {
+            return perm;
+        }
+
+        long generation = permissionGeneration;
+        perm = loadUserPermission(userUuid);
+        synchronized (userPermissions) {
+            if (generation == permissionGeneration) {
+                userPermissions.put(userUuid, perm);
+            }
+        }
+
+        return perm;
+    }
+
+    private UserPermission loadUserPermission(String userUuid) {
+        SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
+        uq.select(UserVO_.name);
+        uq.add(UserVO_.uuid, Op.EQ, userUuid);
+
+        UserPermission perm = new UserPermission();
+        perm.username = uq.findValue();
+        perm.userStatements = compileStatements(getUserPolicies(userUuid));
+        perm.groupStatements = compileStatements(getGroupPolicies(userUuid));
+        return perm;
+    }
+
+    private List<CompiledStatement> compileStatements(List<PolicyInventory> policies) {
+        List<CompiledStatement> ret = new ArrayList<>();
+        for (PolicyInventory p : policies) {
+            for (Statement s : p.getStatements()) {
+                CompiledStatement cs = new CompiledStatement();
+                cs.policy = p;
+                cs.statement = s;
+                for (String ac : s.getActions()) {
+                    cs.patterns.add(Pattern.compile(ac));
+                }
+                ret.add(cs);
+            }
+        }
+
+        return ret;
+    }
+
+    private Decision decide(Class apiClass, List<String> actions, List<CompiledStatement> statements, boolean userPolicy) {
+        for (String a : actions) {
+            for (CompiledStatement cs : statements) {
+                for (int i = 0; i < cs.patterns.size(); i++) {
+                    Matcher m = cs.patterns.get(i).matcher(a);
+                    boolean ret = m.matches();
+                    if (ret) {
+                        Decision d = new Decision();
+                        d.policy = cs.policy;
+                        d.action = a;
+                        d.statement = cs.statement;
+                        d.actionRule = cs.statement.getActions().get(i);
+                        d.effect = cs.statement.getEffect();
+                        d.userPolicy = userPolicy;
+                        return d;
+                    }
+
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
+                                        ", statement[name: %s, action: %s, effect: %s]", apiClass.getSimpleName(),
+                                a, cs.policy.getName(), cs.policy.getUuid(), cs.statement.getName(),
+                                cs.statement.getActions().get(i), cs.statement.getEffect()));
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    @Transactional(readOnly = true)
+    private List<PolicyInventory> getGroupPolicies(String userUuid) {
+        String sql = "select p" +
+                " from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref" +
+                " where p.uuid = gref.policyUuid" +
+                " and gref.groupUuid = ref.groupUuid" +
+                " and ref.userUuid = :uuid";
+        TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        return PolicyInventory.valueOf(q.getResultList());
+    }
+
+    @Transactional(readOnly = true)
+    private List<PolicyInventory> getUserPolicies(String userUuid) {
+        String sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
+        TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
+        q.setParameter("uuid", userUuid);
+        return PolicyInventory.valueOf(q.getResultList());
+    }
+
     private void handle(GenerateMessageIdentityCategoryMsg msg) {
         List<String> adminMsgs = new ArrayList<>();
         List<String> userMsgs = new ArrayList<>();
@@ -708,6 +878,9 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                     logger.debug(String.format("successfully removed %s sessions for the deleted account[%s]", suuids.size(),
                             d.getAccountUuid()));
                 }
+
+                // users, groups and policies of the account are all gone
+                dropPermissionCache(null);
             }
         });
 
@@ -729,6 +902,21 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                     logger.debug(String.format("successfully removed %s sessions for the deleted user[%s]", suuids.size(),
                             d.getUserUuid()));
                 }
+
+                dropPermissionCache(list(d.getUserUuid()));
+            }
+        });
+
+        evtf.on(IdentityCanonicalEvents.PERMISSION_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // dropped by invalidatePermissionCache() already
+                    return;
+                }
+
+                PermissionChangedData d = (PermissionChangedData) data;
+                dropPermissionCache(d.getUserUuids());
             }
         });
     }
@@ -1286,8 +1474,8 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             }
         }
 
-        private void useDecision(Decision d, boolean userPolicy) {
-            String policyCategory = userPolicy ? "user policy" : "group policy";
+        private void useDecision(Decision d) {
+            String policyCategory = d.userPolicy ? "user policy" : "group policy";
 
             if (d.effect == StatementEffect.Allow) {
                 logger.debug(String.format("API[name: %s, action: %s] is approved by a %s[name: %s, uuid: %s]," +
@@ -1361,22 +1549,12 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
                 return;
             }
 
-            SimpleQuery<UserVO> uq = dbf.createQuery(UserVO.class);
-            uq.select(UserVO_.name);
-            uq.add(UserVO_.uuid, Op.EQ, session.getUserUuid());
-            username = uq.findValue();
+            UserPermission perm = getUserPermission(session.getUserUuid());
+            username = perm.username;
 
-            List<PolicyInventory> userPolicies = getUserPolicies();
-            Decision d = decide(userPolicies);
-            if (d != null) {
-                useDecision(d, true);
-                return;
-            }
-
-            List<PolicyInventory> groupPolicies = getGroupPolicies();
-            d = decide(groupPolicies);
-            if (d != null) {
-                useDecision(d, false);
+            Decision d = perm.decide(msg.getClass(), action);
+            if (d != NO_DECISION) {
+                useDecision(d);
                 return;
             }
 
@@ -1386,66 +1564,6 @@ public class AccountManagerImpl extends AbstractService implements AccountManage
             ));
         }
 
-
-        @Transactional(readOnly = true)
-        private List<PolicyInventory> getGroupPolicies() {
-            String sql = "select p" +
-                    " from PolicyVO p, UserGroupUserRefVO ref, UserGroupPolicyRefVO gref" +
-                    " where p.uuid = gref.policyUuid" +
-                    " and gref.groupUuid = ref.groupUuid" +
-                    " and ref.userUuid = :uuid";
-            TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
-            q.setParameter("uuid", session.getUserUuid());
-            return PolicyInventory.valueOf(q.getResultList());
-        }
-
-        class Decision {
-            PolicyInventory policy;
-            String action;
-            Statement statement;
-            String actionRule;
-            StatementEffect effect;
-        }
-
-        private Decision decide(List<PolicyInventory> userPolicies) {
-            for (String a : action.actions) {
-                for (PolicyInventory p : userPolicies) {
-                    for (Statement s : p.getStatements()) {
-                        for (String ac : s.getActions()) {
-                            Pattern pattern = Pattern.compile(ac);
-                            Matcher m = pattern.matcher(a);
-                            boolean ret = m.matches();
-                            if (ret) {
-                                Decision d = new Decision();
-                                d.policy = p;
-                                d.action = a;
-                                d.statement = s;
-                                d.actionRule = ac;
-                                d.effect = s.getEffect();
-                                return d;
-                            }
-
-                            if (logger.isTraceEnabled()) {
-                                logger.trace(String.format("API[name: %s, action: %s] is not matched by policy[name: %s, uuid: %s" +
-                                                ", statement[name: %s, action: %s, effect: %s]", msg.getClass().getSimpleName(),
-                                        a, p.getName(), p.getUuid(), s.getName(), ac, s.getEffect()));
-                            }
-                        }
-                    }
-                }
-            }
-
-            return null;
-        }
-
-        @Transactional(readOnly = true)
-        private List<PolicyInventory> getUserPolicies() {
-            String sql = "select p from PolicyVO p, UserPolicyRefVO ref where ref.userUuid = :uuid and ref.policyUuid = p.uuid";
-            TypedQuery<PolicyVO> q = dbf.getEntityManager().createQuery(sql, PolicyVO.class);
-            q.setParameter("uuid", session.getUserUuid());
-            return PolicyInventory.valueOf(q.getResultList());
-        }
-
         private void sessionCheck() {
             if (msg.getSession() == null) {
                 throw new ApiMessageInterceptionException(errf.instantiateErrorCode(IdentityErrors.INVALID_SESSION,
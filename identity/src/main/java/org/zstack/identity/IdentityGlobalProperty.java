@@ -0,0 +1,12 @@
+package org.zstack.identity;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class IdentityGlobalProperty {
+    @GlobalProperty(name="Identity.permissionCache", defaultValue = "true")
+    public static boolean PERMISSION_CACHE;
+}
@@ -0,0 +1,284 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.managementnode.ManagementNodeChangeListener;
+import org.zstack.header.network.l3.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+import org.zstack.utils.network.NetworkUtils;
+
+import javax.persistence.Tuple;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allocates ip from an in-memory bitmap of each ip range, only the chosen ip is persisted. The ips of
+ * AllocateIpsMsg are taken from the bitmap together and persisted in one transaction.
+ *
+ * The bitmap is built from UsedIpVO the first time the range is used on this management node,
+ * as messages of a l3 network are sent to the node owning it. The bitmap is only a hint: an ip
+ * taken by other allocators or other management nodes is caught by reserveIp() and we try next,
+ * an ip released without ReturnIpMsg is found by rebuilding the bitmap when the range is full.
+ * A full range is rebuilt at most once every L3Network.bitmapRebuildInterval seconds, unless
+ * an ip of its l3 network unknown to us has been returned since the last build.
+ *
+ * The ips known to the bitmap of a range are also kept by their UsedIpVO uuids, so an ip returned
+ * by ReturnIpMsg is cleared without loading its UsedIpVO.
+ */
+public class BitmapIpAllocatorStrategy extends AbstractIpAllocatorStrategy implements ReturnIpExtensionPoint,
+        IpRangeDeletionExtensionPoint, ManagementNodeChangeListener {
+    private static final CLogger logger = Utils.getLogger(BitmapIpAllocatorStrategy.class);
+    public static final IpAllocatorType type = new IpAllocatorType(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+
+    private final ConcurrentHashMap<String, RangeIps> ranges = new ConcurrentHashMap<String, RangeIps>();
+    private final Random random = new Random();
+
+    @Override
+    public IpAllocatorType getType() {
+        return type;
+    }
+
+    private static class RangeIps {
+        final String l3NetworkUuid;
+        final IpRangeBitmap bitmap;
+        // UsedIpVO uuid -> ip of the ips set in the bitmap
+        final ConcurrentHashMap<String, Long> usedIps;
+        final long builtAt = System.currentTimeMillis();
+        volatile boolean unknownIpReturned;
+
+        RangeIps(String l3NetworkUuid, IpRangeBitmap bitmap, ConcurrentHashMap<String, Long> usedIps) {
+            this.l3NetworkUuid = l3NetworkUuid;
+            this.bitmap = bitmap;
+            this.usedIps = usedIps;
+        }
+
+        boolean canRebuild() {
+            return unknownIpReturned ||
+                    System.currentTimeMillis() - builtAt >= TimeUnit.SECONDS.toMillis(L3NetworkGlobalProperty.BITMAP_REBUILD_INTERVAL);
+        }
+    }
+
+    private RangeIps build(IpRangeVO vo) {
+        SimpleQuery<UsedIpVO> q = dbf.createQuery(UsedIpVO.class);
+        q.select(UsedIpVO_.uuid, UsedIpVO_.ipInLong);
+        q.add(UsedIpVO_.ipRangeUuid, Op.EQ, vo.getUuid());
+        List<Tuple> ts = q.listTuple();
+
+        ConcurrentHashMap<String, Long> usedIps = new ConcurrentHashMap<String, Long>();
+        for (Tuple t : ts) {
+            usedIps.put(t.get(0, String.class), t.get(1, Long.class));
+        }
+
+        RangeIps r = new RangeIps(vo.getL3NetworkUuid(), new IpRangeBitmap(NetworkUtils.ipv4StringToLong(vo.getStartIp()),
+                NetworkUtils.ipv4StringToLong(vo.getEndIp()), usedIps.values()), usedIps);
+        ranges.put(vo.getUuid(), r);
+        return r;
+    }
+
+    private RangeIps get(IpRangeVO vo) {
+        RangeIps r = ranges.get(vo.getUuid());
+        return r == null ? build(vo) : r;
+    }
+
+    @Override
+    public UsedIpInventory allocateIp(IpAllocateMessage msg) {
+        if (msg.getRequiredIp() != null) {
+            UsedIpInventory inv = allocateRequiredIp(msg);
+            if (inv != null) {
+                RangeIps r = ranges.get(inv.getIpRangeUuid());
+                if (r != null) {
+                    r.bitmap.set(inv.getIpInLong());
+                    r.usedIps.put(inv.getUuid(), inv.getIpInLong());
+                }
+            }
+            return inv;
+        }
+
+        SimpleQuery<IpRangeVO> query = dbf.createQuery(IpRangeVO.class);
+        query.add(IpRangeVO_.l3NetworkUuid, Op.EQ, msg.getL3NetworkUuid());
+        List<IpRangeVO> ranges = query.list();
+
+        Collections.shuffle(ranges);
+
+        for (IpRangeVO r : ranges) {
+            UsedIpInventory inv = allocateIp(r);
+            if (inv != null) {
+                return inv;
+            }
+        }
+
+        /* No available ip in ranges */
+        return null;
+    }
+
+    private UsedIpInventory allocateIp(IpRangeVO vo) {
+        RangeIps r = get(vo);
+        boolean rebuilt = false;
+
+        while (true) {
+            long ip = r.bitmap.allocate(random.nextInt(r.bitmap.getSize()));
+            if (ip == -1) {
+                // ips may be released without ReturnIpMsg, e.g. deleted along with their ip range
+                // or by other management nodes; check the database before giving up, but not on every
+                // allocation to a full range
+                if (rebuilt || !r.canRebuild()) {
+                    logger.debug(String.format("ip range[uuid:%s] has no ip available, try next one", vo.getUuid()));
+                    return null;
+                }
+
+                r = build(vo);
+                rebuilt = true;
+                continue;
+            }
+
+            UsedIpInventory inv;
+            try {
+                inv = l3NwMgr.reserveIp(IpRangeInventory.valueOf(vo), NetworkUtils.longToIpv4String(ip));
+            } catch (RuntimeException e) {
+                r.bitmap.clear(ip);
+                throw e;
+            }
+
+            if (inv != null) {
+                r.usedIps.put(inv.getUuid(), ip);
+                return inv;
+            }
+
+            // the ip has been taken by somebody else, it remains set in the bitmap
+        }
+    }
+
+    @Override
+    public List<UsedIpInventory> allocateIps(IpAllocateMessage msg, int count) {
+        SimpleQuery<IpRangeVO> query = dbf.createQuery(IpRangeVO.class);
+        query.add(IpRangeVO_.l3NetworkUuid, Op.EQ, msg.getL3NetworkUuid());
+        List<IpRangeVO> ranges = query.list();
+
+        Collections.shuffle(ranges);
+
+        List<UsedIpInventory> ret = new ArrayList<UsedIpInventory>(count);
+        for (IpRangeVO r : ranges) {
+            if (ret.size() == count) {
+                break;
+            }
+
+            ret.addAll(allocateIps(r, count - ret.size()));
+        }
+
+        return ret;
+    }
+
+    // the ips are taken from the bitmap together and reserved in one transaction; if any of them has been
+    // taken by somebody else, they are allocated one by one instead
+    private List<UsedIpInventory> allocateIps(IpRangeVO vo, int count) {
+        RangeIps r = get(vo);
+        List<Long> ips = new ArrayList<Long>(count);
+        int offset = random.nextInt(r.bitmap.getSize());
+        while (ips.size() < count) {
+            long ip = r.bitmap.allocate(offset);
+            if (ip == -1) {
+                break;
+            }
+            ips.add(ip);
+        }
+
+        List<UsedIpInventory> ret = null;
+        if (!ips.isEmpty()) {
+            List<String> ipStrs = new ArrayList<String>(ips.size());
+            for (long ip : ips) {
+                ipStrs.add(NetworkUtils.longToIpv4String(ip));
+            }
+
+            try {
+                ret = l3NwMgr.reserveIps(IpRangeInventory.valueOf(vo), ipStrs);
+            } catch (RuntimeException e) {
+                ips.forEach(r.bitmap::clear);
+                throw e;
+            }
+        }
+
+        if (ret == null) {
+            ips.forEach(r.bitmap::clear);
+            ret = new ArrayList<UsedIpInventory>(count);
+        } else {
+            for (UsedIpInventory inv : ret) {
+                r.usedIps.put(inv.getUuid(), inv.getIpInLong());
+            }
+        }
+
+        while (ret.size() < count) {
+            UsedIpInventory inv = allocateIp(vo);
+            if (inv == null) {
+                break;
+            }
+            ret.add(inv);
+        }
+
+        return ret;
+    }
+
+    @Override
+    public void afterReturnIp(String l3NetworkUuid, String usedIpUuid) {
+        List<RangeIps> l3Ranges = new ArrayList<RangeIps>();
+        for (RangeIps r : ranges.values()) {
+            if (!r.l3NetworkUuid.equals(l3NetworkUuid)) {
+                continue;
+            }
+
+            Long ip = r.usedIps.remove(usedIpUuid);
+            if (ip != null) {
+                r.bitmap.clear(ip);
+                return;
+            }
+
+            l3Ranges.add(r);
+        }
+
+        // the ip is not in our bitmaps, it may be in any range of the l3 network
+        for (RangeIps r : l3Ranges) {
+            r.unknownIpReturned = true;
+        }
+    }
+
+    @Override
+    public void preDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void beforeDeleteIpRange(IpRangeInventory ipRange) {
+    }
+
+    @Override
+    public void afterDeleteIpRange(IpRangeInventory ipRange) {
+        ranges.remove(ipRange.getUuid());
+    }
+
+    @Override
+    public void failedToDeleteIpRange(IpRangeInventory ipRange, ErrorCode errorCode) {
+    }
+
+    @Override
+    public void nodeJoin(String nodeId) {
+        // l3 networks move between management nodes, the bitmaps we have may become stale
+        ranges.clear();
+    }
+
+    @Override
+    public void nodeLeft(String nodeId) {
+        ranges.clear();
+    }
+
+    @Override
+    public void iAmDead(String nodeId) {
+    }
+
+    @Override
+    public void iJoin(String nodeId) {
+    }
+}
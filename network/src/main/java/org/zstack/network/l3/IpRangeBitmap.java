@@ -0,0 +1,148 @@
+package org.zstack.network.l3;
+
+import java.util.Collection;
+
+/**
+ * A two-level bitmap of the ip addresses of an ip range.
+ *
+ * Every address is a bit of words[], and every word is a bit of fullWords[] which is
+ * set when all 64 addresses of the word are used, so a free address is found by skipping
+ * 4096 used addresses at a time instead of checking them one by one.
+ *
+ * The bits beyond the range are set as used, so they are never allocated.
+ */
+public class IpRangeBitmap {
+    private final long startIp;
+    private final int size;
+    private final long[] words;
+    private final long[] fullWords;
+    private int used;
+
+    public IpRangeBitmap(long startIp, long endIp) {
+        this.startIp = startIp;
+        size = (int) (endIp - startIp + 1);
+        words = new long[(size + 63) >>> 6];
+        fullWords = new long[(words.length + 63) >>> 6];
+
+        for (int i = size; i < words.length << 6; i++) {
+            setBit(i);
+        }
+        for (int i = words.length; i < fullWords.length << 6; i++) {
+            fullWords[i >>> 6] |= 1L << (i & 63);
+        }
+    }
+
+    public IpRangeBitmap(long startIp, long endIp, Collection<Long> usedIps) {
+        this(startIp, endIp);
+        for (long ip : usedIps) {
+            set(ip);
+        }
+    }
+
+    private void setBit(int index) {
+        int wi = index >>> 6;
+        words[wi] |= 1L << (index & 63);
+        if (words[wi] == -1L) {
+            fullWords[wi >>> 6] |= 1L << (wi & 63);
+        }
+    }
+
+    private int nextNonFullWord(int from) {
+        if (from >= words.length) {
+            return -1;
+        }
+
+        int si = from >>> 6;
+        long s = ~fullWords[si] & (-1L << (from & 63));
+        while (s == 0) {
+            if (++si == fullWords.length) {
+                return -1;
+            }
+            s = ~fullWords[si];
+        }
+
+        return (si << 6) + Long.numberOfTrailingZeros(s);
+    }
+
+    private int nextClearBit(int from) {
+        int wi = from >>> 6;
+        long w = ~words[wi] & (-1L << (from & 63));
+        while (w == 0) {
+            wi = nextNonFullWord(wi + 1);
+            if (wi == -1) {
+                return -1;
+            }
+            w = ~words[wi];
+        }
+
+        return (wi << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    private boolean inRange(long ip) {
+        return ip >= startIp && ip - startIp < size;
+    }
+
+    /**
+     * @return false if the ip is not in the range or has been set
+     */
+    public synchronized boolean set(long ip) {
+        if (!inRange(ip)) {
+            return false;
+        }
+
+        int index = (int) (ip - startIp);
+        if ((words[index >>> 6] & (1L << (index & 63))) != 0) {
+            return false;
+        }
+
+        setBit(index);
+        used++;
+        return true;
+    }
+
+    public synchronized void clear(long ip) {
+        if (!inRange(ip)) {
+            return;
+        }
+
+        int index = (int) (ip - startIp);
+        int wi = index >>> 6;
+        long bit = 1L << (index & 63);
+        if ((words[wi] & bit) == 0) {
+            return;
+        }
+
+        words[wi] &= ~bit;
+        fullWords[wi >>> 6] &= ~(1L << (wi & 63));
+        used--;
+    }
+
+    /**
+     * find the first free ip at or after the offset, wrapping around to the start of
+     * the range, and mark it as used
+     *
+     * @return the ip in long, or -1 if the range is full
+     */
+    public synchronized long allocate(int offset) {
+        if (used == size) {
+            return -1;
+        }
+
+        int index = nextClearBit(offset < 0 || offset >= size ? 0 : offset);
+        if (index == -1) {
+            index = nextClearBit(0);
+        }
+
+        setBit(index);
+        used++;
+        return startIp + index;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public synchronized int getUsed() {
+        return used;
+    }
+}
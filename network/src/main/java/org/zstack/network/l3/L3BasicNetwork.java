@@ -136,6 +136,8 @@ public class L3BasicNetwork implements L3Network {
     private void handleLocalMessage(Message msg) {
         if (msg instanceof AllocateIpMsg) {
             handle((AllocateIpMsg)msg);
+        } else if (msg instanceof AllocateIpsMsg) {
+            handle((AllocateIpsMsg) msg);
         } else if (msg instanceof ReturnIpMsg) {
             handle((ReturnIpMsg)msg);
         } else if (msg instanceof L3NetworkDeletionMsg) {
@@ -201,10 +203,17 @@ public class L3BasicNetwork implements L3Network {
         bus.reply(msg, reply);
     }
 
-    private void handle(ReturnIpMsg msg) {
+    private void handle(final ReturnIpMsg msg) {
         ReturnIpReply reply = new ReturnIpReply();
         dbf.removeByPrimaryKey(msg.getUsedIpUuid(), UsedIpVO.class);
         logger.debug(String.format("Successfully released used ip[%s]", msg.getUsedIpUuid()));
+
+        CollectionUtils.safeForEach(pluginRgty.getExtensionList(ReturnIpExtensionPoint.class), new ForEachFunction<ReturnIpExtensionPoint>() {
+            @Override
+            public void run(ReturnIpExtensionPoint arg) {
+                arg.afterReturnIp(msg.getL3NetworkUuid(), msg.getUsedIpUuid());
+            }
+        });
         bus.reply(msg, reply);
     }
 
@@ -223,6 +232,17 @@ public class L3BasicNetwork implements L3Network {
         bus.reply(msg, reply);
     }
 
+    private void handle(AllocateIpsMsg msg) {
+        IpAllocatorType strategyType = msg.getAllocatorStrategy() == null ? RandomIpAllocatorStrategy.type : IpAllocatorType.valueOf(msg.getAllocatorStrategy());
+        IpAllocatorStrategy ias = l3NwMgr.getIpAllocatorStrategy(strategyType);
+        AllocateIpsReply reply = new AllocateIpsReply();
+        List<UsedIpInventory> ips = ias.allocateIps(msg, msg.getCount());
+        logger.debug(String.format("Ip allocator strategy[%s] allocates %s of %s ips in the l3Network[uuid:%s]",
+                strategyType, ips.size(), msg.getCount(), self.getUuid()));
+        reply.setIpInventories(ips);
+        bus.reply(msg, reply);
+    }
+
     private void handleApiMessage(APIMessage msg) {
         if (msg instanceof APIDeleteL3NetworkMsg) {
             handle((APIDeleteL3NetworkMsg) msg);
@@ -0,0 +1,12 @@
+package org.zstack.network.l3;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class L3NetworkGlobalProperty {
+    @GlobalProperty(name="L3Network.bitmapRebuildInterval", defaultValue = "60")
+    public static long BITMAP_REBUILD_INTERVAL;
+}
@@ -9,6 +9,13 @@ public interface L3NetworkManager {
     
     UsedIpInventory reserveIp(IpRangeInventory ipRange, String ip);
 
+    /**
+     * reserve the ips in one transaction
+     *
+     * @return null if any of them has been taken, none is reserved then
+     */
+    List<UsedIpInventory> reserveIps(IpRangeInventory ipRange, List<String> ips);
+
     boolean isIpRangeFull(IpRangeVO vo);
     
     List<Long> getUsedIpInRange(String ipRangeUuid);
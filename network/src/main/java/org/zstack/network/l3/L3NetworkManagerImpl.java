@@ -342,16 +342,21 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
     }
 
     @Override
+    private UsedIpVO newUsedIpVO(IpRangeInventory ipRange, String ip) {
+        UsedIpVO vo = new UsedIpVO(ipRange.getUuid(), ip);
+        vo.setIpInLong(NetworkUtils.ipv4StringToLong(ip));
+        String uuid = ipRange.getUuid() + ip;
+        uuid = UUID.nameUUIDFromBytes(uuid.getBytes()).toString().replaceAll("-", "");
+        vo.setUuid(uuid);
+        vo.setL3NetworkUuid(ipRange.getL3NetworkUuid());
+        vo.setNetmask(ipRange.getNetmask());
+        vo.setGateway(ipRange.getGateway());
+        return vo;
+    }
+
     public UsedIpInventory reserveIp(IpRangeInventory ipRange, String ip) {
         try {
-            UsedIpVO vo = new UsedIpVO(ipRange.getUuid(), ip);
-            vo.setIpInLong(NetworkUtils.ipv4StringToLong(ip));
-            String uuid = ipRange.getUuid() + ip;
-            uuid = UUID.nameUUIDFromBytes(uuid.getBytes()).toString().replaceAll("-", "");
-            vo.setUuid(uuid);
-            vo.setL3NetworkUuid(ipRange.getL3NetworkUuid());
-            vo.setNetmask(ipRange.getNetmask());
-            vo.setGateway(ipRange.getGateway());
+            UsedIpVO vo = newUsedIpVO(ipRange, ip);
             vo = dbf.persistAndRefresh(vo);
             return UsedIpInventory.valueOf(vo);
         } catch (JpaSystemException e) {
@@ -369,6 +374,33 @@ public class L3NetworkManagerImpl extends AbstractService implements L3NetworkMa
         return null;
     }
 
+    @Override
+    public List<UsedIpInventory> reserveIps(IpRangeInventory ipRange, List<String> ips) {
+        List<UsedIpVO> vos = new ArrayList<UsedIpVO>(ips.size());
+        List<String> uuids = new ArrayList<String>(ips.size());
+        for (String ip : ips) {
+            UsedIpVO vo = newUsedIpVO(ipRange, ip);
+            vos.add(vo);
+            uuids.add(vo.getUuid());
+        }
+
+        try {
+            dbf.persistCollection(vos);
+        } catch (JpaSystemException e) {
+            if (e.getRootCause() instanceof MySQLIntegrityConstraintViolationException) {
+                logger.debug(String.format("Concurrent ip allocation. Some of ips%s in ip range[uuid:%s] have been allocated," +
+                        " none of them is reserved. The error[Duplicate entry] printed by jdbc.spi.SqlExceptionHelper is no harm",
+                        ips, ipRange.getUuid()));
+                logger.trace("", e);
+                return null;
+            }
+
+            throw e;
+        }
+
+        return UsedIpInventory.valueOf(dbf.listByPrimaryKeys(uuids, UsedIpVO.class));
+    }
+
     @Override
     public boolean isIpRangeFull(IpRangeVO vo) {
         int total = NetworkUtils.getTotalIpInRange(vo.getStartIp(), vo.getEndIp());
@@ -59,6 +59,24 @@ public class KVMAgentCommands {
     public static class AgentCommand {
     }
 
+    public static class BatchCommand {
+        public String path;
+        public String taskUuid;
+        public String body;
+    }
+
+    /**
+     * commands to one host sent in one request; the agent runs each command as if it was
+     * posted to the path with the taskUuid, and posts its response to the callback url of
+     * the request with the taskUuid, so every command is still replied on its own
+     */
+    public static class BatchCommandsCmd extends AgentCommand {
+        public List<BatchCommand> commands;
+    }
+
+    public static class BatchCommandsRsp extends AgentResponse {
+    }
+
     public static class CheckVmStateCmd extends AgentCommand {
         public List<String> vmUuids;
         public String hostUuid;
@@ -36,4 +36,10 @@ public class KVMGlobalConfig {
     public static GlobalConfig NESTED_VIRTUALIZATION = new GlobalConfig(CATEGORY, "vm.cpuMode");
     @GlobalConfigValidation
     public static GlobalConfig VM_SYNC_ON_HOST_PING = new GlobalConfig(CATEGORY, "vmSyncOnHostPing");
+    @GlobalConfigValidation
+    public static GlobalConfig COMMAND_BATCH = new GlobalConfig(CATEGORY, "command.batch");
+    @GlobalConfigValidation(numberGreaterThan = 0)
+    public static GlobalConfig COMMAND_BATCH_WINDOW = new GlobalConfig(CATEGORY, "command.batch.window");
+    @GlobalConfigValidation(numberGreaterThan = 1)
+    public static GlobalConfig COMMAND_BATCH_MAX_SIZE = new GlobalConfig(CATEGORY, "command.batch.maxSize");
 }
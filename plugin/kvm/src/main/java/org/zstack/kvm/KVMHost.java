@@ -57,6 +57,7 @@ import org.zstack.tag.SystemTagCreator;
 import org.zstack.tag.TagManager;
 import org.zstack.utils.*;
 import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 import org.zstack.utils.ssh.Ssh;
@@ -88,6 +89,8 @@ public class KVMHost extends HostBase implements Host {
     private TagManager tagmgr;
     @Autowired
     private ApiTimeoutManager timeoutManager;
+    @Autowired
+    private KvmCommandBatcher batcher;
 
     private KVMHostContext context;
 
@@ -117,6 +120,7 @@ public class KVMHost extends HostBase implements Host {
     private String getConsolePortPath;
     private String onlineChangeCpuMemoryPath;
     private String deleteConsoleFirewall;
+    private String batchCommandsPath;
 
     private String agentPackageName = KVMGlobalProperty.AGENT_PACKAGE_NAME;
 
@@ -221,6 +225,10 @@ public class KVMHost extends HostBase implements Host {
         ub = UriComponentsBuilder.fromHttpUrl(baseUrl);
         ub.path(KVMConstant.KVM_DELETE_CONSOLE_FIREWALL_PATH);
         deleteConsoleFirewall = ub.build().toString();
+
+        ub = UriComponentsBuilder.fromHttpUrl(baseUrl);
+        ub.path(KVMConstant.KVM_BATCH_COMMANDS_PATH);
+        batchCommandsPath = ub.build().toString();
     }
 
     class Http<T> {
@@ -246,42 +254,41 @@ public class KVMHost extends HostBase implements Host {
         }
 
         void call(ReturnValueCompletion<T> completion)  {
-            Map<String, String> header = new HashMap<>();
-            header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, self.getUuid());
-            if (commandStr != null) {
-                restf.asyncJsonPost(path, commandStr, header, new JsonAsyncRESTCallback<T>(completion) {
-                    @Override
-                    public void fail(ErrorCode err) {
-                        completion.fail(err);
-                    }
+            JsonAsyncRESTCallback<T> callback = new JsonAsyncRESTCallback<T>(completion) {
+                @Override
+                public void fail(ErrorCode err) {
+                    completion.fail(err);
+                }
 
-                    @Override
-                    public void success(T ret) {
-                        completion.success(ret);
-                    }
+                @Override
+                public void success(T ret) {
+                    completion.success(ret);
+                }
 
-                    @Override
-                    public Class<T> getReturnClass() {
-                        return responseClass;
-                    }
-                }, unit, timeout);
-            } else {
-                restf.asyncJsonPost(path, cmd, header, new JsonAsyncRESTCallback<T>(completion) {
-                    @Override
-                    public void fail(ErrorCode err) {
-                        completion.fail(err);
-                    }
+                @Override
+                public Class<T> getReturnClass() {
+                    return responseClass;
+                }
+            };
 
-                    @Override
-                    public void success(T ret) {
-                        completion.success(ret);
-                    }
+            if (batcher.isEnabled()) {
+                if (commandStr != null) {
+                    batcher.send(self.getUuid(), batchCommandsPath, path, commandStr, callback, unit, timeout);
+                } else {
+                    MessageCommandRecorder.record(cmd.getClass());
+                    Long t = timeoutManager.getTimeout(cmd.getClass());
+                    batcher.send(self.getUuid(), batchCommandsPath, path, JSONObjectUtil.toJsonString(cmd), callback,
+                            TimeUnit.MILLISECONDS, t == null ? TimeUnit.MINUTES.toMillis(5) : t);
+                }
+                return;
+            }
 
-                    @Override
-                    public Class<T> getReturnClass() {
-                        return responseClass;
-                    }
-                }); // DO NOT pass unit, timeout here, they are null
+            Map<String, String> header = new HashMap<>();
+            header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, self.getUuid());
+            if (commandStr != null) {
+                restf.asyncJsonPost(path, commandStr, header, callback, unit, timeout);
+            } else {
+                restf.asyncJsonPost(path, cmd, header, callback); // DO NOT pass unit, timeout here, they are null
             }
         }
     }
@@ -1840,6 +1847,17 @@ public class KVMHost extends HostBase implements Host {
         cmd.setRootVolume(rootVolume);
 
         List<VolumeTO> dataVolumes = new ArrayList<>(spec.getDestDataVolumes().size());
+        Map<String, List<String>> virtioScsiTags = new HashMap<>();
+        if (!spec.getDestDataVolumes().isEmpty()) {
+            // one query for all data volumes rather than one per volume
+            virtioScsiTags = KVMSystemTags.VOLUME_VIRTIO_SCSI.getTags(CollectionUtils.transformToList(spec.getDestDataVolumes(),
+                    new Function<String, VolumeInventory>() {
+                        @Override
+                        public String call(VolumeInventory arg) {
+                            return arg.getUuid();
+                        }
+                    }));
+        }
         for (VolumeInventory data : spec.getDestDataVolumes()) {
             VolumeTO v = new VolumeTO();
             v.setInstallPath(data.getInstallPath());
@@ -1849,7 +1867,7 @@ public class KVMHost extends HostBase implements Host {
             // always use virtio driver for data volume
             // set bug https://github.com/zxwing/premium/issues/1050
             v.setUseVirtio(true);
-            v.setUseVirtioSCSI(KVMSystemTags.VOLUME_VIRTIO_SCSI.hasTag(data.getUuid()));
+            v.setUseVirtioSCSI(virtioScsiTags.containsKey(data.getUuid()));
             v.setWwn(setVolumeWwn(data.getUuid()));
             v.setShareable(data.isShareable());
             v.setCacheMode(KVMGlobalConfig.LIBVIRT_CACHE_MODE.value());
@@ -0,0 +1,156 @@
+package org.zstack.kvm;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.header.Constants;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.rest.AsyncRESTCallback;
+import org.zstack.header.rest.RESTConstant;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.kvm.KVMAgentCommands.BatchCommand;
+import org.zstack.kvm.KVMAgentCommands.BatchCommandsCmd;
+import org.zstack.kvm.KVMAgentCommands.BatchCommandsRsp;
+import org.zstack.utils.Utils;
+import org.zstack.utils.gson.JSONObjectUtil;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.zstack.core.Platform.err;
+
+/**
+ * Sends commands to a KVM host in batches when kvm.command.batch is true.
+ *
+ * The first command queued for a host opens a window of command.batch.window milliseconds,
+ * the commands queued for the host in the window are sent in one BatchCommandsCmd when it
+ * closes, or as soon as command.batch.maxSize commands are queued. The callback and timeout
+ * of every command are registered in the RESTFacade as if it was posted alone, the agent
+ * calls back each command by its task uuid.
+ */
+public class KvmCommandBatcher {
+    private static final CLogger logger = Utils.getLogger(KvmCommandBatcher.class);
+
+    @Autowired
+    private RESTFacade restf;
+    @Autowired
+    private ThreadFacade thdf;
+
+    private class HostQueue {
+        final String hostUuid;
+        String batchUrl;
+        List<BatchCommand> pending = new ArrayList<>();
+        TimeoutTaskReceipt window;
+
+        HostQueue(String hostUuid) {
+            this.hostUuid = hostUuid;
+        }
+
+        // must be called with the queue locked
+        List<BatchCommand> takePending() {
+            if (window != null) {
+                window.cancel();
+                window = null;
+            }
+
+            List<BatchCommand> ret = pending;
+            pending = new ArrayList<>();
+            return ret;
+        }
+    }
+
+    private final Map<String, HostQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong commandCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+
+    public boolean isEnabled() {
+        return KVMGlobalConfig.COMMAND_BATCH.booleanValue();
+    }
+
+    public long getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * http requests sent for the batched commands; commands / batches is the average batch size
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    public void send(String hostUuid, String batchUrl, String url, String body, AsyncRESTCallback callback, TimeUnit unit, long timeout) {
+        BatchCommand cmd = new BatchCommand();
+        cmd.path = UriComponentsBuilder.fromHttpUrl(url).build().getPath();
+        cmd.body = body;
+        cmd.taskUuid = restf.registerAsyncCallback(url, body, callback, unit, timeout);
+        commandCount.incrementAndGet();
+
+        HostQueue q = queues.computeIfAbsent(hostUuid, HostQueue::new);
+        List<BatchCommand> full = null;
+        synchronized (q) {
+            q.batchUrl = batchUrl;
+            q.pending.add(cmd);
+            if (q.pending.size() >= KVMGlobalConfig.COMMAND_BATCH_MAX_SIZE.intValue()) {
+                full = q.takePending();
+            } else if (q.window == null) {
+                q.window = thdf.submitTimeoutTask(() -> flush(q), TimeUnit.MILLISECONDS,
+                        KVMGlobalConfig.COMMAND_BATCH_WINDOW.longValue());
+            }
+        }
+
+        if (full != null) {
+            sendBatch(hostUuid, batchUrl, full);
+        }
+    }
+
+    private void flush(HostQueue q) {
+        List<BatchCommand> cmds;
+        String batchUrl;
+        synchronized (q) {
+            q.window = null;
+            cmds = q.takePending();
+            batchUrl = q.batchUrl;
+        }
+
+        if (!cmds.isEmpty()) {
+            sendBatch(q.hostUuid, batchUrl, cmds);
+        }
+    }
+
+    private void sendBatch(String hostUuid, String batchUrl, List<BatchCommand> cmds) {
+        batchCount.incrementAndGet();
+
+        BatchCommandsCmd cmd = new BatchCommandsCmd();
+        cmd.commands = cmds;
+        Map<String, String> header = new HashMap<>();
+        header.put(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, hostUuid);
+        header.put(RESTConstant.CALLBACK_URL, restf.getCallbackUrl());
+
+        ErrorCode error;
+        try {
+            BatchCommandsRsp rsp = restf.syncJsonPost(batchUrl, JSONObjectUtil.toJsonString(cmd), header, BatchCommandsRsp.class);
+            if (rsp == null || rsp.isSuccess()) {
+                return;
+            }
+
+            error = err(SysErrors.HTTP_ERROR, "the KVM host[uuid:%s] refused %s batched commands, %s",
+                    hostUuid, cmds.size(), rsp.getError());
+        } catch (Throwable t) {
+            logger.warn(String.format("unable to send %s batched commands to the KVM host[uuid:%s]", cmds.size(), hostUuid), t);
+            error = err(SysErrors.HTTP_ERROR, "unable to send %s batched commands to the KVM host[uuid:%s], %s",
+                    cmds.size(), hostUuid, t.getMessage());
+        }
+
+        for (BatchCommand c : cmds) {
+            restf.failAsyncCallback(c.taskUuid, error);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package org.zstack.ldap;
+
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one LdapTemplateContextSource of the ldap server for all logins, its read-only contexts
+ * are served by the JNDI connection pool. It's rebuilt once the configuration of the server
+ * changes, no matter the change is made by this management node or another one.
+ *
+ * Uid to DN resolutions are cached for LdapGlobalProperty.UID_DN_CACHE_TTL seconds along with
+ * the context source, they are dropped when it's rebuilt.
+ */
+class LdapConnectionManager {
+    private static final CLogger logger = Utils.getLogger(LdapConnectionManager.class);
+
+    private static final int MAX_CACHED_DN_NUM = 10000;
+
+    private static class CachedDn {
+        final String dn;
+        final long expiredTime;
+
+        CachedDn(String dn, long expiredTime) {
+            this.dn = dn;
+            this.expiredTime = expiredTime;
+        }
+    }
+
+    private static class Connection {
+        final LdapServerInventory server;
+        final LdapTemplateContextSource source;
+        final Map<String, CachedDn> dns = new ConcurrentHashMap<>();
+
+        Connection(LdapServerInventory server, LdapTemplateContextSource source) {
+            this.server = server;
+            this.source = source;
+        }
+    }
+
+    private volatile Connection connection;
+
+    private static boolean isSameConfiguration(LdapServerInventory inv, LdapServerVO vo) {
+        return Objects.equals(inv.getUuid(), vo.getUuid()) &&
+                Objects.equals(inv.getUrl(), vo.getUrl()) &&
+                Objects.equals(inv.getBase(), vo.getBase()) &&
+                Objects.equals(inv.getUsername(), vo.getUsername()) &&
+                Objects.equals(inv.getPassword(), vo.getPassword()) &&
+                Objects.equals(inv.getEncryption(), vo.getEncryption());
+    }
+
+    LdapTemplateContextSource getContextSource(LdapServerVO vo) {
+        Connection conn = connection;
+        if (conn != null && isSameConfiguration(conn.server, vo)) {
+            return conn.source;
+        }
+
+        synchronized (this) {
+            conn = connection;
+            if (conn != null && isSameConfiguration(conn.server, vo)) {
+                return conn.source;
+            }
+
+            LdapServerInventory inv = LdapServerInventory.valueOf(vo);
+            conn = new Connection(inv, new LdapUtil().loadLdap(inv, LdapGlobalProperty.POOLED));
+            connection = conn;
+            logger.debug(String.format("built the ldap context source of the ldap server[uuid:%s, url:%s]",
+                    inv.getUuid(), inv.getUrl()));
+            return conn.source;
+        }
+    }
+
+    private Connection getConnection(LdapTemplateContextSource source) {
+        Connection conn = connection;
+        return conn != null && conn.source == source ? conn : null;
+    }
+
+    /**
+     * returns null if the DN of the uid is not cached or expired
+     */
+    String getCachedDn(LdapTemplateContextSource source, String uid) {
+        Connection conn = getConnection(source);
+        if (conn == null) {
+            return null;
+        }
+
+        CachedDn c = conn.dns.get(uid);
+        if (c == null) {
+            return null;
+        }
+
+        if (c.expiredTime < System.currentTimeMillis()) {
+            conn.dns.remove(uid, c);
+            return null;
+        }
+
+        return c.dn;
+    }
+
+    /**
+     * the DN is not cached if the context source it was resolved by has been replaced
+     */
+    void cacheDn(LdapTemplateContextSource source, String uid, String dn) {
+        Connection conn = getConnection(source);
+        if (conn == null || LdapGlobalProperty.UID_DN_CACHE_TTL <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        if (conn.dns.size() >= MAX_CACHED_DN_NUM) {
+            conn.dns.values().removeIf(c -> c.expiredTime < now);
+            if (conn.dns.size() >= MAX_CACHED_DN_NUM) {
+                conn.dns.clear();
+            }
+        }
+
+        conn.dns.put(uid, new CachedDn(dn, now + TimeUnit.SECONDS.toMillis(LdapGlobalProperty.UID_DN_CACHE_TTL)));
+    }
+
+    void evictDn(LdapTemplateContextSource source, String uid) {
+        Connection conn = getConnection(source);
+        if (conn != null) {
+            conn.dns.remove(uid);
+        }
+    }
+
+    void invalidate() {
+        connection = null;
+    }
+}
@@ -1,8 +1,16 @@
 package org.zstack.ldap;
 
+import org.zstack.core.GlobalProperty;
 import org.zstack.core.GlobalPropertyDefinition;
 
 @GlobalPropertyDefinition
 public class LdapGlobalProperty {
-
+    @GlobalProperty(name="Ldap.pooled", defaultValue = "true")
+    public static boolean POOLED;
+    @GlobalProperty(name="Ldap.pool.maxSize", defaultValue = "32")
+    public static int POOL_MAX_SIZE;
+    @GlobalProperty(name="Ldap.pool.idleTimeout", defaultValue = "300")
+    public static long POOL_IDLE_TIMEOUT;
+    @GlobalProperty(name="Ldap.uidDnCacheTTL", defaultValue = "60")
+    public static long UID_DN_CACHE_TTL;
 }
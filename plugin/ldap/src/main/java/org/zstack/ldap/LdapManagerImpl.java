@@ -6,8 +6,8 @@ import org.springframework.ldap.NamingException;
 import org.springframework.ldap.core.DirContextOperations;
 import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.ldap.core.support.AbstractContextMapper;
-import org.springframework.ldap.filter.AndFilter;
 import org.springframework.ldap.filter.EqualsFilter;
+import org.springframework.ldap.support.LdapUtils;
 import org.springframework.orm.jpa.JpaSystemException;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.transaction.annotation.Transactional;
@@ -29,6 +29,7 @@ import org.zstack.tag.TagManager;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
+import javax.naming.directory.DirContext;
 import javax.persistence.Query;
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -52,6 +53,7 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
     @Autowired
     private ErrorFacade errf;
 
+    private LdapConnectionManager ldapConnectionManager = new LdapConnectionManager();
 
     @Transactional(readOnly = true)
     private LdapServerVO getLdapServer() {
@@ -67,9 +69,7 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
     }
 
     private LdapTemplateContextSource readLdapServerConfiguration() {
-        LdapServerVO ldapServerVO = getLdapServer();
-        LdapServerInventory ldapServerInventory = LdapServerInventory.valueOf(ldapServerVO);
-        return new LdapUtil().loadLdap(ldapServerInventory);
+        return ldapConnectionManager.getContextSource(getLdapServer());
     }
 
     @MessageSafe
@@ -110,23 +110,30 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
 
 
     public boolean isValid(String uid, String password) {
+        if (password.equals("")) {
+            return false;
+        }
+
         LdapTemplateContextSource ldapTemplateContextSource = readLdapServerConfiguration();
         try {
-            boolean valid;
-            String fullUserDn = getFullUserDn(ldapTemplateContextSource.getLdapTemplate(), "uid", uid);
-            if (fullUserDn.equals("") || password.equals("")) {
+            String fullUserDn = ldapConnectionManager.getCachedDn(ldapTemplateContextSource, uid);
+            if (fullUserDn != null) {
+                if (authenticate(ldapTemplateContextSource, fullUserDn, password)) {
+                    logger.info(String.format("isValid[userName:%s, dn:%s, valid:true]", uid, fullUserDn));
+                    return true;
+                }
+
+                // the entry may have been moved since its DN was cached, search it again
+                ldapConnectionManager.evictDn(ldapTemplateContextSource, uid);
+            }
+
+            fullUserDn = getFullUserDn(ldapTemplateContextSource.getLdapTemplate(), "uid", uid);
+            if (fullUserDn.equals("")) {
                 return false;
             }
-            LdapServerVO ldapServerVO = getLdapServer();
-            LdapServerInventory ldapServerInventory = LdapServerInventory.valueOf(ldapServerVO);
-            ldapServerInventory.setUsername(fullUserDn);
-            ldapServerInventory.setPassword(password);
-            LdapTemplateContextSource ldapTemplateContextSource2 = new LdapUtil().loadLdap(ldapServerInventory);
-
-            AndFilter filter = new AndFilter();
-            filter.and(new EqualsFilter(fullUserDn.split(",")[0].split("=")[0], fullUserDn.split(",")[0].split("=")[1]));
-            valid = ldapTemplateContextSource2.getLdapTemplate().
-                    authenticate("", filter.toString(), password);
+            ldapConnectionManager.cacheDn(ldapTemplateContextSource, uid, fullUserDn);
+
+            boolean valid = authenticate(ldapTemplateContextSource, fullUserDn, password);
             logger.info(String.format("isValid[userName:%s, dn:%s, valid:%s]", uid, fullUserDn, valid));
             return valid;
         } catch (NamingException e) {
@@ -138,6 +145,20 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
         }
     }
 
+    private boolean authenticate(LdapTemplateContextSource ldapTemplateContextSource, String fullUserDn, String password) {
+        // binds as the user on a new connection, the context source never pools contexts of users
+        DirContext ctx = null;
+        try {
+            ctx = ldapTemplateContextSource.getLdapContextSource().getContext(fullUserDn, password);
+            return true;
+        } catch (NamingException e) {
+            logger.debug(String.format("failed to bind as %s: %s", fullUserDn, e.getMessage()));
+            return false;
+        } finally {
+            LdapUtils.closeContext(ctx);
+        }
+    }
+
     @Transactional
     private LdapAccountRefInventory bindLdapAccount(String accountUuid, String ldapUid) {
         LdapAccountRefVO ref = new LdapAccountRefVO();
@@ -220,9 +241,21 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
     }
 
     public boolean start() {
+        setupConnectionPool();
         return true;
     }
 
+    private void setupConnectionPool() {
+        // the JNDI pool reads them once on loading, properties set by the JVM options take precedence
+        if (System.getProperty("com.sun.jndi.ldap.connect.pool.maxsize") == null) {
+            System.setProperty("com.sun.jndi.ldap.connect.pool.maxsize", String.valueOf(LdapGlobalProperty.POOL_MAX_SIZE));
+        }
+        if (System.getProperty("com.sun.jndi.ldap.connect.pool.timeout") == null) {
+            System.setProperty("com.sun.jndi.ldap.connect.pool.timeout",
+                    String.valueOf(TimeUnit.SECONDS.toMillis(LdapGlobalProperty.POOL_IDLE_TIMEOUT)));
+        }
+    }
+
     public boolean stop() {
         return true;
     }
@@ -289,6 +322,7 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
         APIDeleteLdapServerEvent evt = new APIDeleteLdapServerEvent(msg.getId());
 
         dbf.removeByPrimaryKey(msg.getUuid(), LdapServerVO.class);
+        ldapConnectionManager.invalidate();
 
         bus.publish(evt);
     }
@@ -409,6 +443,7 @@ public class LdapManagerImpl extends AbstractService implements LdapManager {
         }
 
         ldapServerVO = dbf.updateAndRefresh(ldapServerVO);
+        ldapConnectionManager.invalidate();
         evt.setInventory(LdapServerInventory.valueOf(ldapServerVO));
 
         bus.publish(evt);
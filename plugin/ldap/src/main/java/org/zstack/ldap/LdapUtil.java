@@ -32,6 +32,10 @@ class LdapUtil {
     }
 
     LdapTemplateContextSource loadLdap(LdapServerInventory inv) {
+        return loadLdap(inv, false);
+    }
+
+    LdapTemplateContextSource loadLdap(LdapServerInventory inv, boolean pooled) {
         LdapContextSource ldapContextSource;
         ldapContextSource = new LdapContextSource();
         ldapContextSource.setUrl(inv.getUrl());
@@ -43,7 +47,8 @@ class LdapUtil {
             setTls(ldapContextSource);
         }
         ldapContextSource.setCacheEnvironmentProperties(false);
-        ldapContextSource.setPooled(false);
+        // the JNDI pool cannot share connections upgraded by StartTLS
+        ldapContextSource.setPooled(pooled && !inv.getEncryption().equals(LdapEncryptionType.TLS.toString()));
         //
         LdapTemplate ldapTemplate;
         ldapTemplate = new LdapTemplate();
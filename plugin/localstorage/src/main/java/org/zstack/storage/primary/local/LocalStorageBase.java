@@ -47,7 +47,6 @@ import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
 import org.zstack.storage.primary.local.APIGetLocalStorageHostDiskCapacityReply.HostDiskCapacity;
 import org.zstack.storage.primary.local.MigrateBitsStruct.ResourceInfo;
 import org.zstack.utils.CollectionUtils;
-import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
@@ -55,9 +54,7 @@ import org.zstack.utils.logging.CLogger;
 
 import static org.zstack.core.Platform.operr;
 
-import javax.persistence.LockModeType;
 import javax.persistence.Query;
-import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -1208,6 +1205,9 @@ public class LocalStorageBase extends PrimaryStorageBase {
                             c.totalPhysicalSize,
                             c.availablePhysicalSize,
                             ref.getSystemUsedCapacity());
+                } else if (LocalStorageGlobalProperty.INCREMENTAL_CAPACITY) {
+                    new LocalStorageCapacityUpdater().updateCapacityOnHostConnected(self.getUuid(), msg.getHostUuid(),
+                            c.totalPhysicalSize, c.availablePhysicalSize);
                 } else {
                     ref = refs.get(0);
                     ref.setAvailablePhysicalCapacity(c.availablePhysicalSize);
@@ -1234,124 +1234,18 @@ public class LocalStorageBase extends PrimaryStorageBase {
         });
     }
 
-    @Transactional
     protected void reserveCapacityOnHost(String hostUuid, long size, String psUuid) {
-        String sql = "select ref" +
-                " from LocalStorageHostRefVO ref" +
-                " where ref.hostUuid = :huuid" +
-                " and ref.primaryStorageUuid = :psUuid";
-        TypedQuery<LocalStorageHostRefVO> q = dbf.getEntityManager().createQuery(sql, LocalStorageHostRefVO.class);
-        q.setParameter("huuid", hostUuid);
-        q.setParameter("psUuid", psUuid);
-        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        List<LocalStorageHostRefVO> refs = q.getResultList();
-
-        if (refs.isEmpty()) {
-            throw new CloudRuntimeException(String.format("cannot find host[uuid: %s] of local primary storage[uuid: %s]",
-                    hostUuid, self.getUuid()));
-        }
-
-
-        LocalStorageHostRefVO ref = refs.get(0);
-
-        physicalCapacityMgr.checkCapacityByRatio(
-                self.getUuid(),
-                ref.getTotalPhysicalCapacity(),
-                ref.getAvailablePhysicalCapacity()
-        );
-
-        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
-        s.setLocalStorage(getSelfInventory());
-        s.setHostUuid(ref.getHostUuid());
-        s.setSizeBeforeOverProvisioning(size);
-        s.setSize(size);
-
-        for (LocalStorageReserveHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
-                LocalStorageReserveHostCapacityExtensionPoint.class)) {
-            ext.beforeReserveLocalStorageCapacityOnHost(s);
-        }
-
-        long avail = ref.getAvailableCapacity() - s.getSize();
-        if (avail < 0) {
-            throw new OperationFailureException(operr("host[uuid: %s] of local primary storage[uuid: %s] doesn't have enough capacity" +
-                                    "[current: %s bytes, needed: %s]", hostUuid, self.getUuid(), ref.getAvailableCapacity(), size));
-        }
-
-        ref.setAvailableCapacity(avail);
-        dbf.getEntityManager().merge(ref);
+        PrimaryStorageInventory localStorage = self.getUuid().equals(psUuid) ? getSelfInventory() :
+                PrimaryStorageInventory.valueOf(dbf.findByUuid(psUuid, PrimaryStorageVO.class));
+        new LocalStorageCapacityUpdater().reserveCapacityOnHost(localStorage, hostUuid, size);
     }
 
-    @Transactional
     protected void returnStorageCapacityToHost(String hostUuid, long size) {
-        String sql = "select ref from LocalStorageHostRefVO ref where ref.hostUuid = :huuid and ref.primaryStorageUuid = :primaryStorageUuid";
-        TypedQuery<LocalStorageHostRefVO> q = dbf.getEntityManager().createQuery(sql, LocalStorageHostRefVO.class);
-        q.setParameter("huuid", hostUuid);
-        q.setParameter("primaryStorageUuid", self.getUuid());
-        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        List<LocalStorageHostRefVO> refs = q.getResultList();
-
-        if (refs.isEmpty()) {
-            throw new CloudRuntimeException(String.format("cannot find host[uuid: %s] of local primary storage[uuid: %s]",
-                    hostUuid, self.getUuid()));
-        }
-
-        LocalStorageHostRefVO ref = refs.get(0);
-
-        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
-        s.setSizeBeforeOverProvisioning(size);
-        s.setHostUuid(hostUuid);
-        s.setLocalStorage(getSelfInventory());
-        s.setSize(size);
-
-        for (LocalStorageReturnHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
-                LocalStorageReturnHostCapacityExtensionPoint.class)) {
-            ext.beforeReturnLocalStorageCapacityOnHost(s);
-        }
-
-        ref.setAvailableCapacity(ref.getAvailableCapacity() + s.getSize());
-        dbf.getEntityManager().merge(ref);
+        new LocalStorageCapacityUpdater().returnCapacityToHost(getSelfInventory(), hostUuid, size);
     }
 
-    @Transactional
     protected void returnStorageCapacityToHostByResourceUuid(String resUuid) {
-        String sql = "select href, rref" +
-                " from LocalStorageHostRefVO href, LocalStorageResourceRefVO rref" +
-                " where href.hostUuid = rref.hostUuid" +
-                " and href.primaryStorageUuid = rref.primaryStorageUuid" +
-                " and rref.resourceUuid = :resUuid" +
-                " and rref.primaryStorageUuid = :puuid";
-        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
-        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
-        q.setParameter("resUuid", resUuid);
-        q.setParameter("puuid", self.getUuid());
-        List<Tuple> tupleList = q.getResultList();
-        if (tupleList == null || tupleList.isEmpty()) {
-            return;
-        }
-
-        DebugUtils.Assert(tupleList.size() == 1,
-                "should not get more than one LocalStorageHostRefVO/LocalStorageResourceRefVO");
-        Tuple twoRefs = tupleList.get(0);
-        LocalStorageHostRefVO href = twoRefs.get(0, LocalStorageHostRefVO.class);
-        LocalStorageResourceRefVO rref = twoRefs.get(1, LocalStorageResourceRefVO.class);
-
-        long requiredSize = rref.getSize();
-        if (VolumeVO.class.getSimpleName().equals(rref.getResourceType())) {
-            requiredSize = ratioMgr.calculateByRatio(self.getUuid(), requiredSize);
-        }
-
-        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
-        s.setSizeBeforeOverProvisioning(rref.getSize());
-        s.setHostUuid(href.getHostUuid());
-        s.setLocalStorage(getSelfInventory());
-        s.setSize(requiredSize);
-        for (LocalStorageReturnHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
-                LocalStorageReturnHostCapacityExtensionPoint.class)) {
-            ext.beforeReturnLocalStorageCapacityOnHost(s);
-        }
-
-        href.setAvailableCapacity(href.getAvailableCapacity() + s.getSize());
-        dbf.getEntityManager().merge(href);
+        new LocalStorageCapacityUpdater().returnCapacityToHostByResourceUuid(getSelfInventory(), resUuid);
     }
 
     @Override
@@ -16,9 +16,8 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.LockModeType;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * Created by frank on 1/23/2016.
@@ -26,12 +25,59 @@ import java.util.Map;
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class LocalStorageCapacityRecalculator {
     private static final CLogger logger = Utils.getLogger(LocalStorageCapacityRecalculator.class);
+    private static final String HOST_UUID_MARK = "hostUuid://";
 
     @Autowired
     private DatabaseFacade dbf;
     @Autowired
     private PrimaryStorageOverProvisioningManager ratioMgr;
 
+    private Map<String, Long> hostCapacityDrifts = new HashMap<>();
+    private Map<String, Long> imageCacheSizes;
+    private Predicate<LocalStorageHostRefVO> skipHost;
+    private List<String> skippedHostUuids = new ArrayList<>();
+
+    /**
+     * returns how far the available capacity of each host calculated by calculateByHostUuids() was off,
+     * a positive drift means more capacity was recorded than there actually is
+     */
+    public Map<String, Long> getHostCapacityDrifts() {
+        return hostCapacityDrifts;
+    }
+
+    /**
+     * the image cache sizes by host from sumImageCacheSizeByHost(), so a caller calculating a primary storage
+     * batch by batch doesn't load all image caches for every batch
+     */
+    public LocalStorageCapacityRecalculator setImageCacheSizes(Map<String, Long> imageCacheSizes) {
+        this.imageCacheSizes = imageCacheSizes;
+        return this;
+    }
+
+    /**
+     * the host is tested after its LocalStorageHostRefVO is locked, a host tested true is left untouched
+     */
+    public LocalStorageCapacityRecalculator setSkipHost(Predicate<LocalStorageHostRefVO> skipHost) {
+        this.skipHost = skipHost;
+        return this;
+    }
+
+    public List<String> getSkippedHostUuids() {
+        return skippedHostUuids;
+    }
+
+    private static String getHostUuidFromInstallUrl(String installUrl) {
+        // the install url of an image cache is file://path;hostUuid://uuid
+        int idx = installUrl.indexOf(HOST_UUID_MARK);
+        if (idx < 0) {
+            return null;
+        }
+
+        String hostUuid = installUrl.substring(idx + HOST_UUID_MARK.length());
+        idx = hostUuid.indexOf(";");
+        return idx < 0 ? hostUuid : hostUuid.substring(0, idx);
+    }
+
     @Transactional
     public LocalStorageCapacityRecalculator calculateByHostUuids(String psUuid, List<String> huuids) {
         DebugUtils.Assert(!huuids.isEmpty(), "hostUuids cannot be empty");
@@ -60,29 +106,24 @@ public class LocalStorageCapacityRecalculator {
             hostCap.put(hostUuid, ratioMgr.calculateByRatio(psUuid, cap));
         }
 
+        // note: templates in image cache are physical size
+        // do not calculate over provisioning for them
+        Map<String, Long> icSizes = imageCacheSizes == null ? sumImageCacheSizeByHost(psUuid) : imageCacheSizes;
+        for (String huuid : huuids) {
+            Long isize = icSizes.get(huuid);
+            if (isize == null) {
+                continue;
+            }
+
+            Long ncap = hostCap.get(huuid);
+            hostCap.put(huuid, ncap == null ? isize : ncap + isize);
+        }
+
         for (String huuid : huuids) {
-            // note: templates in image cache are physical size
-            // do not calculate over provisioning for them
-            sql = "select sum(i.size)" +
-                    " from ImageCacheVO i" +
-                    " where i.installUrl like :mark" +
-                    " and i.primaryStorageUuid = :psUuid" +
-                    " group by i.primaryStorageUuid";
-            TypedQuery<Long> iq = dbf.getEntityManager().createQuery(sql, Long.class);
-            iq.setParameter("psUuid", psUuid);
-            iq.setParameter("mark", String.format("%%hostUuid://%s%%", huuid));
-            List<Long> is = iq.getResultList();
-            if (!is.isEmpty()) {
-                Long isize = is.get(0);
-                Long ncap = hostCap.get(huuid);
-                ncap = ncap == null ? isize : ncap + isize;
-                hostCap.put(huuid, ncap);
-            } else {
-                // if the host has no volume and image cache
-                // set its used capacity to zero
-                Long ncap = hostCap.get(huuid);
-                ncap = ncap == null ? 0 : ncap;
-                hostCap.put(huuid, ncap);
+            // if the host has no volume and image cache
+            // set its used capacity to zero
+            if (!hostCap.containsKey(huuid)) {
+                hostCap.put(huuid, 0L);
             }
         }
 
@@ -103,11 +144,21 @@ public class LocalStorageCapacityRecalculator {
             if(localStorageHostRefVOS.size() > 0){
                 ref = localStorageHostRefVOS.get(0);
             }else{
-                break;
+                continue;
+            }
+
+            if (skipHost != null && skipHost.test(ref)) {
+                skippedHostUuids.add(hostUuid);
+                continue;
             }
 
             long old = ref.getAvailableCapacity();
             long avail = ref.getTotalCapacity() - used - ref.getSystemUsedCapacity();
+            hostCapacityDrifts.put(hostUuid, old - avail);
+            if (old == avail) {
+                continue;
+            }
+
             ref.setAvailableCapacity(avail);
             dbf.getEntityManager().merge(ref);
             logger.debug(String.format("re-calculated available capacity[before:%s, now: %s] of host[uuid:%s]" +
@@ -118,6 +169,32 @@ public class LocalStorageCapacityRecalculator {
         return this;
     }
 
+    /**
+     * loads image caches of the primary storage at once rather than a like query for each host
+     */
+    @Transactional(readOnly = true)
+    public Map<String, Long> sumImageCacheSizeByHost(String psUuid) {
+        String sql = "select i.installUrl, i.size" +
+                " from ImageCacheVO i" +
+                " where i.primaryStorageUuid = :psUuid";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setParameter("psUuid", psUuid);
+
+        Map<String, Long> sizes = new HashMap<>();
+        for (Tuple t : q.getResultList()) {
+            String hostUuid = getHostUuidFromInstallUrl(t.get(0, String.class));
+            if (hostUuid == null) {
+                continue;
+            }
+
+            long isize = t.get(1, Long.class);
+            Long size = sizes.get(hostUuid);
+            sizes.put(hostUuid, size == null ? isize : size + isize);
+        }
+
+        return sizes;
+    }
+
     @Transactional
     public LocalStorageCapacityRecalculator calculateByPrimaryStorageUuid(String psUuid) {
         String sql = "select ref.hostUuid" +
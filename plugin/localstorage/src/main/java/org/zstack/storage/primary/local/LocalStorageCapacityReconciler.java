@@ -0,0 +1,157 @@
+package org.zstack.storage.primary.local;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.core.thread.PeriodicTask;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.managementnode.ManagementNodeReadyExtensionPoint;
+import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.storage.primary.PrimaryStorageVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The available capacity of the hosts of local storage is kept by deltas applied through
+ * LocalStorageCapacityUpdater. This task re-calculates the hosts of local storage managed by this
+ * management node periodically, a few hosts at a time, to repair the ledger and report how far it was off.
+ *
+ * Reservations are not serialized with the reconciliation, a reservation is applied to the ledger before
+ * its volume or image cache is recorded, a re-calculation in between would erase it. So a host whose ledger
+ * was changed within LocalStorage.capacityReconcileQuietPeriod is skipped and left to a later round. The last
+ * change is the lastOpDate of LocalStorageHostRefVO, which is seen by all management nodes, and the quiet
+ * period is much shorter than the interval so a busy host is still reconciled once it's quiet for a while.
+ * A reservation kept in flight longer than the quiet period may be erased, the ledger is then off by its size
+ * until the next round.
+ */
+public class LocalStorageCapacityReconciler implements ManagementNodeReadyExtensionPoint {
+    private static final CLogger logger = Utils.getLogger(LocalStorageCapacityReconciler.class);
+
+    @Autowired
+    private DatabaseFacade dbf;
+    @Autowired
+    private ThreadFacade thdf;
+    @Autowired
+    private ResourceDestinationMaker destMaker;
+
+    @Override
+    public void managementNodeReady() {
+        if (!LocalStorageGlobalProperty.INCREMENTAL_CAPACITY || LocalStorageGlobalProperty.CAPACITY_RECONCILE_INTERVAL <= 0) {
+            return;
+        }
+
+        thdf.submitPeriodicTask(new PeriodicTask() {
+            @Override
+            public TimeUnit getTimeUnit() {
+                return TimeUnit.SECONDS;
+            }
+
+            @Override
+            public long getInterval() {
+                return LocalStorageGlobalProperty.CAPACITY_RECONCILE_INTERVAL;
+            }
+
+            @Override
+            public String getName() {
+                return "local-storage-capacity-reconciler";
+            }
+
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Throwable t) {
+                    logger.warn("unhandled exception when reconciling the capacity of local storage", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * returns the drifts of hosts whose available capacity was off, keyed by the local storage uuid
+     */
+    public Map<String, Map<String, Long>> reconcile() {
+        SimpleQuery<PrimaryStorageVO> q = dbf.createQuery(PrimaryStorageVO.class);
+        q.select(PrimaryStorageVO_.uuid);
+        q.add(PrimaryStorageVO_.type, Op.EQ, LocalStorageConstants.LOCAL_STORAGE_TYPE);
+        List<String> psUuids = q.listValue();
+
+        // compared with lastOpDate set by the database
+        Timestamp since = new Timestamp(dbf.getCurrentSqlTime().getTime()
+                - TimeUnit.SECONDS.toMillis(LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD));
+
+        Map<String, Map<String, Long>> ret = new HashMap<>();
+        for (String psUuid : psUuids) {
+            if (!destMaker.isManagedByUs(psUuid)) {
+                continue;
+            }
+
+            Map<String, Long> drifts = reconcile(psUuid, since);
+            if (!drifts.isEmpty()) {
+                ret.put(psUuid, drifts);
+            }
+        }
+
+        return ret;
+    }
+
+    private Map<String, Long> reconcile(String psUuid, Timestamp since) {
+        SimpleQuery<LocalStorageHostRefVO> q = dbf.createQuery(LocalStorageHostRefVO.class);
+        q.select(LocalStorageHostRefVO_.hostUuid);
+        q.add(LocalStorageHostRefVO_.primaryStorageUuid, Op.EQ, psUuid);
+        List<String> hostUuids = q.listValue();
+        if (hostUuids.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        // an image cache added after the loading reserves capacity for it first, so its host is skipped
+        Map<String, Long> imageCacheSizes = new LocalStorageCapacityRecalculator().sumImageCacheSizeByHost(psUuid);
+
+        Map<String, Long> drifts = new HashMap<>();
+        int skipped = 0;
+        int batchSize = Math.max(LocalStorageGlobalProperty.CAPACITY_RECONCILE_BATCH_SIZE, 1);
+        for (int i = 0; i < hostUuids.size(); i += batchSize) {
+            List<String> batch = hostUuids.subList(i, Math.min(i + batchSize, hostUuids.size()));
+            LocalStorageCapacityRecalculator rc = new LocalStorageCapacityRecalculator()
+                    .setImageCacheSizes(imageCacheSizes)
+                    .setSkipHost(ref -> ref.getLastOpDate() != null && !ref.getLastOpDate().before(since))
+                    .calculateByHostUuids(psUuid, batch);
+            skipped += rc.getSkippedHostUuids().size();
+            for (Map.Entry<String, Long> e : rc.getHostCapacityDrifts().entrySet()) {
+                if (e.getValue() != 0) {
+                    drifts.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+
+        if (skipped > 0) {
+            logger.debug(String.format("skipped %s hosts of the local storage[uuid:%s] whose capacity was changed in the last %s seconds",
+                    skipped, psUuid, LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD));
+        }
+
+        if (drifts.isEmpty()) {
+            logger.debug(String.format("the available capacity of %s hosts of the local storage[uuid:%s] is accurate",
+                    hostUuids.size() - skipped, psUuid));
+            return drifts;
+        }
+
+        long total = 0;
+        for (long d : drifts.values()) {
+            total += d;
+        }
+        logger.warn(String.format("repaired the available capacity of %s of %s hosts of the local storage[uuid:%s]," +
+                        " %s bytes in total were off, drifts of hosts in bytes(recorded - actual): %s",
+                drifts.size(), hostUuids.size(), psUuid, total, drifts));
+
+        new LocalStorageCapacityRecalculator().calculateTotalCapacity(psUuid);
+        return drifts;
+    }
+}
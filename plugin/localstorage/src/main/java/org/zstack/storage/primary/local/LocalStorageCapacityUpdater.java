@@ -4,20 +4,35 @@ import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Configurable;
 import org.springframework.transaction.annotation.Transactional;
+import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.errorcode.OperationFailureException;
+import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.storage.primary.PrimaryStorageCapacityUpdaterRunnable;
 import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.storage.primary.PrimaryStorageOverProvisioningManager;
+import org.zstack.header.volume.VolumeVO;
 import org.zstack.storage.primary.PrimaryStorageCapacityUpdater;
+import org.zstack.storage.primary.PrimaryStoragePhysicalCapacityManager;
 import org.zstack.storage.primary.local.LocalStorageKvmBackend.AgentResponse;
+import org.zstack.utils.DebugUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import javax.persistence.LockModeType;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.List;
 
+import static org.zstack.core.Platform.operr;
+
 /**
  * Created by frank on 11/10/2015.
+ *
+ * The available capacity of LocalStorageHostRefVO is a ledger of the host, allocations, deletions and
+ * migrations apply their deltas here instead of re-calculating it from all volumes and image caches
+ * on the host. LocalStorageCapacityReconciler repairs the ledger if it drifts.
  */
 @Configurable(preConstruction = true, autowire = Autowire.BY_TYPE)
 public class LocalStorageCapacityUpdater {
@@ -25,6 +40,189 @@ public class LocalStorageCapacityUpdater {
 
     @Autowired
     private DatabaseFacade dbf;
+    @Autowired
+    private PluginRegistry pluginRgty;
+    @Autowired
+    private PrimaryStorageOverProvisioningManager ratioMgr;
+    @Autowired
+    private PrimaryStoragePhysicalCapacityManager physicalCapacityMgr;
+
+    private LocalStorageHostRefVO findHostRefForUpdate(String psUuid, String hostUuid) {
+        String sql = "select ref" +
+                " from LocalStorageHostRefVO ref" +
+                " where ref.hostUuid = :huuid" +
+                " and ref.primaryStorageUuid = :psUuid";
+        TypedQuery<LocalStorageHostRefVO> q = dbf.getEntityManager().createQuery(sql, LocalStorageHostRefVO.class);
+        q.setParameter("huuid", hostUuid);
+        q.setParameter("psUuid", psUuid);
+        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        List<LocalStorageHostRefVO> refs = q.getResultList();
+
+        if (refs.isEmpty()) {
+            throw new CloudRuntimeException(String.format("cannot find host[uuid: %s] of local primary storage[uuid: %s]",
+                    hostUuid, psUuid));
+        }
+
+        return refs.get(0);
+    }
+
+    @Transactional
+    public void reserveCapacityOnHost(PrimaryStorageInventory localStorage, String hostUuid, long size) {
+        LocalStorageHostRefVO ref = findHostRefForUpdate(localStorage.getUuid(), hostUuid);
+
+        physicalCapacityMgr.checkCapacityByRatio(
+                localStorage.getUuid(),
+                ref.getTotalPhysicalCapacity(),
+                ref.getAvailablePhysicalCapacity()
+        );
+
+        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
+        s.setLocalStorage(localStorage);
+        s.setHostUuid(ref.getHostUuid());
+        s.setSizeBeforeOverProvisioning(size);
+        s.setSize(size);
+
+        for (LocalStorageReserveHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
+                LocalStorageReserveHostCapacityExtensionPoint.class)) {
+            ext.beforeReserveLocalStorageCapacityOnHost(s);
+        }
+
+        long avail = ref.getAvailableCapacity() - s.getSize();
+        if (avail < 0) {
+            throw new OperationFailureException(operr("host[uuid: %s] of local primary storage[uuid: %s] doesn't have enough capacity" +
+                    "[current: %s bytes, needed: %s]", hostUuid, localStorage.getUuid(), ref.getAvailableCapacity(), size));
+        }
+
+        applyDelta(ref, -s.getSize());
+    }
+
+    @Transactional
+    public void returnCapacityToHost(PrimaryStorageInventory localStorage, String hostUuid, long size) {
+        LocalStorageHostRefVO ref = findHostRefForUpdate(localStorage.getUuid(), hostUuid);
+
+        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
+        s.setSizeBeforeOverProvisioning(size);
+        s.setHostUuid(hostUuid);
+        s.setLocalStorage(localStorage);
+        s.setSize(size);
+
+        for (LocalStorageReturnHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
+                LocalStorageReturnHostCapacityExtensionPoint.class)) {
+            ext.beforeReturnLocalStorageCapacityOnHost(s);
+        }
+
+        applyDelta(ref, s.getSize());
+    }
+
+    @Transactional
+    public void returnCapacityToHostByResourceUuid(PrimaryStorageInventory localStorage, String resUuid) {
+        String sql = "select href, rref" +
+                " from LocalStorageHostRefVO href, LocalStorageResourceRefVO rref" +
+                " where href.hostUuid = rref.hostUuid" +
+                " and href.primaryStorageUuid = rref.primaryStorageUuid" +
+                " and rref.resourceUuid = :resUuid" +
+                " and rref.primaryStorageUuid = :puuid";
+        TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql, Tuple.class);
+        q.setLockMode(LockModeType.PESSIMISTIC_WRITE);
+        q.setParameter("resUuid", resUuid);
+        q.setParameter("puuid", localStorage.getUuid());
+        List<Tuple> tupleList = q.getResultList();
+        if (tupleList == null || tupleList.isEmpty()) {
+            return;
+        }
+
+        DebugUtils.Assert(tupleList.size() == 1,
+                "should not get more than one LocalStorageHostRefVO/LocalStorageResourceRefVO");
+        Tuple twoRefs = tupleList.get(0);
+        LocalStorageHostRefVO href = twoRefs.get(0, LocalStorageHostRefVO.class);
+        LocalStorageResourceRefVO rref = twoRefs.get(1, LocalStorageResourceRefVO.class);
+
+        long requiredSize = rref.getSize();
+        if (VolumeVO.class.getSimpleName().equals(rref.getResourceType())) {
+            requiredSize = ratioMgr.calculateByRatio(localStorage.getUuid(), requiredSize);
+        }
+
+        LocalStorageHostCapacityStruct s = new LocalStorageHostCapacityStruct();
+        s.setSizeBeforeOverProvisioning(rref.getSize());
+        s.setHostUuid(href.getHostUuid());
+        s.setLocalStorage(localStorage);
+        s.setSize(requiredSize);
+        for (LocalStorageReturnHostCapacityExtensionPoint ext : pluginRgty.getExtensionList(
+                LocalStorageReturnHostCapacityExtensionPoint.class)) {
+            ext.beforeReturnLocalStorageCapacityOnHost(s);
+        }
+
+        applyDelta(href, s.getSize());
+    }
+
+    private void applyDelta(LocalStorageHostRefVO ref, long delta) {
+        long old = ref.getAvailableCapacity();
+        ref.setAvailableCapacity(old + delta);
+        dbf.getEntityManager().merge(ref);
+
+        if (logger.isTraceEnabled()) {
+            logger.trace(String.format("[Local Storage Capacity] changed the available capacity of the host[uuid:%s] of " +
+                    "the local primary storage[uuid:%s]: %s --> %s", ref.getHostUuid(), ref.getPrimaryStorageUuid(),
+                    old, ref.getAvailableCapacity()));
+        }
+    }
+
+    private static class HostCapacityChange {
+        long totalChange;
+        long physicalTotalChange;
+        long physicalAvailableChange;
+
+        boolean isChanged() {
+            return totalChange != 0 || physicalTotalChange != 0 || physicalAvailableChange != 0;
+        }
+    }
+
+    @Transactional
+    private HostCapacityChange updateHostRefOnConnected(String psUuid, String hostUuid, long totalPhysical, long availablePhysical) {
+        LocalStorageHostRefVO ref = findHostRefForUpdate(psUuid, hostUuid);
+
+        HostCapacityChange c = new HostCapacityChange();
+        c.totalChange = totalPhysical - ref.getTotalCapacity();
+        c.physicalTotalChange = totalPhysical - ref.getTotalPhysicalCapacity();
+        c.physicalAvailableChange = availablePhysical - ref.getAvailablePhysicalCapacity();
+        if (!c.isChanged()) {
+            return c;
+        }
+
+        logger.debug(String.format("the capacity of the host[uuid:%s] of the local primary storage[uuid:%s] changed," +
+                        " total: %s --> %s, physical available: %s --> %s", hostUuid, psUuid, ref.getTotalCapacity(),
+                totalPhysical, ref.getAvailablePhysicalCapacity(), availablePhysical));
+
+        // the used capacity of the host stays the same, so does the total minus the available
+        ref.setTotalCapacity(totalPhysical);
+        ref.setAvailableCapacity(ref.getAvailableCapacity() + c.totalChange);
+        ref.setTotalPhysicalCapacity(totalPhysical);
+        ref.setAvailablePhysicalCapacity(availablePhysical);
+        dbf.getEntityManager().merge(ref);
+        return c;
+    }
+
+    /**
+     * applies the change of the disk capacity of a re-connected host to the host and the local storage,
+     * no re-calculation of the local storage is needed
+     */
+    public void updateCapacityOnHostConnected(String psUuid, String hostUuid, long totalPhysical, long availablePhysical) {
+        final HostCapacityChange c = updateHostRefOnConnected(psUuid, hostUuid, totalPhysical, availablePhysical);
+        if (!c.isChanged()) {
+            return;
+        }
+
+        new PrimaryStorageCapacityUpdater(psUuid).run(new PrimaryStorageCapacityUpdaterRunnable() {
+            @Override
+            public PrimaryStorageCapacityVO call(PrimaryStorageCapacityVO cap) {
+                cap.setTotalCapacity(cap.getTotalCapacity() + c.totalChange);
+                cap.setAvailableCapacity(cap.getAvailableCapacity() + c.totalChange);
+                cap.setTotalPhysicalCapacity(cap.getTotalPhysicalCapacity() + c.physicalTotalChange);
+                cap.setAvailablePhysicalCapacity(cap.getAvailablePhysicalCapacity() + c.physicalAvailableChange);
+                return cap;
+            }
+        });
+    }
 
     @Transactional
     private LocalStorageHostRefVO updateLocalStorageRef(String psUuid, String hostUuid, AgentResponse rsp) {
@@ -790,7 +790,15 @@ public class LocalStorageFactory implements PrimaryStorageFactory, Component,
         q.add(PrimaryStorageClusterRefVO_.clusterUuid, Op.EQ, host.getClusterUuid());
         List<PrimaryStorageClusterRefVO> refs = q.list();
         if (refs != null && !refs.isEmpty()) {
+            // the capacity of local storage is updated incrementally by InitPrimaryStorageOnHostConnectedMsg,
+            // no need to re-calculate them for every connected host
+            List<String> localStorageUuids = LocalStorageGlobalProperty.INCREMENTAL_CAPACITY ?
+                    getLocalStorageInCluster(host.getClusterUuid()) : new ArrayList<String>();
             for (PrimaryStorageClusterRefVO ref : refs) {
+                if (localStorageUuids.contains(ref.getPrimaryStorageUuid())) {
+                    continue;
+                }
+
                 RecalculatePrimaryStorageCapacityMsg msg = new RecalculatePrimaryStorageCapacityMsg();
                 msg.setPrimaryStorageUuid(ref.getPrimaryStorageUuid());
                 bus.makeTargetServiceIdByResourceUuid(msg, PrimaryStorageConstant.SERVICE_ID, ref.getPrimaryStorageUuid());
@@ -12,4 +12,14 @@ public class LocalStorageGlobalProperty {
     public static int KVM_SftpDownloadBitsCmd_TIMEOUT;
     @GlobalProperty(name="LocalStorage.kvm.SftpUploadBitsCmd.timeout", defaultValue = "3600")
     public static int KVM_SftpUploadBitsCmd_TIMEOUT;
+    @GlobalProperty(name="LocalStorage.kvm.migrateBitsParallelism", defaultValue = "4")
+    public static int KVM_MIGRATE_BITS_PARALLELISM;
+    @GlobalProperty(name="LocalStorage.incrementalCapacity", defaultValue = "false")
+    public static boolean INCREMENTAL_CAPACITY;
+    @GlobalProperty(name="LocalStorage.capacityReconcileInterval", defaultValue = "3600")
+    public static long CAPACITY_RECONCILE_INTERVAL;
+    @GlobalProperty(name="LocalStorage.capacityReconcileBatchSize", defaultValue = "100")
+    public static int CAPACITY_RECONCILE_BATCH_SIZE;
+    @GlobalProperty(name="LocalStorage.capacityReconcileQuietPeriod", defaultValue = "300")
+    public static long CAPACITY_RECONCILE_QUIET_PERIOD;
 }
@@ -19,7 +19,9 @@ import org.zstack.core.workflow.FlowChainBuilder;
 import org.zstack.core.workflow.ShareFlow;
 import org.zstack.header.HasThreadContext;
 import org.zstack.header.core.ApiTimeout;
+import org.zstack.header.core.AsyncLatch;
 import org.zstack.header.core.Completion;
+import org.zstack.header.core.NoErrorCompletion;
 import org.zstack.header.core.ReturnValueCompletion;
 import org.zstack.header.core.workflow.*;
 import org.zstack.header.errorcode.ErrorCode;
@@ -53,13 +55,16 @@ import org.zstack.utils.function.Function;
 import org.zstack.utils.logging.CLogger;
 
 import static org.zstack.core.Platform.operr;
+import static org.zstack.core.progress.ProgressReportService.taskProgress;
 
 import javax.persistence.TypedQuery;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.zstack.utils.CollectionDSL.list;
 
@@ -826,6 +831,136 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
         });
     }
 
+    private void copySnapshotToDstHost(final VolumeSnapshotInventory sp, final String srcHostUuid, final KVMHostVO dstHost,
+                                       final List<VolumeSnapshotInventory> copied, final Completion completion) {
+        GetMd5Cmd gcmd = new GetMd5Cmd();
+        GetMd5TO gto = new GetMd5TO();
+        gto.path = sp.getPrimaryStorageInstallPath();
+        gto.resourceUuid = sp.getUuid();
+        gcmd.md5s = list(gto);
+
+        callKvmHost(srcHostUuid, sp.getPrimaryStorageUuid(), LocalStorageKvmBackend.GET_MD5_PATH, gcmd,
+                GetMd5Rsp.class, new ReturnValueCompletion<GetMd5Rsp>(completion) {
+            @Override
+            public void success(final GetMd5Rsp md5Rsp) {
+                CopyBitsFromRemoteCmd cmd = new CopyBitsFromRemoteCmd();
+                cmd.paths = list(sp.getPrimaryStorageInstallPath());
+                cmd.dstIp = dstHost.getManagementIp();
+                cmd.dstPassword = dstHost.getPassword();
+                cmd.dstUsername = dstHost.getUsername();
+                cmd.dstPort = dstHost.getPort();
+                cmd.uuid = sp.getVolumeUuid();
+
+                copied.add(sp);
+                callKvmHost(srcHostUuid, sp.getPrimaryStorageUuid(), COPY_TO_REMOTE_BITS_PATH, cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(completion) {
+                    @Override
+                    public void success(AgentResponse returnValue) {
+                        CheckMd5sumCmd ccmd = new CheckMd5sumCmd();
+                        ccmd.md5s = md5Rsp.md5s;
+
+                        callKvmHost(dstHost.getUuid(), sp.getPrimaryStorageUuid(), LocalStorageKvmBackend.CHECK_MD5_PATH,
+                                ccmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(completion) {
+                                    @Override
+                                    public void success(AgentResponse returnValue) {
+                                        completion.success();
+                                    }
+
+                                    @Override
+                                    public void fail(ErrorCode errorCode) {
+                                        completion.fail(errorCode);
+                                    }
+                                });
+                    }
+
+                    @Override
+                    public void fail(ErrorCode errorCode) {
+                        completion.fail(errorCode);
+                    }
+                });
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                completion.fail(errorCode);
+            }
+        });
+    }
+
+    /**
+     * every snapshot is copied by its own get-md5, copy and check-md5 calls, at most
+     * LocalStorageGlobalProperty.KVM_MIGRATE_BITS_PARALLELISM of them run at the same time between
+     * a pair of hosts, so the checksum of a snapshot is calculated while others are being transferred.
+     * Once a snapshot fails, the snapshots not started yet are skipped.
+     */
+    private void copySnapshotsToDstHost(final List<VolumeSnapshotInventory> snapshots, final String srcHostUuid,
+                                        final String dstHostUuid, final List<VolumeSnapshotInventory> copied,
+                                        final Completion completion) {
+        if (snapshots.isEmpty()) {
+            completion.success();
+            return;
+        }
+
+        final KVMHostVO dstHost = dbf.findByUuid(dstHostUuid, KVMHostVO.class);
+        final List<ErrorCode> errors = Collections.synchronizedList(new ArrayList<ErrorCode>());
+        final AtomicInteger done = new AtomicInteger(0);
+        final AsyncLatch latch = new AsyncLatch(snapshots.size(), new NoErrorCompletion(completion) {
+            @Override
+            public void done() {
+                if (errors.isEmpty()) {
+                    completion.success();
+                } else {
+                    completion.fail(errors.get(0));
+                }
+            }
+        });
+
+        for (final VolumeSnapshotInventory sp : snapshots) {
+            thdf.chainSubmit(new ChainTask(completion) {
+                @Override
+                public String getSyncSignature() {
+                    return String.format("migrate-bits-from-host-%s-to-host-%s", srcHostUuid, dstHostUuid);
+                }
+
+                @Override
+                protected int getSyncLevel() {
+                    return Math.max(LocalStorageGlobalProperty.KVM_MIGRATE_BITS_PARALLELISM, 1);
+                }
+
+                @Override
+                public void run(final SyncTaskChain chain) {
+                    if (!errors.isEmpty()) {
+                        latch.ack();
+                        chain.next();
+                        return;
+                    }
+
+                    copySnapshotToDstHost(sp, srcHostUuid, dstHost, copied, new Completion(chain) {
+                        @Override
+                        public void success() {
+                            taskProgress("copied the snapshot[uuid:%s] to the host[uuid:%s], %s of %s",
+                                    sp.getUuid(), dstHostUuid, done.incrementAndGet(), snapshots.size());
+                            latch.ack();
+                            chain.next();
+                        }
+
+                        @Override
+                        public void fail(ErrorCode errorCode) {
+                            errors.add(operr("failed to copy the snapshot[uuid:%s, path:%s] to the host[uuid:%s]",
+                                    sp.getUuid(), sp.getPrimaryStorageInstallPath(), dstHostUuid).causedBy(errorCode));
+                            latch.ack();
+                            chain.next();
+                        }
+                    });
+                }
+
+                @Override
+                public String getName() {
+                    return String.format("copy-snapshot-%s-to-host-%s", sp.getUuid(), dstHostUuid);
+                }
+            });
+        }
+    }
+
     private List<Flow> createFlowsForSnapshot(List<VolumeInventory> volumesOnLocalStorage,
                                               List<VolumeSnapshotTree> snapshotTrees, final String srcHostUuid,
                                               final String dstHostUuid, final BackingImage image) {
@@ -835,6 +970,8 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
             VolumeInventory volume;
             List<VolumeSnapshotTree> snapshotTrees;
             VolumeSnapshotInventory latest;
+            List<VolumeSnapshotInventory> children;
+            List<SnapshotTO> snapshotTOs;
         }
 
         List<VSPair> volumeHasSnapshots = new ArrayList<VSPair>();
@@ -879,7 +1016,8 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                 children.addAll(t.getRoot().getDescendants());
             }
 
-            final List<SnapshotTO> snapshotTOs = CollectionUtils.transformToList(children, new Function<SnapshotTO, VolumeSnapshotInventory>() {
+            p.children = children;
+            p.snapshotTOs = CollectionUtils.transformToList(children, new Function<SnapshotTO, VolumeSnapshotInventory>() {
                 @Override
                 public SnapshotTO call(final VolumeSnapshotInventory s) {
                     SnapshotTO to = new SnapshotTO();
@@ -897,20 +1035,13 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                 }
             });
 
-
-            class Context {
-                List<Md5TO> md5s;
-            }
-
-            final Context context = new Context();
-
             flows.add(new NoRollbackFlow() {
                 String __name__ = String.format("verify-snapshot-integrity-of-volume-%s-on-src-host", p.volume.getUuid());
 
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
                     VerifySnapshotChainCmd cmd = new VerifySnapshotChainCmd();
-                    cmd.snapshots = snapshotTOs;
+                    cmd.snapshots = p.snapshotTOs;
                     callKvmHost(srcHostUuid, p.volume.getPrimaryStorageUuid(), VERIFY_SNAPSHOT_CHAIN_PATH, cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(trigger) {
                         @Override
                         public void success(AgentResponse returnValue) {
@@ -924,62 +1055,25 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                     });
                 }
             });
+        }
 
-            flows.add(new NoRollbackFlow() {
-                String __name__ = "get-snapshot-md5";
-
-                @Override
-                public void run(final FlowTrigger trigger, Map data) {
-                    GetMd5Cmd cmd = new GetMd5Cmd();
-                    cmd.md5s = CollectionUtils.transformToList(children, new Function<GetMd5TO, VolumeSnapshotInventory>() {
-                        @Override
-                        public GetMd5TO call(VolumeSnapshotInventory arg) {
-                            GetMd5TO to = new GetMd5TO();
-                            to.path = arg.getPrimaryStorageInstallPath();
-                            to.resourceUuid = arg.getUuid();
-                            return to;
-                        }
-                    });
-
-                    callKvmHost(srcHostUuid, p.volume.getPrimaryStorageUuid(), LocalStorageKvmBackend.GET_MD5_PATH, cmd,
-                            GetMd5Rsp.class, new ReturnValueCompletion<GetMd5Rsp>(trigger) {
-                        @Override
-                        public void success(GetMd5Rsp rsp) {
-                            context.md5s = rsp.md5s;
-                            trigger.next();
-                        }
-
-                        @Override
-                        public void fail(ErrorCode errorCode) {
-                            trigger.fail(errorCode);
-                        }
-                    });
-                }
-            });
+        if (!volumeHasSnapshots.isEmpty()) {
+            final List<VolumeSnapshotInventory> snapshots = new ArrayList<VolumeSnapshotInventory>();
+            for (VSPair p : volumeHasSnapshots) {
+                snapshots.addAll(p.children);
+            }
 
             flows.add(new Flow() {
-                String __name__ = String.format("copy-snapshots-for-volume-%s-on-dst-host", p.volume.getUuid());
+                String __name__ = String.format("copy-snapshots-to-dst-host-%s", dstHostUuid);
 
-                List<VolumeSnapshotInventory> success = new ArrayList<VolumeSnapshotInventory>();
-                KVMHostVO dstHost = dbf.findByUuid(dstHostUuid, KVMHostVO.class);
+                // snapshots whose bits may have been written on the dst host
+                List<VolumeSnapshotInventory> success = Collections.synchronizedList(new ArrayList<VolumeSnapshotInventory>());
 
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
-                    CopyBitsFromRemoteCmd cmd = new CopyBitsFromRemoteCmd();
-                    cmd.paths = CollectionUtils.transformToList(children, new Function<String, VolumeSnapshotInventory>() {
+                    copySnapshotsToDstHost(snapshots, srcHostUuid, dstHostUuid, success, new Completion(trigger) {
                         @Override
-                        public String call(VolumeSnapshotInventory arg) {
-                            return arg.getPrimaryStorageInstallPath();
-                        }
-                    });
-                    cmd.dstIp = dstHost.getManagementIp();
-                    cmd.dstPassword = dstHost.getPassword();
-                    cmd.dstUsername = dstHost.getUsername();
-                    cmd.dstPort = dstHost.getPort();
-                    cmd.uuid = p.volume.getUuid();
-                    callKvmHost(srcHostUuid, p.volume.getPrimaryStorageUuid(), COPY_TO_REMOTE_BITS_PATH, cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(trigger) {
-                        @Override
-                        public void success(AgentResponse returnValue) {
+                        public void success() {
                             trigger.next();
                         }
 
@@ -1023,30 +1117,9 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                     trigger.rollback();
                 }
             });
+        }
 
-            flows.add(new NoRollbackFlow() {
-                String __name__ = "check-snapshots-md5-on-dst-host";
-
-                @Override
-                public void run(final FlowTrigger trigger, Map data) {
-                    CheckMd5sumCmd cmd = new CheckMd5sumCmd();
-                    cmd.md5s = context.md5s;
-
-                    callKvmHost(dstHostUuid, p.volume.getPrimaryStorageUuid(), LocalStorageKvmBackend.CHECK_MD5_PATH,
-                            cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(trigger) {
-                                @Override
-                                public void success(AgentResponse returnValue) {
-                                    trigger.next();
-                                }
-
-                                @Override
-                                public void fail(ErrorCode errorCode) {
-                                    trigger.fail(errorCode);
-                                }
-                            });
-                }
-            });
-
+        for (final VSPair p : volumeHasSnapshots) {
             flows.add(new Flow() {
                 String __name__ = "create-volume-on-dst-host";
 
@@ -1105,7 +1178,7 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
                     RebaseSnapshotBackingFilesCmd cmd = new RebaseSnapshotBackingFilesCmd();
-                    cmd.snapshots = snapshotTOs;
+                    cmd.snapshots = p.snapshotTOs;
                     callKvmHost(dstHostUuid, p.volume.getPrimaryStorageUuid(), REBASE_SNAPSHOT_BACKING_FILES_PATH, cmd, AgentResponse.class, new ReturnValueCompletion<AgentResponse>(trigger) {
                         @Override
                         public void success(AgentResponse returnValue) {
@@ -1126,7 +1199,7 @@ public class LocalStorageKvmMigrateVmFlow extends NoRollbackFlow {
                 @Override
                 public void run(final FlowTrigger trigger, Map data) {
                     List<SnapshotTO> s = new ArrayList<SnapshotTO>();
-                    s.addAll(snapshotTOs);
+                    s.addAll(p.snapshotTOs);
 
                     // the volume links to the latest snapshot
                     SnapshotTO to = new SnapshotTO();
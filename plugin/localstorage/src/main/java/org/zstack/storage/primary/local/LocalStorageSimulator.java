@@ -24,6 +24,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.SimpleQuery;
 import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.host.HostVO;
 import org.zstack.header.host.HostVO_;
 import org.zstack.header.rest.RESTConstant;
@@ -34,6 +35,8 @@ import org.zstack.utils.function.Function;
 import org.zstack.utils.gson.JSONObjectUtil;
 import org.zstack.utils.logging.CLogger;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by frank on 7/1/2015.
  */
@@ -133,6 +136,18 @@ public class LocalStorageSimulator {
     public @ResponseBody
     String copyBitsFromRemote(HttpEntity<String> entity) {
         CopyBitsFromRemoteCmd cmd = JSONObjectUtil.toObject(entity.getBody(), CopyBitsFromRemoteCmd.class);
+        int concurrency = config.copyBitsFromRemoteConcurrency.incrementAndGet();
+        config.maxCopyBitsFromRemoteConcurrency.accumulateAndGet(concurrency, Math::max);
+        try {
+            if (config.copyBitsFromRemoteDelay > 0) {
+                TimeUnit.MILLISECONDS.sleep(config.copyBitsFromRemoteDelay);
+            }
+        } catch (InterruptedException e) {
+            throw new CloudRuntimeException(e);
+        } finally {
+            config.copyBitsFromRemoteConcurrency.decrementAndGet();
+        }
+
         AgentResponse rsp = new AgentResponse();
         if (config.copyBitsFromRemoteSuccess) {
             config.copyBitsFromRemoteCmds.add(cmd);
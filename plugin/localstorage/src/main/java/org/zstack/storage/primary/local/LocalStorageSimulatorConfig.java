@@ -8,9 +8,11 @@ import org.zstack.storage.primary.local.LocalStorageKvmSftpBackupStorageMediator
 import org.zstack.storage.primary.local.LocalStorageKvmSftpBackupStorageMediatorImpl.SftpUploadBitsCmd;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by frank on 7/1/2015.
@@ -39,15 +41,19 @@ public class LocalStorageSimulatorConfig {
     public List<RebaseRootVolumeToBackingFileCmd> rebaseRootVolumeToBackingFileCmds = new ArrayList<>();
     public List<RebaseSnapshotBackingFilesCmd> rebaseSnapshotBackingFilesCmds = new ArrayList<>();
     public List<VerifySnapshotChainCmd> verifySnapshotChainCmds = new ArrayList<>();
-    public List<CopyBitsFromRemoteCmd> copyBitsFromRemoteCmds = new ArrayList<>();
-    public List<GetMd5Cmd> getMd5Cmds = new ArrayList<>();
-    public List<CheckMd5sumCmd> checkMd5sumCmds = new ArrayList<>();
+    public List<CopyBitsFromRemoteCmd> copyBitsFromRemoteCmds = Collections.synchronizedList(new ArrayList<>());
+    public List<GetMd5Cmd> getMd5Cmds = Collections.synchronizedList(new ArrayList<>());
+    public List<CheckMd5sumCmd> checkMd5sumCmds = Collections.synchronizedList(new ArrayList<>());
     public List<GetBackingFileCmd> getBackingFileCmds = new ArrayList<>();
     public volatile String backingFilePath;
     public volatile Long backingFileSize;
     public volatile boolean checkMd5Success = true;
     public volatile boolean checkBitsSuccess = true;
     public volatile boolean copyBitsFromRemoteSuccess = true;
+    // milliseconds a CopyBitsFromRemoteCmd takes
+    public volatile long copyBitsFromRemoteDelay;
+    public AtomicInteger copyBitsFromRemoteConcurrency = new AtomicInteger(0);
+    public AtomicInteger maxCopyBitsFromRemoteConcurrency = new AtomicInteger(0);
 
     public Map<String, Long> snapshotToVolumeSize = new HashMap<>();
     public Map<String, Long> snapshotToVolumeActualSize = new HashMap<>();
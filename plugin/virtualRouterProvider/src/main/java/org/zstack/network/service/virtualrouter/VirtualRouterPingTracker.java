@@ -47,12 +47,12 @@ public class VirtualRouterPingTracker extends PingTracker implements ManagementN
 
     @Override
     public int getPingInterval() {
-        return VirtualRouterGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return VirtualRouterGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
     public int getParallelismDegree() {
-        return VirtualRouterGlobalConfig.PING_PARALLELISM_DEGREE.value(Integer.class);
+        return VirtualRouterGlobalConfig.PING_PARALLELISM_DEGREE.intValue();
     }
 
     @Override
@@ -4,6 +4,7 @@ import org.zstack.header.apimediator.ApiMessageInterceptor;
 import org.zstack.header.message.APIParam;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -22,6 +23,15 @@ public class ApiMessageDescriptor {
     private List<ApiMessageInterceptor> interceptors;
     private Class<?> clazz;
     private Map<Field, APIParam> fieldApiParams = new HashMap<Field, APIParam>();
+    private List<ApiParamValidator> paramValidators = new ArrayList<ApiParamValidator>();
+
+    public List<ApiParamValidator> getParamValidators() {
+        return paramValidators;
+    }
+
+    public void setParamValidators(List<ApiParamValidator> paramValidators) {
+        this.paramValidators = paramValidators;
+    }
 
     public Map<Field, APIParam> getFieldApiParams() {
         return fieldApiParams;
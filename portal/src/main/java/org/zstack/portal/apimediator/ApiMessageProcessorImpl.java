@@ -1,6 +1,5 @@
 package org.zstack.portal.apimediator;
 
-import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.beans.factory.annotation.Autowire;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,14 +24,11 @@ import org.zstack.header.rest.RestRequest;
 import org.zstack.portal.apimediator.schema.Service;
 import org.zstack.utils.DebugUtils;
 import org.zstack.utils.FieldUtils;
-import org.zstack.utils.TypeUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.function.FunctionNoArg;
 import org.zstack.utils.logging.CLogger;
 import org.zstack.utils.path.PathUtil;
 
-import static org.zstack.core.Platform.argerr;
-
 import javax.persistence.TypedQuery;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -40,8 +36,6 @@ import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created with IntelliJ IDEA.
@@ -251,102 +245,25 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
         for (FP fp : fmap.values()) {
             desc.getFieldApiParams().put(fp.field, fp.param);
         }
+
+        // keep the order of fieldApiParams, so the same field is reported when several are invalid
+        for (Map.Entry<Field, APIParam> e : desc.getFieldApiParams().entrySet()) {
+            desc.getParamValidators().add(new ApiParamValidator(e.getKey(), e.getValue()));
+        }
     }
 
 
     private void apiParamValidation(Message msg, ApiMessageDescriptor desc) {
         try {
-            for (Map.Entry<Field, APIParam> fp : desc.getFieldApiParams().entrySet()) {
-                Field f = fp.getKey();
-                final APIParam at = fp.getValue();
-
-                f.setAccessible(true);
-                Object value = f.get(msg);
-
-                if (value != null && (value instanceof String) && !at.noTrim()) {
-                    value = ((String) value).trim();
-                }
-
-                if (value != null && at.maxLength() != Integer.MIN_VALUE && (value instanceof String)) {
-                    String str = (String) value;
-                    if (str.length() > at.maxLength()) {
-                        throw new ApiMessageInterceptionException(argerr("field[%s] of message[%s] exceeds max length of string. expected was <= %s, actual was %s",
-                                        f.getName(), msg.getClass().getName(), at.maxLength(), str.length()));
-                    }
-                }
-
-                if (value != null && at.minLength() != 0 && (value instanceof String)) {
-                    String str = (String) value;
-                    if (str.length() < at.minLength()) {
-                        throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.INVALID_ARGUMENT_ERROR,
-                                String.format("field[%s] of message[%s] less than the min length of string. expected was >= %s, actual was %s",
-                                        f.getName(), msg.getClass().getName(), at.minLength(), str.length())
-                        ));
-                    }
-                }
-
-                if (at.required() && value == null) {
-                    throw new ApiMessageInterceptionException(argerr("field[%s] of message[%s] is mandatory, can not be null", f.getName(), msg.getClass().getName()));
-                }
-
-                if (value != null && at.validValues().length > 0) {
-                    List vals = Arrays.asList(at.validValues());
-
-                    if (!vals.contains(value.toString())) {
-                        throw new ApiMessageInterceptionException(argerr("valid value for field[%s] of message[%s] are %s, but %s found", f.getName(),
-                                        msg.getClass().getName(), vals, value));
-                    }
-                }
+            for (ApiParamValidator validator : desc.getParamValidators()) {
+                Field f = validator.getField();
+                final APIParam at = validator.getParam();
+                final Class resourceType = validator.getResourceType();
 
-                if (value != null && at.validRegexValues() != null && at.validRegexValues().trim().equals("") == false) {
-                    String regex = at.validRegexValues().trim();
-                    Pattern p = Pattern.compile(regex);
-                    Matcher mt = p.matcher(value.toString());
-                    if (!mt.matches()){
-                        throw new ApiMessageInterceptionException(argerr("valid regex value for field[%s] of message[%s] are %s, but %s found", f.getName(),
-                                        msg.getClass().getName(), regex, value));
-                    }
-                }
-
-                if (value !=null && at.nonempty() && value instanceof Collection) {
-                    Collection col = (Collection) value;
-                    if (col.isEmpty()) {
-                        throw new  ApiMessageInterceptionException(argerr("field[%s] must be a nonempty list", f.getName()));
-                    }
-                }
-
-                if (value !=null && !at.nullElements() && value instanceof Collection) {
-                    Collection col = (Collection) value;
-                    for (Object o : col) {
-                        if (o == null) {
-                            throw new  ApiMessageInterceptionException(argerr("field[%s] cannot contain a NULL element", f.getName()));
-                        }
-                    }
-                }
-
-                if (value != null &&!at.emptyString()) {
-                    if (value instanceof String && StringUtils.isEmpty((String) value)) {
-                        throw new ApiMessageInterceptionException(argerr("field[%s] cannot be an empty string", f.getName()));
-                    } else if (value instanceof Collection) {
-                        for (Object v : (Collection)value) {
-                            if (v instanceof String && StringUtils.isEmpty((String)v)) {
-                                throw new ApiMessageInterceptionException(argerr("field[%s] cannot contain any empty string", f.getName()));
-                            }
-                        }
-                    }
-                }
-
-                if (value != null && at.numberRange().length > 0 && TypeUtils.isTypeOf(value, Integer.TYPE, Integer.class, Long.TYPE, Long.class)) {
-                    DebugUtils.Assert(at.numberRange().length == 2, String.format("invalid field[%s], APIParam.numberRange must have and only have 2 items", f.getName()));
-                    long low = at.numberRange()[0];
-                    long high = at.numberRange()[1];
-                    long val = Long.valueOf(((Number) value).longValue());
-                    if (val < low || val > high) {
-                        throw new ApiMessageInterceptionException(argerr("field[%s] must be in range of [%s, %s]", f.getName(), low, high));
-                    }
-                }
+                Object value = validator.getValue(msg);
+                validator.validate(msg, value);
 
-                if (value != null && at.resourceType() != Object.class) {
+                if (value != null && resourceType != Object.class) {
                     if (value instanceof Collection) {
                         final Collection col = (Collection) value;
                         if (!col.isEmpty()) {
@@ -354,7 +271,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                                 @Override
                                 @Transactional(readOnly = true)
                                 public List<String> call() {
-                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", at.resourceType().getSimpleName());
+                                    String sql = String.format("select e.uuid from %s e where e.uuid in (:uuids)", resourceType.getSimpleName());
                                     TypedQuery<String> q = dbf.getEntityManager().createQuery(sql, String.class);
                                     q.setParameter("uuids", col);
                                     return q.getResultList();
@@ -372,7 +289,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
 
                                 if (!invalids.isEmpty()) {
                                     throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, at.resourceType().getSimpleName())
+                                            String.format("invalid field[%s], resource[uuids:%s, type:%s] not found", f.getName(), invalids, resourceType.getSimpleName())
                                     ));
                                 }
                             }
@@ -382,7 +299,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                         DebugUtils.Assert(String.class.isAssignableFrom(f.getType()), String.format("field[%s] of message[%s] has APIParam.resourceType specified, then the field must be uuid which is a String, but actual is %s",
                                 f.getName(), msg.getClass().getName(), f.getType()));
 
-                        if (!dbf.isExist(value, at.resourceType())) {
+                        if (!dbf.isExist(value, resourceType)) {
                             if (at.successIfResourceNotExisting()) {
                                 RestRequest rat = msg.getClass().getAnnotation(RestRequest.class);
                                 if (rat == null) {
@@ -395,7 +312,7 @@ public class ApiMessageProcessorImpl implements ApiMessageProcessor {
                                 throw new StopRoutingException();
                             } else {
                                 throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.RESOURCE_NOT_FOUND,
-                                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, at.resourceType().getSimpleName())
+                                        String.format("invalid field[%s], resource[uuid:%s, type:%s] not found", f.getName(), value, resourceType.getSimpleName())
                                 ));
                             }
                         }
@@ -0,0 +1,204 @@
+package org.zstack.portal.apimediator;
+
+import org.apache.commons.lang.StringUtils;
+import org.zstack.core.Platform;
+import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.header.apimediator.ApiMessageInterceptionException;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.APIParam;
+import org.zstack.utils.DebugUtils;
+import org.zstack.utils.TypeUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static org.zstack.core.Platform.argerr;
+
+/**
+ * Validates a field of API messages against its @APIParam. The field getter and everything
+ * read from the annotation (the regex, the valid values, the limits) are prepared once when the
+ * ApiMessageDescriptor is built, rather than on every API call; an annotation returns a new copy
+ * of an array member on every access.
+ *
+ * Checks needing the database, e.g. APIParam.resourceType, are done by ApiMessageProcessorImpl.
+ */
+public class ApiParamValidator {
+    private static final CLogger logger = Utils.getLogger(ApiParamValidator.class);
+
+    private final Field field;
+    private final APIParam param;
+    private final MethodHandle getter;
+    private final boolean required;
+    private final boolean noTrim;
+    private final int maxLength;
+    private final int minLength;
+    private final boolean nonempty;
+    private final boolean nullElements;
+    private final boolean emptyString;
+    private final long[] numberRange;
+    private final Class resourceType;
+    private final List<String> validValueList;
+    private final Set<String> validValues;
+    private final String regex;
+    // null if the regex is invalid, compiled again on validating so the error is reported as before
+    private final Pattern regexPattern;
+
+    public ApiParamValidator(Field field, APIParam param) {
+        this.field = field;
+        this.param = param;
+
+        field.setAccessible(true);
+        try {
+            getter = MethodHandles.lookup().unreflectGetter(field).asType(MethodType.methodType(Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new CloudRuntimeException(e);
+        }
+
+        required = param.required();
+        noTrim = param.noTrim();
+        maxLength = param.maxLength();
+        minLength = param.minLength();
+        nonempty = param.nonempty();
+        nullElements = param.nullElements();
+        emptyString = param.emptyString();
+        numberRange = param.numberRange();
+        resourceType = param.resourceType();
+
+        validValueList = Arrays.asList(param.validValues());
+        validValues = new HashSet<>(validValueList);
+
+        if (param.validRegexValues() != null && !param.validRegexValues().trim().equals("")) {
+            regex = param.validRegexValues().trim();
+            Pattern p = null;
+            try {
+                p = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                logger.warn(String.format("invalid validRegexValues[%s] of field[%s] of class[%s]", regex,
+                        field.getName(), field.getDeclaringClass().getName()), e);
+            }
+            regexPattern = p;
+        } else {
+            regex = null;
+            regexPattern = null;
+        }
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public APIParam getParam() {
+        return param;
+    }
+
+    public Class getResourceType() {
+        return resourceType;
+    }
+
+    /**
+     * returns the value of the field, a string is trimmed unless APIParam.noTrim is set
+     */
+    public Object getValue(Object msg) {
+        Object value;
+        try {
+            value = getter.invokeExact(msg);
+        } catch (Throwable t) {
+            throw new CloudRuntimeException(t);
+        }
+
+        if (value != null && (value instanceof String) && !noTrim) {
+            value = ((String) value).trim();
+        }
+
+        return value;
+    }
+
+    /**
+     * validates the value returned by getValue(), throws ApiMessageInterceptionException if invalid
+     */
+    public void validate(Object msg, Object value) {
+        if (value != null && maxLength != Integer.MIN_VALUE && (value instanceof String)) {
+            String str = (String) value;
+            if (str.length() > maxLength) {
+                throw new ApiMessageInterceptionException(argerr("field[%s] of message[%s] exceeds max length of string. expected was <= %s, actual was %s",
+                                field.getName(), msg.getClass().getName(), maxLength, str.length()));
+            }
+        }
+
+        if (value != null && minLength != 0 && (value instanceof String)) {
+            String str = (String) value;
+            if (str.length() < minLength) {
+                ErrorFacade errf = Platform.getComponentLoader().getComponent(ErrorFacade.class);
+                throw new ApiMessageInterceptionException(errf.instantiateErrorCode(SysErrors.INVALID_ARGUMENT_ERROR,
+                        String.format("field[%s] of message[%s] less than the min length of string. expected was >= %s, actual was %s",
+                                field.getName(), msg.getClass().getName(), minLength, str.length())
+                ));
+            }
+        }
+
+        if (required && value == null) {
+            throw new ApiMessageInterceptionException(argerr("field[%s] of message[%s] is mandatory, can not be null", field.getName(), msg.getClass().getName()));
+        }
+
+        if (value != null && !validValues.isEmpty()) {
+            if (!validValues.contains(value.toString())) {
+                throw new ApiMessageInterceptionException(argerr("valid value for field[%s] of message[%s] are %s, but %s found", field.getName(),
+                                msg.getClass().getName(), validValueList, value));
+            }
+        }
+
+        if (value != null && regex != null) {
+            Pattern p = regexPattern != null ? regexPattern : Pattern.compile(regex);
+            if (!p.matcher(value.toString()).matches()) {
+                throw new ApiMessageInterceptionException(argerr("valid regex value for field[%s] of message[%s] are %s, but %s found", field.getName(),
+                                msg.getClass().getName(), regex, value));
+            }
+        }
+
+        if (value != null && nonempty && value instanceof Collection) {
+            Collection col = (Collection) value;
+            if (col.isEmpty()) {
+                throw new ApiMessageInterceptionException(argerr("field[%s] must be a nonempty list", field.getName()));
+            }
+        }
+
+        if (value != null && !nullElements && value instanceof Collection) {
+            Collection col = (Collection) value;
+            for (Object o : col) {
+                if (o == null) {
+                    throw new ApiMessageInterceptionException(argerr("field[%s] cannot contain a NULL element", field.getName()));
+                }
+            }
+        }
+
+        if (value != null && !emptyString) {
+            if (value instanceof String && StringUtils.isEmpty((String) value)) {
+                throw new ApiMessageInterceptionException(argerr("field[%s] cannot be an empty string", field.getName()));
+            } else if (value instanceof Collection) {
+                for (Object v : (Collection) value) {
+                    if (v instanceof String && StringUtils.isEmpty((String) v)) {
+                        throw new ApiMessageInterceptionException(argerr("field[%s] cannot contain any empty string", field.getName()));
+                    }
+                }
+            }
+        }
+
+        if (value != null && numberRange.length > 0 && TypeUtils.isTypeOf(value, Integer.TYPE, Integer.class, Long.TYPE, Long.class)) {
+            DebugUtils.Assert(numberRange.length == 2, String.format("invalid field[%s], APIParam.numberRange must have and only have 2 items", field.getName()));
+            long low = numberRange[0];
+            long high = numberRange[1];
+            long val = ((Number) value).longValue();
+            if (val < low || val > high) {
+                throw new ApiMessageInterceptionException(argerr("field[%s] must be in range of [%s, %s]", field.getName(), low, high));
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.errorcode.ErrorFacade;
+import org.zstack.core.jmx.JmxFacade;
 import org.zstack.header.Component;
 import org.zstack.header.apimediator.ApiMessageInterceptionException;
 import org.zstack.header.apimediator.GlobalApiMessageInterceptor;
@@ -31,19 +32,24 @@ import static org.zstack.core.Platform.argerr;
 
 import javax.persistence.*;
 import javax.persistence.metamodel.StaticMetamodel;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import static org.zstack.utils.StringDSL.s;
 
 /**
  */
-public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter {
+public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalApiMessageInterceptor, PythonApiBindingWriter,
+        MysqlQueryBuilderMXBean {
     private static final CLogger logger = Utils.getLogger(MysqlQueryBuilderImpl3.class);
 
     @Autowired
@@ -52,11 +58,14 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     private ErrorFacade errf;
     @Autowired
     private PluginRegistry pluginRgty;
+    @Autowired
+    private JmxFacade jmxf;
 
     private Objenesis objenesis = new ObjenesisStd();
 
     private static final String USER_TAG = "__userTag__";
     private static final String SYSTEM_TAG = "__systemTag__";
+    private static final int BATCH_FETCH_SIZE = 1000;
 
     @Override
     public List<Class> getMessageClassToIntercept() {
@@ -148,6 +157,9 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         Map<String, Field> allFieldsMap = new HashMap<String, Field>();
         Map<String, ExpandedQueryAliasInfo> aliases = new HashMap<String, ExpandedQueryAliasInfo>();
         List<String> premitiveFieldNames = new ArrayList<String>();
+        // how a page of entities is loaded with their eager collections, null if the entity has
+        // associations the plan can't load, see makeBatchFetchPlan()
+        BatchFetchPlan fetchPlan;
 
         EntityInfo(Class invClass) throws NoSuchMethodException {
             inventoryAnnotation = (Inventory) invClass.getAnnotation(Inventory.class);
@@ -223,6 +235,112 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                     }
                 }
             }
+
+            fetchPlan = makeBatchFetchPlan();
+        }
+
+        /**
+         * hibernate loads eager collections of entities returned by a JPQL query one entity one collection
+         * a time, and join fetching more than one collection in a statement returns the cartesian product
+         * of them. The plan instead selects the basic fields of the entities in one statement and each eager
+         * collection in one statement keyed by the join column, so a page of entities costs 1 + number of
+         * collections statements.
+         *
+         * Only entities whose associations are all eager @OneToMany by a @JoinColumn, and whose collection
+         * elements have no eager association, are planned; for others null is returned.
+         */
+        private BatchFetchPlan makeBatchFetchPlan() {
+            BatchFetchPlan plan = new BatchFetchPlan();
+            List<String> selectors = new ArrayList<String>();
+            for (Field f : FieldUtils.getAllFields(entityClass)) {
+                if (Modifier.isStatic(f.getModifiers()) || Modifier.isTransient(f.getModifiers()) || f.isAnnotationPresent(Transient.class)) {
+                    continue;
+                }
+
+                if (f.isAnnotationPresent(OneToMany.class)) {
+                    CollectionFetch c = makeCollectionFetch(f);
+                    if (c == null) {
+                        return null;
+                    }
+                    plan.collections.add(c);
+                } else if (f.isAnnotationPresent(ManyToMany.class) || f.isAnnotationPresent(ElementCollection.class)
+                        || f.isAnnotationPresent(OneToOne.class) || f.isAnnotationPresent(ManyToOne.class)
+                        || f.isAnnotationPresent(Embedded.class) || f.isAnnotationPresent(EmbeddedId.class)) {
+                    return null;
+                } else {
+                    f.setAccessible(true);
+                    plan.basicFields.add(f);
+                    selectors.add(String.format("e.%s", f.getName()));
+                }
+            }
+
+            if (plan.collections.isEmpty()) {
+                // hibernate loads the entities in one statement already
+                return null;
+            }
+
+            try {
+                plan.constructor = entityClass.getDeclaredConstructor();
+                plan.constructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+
+            plan.jpql = String.format("select %s from %s e where e.%s in (:ids)", StringUtils.join(selectors, ","),
+                    entityClass.getSimpleName(), primaryKey);
+            return plan;
+        }
+
+        private CollectionFetch makeCollectionFetch(Field f) {
+            OneToMany at = f.getAnnotation(OneToMany.class);
+            JoinColumn jc = f.getAnnotation(JoinColumn.class);
+            if (at.fetch() != FetchType.EAGER || !at.mappedBy().equals("") || jc == null || jc.name().equals("")) {
+                return null;
+            }
+
+            if (f.getType() != Set.class && f.getType() != List.class && f.getType() != Collection.class) {
+                return null;
+            }
+
+            if (!(f.getGenericType() instanceof ParameterizedType)) {
+                return null;
+            }
+
+            Class elementClass = (Class) ((ParameterizedType) f.getGenericType()).getActualTypeArguments()[0];
+            Field joinField = FieldUtils.getField(jc.name(), elementClass);
+            if (joinField == null) {
+                return null;
+            }
+
+            for (Field ef : FieldUtils.getAllFields(elementClass)) {
+                if (isEagerAssociation(ef)) {
+                    return null;
+                }
+            }
+
+            CollectionFetch c = new CollectionFetch();
+            c.field = f;
+            c.field.setAccessible(true);
+            c.joinField = joinField;
+            c.joinField.setAccessible(true);
+            c.jpql = String.format("select c from %s c where c.%s in (:ids)", elementClass.getSimpleName(), jc.name());
+            return c;
+        }
+
+        private boolean isEagerAssociation(Field f) {
+            if (f.isAnnotationPresent(OneToMany.class)) {
+                return f.getAnnotation(OneToMany.class).fetch() == FetchType.EAGER;
+            } else if (f.isAnnotationPresent(ManyToMany.class)) {
+                return f.getAnnotation(ManyToMany.class).fetch() == FetchType.EAGER;
+            } else if (f.isAnnotationPresent(ElementCollection.class)) {
+                return f.getAnnotation(ElementCollection.class).fetch() == FetchType.EAGER;
+            } else if (f.isAnnotationPresent(OneToOne.class)) {
+                return f.getAnnotation(OneToOne.class).fetch() == FetchType.EAGER;
+            } else if (f.isAnnotationPresent(ManyToOne.class)) {
+                return f.getAnnotation(ManyToOne.class).fetch() == FetchType.EAGER;
+            }
+
+            return false;
         }
 
         void buildFlatTypeEntityMap() {
@@ -270,6 +388,20 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
     }
 
+    private static class CollectionFetch {
+        Field field;
+        // the field of the collection element referring to the owner entity
+        Field joinField;
+        String jpql;
+    }
+
+    private static class BatchFetchPlan {
+        List<Field> basicFields = new ArrayList<Field>();
+        List<CollectionFetch> collections = new ArrayList<CollectionFetch>();
+        Constructor constructor;
+        String jpql;
+    }
+
     private class SubQueryInfo {
         Class joinInventoryClass;
     }
@@ -292,6 +424,16 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
     private Map<Class, List<ExpandedQueryAliasInfo>> aliasInfos = new HashMap<Class, List<ExpandedQueryAliasInfo>>();
     private Map<Class, Class> inventoryQueryMessageMap = new HashMap<Class, Class>();
 
+    // query plans keyed by the shape of queries, see QueryContext.makePlanKey()
+    private Map<List<Object>, QueryPlan> queryPlans = Collections.synchronizedMap(new LinkedHashMap<List<Object>, QueryPlan>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, QueryPlan> eldest) {
+            return size() > QueryGlobalProperty.QUERY_PLAN_CACHE_SIZE;
+        }
+    });
+    private AtomicLong queryPlanCacheHits = new AtomicLong();
+    private AtomicLong queryPlanCacheMisses = new AtomicLong();
+
     private EntityInfo buildEntityInfo(Class invClass) throws NoSuchMethodException {
         EntityInfo info = entityInfos.get(invClass);
         if (info != null) {
@@ -340,6 +482,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         String attrValueName;
         boolean skipInventoryCheck;
         int index;
+        // index of the query condition where the value comes from, see QueryContext.conditions
+        int valueIndex;
 
         private Field entityField;
 
@@ -381,6 +525,10 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
 
         Object normalizeValue() {
+            return normalizeValue(value);
+        }
+
+        Object normalizeValue(String value) {
             if (QueryOp.IS_NULL.equals(op) || QueryOp.NOT_NULL.equals(op)) {
                 return null;
             }
@@ -498,6 +646,9 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         List<QueryObject> children = new ArrayList<QueryObject>();
         SubQueryInfo subQueryInfo;
         APIQueryMessage msg;
+        List<String> extraSubqueries = new ArrayList<String>();
+        // select primary keys only, entities are loaded later by EntityInfo.fetchPlan
+        boolean selectPrimaryKey;
 
         // NOTE: we hard code tag specific logic here because we think current query model is not sustainable,
         // it worth nothing to waste effort on making this as extension point; we will switch the entire
@@ -688,12 +839,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 throw new CloudRuntimeException("cannot be here");
             } else {
                 // this is root query
-                for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
-                    String sub = ext.makeSubquery(msg, info.inventoryClass);
-                    if (sub != null) {
-                        where.add(sub);
-                    }
-                }
+                where.addAll(extraSubqueries);
 
                 String entityName = info.inventoryClass.getSimpleName().toLowerCase();
                 String entity = info.entityClass.getSimpleName();
@@ -713,6 +859,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                             ss.add(String.format("%s.%s", entityName, f));
                         }
                         selector = StringUtils.join(ss, ",");
+                    } else if (selectPrimaryKey) {
+                        selector = String.format("%s.%s", entityName, info.primaryKey);
                     } else {
                         selector = entityName;
                     }
@@ -745,11 +893,40 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
         }
     }
 
+    /**
+     * the JPQL built for a query and the conditions whose values are bound as parameters,
+     * it's reused by queries of the same shape that only differ in condition values
+     */
+    private class QueryPlan {
+        String jpql;
+        List<MetaCondition> parameters = new ArrayList<MetaCondition>();
+
+        QueryPlan(String jpql, QueryObject root) {
+            this.jpql = jpql;
+            collectParameters(root);
+        }
+
+        private void collectParameters(QueryObject qobj) {
+            for (MetaCondition mcond : qobj.conditions) {
+                if (!USER_TAG.equals(mcond.attr) && !SYSTEM_TAG.equals(mcond.attr)) {
+                    parameters.add(mcond);
+                }
+            }
+            for (QueryObject child : qobj.children) {
+                collectParameters(child);
+            }
+        }
+    }
+
     private class QueryContext {
         private APIQueryMessage msg;
         private Class inventoryClass;
         private QueryObject root;
         private Map<Class, QueryObject> tmpMap = new HashMap<Class, QueryObject>();
+        // conditions of the message followed by extra conditions from extensions
+        private List<QueryCondition> conditions = new ArrayList<QueryCondition>();
+        private int valueIndex;
+        private QueryPlan plan;
 
         private MetaCondition buildCondition(QueryCondition qcond, EntityInfo info) {
             MetaCondition mcond = new MetaCondition();
@@ -757,6 +934,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             mcond.op = qcond.getOp();
             mcond.inventoryClass = info.inventoryClass;
             mcond.value = qcond.getValue();
+            mcond.valueIndex = valueIndex;
             return mcond;
         }
 
@@ -857,47 +1035,106 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             tmpMap.put(root.info.entityClass, root);
 
             for (QueryCondition qcond : msg.getConditions()) {
-                if (escapeConditionNames.contains(qcond.getName())) {
-                    continue;
-                }
-
-                if (!qcond.getName().contains(".")) {
-                    buildMetaCondition(qcond, root.info);
-                } else {
-                    buildSubQuery(qcond, root);
+                if (!escapeConditionNames.contains(qcond.getName())) {
+                    conditions.add(qcond);
                 }
             }
+            int msgConditionNum = conditions.size();
 
             List<AddExtraConditionToQueryExtensionPoint> exts = extraConditionsExts.get(msg.getClass());
             if (exts != null) {
                 for (AddExtraConditionToQueryExtensionPoint ext : exts) {
                     try {
-                        for (QueryCondition cond : ext.getExtraQueryConditionForMessage(msg)) {
-                            buildMetaCondition(cond, root.info, true);
-                        }
+                        conditions.addAll(ext.getExtraQueryConditionForMessage(msg));
                     } catch (Throwable t) {
                         logger.warn(String.format("unhandled exception when calling %s", ext.getClass().getName()), t);
                     }
                 }
             }
 
-            return root.toJpql(isCount);
+            for (MysqlQuerySubQueryExtension ext : subQueryExtensions) {
+                String sub = ext.makeSubquery(msg, root.info.inventoryClass);
+                if (sub != null) {
+                    root.extraSubqueries.add(sub);
+                }
+            }
+
+            root.selectPrimaryKey = !isCount && QueryGlobalProperty.BATCH_FETCH && !msg.isFieldQuery()
+                    && msg.getGroupBy() == null && root.info.fetchPlan != null;
+
+            List<Object> key = makePlanKey(isCount, msgConditionNum);
+            if (key != null) {
+                plan = queryPlans.get(key);
+                if (plan != null) {
+                    queryPlanCacheHits.incrementAndGet();
+                    return plan.jpql;
+                }
+
+                queryPlanCacheMisses.incrementAndGet();
+            }
+
+            for (valueIndex = 0; valueIndex < conditions.size(); valueIndex++) {
+                QueryCondition qcond = conditions.get(valueIndex);
+                if (valueIndex >= msgConditionNum) {
+                    buildMetaCondition(qcond, root.info, true);
+                } else if (!qcond.getName().contains(".")) {
+                    buildMetaCondition(qcond, root.info);
+                } else {
+                    buildSubQuery(qcond, root);
+                }
+            }
+
+            plan = new QueryPlan(root.toJpql(isCount), root);
+            if (key != null) {
+                queryPlans.put(key, plan);
+            }
+
+            return plan.jpql;
         }
 
-        private void setQueryValue(Query q, QueryObject qobj) {
-            for (MetaCondition mcond : qobj.conditions) {
-                if (USER_TAG.equals(mcond.attr) || SYSTEM_TAG.equals(mcond.attr)) {
-                    continue;
+        /**
+         * the key covers everything the JPQL depends on except condition values,
+         * returns null if the query cannot be cached
+         */
+        private List<Object> makePlanKey(boolean isCount, int msgConditionNum) {
+            if (QueryGlobalProperty.QUERY_PLAN_CACHE_SIZE <= 0) {
+                return null;
+            }
+
+            List<Object> key = new ArrayList<Object>();
+            key.add(msg.getClass());
+            key.add(inventoryClass);
+            key.add(isCount);
+            key.add(msgConditionNum);
+            for (QueryCondition qcond : conditions) {
+                if (qcond.getName().contains(USER_TAG) || qcond.getName().contains(SYSTEM_TAG)) {
+                    // values of tag conditions are written into the JPQL
+                    return null;
                 }
 
-                Object val = mcond.normalizeValue();
+                key.add(qcond.getName());
+                key.add(qcond.getOp());
+            }
+
+            if (!isCount) {
+                key.add(msg.isFieldQuery() ? new ArrayList<String>(msg.getFields()) : null);
+                key.add(msg.getSortBy());
+                key.add(msg.getSortBy() == null ? null : msg.getSortDirection());
+                key.add(msg.getGroupBy());
+            }
+
+            key.add(root.extraSubqueries);
+            key.add(root.selectPrimaryKey);
+            return key;
+        }
+
+        private void setQueryValue(Query q) {
+            for (MetaCondition mcond : plan.parameters) {
+                Object val = mcond.normalizeValue(conditions.get(mcond.valueIndex).getValue());
                 if (val != null) {
                     q.setParameter(mcond.attrValueName, val);
                 }
             }
-            for (QueryObject child : qobj.children) {
-                setQueryValue(q, child);
-            }
         }
 
 
@@ -956,6 +1193,15 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                                 break;
                             }
 
+                            if (QueryGlobalProperty.BATCH_FETCH) {
+                                for (Object vo : fetchEntities(sql.entityInfo, primaryKeysNeedResolve)) {
+                                    Object priKey = sql.entityInfo.getPrimaryKeyValue(vo);
+                                    flatMap.put(priKey, sql.entityInfo.inventoryValueOf.invoke(sql.entityInfo.inventoryClass, vo));
+                                    primaryKeysNeedResolve.remove(priKey);
+                                }
+                                continue;
+                            }
+
                             TypedQuery<Tuple> q = dbf.getEntityManager().createQuery(sql.sql, Tuple.class);
                             q.setParameter("ids", primaryKeysNeedResolve);
                             List<Tuple> res = q.getResultList();
@@ -992,6 +1238,76 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             }
         }
 
+        /**
+         * load entities of the primary keys with their eager collections, see EntityInfo.makeBatchFetchPlan().
+         * The primary keys are split into batches of BATCH_FETCH_SIZE to bound the size of the IN clauses
+         */
+        private List fetchEntities(EntityInfo info, List ids) {
+            Map<Object, Object> vos = new HashMap<Object, Object>();
+            for (int i = 0; i < ids.size(); i += BATCH_FETCH_SIZE) {
+                List batch = ids.subList(i, Math.min(i + BATCH_FETCH_SIZE, ids.size()));
+                for (Object vo : info.fetchPlan == null ? loadEntities(info, batch) : loadEntitiesByPlan(info, batch)) {
+                    vos.put(info.getPrimaryKeyValue(vo), vo);
+                }
+            }
+
+            // keep the order of the primary keys
+            List ret = new ArrayList(ids.size());
+            for (Object id : ids) {
+                Object vo = vos.get(id);
+                if (vo != null) {
+                    ret.add(vo);
+                }
+            }
+            return ret;
+        }
+
+        private List loadEntities(EntityInfo info, List ids) {
+            Query q = dbf.getEntityManager().createQuery(String.format("select e from %s e where e.%s in (:ids)",
+                    info.entityClass.getSimpleName(), info.primaryKey));
+            q.setParameter("ids", ids);
+            return q.getResultList();
+        }
+
+        private List loadEntitiesByPlan(EntityInfo info, List ids) {
+            BatchFetchPlan plan = info.fetchPlan;
+            try {
+                Map<Object, Object> vos = new LinkedHashMap<Object, Object>();
+                TypedQuery<Object[]> q = dbf.getEntityManager().createQuery(plan.jpql, Object[].class);
+                q.setParameter("ids", ids);
+                for (Object[] row : q.getResultList()) {
+                    Object vo = plan.constructor.newInstance();
+                    for (int i = 0; i < plan.basicFields.size(); i++) {
+                        plan.basicFields.get(i).set(vo, row[i]);
+                    }
+
+                    for (CollectionFetch c : plan.collections) {
+                        c.field.set(vo, c.field.getType() == Set.class ? new HashSet() : new ArrayList());
+                    }
+
+                    vos.put(info.getPrimaryKeyValue(vo), vo);
+                }
+
+                if (vos.isEmpty()) {
+                    return new ArrayList();
+                }
+
+                List keys = new ArrayList(vos.keySet());
+                for (CollectionFetch c : plan.collections) {
+                    Query cq = dbf.getEntityManager().createQuery(c.jpql);
+                    cq.setParameter("ids", keys);
+                    for (Object element : cq.getResultList()) {
+                        Object vo = vos.get(c.joinField.get(element));
+                        ((Collection) c.field.get(vo)).add(element);
+                    }
+                }
+
+                return new ArrayList(vos.values());
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new CloudRuntimeException(e);
+            }
+        }
+
         private void validateFields() {
             EntityInfo info = entityInfos.get(inventoryClass);
             for (String f : msg.getFields()) {
@@ -1045,7 +1361,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q);
             if (msg.getLimit() != null) {
                 q.setMaxResults(msg.getLimit());
             }
@@ -1057,6 +1373,8 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
 
             if (msg.isFieldQuery()) {
                 return convertFieldsTOPartialInventories(vos);
+            } else if (root.selectPrimaryKey) {
+                return convertVOsToInventories(fetchEntities(root.info, vos));
             } else {
                 return convertVOsToInventories(vos);
             }
@@ -1070,7 +1388,7 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
                 org.hibernate.Query hq = q.unwrap(org.hibernate.Query.class);
                 logger.trace(hq.getQueryString());
             }
-            setQueryValue(q, root);
+            setQueryValue(q);
             return (Long) q.getSingleResult();
         }
     }
@@ -1188,9 +1506,25 @@ public class MysqlQueryBuilderImpl3 implements Component, QueryBuilder, GlobalAp
             throw new CloudRuntimeException(e);
         }
 
+        jmxf.registerBean("QueryBuilder", this);
         return true;
     }
 
+    @Override
+    public long getQueryPlanCacheHits() {
+        return queryPlanCacheHits.get();
+    }
+
+    @Override
+    public long getQueryPlanCacheMisses() {
+        return queryPlanCacheMisses.get();
+    }
+
+    @Override
+    public int getQueryPlanCacheSize() {
+        return queryPlans.size();
+    }
+
     private void removeSuppressedExpandedQuery() {
         for (EntityInfo info : entityInfos.values()) {
             Map<String, ExpandedQueryStruct> ess = new HashMap<String, ExpandedQueryStruct>();
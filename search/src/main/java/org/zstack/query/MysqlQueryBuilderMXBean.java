@@ -0,0 +1,11 @@
+package org.zstack.query;
+
+/**
+ */
+public interface MysqlQueryBuilderMXBean {
+    long getQueryPlanCacheHits();
+
+    long getQueryPlanCacheMisses();
+
+    int getQueryPlanCacheSize();
+}
@@ -0,0 +1,267 @@
+package org.zstack.search;
+
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A background pipeline between committed transactions and elasticsearch.
+ *
+ * Events are coalesced by (vo name, uuid) in a bounded pending map, the latest event of a resource
+ * wins, so a burst of updates to the same resource is indexed once. A worker task submitted to the
+ * ThreadFacade flushes the pending events to the Flusher when there are bulkSize of them or
+ * flushInterval passes. Events of a failed flush are put back unless newer events of the same
+ * resources arrived, and the worker backs off exponentially; after maxRetries failures in a row the
+ * events are dropped, they can be recovered by recreating the search index.
+ */
+public class IndexPipeline {
+    private static final CLogger logger = Utils.getLogger(IndexPipeline.class);
+
+    public interface Flusher {
+        /**
+         * @throws Exception if the events should be retried
+         */
+        void flush(List<IndexEvent> events) throws Exception;
+    }
+
+    public static class IndexEvent {
+        private final String voName;
+        private final String uuid;
+        private final boolean delete;
+        private long timestamp;
+        private int retries;
+
+        public IndexEvent(String voName, String uuid, boolean delete) {
+            this.voName = voName;
+            this.uuid = uuid;
+            this.delete = delete;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public String getVoName() {
+            return voName;
+        }
+
+        public String getUuid() {
+            return uuid;
+        }
+
+        public boolean isDelete() {
+            return delete;
+        }
+
+        List<String> key() {
+            return Arrays.asList(voName, uuid);
+        }
+    }
+
+    private final int capacity;
+    private final int bulkSize;
+    private final long flushInterval;
+    private final int maxRetries;
+    private final long retryBackoff;
+    private final Flusher flusher;
+    private final ThreadFacade thdf;
+
+    // insertion ordered, the first one is the oldest
+    private final LinkedHashMap<List<String>, IndexEvent> pending = new LinkedHashMap<List<String>, IndexEvent>();
+    private Future<Void> worker;
+    private volatile boolean stopped;
+    private int failures;
+
+    private long receivedEvents;
+    private long coalescedEvents;
+    private long droppedEvents;
+    private long flushedEvents;
+    private long failedFlushes;
+
+    /**
+     * @param flushInterval in milliseconds
+     * @param retryBackoff  in milliseconds, doubled on every failure in a row
+     */
+    public IndexPipeline(int capacity, int bulkSize, long flushInterval, int maxRetries, long retryBackoff,
+                         ThreadFacade thdf, Flusher flusher) {
+        this.capacity = capacity;
+        this.bulkSize = bulkSize;
+        this.flushInterval = flushInterval;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = retryBackoff;
+        this.flusher = flusher;
+        this.thdf = thdf;
+    }
+
+    public synchronized void start() {
+        stopped = false;
+        worker = thdf.submit(new Task<Void>() {
+            @Override
+            public Void call() throws Exception {
+                work();
+                return null;
+            }
+
+            @Override
+            public String getName() {
+                return "es-index-pipeline";
+            }
+        });
+    }
+
+    public void stop() {
+        Future<Void> f;
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+            f = worker;
+        }
+
+        if (f == null) {
+            return;
+        }
+
+        try {
+            f.get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("the index pipeline doesn't stop in 10 seconds, interrupt it");
+            f.cancel(true);
+        } catch (ExecutionException e) {
+            logger.warn("the index pipeline exits with an error", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void index(String voName, Collection<String> uuids) {
+        submit(voName, uuids, false);
+    }
+
+    public void delete(String voName, Collection<String> uuids) {
+        submit(voName, uuids, true);
+    }
+
+    private synchronized void submit(String voName, Collection<String> uuids, boolean delete) {
+        for (String uuid : uuids) {
+            if (uuid == null) {
+                continue;
+            }
+
+            receivedEvents++;
+            IndexEvent e = new IndexEvent(voName, uuid, delete);
+            IndexEvent old = pending.get(e.key());
+            if (old != null) {
+                // keep the age of the oldest event for the lag
+                e.timestamp = old.timestamp;
+                pending.put(e.key(), e);
+                coalescedEvents++;
+            } else if (pending.size() >= capacity) {
+                droppedEvents++;
+                logger.warn(String.format("the index queue is full[%s events], drop the event of %s[uuid:%s]",
+                        capacity, voName, uuid));
+            } else {
+                pending.put(e.key(), e);
+            }
+        }
+
+        if (pending.size() >= bulkSize) {
+            notifyAll();
+        }
+    }
+
+    private synchronized List<IndexEvent> take() throws InterruptedException {
+        while (!stopped) {
+            if (pending.isEmpty()) {
+                wait();
+                continue;
+            }
+
+            long wait = flushInterval - (System.currentTimeMillis() - pending.values().iterator().next().timestamp);
+            if (pending.size() >= bulkSize || wait <= 0) {
+                break;
+            }
+
+            wait(wait);
+        }
+
+        List<IndexEvent> events = new ArrayList<IndexEvent>(Math.min(bulkSize, pending.size()));
+        Iterator<IndexEvent> it = pending.values().iterator();
+        while (it.hasNext() && events.size() < bulkSize) {
+            events.add(it.next());
+            it.remove();
+        }
+        return events;
+    }
+
+    private synchronized void putBack(List<IndexEvent> events) {
+        for (IndexEvent e : events) {
+            if (++e.retries > maxRetries) {
+                droppedEvents++;
+                logger.warn(String.format("failed to index %s[uuid:%s] after %s retries, drop it", e.voName, e.uuid, maxRetries));
+                continue;
+            }
+
+            // a newer event of the same resource takes the place
+            if (!pending.containsKey(e.key())) {
+                pending.put(e.key(), e);
+            }
+        }
+    }
+
+    private void work() {
+        while (true) {
+            List<IndexEvent> events;
+            try {
+                events = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            if (events.isEmpty()) {
+                // stopped
+                return;
+            }
+
+            try {
+                flusher.flush(events);
+                synchronized (this) {
+                    flushedEvents += events.size();
+                    failures = 0;
+                }
+            } catch (Throwable t) {
+                long backoff;
+                synchronized (this) {
+                    failedFlushes++;
+                    failures++;
+                    backoff = retryBackoff << Math.min(failures - 1, 10);
+                }
+
+                logger.warn(String.format("failed to flush %s index events, retry in %sms", events.size(), backoff), t);
+                putBack(events);
+
+                synchronized (this) {
+                    try {
+                        // submit() may wake us up before the backoff ends
+                        long deadline = System.currentTimeMillis() + backoff;
+                        long now;
+                        while (!stopped && (now = System.currentTimeMillis()) < deadline) {
+                            wait(deadline - now);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    public synchronized IndexPipelineStatistic getStatistic() {
+        long lag = pending.isEmpty() ? 0 : System.currentTimeMillis() - pending.values().iterator().next().timestamp;
+        return new IndexPipelineStatistic(pending.size(), lag, receivedEvents, coalescedEvents,
+                droppedEvents, flushedEvents, failedFlushes);
+    }
+}
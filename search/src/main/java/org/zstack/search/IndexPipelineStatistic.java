@@ -0,0 +1,61 @@
+package org.zstack.search;
+
+import java.beans.ConstructorProperties;
+
+/**
+ */
+public class IndexPipelineStatistic {
+    private int queueDepth;
+    private long lag;
+    private long receivedEvents;
+    private long coalescedEvents;
+    private long droppedEvents;
+    private long flushedEvents;
+    private long failedFlushes;
+
+    @ConstructorProperties({"queueDepth", "lag", "receivedEvents", "coalescedEvents", "droppedEvents", "flushedEvents", "failedFlushes"})
+    public IndexPipelineStatistic(int queueDepth, long lag, long receivedEvents, long coalescedEvents,
+                                  long droppedEvents, long flushedEvents, long failedFlushes) {
+        this.queueDepth = queueDepth;
+        this.lag = lag;
+        this.receivedEvents = receivedEvents;
+        this.coalescedEvents = coalescedEvents;
+        this.droppedEvents = droppedEvents;
+        this.flushedEvents = flushedEvents;
+        this.failedFlushes = failedFlushes;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * milliseconds the oldest pending event has been waiting
+     */
+    public long getLag() {
+        return lag;
+    }
+
+    public long getReceivedEvents() {
+        return receivedEvents;
+    }
+
+    /**
+     * events replaced by a later event of the same resource before being flushed
+     */
+    public long getCoalescedEvents() {
+        return coalescedEvents;
+    }
+
+    public long getDroppedEvents() {
+        return droppedEvents;
+    }
+
+    public long getFlushedEvents() {
+        return flushedEvents;
+    }
+
+    public long getFailedFlushes() {
+        return failedFlushes;
+    }
+}
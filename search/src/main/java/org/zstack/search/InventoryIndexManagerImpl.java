@@ -28,11 +28,14 @@ import org.zstack.core.componentloader.PluginExtension;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
 import org.zstack.core.db.TransactionalCallback;
+import org.zstack.core.jmx.JmxFacade;
+import org.zstack.core.thread.ThreadFacade;
 import org.zstack.header.AbstractService;
 import org.zstack.header.exception.CloudRuntimeException;
 import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.search.*;
+import org.zstack.search.IndexPipeline.IndexEvent;
 import org.zstack.utils.CollectionUtils;
 import org.zstack.utils.Utils;
 import org.zstack.utils.data.Pair;
@@ -53,7 +56,8 @@ import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
 
-public class InventoryIndexManagerImpl extends AbstractService implements InventoryIndexManager, TransactionalCallback {
+public class InventoryIndexManagerImpl extends AbstractService implements InventoryIndexManager, TransactionalCallback,
+        InventoryIndexManagerMXBean {
     private static final CLogger logger = Utils.getLogger(InventoryIndexManagerImpl.class);
     @Autowired
     private DatabaseFacade dbf;
@@ -61,6 +65,10 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     private CloudBus bus;
     @Autowired
     private PluginRegistry rgty;
+    @Autowired
+    private JmxFacade jmxf;
+    @Autowired
+    private ThreadFacade thdf;
 
     private Map<String, IndexerInfo> voClassToIndexerMapping = new HashMap<String, IndexerInfo>();
     private Set<Class<?>> triggerVOs = new HashSet<Class<?>>();
@@ -78,6 +86,8 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     // key: parent class, value: children class names
     private Map<Class<?>, List<String>> deleteVOTriggerClassNames = new HashMap<Class<?>, List<String>>();
     private List<SearchIndexRecreateExtensionPoint> reindexExts = new ArrayList<SearchIndexRecreateExtensionPoint>();
+    // null if Search.asyncIndex is false, then bulks are sent in afterCommit()
+    private IndexPipeline pipeline;
 
     private class IndexerInfo {
         String url;
@@ -317,15 +327,62 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
             populateInventoryIndexer();
             dumpInventoryIndexer();
             createIndexIfNotExists();
+            startIndexPipeline();
             bus.registerService(this);
+            jmxf.registerBean("InventoryIndexManager", this);
         } catch (Exception e) {
             throw new CloudRuntimeException(e);
         }
         return true;
     }
 
+    private void startIndexPipeline() {
+        if (!SearchGlobalProperty.ASYNC_INDEX) {
+            return;
+        }
+
+        pipeline = new IndexPipeline(SearchGlobalProperty.INDEX_QUEUE_CAPACITY, SearchGlobalProperty.INDEX_BULK_SIZE,
+                SearchGlobalProperty.INDEX_FLUSH_INTERVAL, SearchGlobalProperty.INDEX_MAX_RETRIES,
+                SearchGlobalProperty.INDEX_RETRY_BACKOFF, thdf, new IndexPipeline.Flusher() {
+            @Override
+            public void flush(List<IndexEvent> events) throws Exception {
+                flushIndexEvents(events);
+            }
+        });
+        pipeline.start();
+    }
+
+    private void flushIndexEvents(List<IndexEvent> events) {
+        Map<String, Set<String>> toIndex = new HashMap<String, Set<String>>();
+        Map<String, Set<String>> toDelete = new HashMap<String, Set<String>>();
+        for (IndexEvent e : events) {
+            Map<String, Set<String>> m = e.isDelete() ? toDelete : toIndex;
+            Set<String> uuids = m.get(e.getVoName());
+            if (uuids == null) {
+                uuids = new HashSet<String>();
+                m.put(e.getVoName(), uuids);
+            }
+            uuids.add(e.getUuid());
+        }
+
+        ESBulkBuilder bbuilder = new ESBulkBuilder();
+        bbuilder = addDocToIndexToESBuilder(bbuilder, toIndex);
+        bbuilder = addDocToDeleteToESBuilder(bbuilder, toDelete);
+        if (!bbuilder.isEmpty()) {
+            doSendBulk(bbuilder.toString(), bbuilder.getAffectedInventoryNames());
+        }
+    }
+
+    @Override
+    public IndexPipelineStatistic getIndexPipelineStatistic() {
+        return pipeline == null ? null : pipeline.getStatistic();
+    }
+
     @Override
     public boolean stop() {
+        if (pipeline != null) {
+            pipeline.stop();
+        }
         if (httpClient != null) {
             httpClient.getConnectionManager().shutdown();
         }
@@ -354,7 +411,7 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
     public void beforeCompletion(Operation op, Class<?>... entityClass) {
     }
 
-    private void sendBulk(final String requestBody, final String inventoryName) {
+    private void doSendBulk(final String requestBody, final String inventoryName) {
         try {
             HttpPost post = new HttpPost(bulkUri);
             StringEntity body = new StringEntity(requestBody);
@@ -365,7 +422,7 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
                 @Override
                 public Void handleResponse(HttpResponse rsp) throws ClientProtocolException, IOException {
                     if (rsp.getStatusLine().getStatusCode() != HttpStatus.SC_OK && rsp.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED) {
-                        logger.warn(String.format("Failed to do bulk operation on[%s] , because: \nstatus line: %s\nresponse body: %s\nrequest body: %s",
+                        throw new CloudRuntimeException(String.format("Failed to do bulk operation on[%s] , because: \nstatus line: %s\nresponse body: %s\nrequest body: %s",
                                 inventoryName, rsp.getStatusLine(), EntityUtils.toString(rsp.getEntity()), requestBody));
                     } else {
                         logger.trace(String.format("Successfully did bulk operation on[%s], %s", inventoryName, EntityUtils.toString(rsp.getEntity())));
@@ -374,8 +431,16 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
                 }
             };
             httpClient.execute(post, rspHandler);
+        } catch (IOException e) {
+            throw new CloudRuntimeException(String.format("Failed to do bulk operation on inventory[%s]", inventoryName), e);
+        }
+    }
+
+    private void sendBulk(final String requestBody, final String inventoryName) {
+        try {
+            doSendBulk(requestBody, inventoryName);
         } catch (Exception e) {
-            logger.warn(String.format("Failed to do bulk operation on inventory[%s]", inventoryName), e);
+            logger.warn(e.getMessage(), e);
         }
     }
 
@@ -683,6 +748,11 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
 
     @Override
     public void afterCommit(Operation op, Class<?>... entityClass) {
+        if (pipeline != null) {
+            submitToPipeline(op, entityClass);
+            return;
+        }
+
         ESBulkBuilder bbuilder = new ESBulkBuilder();
 
         for (Class<?> vo : entityClass) {
@@ -708,6 +778,32 @@ public class InventoryIndexManagerImpl extends AbstractService implements Invent
         }
     }
 
+    /**
+     * only consume the trigger tables here, documents are built and sent by the pipeline
+     */
+    private void submitToPipeline(Operation op, Class<?>... entityClass) {
+        for (Class<?> vo : entityClass) {
+            if (!triggerVOs.contains(vo)) {
+                logger.trace(String.format("Class[%s] is not annotated by @TriggerIndex, no index operation will be proceeded", vo.getName()));
+                continue;
+            }
+
+            if (op == Operation.PERSIST || op == Operation.UPDATE) {
+                for (Map.Entry<String, Set<String>> e : getUuidsOfVOToIndexFromInsertVOUpdateVO(vo, op).entrySet()) {
+                    pipeline.index(e.getKey(), e.getValue());
+                }
+            } else if (op == Operation.REMOVE) {
+                Pair<Map<String, Set<String>>, Map<String, Set<String>>> pair = getVOUuidsToDeleteOrIndexFromDeleteVO(vo);
+                for (Map.Entry<String, Set<String>> e : pair.second().entrySet()) {
+                    pipeline.index(e.getKey(), e.getValue());
+                }
+                for (Map.Entry<String, Set<String>> e : pair.first().entrySet()) {
+                    pipeline.delete(e.getKey(), e.getValue());
+                }
+            }
+        }
+    }
+
     @Override
     public void afterCompletion(Operation op, int status, Class<?>... entityClass) {
     }
@@ -0,0 +1,22 @@
+package org.zstack.search;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class SearchGlobalProperty {
+    @GlobalProperty(name="Search.asyncIndex", defaultValue = "true")
+    public static boolean ASYNC_INDEX;
+    @GlobalProperty(name="Search.indexQueueCapacity", defaultValue = "100000")
+    public static int INDEX_QUEUE_CAPACITY;
+    @GlobalProperty(name="Search.indexBulkSize", defaultValue = "500")
+    public static int INDEX_BULK_SIZE;
+    @GlobalProperty(name="Search.indexFlushInterval", defaultValue = "1000")
+    public static long INDEX_FLUSH_INTERVAL;
+    @GlobalProperty(name="Search.indexMaxRetries", defaultValue = "5")
+    public static int INDEX_MAX_RETRIES;
+    @GlobalProperty(name="Search.indexRetryBackoff", defaultValue = "500")
+    public static long INDEX_RETRY_BACKOFF;
+}
@@ -35,12 +35,12 @@ public class BackupStoragePingTracker extends PingTracker {
 
     @Override
     public int getPingInterval() {
-        return BackupStorageGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return BackupStorageGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
     public int getParallelismDegree() {
-        return BackupStorageGlobalConfig.PING_PARALLELISM_DEGREE.value(Integer.class);
+        return BackupStorageGlobalConfig.PING_PARALLELISM_DEGREE.intValue();
     }
 
     @Override
@@ -31,12 +31,12 @@ public class PrimaryStoragePingTracker extends PingTracker {
 
     @Override
     public int getPingInterval() {
-        return PrimaryStorageGlobalConfig.PING_INTERVAL.value(Integer.class);
+        return PrimaryStorageGlobalConfig.PING_INTERVAL.intValue();
     }
 
     @Override
     public int getParallelismDegree() {
-        return PrimaryStorageGlobalConfig.PING_PARALLELISM_DEGREE.value(Integer.class);
+        return PrimaryStorageGlobalConfig.PING_PARALLELISM_DEGREE.intValue();
     }
 
     @Override
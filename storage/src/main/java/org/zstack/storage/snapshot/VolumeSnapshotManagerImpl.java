@@ -76,6 +76,8 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
     private PluginRegistry pluginRgty;
     @Autowired
     private SchedulerFacade schedulerFacade;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     private void passThrough(VolumeSnapshotMessage msg) {
         VolumeSnapshotVO vo = dbf.findByUuid(msg.getSnapshotUuid(), VolumeSnapshotVO.class);
@@ -237,6 +239,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
 
             latest.setLatest(false);
             latest = dbf.getEntityManager().merge(latest);
+            treeCache.bumpVersion(latest.getTreeUuid());
 
             vo.setTreeUuid(latest.getTreeUuid());
             vo.setLatest(true);
@@ -278,6 +281,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
             VolumeSnapshotVO parent = dbf.getEntityManager().find(VolumeSnapshotVO.class, vo.getParentUuid());
             parent.setLatest(true);
             dbf.getEntityManager().merge(parent);
+            treeCache.bumpVersion(vo.getTreeUuid());
         } else {
             VolumeSnapshotTreeVO chain = dbf.getEntityManager().find(VolumeSnapshotTreeVO.class, vo.getTreeUuid());
             dbf.getEntityManager().remove(chain);
@@ -340,6 +344,8 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
         }
 
         final VolumeSnapshotStruct struct = s;
+        treeCache.snapshotCreated(struct.getCurrent().getTreeUuid(), struct.getCurrent().getUuid(), struct.getCurrent().getParentUuid());
+
         FlowChain chain = FlowChainBuilder.newShareFlowChain();
         chain.setName(String.format("take-volume-snapshot-for-volume-%s", msg.getVolumeUuid()));
         chain.then(new ShareFlow() {
@@ -420,6 +426,7 @@ public class VolumeSnapshotManagerImpl extends AbstractService implements
                     @Override
                     public void handle(ErrorCode errCode, Map data) {
                         rollbackSnapshot(struct.getCurrent().getUuid());
+                        treeCache.snapshotDeleted(struct.getCurrent().getTreeUuid(), struct.getCurrent().getUuid());
                         ret.setError(errCode);
                         bus.reply(msg, ret);
                     }
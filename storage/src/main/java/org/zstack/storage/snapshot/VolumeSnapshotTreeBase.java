@@ -93,6 +93,7 @@ public class VolumeSnapshotTreeBase {
 
     protected VolumeSnapshotVO currentRoot;
     protected SnapshotLeaf currentLeaf;
+    // the ancestors and descendants of currentRoot only, if the shape of the tree is cached
     protected VolumeSnapshotTree fullTree;
     protected String syncSignature;
     @Autowired
@@ -109,6 +110,8 @@ public class VolumeSnapshotTreeBase {
     private PluginRegistry pluginRgty;
     @Autowired
     private PrimaryStorageOverProvisioningManager psRaitoMgr;
+    @Autowired
+    private VolumeSnapshotTreeCache treeCache;
 
     public VolumeSnapshotTreeBase(VolumeSnapshotVO vo, boolean syncOnVolume) {
         currentRoot = vo;
@@ -151,6 +154,21 @@ public class VolumeSnapshotTreeBase {
     }
 
     private void buildFullSnapshotTree() {
+        // operations on a snapshot only touch its ancestors and descendants, other branches are not loaded
+        VolumeSnapshotTreeIndex index = treeCache.get(currentRoot.getTreeUuid());
+        if (index != null && index.contains(currentRoot.getUuid())) {
+            Set<String> uuids = new LinkedHashSet<>(index.getAncestorUuids(currentRoot.getUuid()));
+            uuids.addAll(index.getDescendantUuids(currentRoot.getUuid()));
+            List<VolumeSnapshotVO> vos = Q.New(VolumeSnapshotVO.class).in(VolumeSnapshotVO_.uuid, uuids).list();
+            if (isSameShape(index, uuids, vos)) {
+                fullTree = VolumeSnapshotTree.fromVOs(vos);
+                return;
+            }
+
+            logger.debug(String.format("the cached volume snapshot tree[uuid:%s] is out of date, reload it", currentRoot.getTreeUuid()));
+            treeCache.invalidate(currentRoot.getTreeUuid());
+        }
+
         SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
         q.add(VolumeSnapshotVO_.treeUuid, SimpleQuery.Op.EQ, currentRoot.getTreeUuid());
         List<VolumeSnapshotVO> vos = q.list();
@@ -158,6 +176,20 @@ public class VolumeSnapshotTreeBase {
         fullTree = VolumeSnapshotTree.fromVOs(vos);
     }
 
+    private boolean isSameShape(VolumeSnapshotTreeIndex index, Set<String> uuids, List<VolumeSnapshotVO> vos) {
+        if (vos.size() != uuids.size()) {
+            return false;
+        }
+
+        for (VolumeSnapshotVO vo : vos) {
+            if (!index.getTreeUuid().equals(vo.getTreeUuid()) || !Objects.equals(index.getParentUuid(vo.getUuid()), vo.getParentUuid())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     @MessageSafe
     public void handleMessage(Message msg) {
         if (msg instanceof APIMessage) {
@@ -796,12 +828,18 @@ public class VolumeSnapshotTreeBase {
                 if (!q(VolumeSnapshotVO.class).eq(VolumeSnapshotVO_.treeUuid, currentRoot.getTreeUuid()).isExists()) {
                     logger.debug(String.format("volume snapshot tree[uuid:%s] has no leaf, delete it", currentRoot.getTreeUuid()));
                     sql(VolumeSnapshotTreeVO.class).eq(VolumeSnapshotTreeVO_.uuid, currentRoot.getTreeUuid()).hardDelete();
+                } else {
+                    treeCache.bumpVersion(currentRoot.getTreeUuid());
                 }
 
                 ret.value = true;
             }
         }.execute();
 
+        if (ret.value) {
+            treeCache.snapshotDeleted(currentRoot.getTreeUuid(), currentRoot.getUuid());
+        }
+
         return ret.value;
     }
 
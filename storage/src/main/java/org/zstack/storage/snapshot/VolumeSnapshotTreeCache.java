@@ -0,0 +1,101 @@
+package org.zstack.storage.snapshot;
+
+import org.zstack.core.db.Q;
+import org.zstack.core.db.SQL;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTreeVO;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTreeVO_;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO;
+import org.zstack.header.storage.snapshot.VolumeSnapshotVO_;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import javax.persistence.Tuple;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the shape of volume snapshot trees by tree uuid.
+ *
+ * Every change to the shape of a tree bumps VolumeSnapshotTreeVO.version in the same transaction,
+ * a cached index is used only when its version equals the one in database, so changes made by other
+ * management nodes are picked up. Changes made by this management node are applied to the cached
+ * index after they are committed, instead of loading the tree again.
+ */
+public class VolumeSnapshotTreeCache {
+    private static final CLogger logger = Utils.getLogger(VolumeSnapshotTreeCache.class);
+
+    private static final int MAX_CACHED_TREE_NUM = 10000;
+
+    private final Map<String, VolumeSnapshotTreeIndex> indexes = new ConcurrentHashMap<>();
+
+    /**
+     * @return null if the tree doesn't exist or its snapshots don't make a tree
+     */
+    public VolumeSnapshotTreeIndex get(String treeUuid) {
+        Long version = Q.New(VolumeSnapshotTreeVO.class)
+                .select(VolumeSnapshotTreeVO_.version)
+                .eq(VolumeSnapshotTreeVO_.uuid, treeUuid)
+                .findValue();
+        if (version == null) {
+            indexes.remove(treeUuid);
+            return null;
+        }
+
+        VolumeSnapshotTreeIndex index = indexes.get(treeUuid);
+        if (index != null && index.getVersion() == version) {
+            return index;
+        }
+
+        List<Tuple> ts = Q.New(VolumeSnapshotVO.class)
+                .select(VolumeSnapshotVO_.uuid, VolumeSnapshotVO_.parentUuid)
+                .eq(VolumeSnapshotVO_.treeUuid, treeUuid)
+                .listTuple();
+        Map<String, String> parentUuids = new LinkedHashMap<>();
+        for (Tuple t : ts) {
+            parentUuids.put(t.get(0, String.class), t.get(1, String.class));
+        }
+
+        index = VolumeSnapshotTreeIndex.build(treeUuid, version, parentUuids);
+        if (index == null) {
+            logger.warn(String.format("snapshots of the volume snapshot tree[uuid:%s] don't make a tree", treeUuid));
+            indexes.remove(treeUuid);
+            return null;
+        }
+
+        if (indexes.size() >= MAX_CACHED_TREE_NUM) {
+            indexes.clear();
+        }
+
+        indexes.put(treeUuid, index);
+        return index;
+    }
+
+    /**
+     * must be called in the transaction changing the shape of the tree
+     */
+    public void bumpVersion(String treeUuid) {
+        SQL.New("update VolumeSnapshotTreeVO tree set tree.version = tree.version + 1 where tree.uuid = :uuid")
+                .param("uuid", treeUuid)
+                .execute();
+    }
+
+    /**
+     * called after the transaction creating the snapshot and bumping the version is committed
+     */
+    public void snapshotCreated(String treeUuid, String uuid, String parentUuid) {
+        indexes.computeIfPresent(treeUuid, (k, index) -> index.contains(uuid) ? index : index.withSnapshot(uuid, parentUuid));
+    }
+
+    /**
+     * called after the transaction deleting the snapshot with its descendants and bumping the version is committed
+     */
+    public void snapshotDeleted(String treeUuid, String uuid) {
+        indexes.computeIfPresent(treeUuid, (k, index) -> index.contains(uuid) ? index.withoutSnapshot(uuid) : index);
+    }
+
+    public void invalidate(String treeUuid) {
+        indexes.remove(treeUuid);
+    }
+}
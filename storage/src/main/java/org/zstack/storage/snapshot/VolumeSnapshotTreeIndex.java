@@ -0,0 +1,196 @@
+package org.zstack.storage.snapshot;
+
+import java.util.*;
+
+/**
+ * An immutable index of the shape of a volume snapshot tree at a version of VolumeSnapshotTreeVO.
+ *
+ * Snapshots are kept in pre-order, so the descendants of a snapshot are the contiguous range starting
+ * at it and the ancestors are found by following the positions of parents, no tree walk is needed.
+ * Changes are made by copying the index into a new one with the next version.
+ */
+public class VolumeSnapshotTreeIndex {
+    private final String treeUuid;
+    private final long version;
+    // snapshot uuids in pre-order
+    private final List<String> uuids;
+    // position of the parent of each snapshot, -1 for the root
+    private final int[] parents;
+    // number of snapshots in the sub-tree rooted at each snapshot, including itself
+    private final int[] sizes;
+    private final Map<String, Integer> positions;
+
+    private VolumeSnapshotTreeIndex(String treeUuid, long version, List<String> uuids, int[] parents) {
+        this.treeUuid = treeUuid;
+        this.version = version;
+        this.uuids = uuids;
+        this.parents = parents;
+
+        sizes = new int[uuids.size()];
+        Arrays.fill(sizes, 1);
+        // a parent always precedes its children in pre-order
+        for (int i = uuids.size() - 1; i > 0; i--) {
+            sizes[parents[i]] += sizes[i];
+        }
+
+        positions = new HashMap<>(uuids.size() * 2);
+        for (int i = 0; i < uuids.size(); i++) {
+            positions.put(uuids.get(i), i);
+        }
+    }
+
+    /**
+     * @param parentUuids parent uuid of each snapshot of the tree, keyed by the snapshot uuid
+     * @return null if the snapshots don't make a single tree
+     */
+    public static VolumeSnapshotTreeIndex build(String treeUuid, long version, Map<String, String> parentUuids) {
+        String root = null;
+        Map<String, List<String>> children = new HashMap<>();
+        for (Map.Entry<String, String> e : parentUuids.entrySet()) {
+            if (e.getValue() == null) {
+                if (root != null) {
+                    return null;
+                }
+
+                root = e.getKey();
+            } else {
+                children.computeIfAbsent(e.getValue(), k -> new ArrayList<>()).add(e.getKey());
+            }
+        }
+
+        if (root == null) {
+            return null;
+        }
+
+        List<String> uuids = new ArrayList<>(parentUuids.size());
+        int[] parents = new int[parentUuids.size()];
+        Deque<String> stack = new ArrayDeque<>();
+        Deque<Integer> parentStack = new ArrayDeque<>();
+        stack.push(root);
+        parentStack.push(-1);
+        while (!stack.isEmpty()) {
+            String uuid = stack.pop();
+            int parent = parentStack.pop();
+            if (uuids.size() == parents.length) {
+                // a cycle
+                return null;
+            }
+
+            int pos = uuids.size();
+            uuids.add(uuid);
+            parents[pos] = parent;
+
+            List<String> cs = children.get(uuid);
+            if (cs != null) {
+                for (int i = cs.size() - 1; i >= 0; i--) {
+                    stack.push(cs.get(i));
+                    parentStack.push(pos);
+                }
+            }
+        }
+
+        if (uuids.size() != parentUuids.size()) {
+            // some snapshots are not reachable from the root
+            return null;
+        }
+
+        return new VolumeSnapshotTreeIndex(treeUuid, version, Collections.unmodifiableList(uuids), parents);
+    }
+
+    public String getTreeUuid() {
+        return treeUuid;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return uuids.size();
+    }
+
+    public boolean contains(String uuid) {
+        return positions.containsKey(uuid);
+    }
+
+    public String getParentUuid(String uuid) {
+        int pos = positions.get(uuid);
+        return parents[pos] == -1 ? null : uuids.get(parents[pos]);
+    }
+
+    /**
+     * the snapshot and all its descendants, in pre-order
+     */
+    public List<String> getDescendantUuids(String uuid) {
+        int pos = positions.get(uuid);
+        return uuids.subList(pos, pos + sizes[pos]);
+    }
+
+    /**
+     * the root, ..., the parent of the snapshot and the snapshot itself
+     */
+    public List<String> getAncestorUuids(String uuid) {
+        List<String> ret = new ArrayList<>();
+        for (int pos = positions.get(uuid); pos != -1; pos = parents[pos]) {
+            ret.add(uuids.get(pos));
+        }
+
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    public boolean isDescendant(String ancestorUuid, String uuid) {
+        int a = positions.get(ancestorUuid);
+        int pos = positions.get(uuid);
+        return pos >= a && pos < a + sizes[a];
+    }
+
+    /**
+     * @return null if the snapshot exists or the parent doesn't exist
+     */
+    public VolumeSnapshotTreeIndex withSnapshot(String uuid, String parentUuid) {
+        Integer parent = parentUuid == null ? null : positions.get(parentUuid);
+        if (parent == null || positions.containsKey(uuid)) {
+            return null;
+        }
+
+        // the new snapshot is the last child of the parent
+        int pos = parent + sizes[parent];
+        List<String> nuuids = new ArrayList<>(uuids.size() + 1);
+        nuuids.addAll(uuids.subList(0, pos));
+        nuuids.add(uuid);
+        nuuids.addAll(uuids.subList(pos, uuids.size()));
+
+        int[] nparents = new int[parents.length + 1];
+        System.arraycopy(parents, 0, nparents, 0, pos);
+        nparents[pos] = parent;
+        for (int i = pos; i < parents.length; i++) {
+            nparents[i + 1] = parents[i] >= pos ? parents[i] + 1 : parents[i];
+        }
+
+        return new VolumeSnapshotTreeIndex(treeUuid, version + 1, Collections.unmodifiableList(nuuids), nparents);
+    }
+
+    /**
+     * @return null if the snapshot doesn't exist or it's the root
+     */
+    public VolumeSnapshotTreeIndex withoutSnapshot(String uuid) {
+        Integer pos = positions.get(uuid);
+        if (pos == null || parents[pos] == -1) {
+            return null;
+        }
+
+        int size = sizes[pos];
+        List<String> nuuids = new ArrayList<>(uuids.size() - size);
+        nuuids.addAll(uuids.subList(0, pos));
+        nuuids.addAll(uuids.subList(pos + size, uuids.size()));
+
+        int[] nparents = new int[parents.length - size];
+        System.arraycopy(parents, 0, nparents, 0, pos);
+        for (int i = pos + size; i < parents.length; i++) {
+            nparents[i - size] = parents[i] >= pos + size ? parents[i] - size : parents[i];
+        }
+
+        return new VolumeSnapshotTreeIndex(treeUuid, version + 1, Collections.unmodifiableList(nuuids), nparents);
+    }
+}
@@ -20,6 +20,7 @@ import org.zstack.utils.logging.CLogger;
 import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import java.util.*;
+import java.util.regex.Pattern;
 
 import static java.util.Arrays.asList;
 
@@ -40,6 +41,8 @@ public class SystemTag {
     protected List<SystemTagValidator> validators = new ArrayList<>();
     protected List<SystemTagLifeCycleListener> lifeCycleListeners = new ArrayList<>();
     protected List<SystemTagOperationJudger> judgers = new ArrayList<>();
+    // useTagFormat() compiled for matching cached tags when useOp() is LIKE
+    private volatile Pattern sqlPattern;
 
     public SystemTag(String tagFormat, Class resourceClass) {
         this.tagFormat = tagFormat;
@@ -110,7 +113,47 @@ public class SystemTag {
         return hasTag(resourceUuid, resourceClass);
     }
 
+    private SystemTagCache getCache() {
+        return tagMgr == null ? null : tagMgr.getSystemTagCache();
+    }
+
+    // matches the tag the way the database does by useOp()
+    private boolean isCachedTagMatch(SystemTagCache.CachedTag t, Class resourceClass) {
+        if (!resourceClass.getSimpleName().equals(t.resourceType)) {
+            return false;
+        }
+
+        if (useOp() != Op.LIKE) {
+            return useTagFormat().equalsIgnoreCase(t.tag);
+        }
+
+        if (sqlPattern == null) {
+            sqlPattern = SystemTagCache.compileSqlPattern(useTagFormat());
+        }
+        return sqlPattern.matcher(t.tag).matches();
+    }
+
+    private List<String> getCachedTags(List<SystemTagCache.CachedTag> tags, Class resourceClass) {
+        List<String> ret = new ArrayList<>();
+        for (SystemTagCache.CachedTag t : tags) {
+            if (isCachedTagMatch(t, resourceClass)) {
+                ret.add(t.tag);
+            }
+        }
+        return ret;
+    }
+
     public boolean hasTag(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null && resourceUuid != null) {
+            for (SystemTagCache.CachedTag t : cache.getTags(resourceUuid)) {
+                if (isCachedTagMatch(t, resourceClass)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
         q.add(SystemTagVO_.resourceUuid, Op.EQ, resourceUuid);
@@ -136,6 +179,11 @@ public class SystemTag {
     }
 
     public List<String> getTags(String resourceUuid, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null && resourceUuid != null) {
+            return getCachedTags(cache.getTags(resourceUuid), resourceClass);
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -161,6 +209,18 @@ public class SystemTag {
     }
 
     public Map<String, List<String>> getTags(List<String> resourceUuids, Class resourceClass) {
+        SystemTagCache cache = getCache();
+        if (cache != null && !resourceUuids.contains(null)) {
+            Map<String, List<String>> ret = new HashMap<>();
+            for (Map.Entry<String, List<SystemTagCache.CachedTag>> e : cache.getTags(resourceUuids).entrySet()) {
+                List<String> tags = getCachedTags(e.getValue(), resourceClass);
+                if (!tags.isEmpty()) {
+                    ret.put(e.getKey(), tags);
+                }
+            }
+            return ret;
+        }
+
         SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
         q.select(SystemTagVO_.tag, SystemTagVO_.resourceUuid);
         q.add(SystemTagVO_.resourceType, Op.EQ, resourceClass.getSimpleName());
@@ -0,0 +1,168 @@
+package org.zstack.tag;
+
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.SystemTagVO_;
+
+import javax.persistence.Tuple;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A read-through cache of system tags keyed by resource uuid. An entry holds all system tags
+ * of the resource, an empty entry means the resource has no system tag.
+ *
+ * Entries are spread over shards, each an LRU map guarded by its own lock. A shard has a
+ * generation bumped by every invalidation, a load racing with an invalidation of its shard is
+ * not cached.
+ */
+class SystemTagCache {
+    private static final int SHARD_NUM = 16;
+
+    static class CachedTag {
+        final String resourceType;
+        final String tag;
+
+        CachedTag(String resourceType, String tag) {
+            this.resourceType = resourceType;
+            this.tag = tag;
+        }
+    }
+
+    private static class Shard {
+        final Map<String, List<CachedTag>> entries;
+        long generation;
+
+        Shard(final int maxEntries) {
+            entries = new LinkedHashMap<String, List<CachedTag>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<CachedTag>> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+
+    private final DatabaseFacade dbf;
+    private final Shard[] shards = new Shard[SHARD_NUM];
+
+    SystemTagCache(DatabaseFacade dbf, int maxEntries) {
+        this.dbf = dbf;
+        int maxEntriesPerShard = Math.max(maxEntries / SHARD_NUM, 1);
+        for (int i = 0; i < SHARD_NUM; i++) {
+            shards[i] = new Shard(maxEntriesPerShard);
+        }
+    }
+
+    private Shard getShard(String resourceUuid) {
+        return shards[(resourceUuid.hashCode() & Integer.MAX_VALUE) % SHARD_NUM];
+    }
+
+    List<CachedTag> getTags(String resourceUuid) {
+        return getTags(Collections.singletonList(resourceUuid)).get(resourceUuid);
+    }
+
+    /**
+     * returns an entry for every resource uuid, the missing ones are loaded in one query
+     */
+    Map<String, List<CachedTag>> getTags(Collection<String> resourceUuids) {
+        Map<String, List<CachedTag>> ret = new HashMap<>();
+        Map<String, Long> missed = new HashMap<>();
+        for (String uuid : resourceUuids) {
+            Shard shard = getShard(uuid);
+            synchronized (shard) {
+                List<CachedTag> tags = shard.entries.get(uuid);
+                if (tags != null) {
+                    ret.put(uuid, tags);
+                } else {
+                    missed.put(uuid, shard.generation);
+                }
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return ret;
+        }
+
+        Map<String, List<CachedTag>> loaded = load(missed.keySet());
+        for (Map.Entry<String, List<CachedTag>> e : loaded.entrySet()) {
+            String uuid = e.getKey();
+            ret.put(uuid, e.getValue());
+
+            Shard shard = getShard(uuid);
+            synchronized (shard) {
+                if (shard.generation == missed.get(uuid)) {
+                    shard.entries.put(uuid, e.getValue());
+                }
+            }
+        }
+
+        return ret;
+    }
+
+    private Map<String, List<CachedTag>> load(Collection<String> resourceUuids) {
+        SimpleQuery<SystemTagVO> q = dbf.createQuery(SystemTagVO.class);
+        q.select(SystemTagVO_.resourceUuid, SystemTagVO_.resourceType, SystemTagVO_.tag);
+        q.add(SystemTagVO_.resourceUuid, Op.IN, resourceUuids);
+        List<Tuple> ts = q.listTuple();
+
+        Map<String, List<CachedTag>> ret = new HashMap<>();
+        for (String uuid : resourceUuids) {
+            ret.put(uuid, new ArrayList<>());
+        }
+        for (Tuple t : ts) {
+            List<CachedTag> tags = ret.get(t.get(0, String.class));
+            if (tags != null) {
+                tags.add(new CachedTag(t.get(1, String.class), t.get(2, String.class)));
+            }
+        }
+
+        for (Map.Entry<String, List<CachedTag>> e : ret.entrySet()) {
+            e.setValue(Collections.unmodifiableList(e.getValue()));
+        }
+        return ret;
+    }
+
+    void invalidate(Collection<String> resourceUuids) {
+        for (String uuid : resourceUuids) {
+            Shard shard = getShard(uuid);
+            synchronized (shard) {
+                shard.generation++;
+                shard.entries.remove(uuid);
+            }
+        }
+    }
+
+    void invalidateAll() {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.generation++;
+                shard.entries.clear();
+            }
+        }
+    }
+
+    /**
+     * compiles a pattern of SQL LIKE into a regex matching the same tags; the tag column is
+     * case insensitive
+     */
+    static Pattern compileSqlPattern(String sqlPattern) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < sqlPattern.length(); i++) {
+            char c = sqlPattern.charAt(i);
+            if (c == '%') {
+                sb.append(".*");
+            } else if (c == '_') {
+                sb.append(".");
+            } else if (c == '\\' && i + 1 < sqlPattern.length()) {
+                sb.append(Pattern.quote(String.valueOf(sqlPattern.charAt(++i))));
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+
+        return Pattern.compile(sb.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+}
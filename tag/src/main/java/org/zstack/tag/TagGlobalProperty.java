@@ -0,0 +1,14 @@
+package org.zstack.tag;
+
+import org.zstack.core.GlobalProperty;
+import org.zstack.core.GlobalPropertyDefinition;
+
+/**
+ */
+@GlobalPropertyDefinition
+public class TagGlobalProperty {
+    @GlobalProperty(name="SystemTag.cache", defaultValue = "true")
+    public static boolean SYSTEM_TAG_CACHE;
+    @GlobalProperty(name="SystemTag.cacheSize", defaultValue = "100000")
+    public static int SYSTEM_TAG_CACHE_SIZE;
+}
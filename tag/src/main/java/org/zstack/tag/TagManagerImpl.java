@@ -2,8 +2,12 @@ package org.zstack.tag;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.zstack.core.Platform;
 import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.cloudbus.EventCallback;
+import org.zstack.core.cloudbus.EventFacade;
 import org.zstack.core.cloudbus.MessageSafe;
 import org.zstack.core.componentloader.PluginRegistry;
 import org.zstack.core.db.DatabaseFacade;
@@ -24,6 +28,7 @@ import org.zstack.header.message.APIMessage;
 import org.zstack.header.message.Message;
 import org.zstack.header.query.APIQueryReply;
 import org.zstack.header.tag.*;
+import org.zstack.header.tag.TagCanonicalEvents.SystemTagChangedData;
 import org.zstack.query.QueryFacade;
 import org.zstack.utils.*;
 import org.zstack.utils.function.Function;
@@ -52,6 +57,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Autowired
     protected CloudBus bus;
     @Autowired
+    private EventFacade evtf;
+    @Autowired
     private QueryFacade qf;
     @Autowired
     protected ErrorFacade errf;
@@ -65,6 +72,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     private Map<String, List<SystemTagCreateMessageValidator>> createMessageValidators = new HashMap<>();
     private Map<String, List<SystemTagLifeCycleExtension>> lifeCycleExtensions = new HashMap<>();
     private List<Class> autoDeleteTagClasses;
+    private SystemTagCache systemTagCache;
 
 
     private void initSystemTags() throws IllegalAccessException {
@@ -152,6 +160,63 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         });
 
         logger.debug(String.format("tags of following resources are auto-deleting enabled: %s", clzNames));
+
+        if (TagGlobalProperty.SYSTEM_TAG_CACHE) {
+            systemTagCache = new SystemTagCache(dbf, TagGlobalProperty.SYSTEM_TAG_CACHE_SIZE);
+        }
+    }
+
+    SystemTagCache getSystemTagCache() {
+        return systemTagCache;
+    }
+
+    private void invalidateSystemTagCache(Collection<String> resourceUuids) {
+        if (systemTagCache == null || resourceUuids.isEmpty()) {
+            return;
+        }
+
+        final List<String> uuids = new ArrayList<>(resourceUuids);
+        systemTagCache.invalidate(uuids);
+
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            fireSystemTagChanged(uuids);
+            return;
+        }
+
+        // a load between now and the commit may cache the old tags again, drop them after
+        // the transaction completes and let other management nodes know only then
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                systemTagCache.invalidate(uuids);
+                fireSystemTagChanged(uuids);
+            }
+        });
+    }
+
+    private void fireSystemTagChanged(List<String> resourceUuids) {
+        SystemTagChangedData d = new SystemTagChangedData();
+        d.setResourceUuids(resourceUuids);
+        evtf.fire(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, d);
+    }
+
+    private void installSystemTagChangedListener() {
+        evtf.on(TagCanonicalEvents.SYSTEM_TAG_CHANGED_PATH, new EventCallback() {
+            @Override
+            public void run(Map tokens, Object data) {
+                if (evtf.isFromThisManagementNode(tokens)) {
+                    // dropped by invalidateSystemTagCache() already
+                    return;
+                }
+
+                SystemTagChangedData d = (SystemTagChangedData) data;
+                if (d.getResourceUuids() == null) {
+                    systemTagCache.invalidateAll();
+                } else {
+                    systemTagCache.invalidate(d.getResourceUuids());
+                }
+            }
+        });
     }
 
     private void populateExtensions() {
@@ -256,6 +321,7 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             @Override
             public void run() {
                 dbf.remove(finalVo);
+                invalidateSystemTagCache(list(finalVo.getResourceUuid()));
             }
         });
 
@@ -369,6 +435,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
             ntag.setResourceUuid(dstResourceUuid);
             dbf.getEntityManager().persist(ntag);
         }
+
+        invalidateSystemTagCache(list(dstResourceUuid));
     }
 
     @Override
@@ -477,7 +545,17 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         deleteSystemTag(tag, resourceUuid, resourceType, inherit, true);
     }
 
+    private List<String> getResourceUuids(List<SystemTagInventory> tags) {
+        List<String> uuids = new ArrayList<>();
+        for (SystemTagInventory tag : tags) {
+            uuids.add(tag.getResourceUuid());
+        }
+        return uuids;
+    }
+
     void fireTagDeleted(List<SystemTagInventory> tags) {
+        invalidateSystemTagCache(getResourceUuids(tags));
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -493,6 +571,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     void fireTagCreated(List<SystemTagInventory> tags) {
+        invalidateSystemTagCache(getResourceUuids(tags));
+
         for (SystemTagInventory tag : tags) {
             List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(tag.getResourceType());
             if (exts != null) {
@@ -508,6 +588,8 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     }
 
     private void fireTagUpdated(SystemTagInventory old, SystemTagInventory newTag) {
+        invalidateSystemTagCache(list(old.getResourceUuid()));
+
         List<SystemTagLifeCycleExtension> exts = lifeCycleExtensions.get(old.getResourceType());
         if (exts != null) {
             for (SystemTagLifeCycleExtension ext : exts) {
@@ -648,6 +730,9 @@ public class TagManagerImpl extends AbstractService implements TagManager,
     @Override
     public boolean start() {
         populateExtensions();
+        if (systemTagCache != null) {
+            installSystemTagChangedListener();
+        }
         return true;
     }
 
@@ -688,6 +773,12 @@ public class TagManagerImpl extends AbstractService implements TagManager,
         q.setParameter("resourceTypes", rtypes);
         q.setParameter("resourceUuids", entityIds);
         q.executeUpdate();
+
+        List<String> resourceUuids = new ArrayList<>();
+        for (Object id : entityIds) {
+            resourceUuids.add(id.toString());
+        }
+        invalidateSystemTagCache(resourceUuids);
     }
 
     @Override
@@ -0,0 +1,140 @@
+package org.zstack.test.integration.kvm.host
+
+import org.springframework.http.HttpEntity
+import org.zstack.core.cloudbus.CloudBus
+import org.zstack.core.cloudbus.CloudBusCallBack
+import org.zstack.header.host.HostConstant
+import org.zstack.header.message.MessageReply
+import org.zstack.kvm.*
+import org.zstack.sdk.VmInstanceInventory
+import org.zstack.test.integration.kvm.Env
+import org.zstack.test.integration.kvm.KvmTest
+import org.zstack.testlib.EnvSpec
+import org.zstack.testlib.HttpError
+import org.zstack.testlib.KVMHostSpec
+import org.zstack.testlib.SubCase
+import org.zstack.testlib.VmSpec
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 1. enable kvm.command.batch and send 30 commands to a host at once
+ *
+ * confirm the commands are sent in fewer http requests and each gets its own response
+ *
+ * 2. make the agent refuse the batch
+ *
+ * confirm every command in the batch fails
+ */
+class KvmCommandBatchCase extends SubCase {
+    EnvSpec env
+    CloudBus bus
+    KvmCommandBatcher batcher
+    int commandNum = 30
+
+    @Override
+    void setup() {
+        useSpring(KvmTest.springSpec)
+    }
+
+    @Override
+    void environment() {
+        env = Env.oneVmBasicEnv()
+    }
+
+    @Override
+    void test() {
+        env.create {
+            bus = bean(CloudBus.class)
+            batcher = bean(KvmCommandBatcher.class)
+            KVMGlobalConfig.COMMAND_BATCH.updateValue(true)
+            KVMGlobalConfig.COMMAND_BATCH_WINDOW.updateValue(100)
+
+            testCommandsSentInBatches()
+            testBatchRefused()
+        }
+    }
+
+    private List<MessageReply> sendCommands(String hostUuid, String vmUuid) {
+        def latch = new CountDownLatch(commandNum)
+        def replies = new ConcurrentLinkedQueue<MessageReply>()
+        commandNum.times {
+            def cmd = new KVMAgentCommands.CheckVmStateCmd()
+            cmd.vmUuids = [vmUuid]
+            cmd.hostUuid = hostUuid
+
+            def msg = new KVMHostAsyncHttpCallMsg()
+            msg.command = cmd
+            msg.commandTimeout = 30
+            msg.hostUuid = hostUuid
+            msg.path = KVMConstant.KVM_VM_CHECK_STATE
+            bus.makeTargetServiceIdByResourceUuid(msg, HostConstant.SERVICE_ID, hostUuid)
+            bus.send(msg, new CloudBusCallBack(null) {
+                @Override
+                void run(MessageReply reply) {
+                    replies.add(reply)
+                    latch.countDown()
+                }
+            })
+        }
+
+        assert latch.await(30, TimeUnit.SECONDS)
+        return replies.toList()
+    }
+
+    void testCommandsSentInBatches() {
+        KVMHostSpec host = env.specByName("kvm")
+        VmInstanceInventory vm = (env.specByName("vm") as VmSpec).inventory
+
+        def batches = new AtomicInteger(0)
+        def commands = new AtomicInteger(0)
+        env.afterSimulator(KVMConstant.KVM_BATCH_COMMANDS_PATH) { rsp ->
+            batches.incrementAndGet()
+            return rsp
+        }
+        env.afterSimulator(KVMConstant.KVM_VM_CHECK_STATE) { rsp, HttpEntity<String> e ->
+            commands.incrementAndGet()
+            return rsp
+        }
+
+        long sentCommands = batcher.commandCount
+        List<MessageReply> replies = sendCommands(host.inventory.uuid, vm.uuid)
+
+        assert replies.size() == commandNum
+        replies.each {
+            assert it.success
+            KVMAgentCommands.CheckVmStateRsp rsp = (it as KVMHostAsyncHttpCallReply).toResponse(KVMAgentCommands.CheckVmStateRsp.class)
+            assert rsp.states[host.inventory.uuid] == KVMConstant.KvmVmState.Running.toString()
+        }
+
+        assert commands.get() == commandNum
+        assert batcher.commandCount - sentCommands == commandNum
+        assert batches.get() > 0
+        assert batches.get() < commandNum
+    }
+
+    void testBatchRefused() {
+        KVMHostSpec host = env.specByName("kvm")
+        VmInstanceInventory vm = (env.specByName("vm") as VmSpec).inventory
+
+        env.simulator(KVMConstant.KVM_BATCH_COMMANDS_PATH) {
+            throw new HttpError(500, "on purpose")
+        }
+
+        List<MessageReply> replies = sendCommands(host.inventory.uuid, vm.uuid)
+        assert replies.size() == commandNum
+        replies.each {
+            assert !it.success
+        }
+    }
+
+    @Override
+    void clean() {
+        KVMGlobalConfig.COMMAND_BATCH.updateValue(false)
+        KVMGlobalConfig.COMMAND_BATCH_WINDOW.updateValue(5)
+        env.delete()
+    }
+}
@@ -0,0 +1,147 @@
+package org.zstack.test.compute.host;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.host.HostGlobalConfig;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.*;
+import org.zstack.header.message.AbstractBeforeSendMessageInterceptor;
+import org.zstack.header.message.Message;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.simulator.SimulatorHostVO;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.simulator.SimulatorController;
+import org.zstack.test.*;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. track 2000 simulator hosts with batched ping
+ * <p>
+ * confirm the hosts are pinged by a few BatchPingHostMsg instead of 2000 PingHostMsg
+ * <p>
+ * 2. disconnect a host
+ * <p>
+ * confirm the host status changes to Disconnected by the batched ping
+ * <p>
+ * 3. turn off batched ping
+ * <p>
+ * confirm every host is pinged by a PingHostMsg
+ */
+public class TestBatchPingHost {
+    CLogger logger = Utils.getLogger(TestBatchPingHost.class);
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+    HostTracker tracker;
+    SimulatorController sctrl;
+    int hostNum = 2000;
+    AtomicInteger pingCount = new AtomicInteger(0);
+    AtomicInteger batchPingCount = new AtomicInteger(0);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ClusterManager.xml")
+                .addXml("ZoneManager.xml").addXml("HostManager.xml")
+                .addXml("Simulator.xml").addXml("AccountManager.xml")
+                .addXml("HostAllocatorManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        tracker = loader.getComponent(HostTracker.class);
+        sctrl = loader.getComponent(SimulatorController.class);
+        HostGlobalConfig.PING_HOST_IN_BATCH.updateValue(true);
+        HostGlobalConfig.PING_HOST_BATCH_SIZE.updateValue(500);
+        HostGlobalConfig.AUTO_RECONNECT_ON_ERROR.updateValue(false);
+        api = new Api();
+        api.startServer();
+    }
+
+    private List<String> createHosts(ClusterInventory cluster) {
+        List<SimulatorHostVO> vos = new ArrayList<SimulatorHostVO>();
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < hostNum; i++) {
+            SimulatorHostVO vo = new SimulatorHostVO();
+            vo.setUuid(Platform.getUuid());
+            vo.setName("host" + i);
+            vo.setZoneUuid(cluster.getZoneUuid());
+            vo.setClusterUuid(cluster.getUuid());
+            vo.setManagementIp(String.format("10.0.%s.%s", i / 250, i % 250 + 1));
+            vo.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+            vo.setState(HostState.Enabled);
+            vo.setStatus(HostStatus.Connected);
+            vo.setCpuCapacity(2400 * 4);
+            vo.setMemoryCapacity(8L * 1024 * 1024 * 1024);
+            vos.add(vo);
+            uuids.add(vo.getUuid());
+        }
+        dbf.persistCollection(vos);
+        return uuids;
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        bus.installBeforeSendMessageInterceptor(new AbstractBeforeSendMessageInterceptor() {
+            @Override
+            public void intercept(Message msg) {
+                if (msg instanceof PingHostMsg) {
+                    pingCount.incrementAndGet();
+                } else if (msg instanceof BatchPingHostMsg) {
+                    batchPingCount.incrementAndGet();
+                }
+            }
+        }, PingHostMsg.class, BatchPingHostMsg.class);
+
+        ZoneInventory zone = api.createZones(1).get(0);
+        ClusterInventory cluster = api.createClusters(1, zone.getUuid()).get(0);
+        List<String> huuids = createHosts(cluster);
+
+        long start = System.currentTimeMillis();
+        HostGlobalConfig.PING_HOST_INTERVAL.updateValue(5);
+        tracker.trackHost(huuids);
+        TimeUnit.SECONDS.sleep(12);
+        logger.debug(String.format("batched ping of %s hosts in %ss: %s BatchPingHostMsg, %s PingHostMsg",
+                hostNum, (System.currentTimeMillis() - start) / 1000, batchPingCount.get(), pingCount.get()));
+        Assert.assertEquals(0, pingCount.get());
+        // 4 messages each round
+        Assert.assertTrue(batchPingCount.get() >= 4);
+        Assert.assertTrue(batchPingCount.get() <= 4 * 3);
+
+        final String huuid = huuids.get(0);
+        sctrl.setSimulatorHostConnectionState(huuid, true);
+        UnitTestUtils.sleepRetry(new Callable() {
+            @Override
+            public Object call() throws Exception {
+                HostVO vo = dbf.findByUuid(huuid, HostVO.class);
+                Assert.assertEquals(HostStatus.Disconnected, vo.getStatus());
+                return null;
+            }
+        }, 20);
+        Assert.assertEquals(HostStatus.Connected, dbf.findByUuid(huuids.get(1), HostVO.class).getStatus());
+
+        HostGlobalConfig.PING_HOST_IN_BATCH.updateValue(false);
+        TimeUnit.SECONDS.sleep(6);
+        int batch = batchPingCount.get();
+        pingCount.set(0);
+        start = System.currentTimeMillis();
+        TimeUnit.SECONDS.sleep(12);
+        logger.debug(String.format("ping of %s hosts in %ss: %s BatchPingHostMsg, %s PingHostMsg",
+                hostNum, (System.currentTimeMillis() - start) / 1000, batchPingCount.get() - batch, pingCount.get()));
+        Assert.assertEquals(batch, batchPingCount.get());
+        Assert.assertTrue(pingCount.get() >= hostNum);
+    }
+}
@@ -0,0 +1,294 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostCapacityBatchUpdater;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.HostAllocatorConstant;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.allocator.ReturnHostCapacityMsg;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.core.Completion;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.simulator.SimulatorHostVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.UnitTestUtils;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. reserve capacity for 200 vms on 20 hosts concurrently
+ * <p>
+ * confirm the reservations are coalesced into fewer updates and the capacity is right
+ * <p>
+ * 2. reserve more than a host has
+ * <p>
+ * confirm only the reservations the host can satisfy succeed
+ * <p>
+ * 3. return the capacity by ReturnHostCapacityMsg as VmAllocateHostFlow does on rollback
+ * <p>
+ * confirm the capacity is restored
+ * <p>
+ * 4. change the available cpu of a host between the read and the compare-and-set of the first two updates
+ * <p>
+ * confirm the update is retried twice and the reservation is applied on the changed capacity
+ * <p>
+ * 5. change the total memory of the host before every compare-and-set
+ * <p>
+ * confirm the update falls back to the row lock after MAX_RETRIES and the capacity is exact
+ * <p>
+ * 6. return more memory than the host has used
+ * <p>
+ * confirm the return fails and neither cpu nor memory is changed
+ */
+public class TestHostCapacityBatchUpdater {
+    CLogger logger = Utils.getLogger(TestHostCapacityBatchUpdater.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    HostCapacityBatchUpdater batchUpdater;
+    long cpu = 1;
+    long memory = SizeUnit.GIGABYTE.toByte(1);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestMigrateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        batchUpdater = loader.getComponent(HostCapacityBatchUpdater.class);
+    }
+
+    private String createHost(ClusterInventory cluster, int i, long memory) {
+        SimulatorHostVO vo = new SimulatorHostVO();
+        vo.setUuid(Platform.getUuid());
+        vo.setName("host" + i);
+        vo.setZoneUuid(cluster.getZoneUuid());
+        vo.setClusterUuid(cluster.getUuid());
+        vo.setManagementIp(String.format("10.1.0.%s", i + 1));
+        vo.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+        vo.setState(HostState.Enabled);
+        vo.setStatus(HostStatus.Connected);
+        vo.setCpuCapacity(100);
+        vo.setMemoryCapacity(memory);
+        dbf.persist(vo);
+
+        HostCapacityVO cap = new HostCapacityVO();
+        cap.setUuid(vo.getUuid());
+        cap.setCpuNum(100);
+        cap.setTotalCpu(100);
+        cap.setAvailableCpu(100);
+        cap.setTotalMemory(memory);
+        cap.setAvailableMemory(memory);
+        cap.setTotalPhysicalMemory(memory);
+        cap.setAvailablePhysicalMemory(memory);
+        dbf.persist(cap);
+        return vo.getUuid();
+    }
+
+    private void await(CountDownLatch latch) throws InterruptedException {
+        Assert.assertTrue(latch.await(30, TimeUnit.SECONDS));
+    }
+
+    // returns the error, or null on success
+    private ErrorCode update(boolean reserve, String huuid, long cpu, long memory) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ErrorCode[] error = new ErrorCode[1];
+        Completion completion = new Completion(null) {
+            @Override
+            public void success() {
+                latch.countDown();
+            }
+
+            @Override
+            public void fail(ErrorCode errorCode) {
+                error[0] = errorCode;
+                latch.countDown();
+            }
+        };
+
+        if (reserve) {
+            batchUpdater.reserve(huuid, cpu, memory, completion);
+        } else {
+            batchUpdater.returnCapacity(huuid, cpu, memory, completion);
+        }
+        await(latch);
+        return error[0];
+    }
+
+    private void changeCapacity(String huuid, long cpu, long totalMemory) {
+        HostCapacityVO cap = dbf.findByUuid(huuid, HostCapacityVO.class);
+        cap.setAvailableCpu(cap.getAvailableCpu() + cpu);
+        cap.setTotalMemory(cap.getTotalMemory() + totalMemory);
+        dbf.update(cap);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        ClusterInventory cluster = deployer.clusters.get("TestCluster");
+        List<String> huuids = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            huuids.add(createHost(cluster, i, SizeUnit.GIGABYTE.toByte(64)));
+        }
+
+        // hold the updates until all reservations are submitted, so they have to be coalesced
+        final CountDownLatch submitted = new CountDownLatch(1);
+        batchUpdater.setBeforeCompareAndSetHook(huuid -> {
+            try {
+                submitted.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        final int vmNum = 200;
+        final CountDownLatch latch = new CountDownLatch(vmNum);
+        final AtomicInteger failures = new AtomicInteger(0);
+        HostCapacityBatchUpdater.Statistic before = batchUpdater.getStatistic();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < vmNum; i++) {
+            batchUpdater.reserve(huuids.get(i % huuids.size()), cpu, memory, new Completion(null) {
+                @Override
+                public void success() {
+                    latch.countDown();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    failures.incrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+        submitted.countDown();
+        await(latch);
+        batchUpdater.setBeforeCompareAndSetHook(null);
+
+        HostCapacityBatchUpdater.Statistic stat = batchUpdater.getStatistic();
+        logger.debug(String.format("reserved capacity for %s vms in %sms, deltas: %s, updates: %s, conflicts: %s, retries: %s, fallbacks: %s",
+                vmNum, System.currentTimeMillis() - start, stat.getDeltas(), stat.getUpdates(), stat.getConflicts(),
+                stat.getRetries(), stat.getFallbacks()));
+        Assert.assertEquals(0, failures.get());
+        Assert.assertEquals(vmNum, stat.getDeltas() - before.getDeltas());
+        // the first update of a host may take one or more deltas, the one held behind it takes the rest
+        long updates = stat.getUpdates() - before.getUpdates();
+        Assert.assertTrue(updates >= huuids.size());
+        Assert.assertTrue(updates <= huuids.size() * 2);
+        Assert.assertEquals(0, stat.getConflicts() - before.getConflicts());
+        for (String huuid : huuids) {
+            HostCapacityVO cap = dbf.findByUuid(huuid, HostCapacityVO.class);
+            Assert.assertEquals(100 - 10 * cpu, cap.getAvailableCpu());
+            Assert.assertEquals(SizeUnit.GIGABYTE.toByte(64) - 10 * memory, cap.getAvailableMemory());
+        }
+
+        // the host has memory for 3 vms only
+        final String small = createHost(cluster, 20, SizeUnit.GIGABYTE.toByte(3));
+        final CountDownLatch latch1 = new CountDownLatch(5);
+        final AtomicInteger successes = new AtomicInteger(0);
+        for (int i = 0; i < 5; i++) {
+            batchUpdater.reserve(small, cpu, memory, new Completion(null) {
+                @Override
+                public void success() {
+                    successes.incrementAndGet();
+                    latch1.countDown();
+                }
+
+                @Override
+                public void fail(ErrorCode errorCode) {
+                    latch1.countDown();
+                }
+            });
+        }
+        await(latch1);
+        Assert.assertEquals(3, successes.get());
+        HostCapacityVO cap = dbf.findByUuid(small, HostCapacityVO.class);
+        Assert.assertEquals(0, cap.getAvailableMemory());
+        Assert.assertEquals(100 - 3 * cpu, cap.getAvailableCpu());
+
+        // what VmAllocateHostFlow sends on rollback
+        for (int i = 0; i < 3; i++) {
+            ReturnHostCapacityMsg msg = new ReturnHostCapacityMsg();
+            msg.setHostUuid(small);
+            msg.setCpuCapacity(cpu);
+            msg.setMemoryCapacity(memory);
+            bus.makeLocalServiceId(msg, HostAllocatorConstant.SERVICE_ID);
+            bus.send(msg);
+        }
+
+        UnitTestUtils.sleepRetry(new Callable() {
+            @Override
+            public Object call() throws Exception {
+                HostCapacityVO cap = dbf.findByUuid(small, HostCapacityVO.class);
+                Assert.assertEquals(SizeUnit.GIGABYTE.toByte(3), cap.getAvailableMemory());
+                Assert.assertEquals(100, cap.getAvailableCpu());
+                return null;
+            }
+        }, 10);
+
+        // somebody else reserves cpu between our read and compare-and-set, twice
+        final String contended = createHost(cluster, 21, SizeUnit.GIGABYTE.toByte(8));
+        final AtomicInteger changes = new AtomicInteger(0);
+        batchUpdater.setBeforeCompareAndSetHook(huuid -> {
+            if (contended.equals(huuid) && changes.getAndIncrement() < 2) {
+                changeCapacity(huuid, -1, 0);
+            }
+        });
+        before = batchUpdater.getStatistic();
+        Assert.assertNull(update(true, contended, cpu, memory));
+        stat = batchUpdater.getStatistic();
+        Assert.assertEquals(1, stat.getUpdates() - before.getUpdates());
+        Assert.assertEquals(2, stat.getConflicts() - before.getConflicts());
+        Assert.assertEquals(2, stat.getRetries() - before.getRetries());
+        Assert.assertEquals(0, stat.getFallbacks() - before.getFallbacks());
+        cap = dbf.findByUuid(contended, HostCapacityVO.class);
+        Assert.assertEquals(100 - 2 - cpu, cap.getAvailableCpu());
+        Assert.assertEquals(SizeUnit.GIGABYTE.toByte(8) - memory, cap.getAvailableMemory());
+
+        // the host reports a new total memory before every compare-and-set, the available capacity stays the same
+        batchUpdater.setBeforeCompareAndSetHook(huuid -> {
+            if (contended.equals(huuid)) {
+                changeCapacity(huuid, 0, 1);
+            }
+        });
+        before = batchUpdater.getStatistic();
+        Assert.assertNull(update(true, contended, cpu, memory));
+        batchUpdater.setBeforeCompareAndSetHook(null);
+        stat = batchUpdater.getStatistic();
+        Assert.assertEquals(HostCapacityBatchUpdater.MAX_RETRIES + 1, stat.getConflicts() - before.getConflicts());
+        Assert.assertEquals(HostCapacityBatchUpdater.MAX_RETRIES, stat.getRetries() - before.getRetries());
+        Assert.assertEquals(1, stat.getFallbacks() - before.getFallbacks());
+        cap = dbf.findByUuid(contended, HostCapacityVO.class);
+        Assert.assertEquals(100 - 2 - 2 * cpu, cap.getAvailableCpu());
+        Assert.assertEquals(SizeUnit.GIGABYTE.toByte(8) - 2 * memory, cap.getAvailableMemory());
+        Assert.assertEquals(SizeUnit.GIGABYTE.toByte(8) + HostCapacityBatchUpdater.MAX_RETRIES + 1, cap.getTotalMemory());
+
+        // returning more memory than used fails as a whole, the cpu is not returned either
+        Assert.assertNotNull(update(false, contended, cpu, 3 * memory));
+        cap = dbf.findByUuid(contended, HostCapacityVO.class);
+        Assert.assertEquals(100 - 2 - 2 * cpu, cap.getAvailableCpu());
+        Assert.assertEquals(SizeUnit.GIGABYTE.toByte(8) - 2 * memory, cap.getAvailableMemory());
+    }
+}
@@ -0,0 +1,175 @@
+package org.zstack.test.compute.hostallocator;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.compute.allocator.HostAllocatorGlobalConfig;
+import org.zstack.compute.allocator.HostCapacityIndex;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.AllocateHostReply;
+import org.zstack.header.allocator.DesignatedAllocateHostMsg;
+import org.zstack.header.allocator.HostAllocatorConstant;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.cluster.ClusterInventory;
+import org.zstack.header.host.HostState;
+import org.zstack.header.host.HostStatus;
+import org.zstack.header.host.HostVO;
+import org.zstack.header.simulator.SimulatorConstant;
+import org.zstack.header.simulator.SimulatorHostVO;
+import org.zstack.header.vm.VmInstanceConstant.VmOperation;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.vm.VmNicInventory;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.function.Function;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 1. add 3000 hosts, half of them don't have enough memory for the vm
+ * 2. make the host having most memory Disconnected behind the index's back
+ * 3. allocate hosts with and without the capacity index
+ * <p>
+ * confirm every allocation succeeds and never picks a host without enough memory
+ * confirm the stale host in the index is never picked
+ */
+public class TestHostCapacityIndex {
+    CLogger logger = Utils.getLogger(TestHostCapacityIndex.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+    HostCapacityIndex capacityIndex;
+    int hostNum = 3000;
+    int allocateTimes = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestMigrateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        capacityIndex = loader.getComponent(HostCapacityIndex.class);
+    }
+
+    private HostVO createHost(ClusterInventory cluster, int i, long memory) {
+        SimulatorHostVO vo = new SimulatorHostVO();
+        vo.setUuid(Platform.getUuid());
+        vo.setName("host" + i);
+        vo.setZoneUuid(cluster.getZoneUuid());
+        vo.setClusterUuid(cluster.getUuid());
+        vo.setManagementIp(String.format("10.1.%s.%s", i / 250, i % 250 + 1));
+        vo.setHypervisorType(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE);
+        vo.setState(HostState.Enabled);
+        vo.setStatus(HostStatus.Connected);
+        vo.setCpuCapacity(4 * 2600);
+        vo.setMemoryCapacity(memory);
+        return vo;
+    }
+
+    private HostCapacityVO createCapacity(String uuid, long memory) {
+        HostCapacityVO cap = new HostCapacityVO();
+        cap.setUuid(uuid);
+        cap.setCpuNum(4);
+        cap.setTotalCpu(4 * 2600);
+        cap.setAvailableCpu(4 * 2600);
+        cap.setTotalMemory(memory);
+        cap.setAvailableMemory(memory);
+        cap.setTotalPhysicalMemory(memory);
+        cap.setAvailablePhysicalMemory(memory);
+        return cap;
+    }
+
+    private String allocate(VmInstanceInventory vm) {
+        DesignatedAllocateHostMsg msg = new DesignatedAllocateHostMsg();
+        msg.setCpuCapacity(vm.getCpuNum());
+        msg.setMemoryCapacity(vm.getMemorySize());
+        msg.getAvoidHostUuids().add(vm.getHostUuid());
+        msg.setVmInstance(vm);
+        msg.setServiceId(bus.makeLocalServiceId(HostAllocatorConstant.SERVICE_ID));
+        msg.setAllocatorStrategy(HostAllocatorConstant.MIGRATE_VM_ALLOCATOR_TYPE);
+        msg.setVmOperation(VmOperation.Migrate.toString());
+        msg.setL3NetworkUuids(CollectionUtils.transformToList(vm.getVmNics(), new Function<String, VmNicInventory>() {
+            @Override
+            public String call(VmNicInventory arg) {
+                return arg.getL3NetworkUuid();
+            }
+        }));
+        AllocateHostReply reply = (AllocateHostReply) bus.call(msg);
+        Assert.assertTrue(reply.isSuccess());
+        return reply.getHost().getUuid();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        ClusterInventory cluster = deployer.clusters.get("TestCluster");
+
+        List<HostVO> hosts = new ArrayList<HostVO>();
+        List<HostCapacityVO> caps = new ArrayList<HostCapacityVO>();
+        Set<String> smallHosts = new HashSet<String>();
+        for (int i = 0; i < hostNum; i++) {
+            long memory = i % 2 == 0 ? SizeUnit.GIGABYTE.toByte(1) : SizeUnit.GIGABYTE.toByte(16);
+            HostVO vo = createHost(cluster, i, memory);
+            hosts.add(vo);
+            caps.add(createCapacity(vo.getUuid(), memory));
+            if (i % 2 == 0) {
+                smallHosts.add(vo.getUuid());
+            }
+        }
+
+        HostVO stale = createHost(cluster, hostNum, SizeUnit.GIGABYTE.toByte(64));
+        hosts.add(stale);
+        caps.add(createCapacity(stale.getUuid(), SizeUnit.GIGABYTE.toByte(64)));
+        dbf.persistCollection(hosts);
+        dbf.persistCollection(caps);
+
+        capacityIndex.sync();
+        Assert.assertTrue(capacityIndex.size() >= hostNum + 1);
+        List<String> found = capacityIndex.findHosts(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE, vm.getCpuNum(), vm.getMemorySize());
+        Assert.assertTrue(found.contains(stale.getUuid()));
+        Assert.assertTrue(found.size() >= hostNum / 2 + 1);
+        for (String huuid : found) {
+            Assert.assertFalse(smallHosts.contains(huuid));
+        }
+
+        // the index doesn't know the host is disconnected until it's synced
+        stale = dbf.findByUuid(stale.getUuid(), HostVO.class);
+        stale.setStatus(HostStatus.Disconnected);
+        dbf.update(stale);
+
+        HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.updateValue(true);
+        for (int i = 0; i < allocateTimes; i++) {
+            String huuid = allocate(vm);
+            Assert.assertFalse(smallHosts.contains(huuid));
+            Assert.assertFalse(stale.getUuid().equals(huuid));
+        }
+
+        HostAllocatorGlobalConfig.USE_CAPACITY_INDEX.updateValue(false);
+        for (int i = 0; i < allocateTimes; i++) {
+            String huuid = allocate(vm);
+            Assert.assertFalse(smallHosts.contains(huuid));
+            Assert.assertFalse(stale.getUuid().equals(huuid));
+        }
+
+        capacityIndex.sync();
+        found = capacityIndex.findHosts(SimulatorConstant.SIMULATOR_HYPERVISOR_TYPE, vm.getCpuNum(), vm.getMemorySize());
+        Assert.assertFalse(found.contains(stale.getUuid()));
+    }
+}
@@ -0,0 +1,146 @@
+package org.zstack.test.compute.vm;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.allocator.HostCapacityVO;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.network.l3.UsedIpVO;
+import org.zstack.header.vm.APICreateVmInstancesEvent;
+import org.zstack.header.vm.APICreateVmInstancesMsg;
+import org.zstack.header.vm.VmInstanceState;
+import org.zstack.header.vm.VmInstanceVO;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSender;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+
+/**
+ * 1. create 40 vms in a batch
+ * <p>
+ * confirm all vms are created and running, named by their index in the batch
+ * <p>
+ * 2. create 8 vms in a batch on a host having memory for 4 vms at most
+ * <p>
+ * confirm the vms that cannot be placed fail with their own errors and the others are created
+ * confirm the capacity and ips allocated for the batch but not used by the failed vms are returned
+ * <p>
+ * 3. create vms in a batch with resourceUuid or a hostname system tag
+ * <p>
+ * confirm it fails
+ */
+public class TestCreateVmInstances {
+    CLogger logger = Utils.getLogger(TestCreateVmInstances.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    CloudBus bus;
+    DatabaseFacade dbf;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVmInstances.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        bus = loader.getComponent(CloudBus.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    private APICreateVmInstancesMsg newMsg(String name, int count) {
+        APICreateVmInstancesMsg msg = new APICreateVmInstancesMsg();
+        msg.setName(name);
+        msg.setCount(count);
+        msg.setInstanceOfferingUuid(deployer.instanceOfferings.get("TestInstanceOffering").getUuid());
+        msg.setImageUuid(deployer.images.get("TestImage").getUuid());
+        msg.setL3NetworkUuids(asList(deployer.l3Networks.get("TestL3Network1").getUuid()));
+        msg.setSession(api.getAdminSession());
+        return msg;
+    }
+
+    private APICreateVmInstancesEvent send(APICreateVmInstancesMsg msg) throws ApiSenderException {
+        ApiSender sender = new ApiSender();
+        sender.setTimeout(300);
+        return sender.send(msg, APICreateVmInstancesEvent.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        long start = System.currentTimeMillis();
+        APICreateVmInstancesEvent evt = send(newMsg("web", 40));
+        logger.debug(String.format("created 40 vms in a batch in %sms", System.currentTimeMillis() - start));
+
+        Assert.assertEquals(40, evt.getResults().size());
+        Set<String> uuids = new HashSet<String>();
+        for (int i = 0; i < 40; i++) {
+            APICreateVmInstancesEvent.Result r = evt.getResults().get(i);
+            Assert.assertEquals("web-" + (i + 1), r.getName());
+            Assert.assertNull(r.getError());
+            Assert.assertEquals(r.getName(), r.getInventory().getName());
+            Assert.assertEquals(VmInstanceState.Running.toString(), r.getInventory().getState());
+            VmInstanceVO vm = dbf.findByUuid(r.getInventory().getUuid(), VmInstanceVO.class);
+            Assert.assertEquals(VmInstanceState.Running, vm.getState());
+            uuids.add(vm.getUuid());
+        }
+        Assert.assertEquals(40, uuids.size());
+
+        HostInventory host3 = deployer.hosts.get("TestHost3");
+        long memoryBefore = dbf.findByUuid(host3.getUuid(), HostCapacityVO.class).getAvailableMemory();
+        long ipsBefore = dbf.count(UsedIpVO.class);
+        APICreateVmInstancesMsg msg = newMsg("db", 8);
+        msg.setHostUuid(host3.getUuid());
+        evt = send(msg);
+        Assert.assertEquals(8, evt.getResults().size());
+        int succeeded = 0;
+        for (APICreateVmInstancesEvent.Result r : evt.getResults()) {
+            if (r.getError() == null) {
+                succeeded++;
+                Assert.assertEquals(host3.getUuid(), r.getInventory().getHostUuid());
+            } else {
+                Assert.assertNull(r.getInventory());
+            }
+        }
+        Assert.assertTrue(succeeded > 0);
+        Assert.assertTrue(succeeded <= 4);
+        // the leftovers of the failed vms are returned asynchronously
+        TimeUnit.SECONDS.sleep(2);
+        long memory = deployer.instanceOfferings.get("TestInstanceOffering").getMemorySize();
+        Assert.assertEquals(memoryBefore - succeeded * memory,
+                dbf.findByUuid(host3.getUuid(), HostCapacityVO.class).getAvailableMemory());
+        Assert.assertEquals(ipsBefore + succeeded, dbf.count(UsedIpVO.class));
+
+        msg = newMsg("cache", 2);
+        msg.setResourceUuid(Platform.getUuid());
+        boolean s = false;
+        try {
+            send(msg);
+        } catch (ApiSenderException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+
+        msg = newMsg("cache", 2);
+        msg.addSystemTag("hostname::cache");
+        s = false;
+        try {
+            send(msg);
+        } catch (ApiSenderException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+    }
+}
@@ -0,0 +1,102 @@
+package org.zstack.test.core.cloudbus;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zstack.core.cloudbus.EventPathTrie;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares routing a canonical event among 1000 subscribers by EventPathTrie and by matching
+ * the regex of every subscriber's path, as EventFacadeImpl did before.
+ *
+ * run it by the main method, it's not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventPathTrieBenchmark {
+    @Param({"1000"})
+    int subscriberNum;
+
+    EventPathTrie<String> trie;
+    List<String> regexes;
+    String[] paths;
+    int index;
+
+    private String toRegex(String path) {
+        StringBuilder sb = new StringBuilder("^");
+        for (char c : path.replaceAll("\\{.*\\}", "*").toCharArray()) {
+            if (c == '*') {
+                sb.append(".*");
+            } else if (c == '?') {
+                sb.append('.');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('$').toString();
+    }
+
+    @Setup
+    public void setUp() {
+        trie = new EventPathTrie<String>();
+        regexes = new ArrayList<String>();
+        List<String> ps = new ArrayList<String>();
+        for (int i = 0; i < subscriberNum / 4; i++) {
+            List<String> subscriptions = Arrays.asList(
+                    String.format("/globalConfig/update/category%s/name%s/{nodeUuid}", i % 10, i),
+                    "/vm/state/change",
+                    "/host/status/change",
+                    String.format("/primaryStorage/%s/status/{uuid}", i)
+            );
+
+            for (String s : subscriptions) {
+                trie.add(s, s);
+                regexes.add(toRegex(s));
+            }
+
+            ps.add(String.format("/globalConfig/update/category%s/name%s/%s", i % 10, i, UUID.randomUUID()));
+            ps.add(String.format("/primaryStorage/%s/status/%s", i, UUID.randomUUID()));
+        }
+        ps.add("/vm/state/change");
+        ps.add("/host/status/change");
+        paths = ps.toArray(new String[ps.size()]);
+    }
+
+    private String nextPath() {
+        index = (index + 1) % paths.length;
+        return paths[index];
+    }
+
+    @Benchmark
+    public List<EventPathTrie.Match<String>> trie() {
+        return trie.match(nextPath());
+    }
+
+    @Benchmark
+    public int regex() {
+        String path = nextPath();
+        int matched = 0;
+        for (String regex : regexes) {
+            if (path.matches(regex)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(EventPathTrieBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,141 @@
+package org.zstack.test.core.cloudbus;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.zstack.core.cloudbus.BinaryMessageCodec;
+import org.zstack.core.cloudbus.JsonMessageCodec;
+import org.zstack.header.message.Message;
+import org.zstack.header.message.NeedReplyMessage;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * compare the binary codec against the JSON codec, both for correctness and speed
+ */
+public class TestMessageCodec {
+    CLogger logger = Utils.getLogger(TestMessageCodec.class);
+
+    public enum Color {
+        Red,
+        Green
+    }
+
+    public static class Nested {
+        private String name;
+        private long size;
+    }
+
+    public static class CodecMsg extends NeedReplyMessage {
+        private String uuid;
+        private int count;
+        private Long total;
+        private boolean enabled;
+        private double ratio;
+        private Color color;
+        private List<String> names;
+        private Map<String, String> tags;
+        private Nested nested;
+        private String nullField;
+    }
+
+    private CodecMsg makeMessage() {
+        CodecMsg msg = new CodecMsg();
+        msg.uuid = UUID.randomUUID().toString().replace("-", "");
+        msg.count = 10;
+        msg.total = 1024L * 1024L * 1024L * 100L;
+        msg.enabled = true;
+        msg.ratio = 0.75;
+        msg.color = Color.Green;
+        msg.names = Arrays.asList("vm1", "vm2", "vm3");
+        msg.tags = new HashMap<String, String>();
+        msg.tags.put("hostname", "test");
+        msg.nested = new Nested();
+        msg.nested.name = "volume";
+        msg.nested.size = 1024;
+        msg.setServiceId("test.service");
+        msg.setTimeout(1000);
+        msg.putHeaderEntry("correlationId", msg.getId());
+        return msg;
+    }
+
+    @Test
+    public void test() throws IOException {
+        JsonMessageCodec json = new JsonMessageCodec();
+        List<Class<? extends Message>> classes = new ArrayList<Class<? extends Message>>();
+        classes.add(CodecMsg.class);
+        BinaryMessageCodec binary = new BinaryMessageCodec(json, classes);
+
+        CodecMsg msg = makeMessage();
+        Assert.assertTrue(binary.isSupported(msg));
+
+        byte[] bdata = binary.encode(msg);
+        byte[] jdata = json.encode(msg);
+        logger.debug(String.format("binary size: %s, json size: %s", bdata.length, jdata.length));
+
+        CodecMsg m = (CodecMsg) binary.decode(bdata);
+        Assert.assertEquals(msg.getId(), m.getId());
+        Assert.assertEquals(msg.getServiceId(), m.getServiceId());
+        Assert.assertEquals(msg.getCreatedTime(), m.getCreatedTime());
+        Assert.assertEquals(msg.getTimeout(), m.getTimeout());
+        Assert.assertEquals(msg.uuid, m.uuid);
+        Assert.assertEquals(msg.count, m.count);
+        Assert.assertEquals(msg.total, m.total);
+        Assert.assertEquals(msg.enabled, m.enabled);
+        Assert.assertEquals(msg.ratio, m.ratio);
+        Assert.assertEquals(msg.color, m.color);
+        Assert.assertEquals(msg.names, m.names);
+        Assert.assertEquals(msg.tags, m.tags);
+        Assert.assertEquals(msg.nested.name, m.nested.name);
+        Assert.assertEquals(msg.nested.size, m.nested.size);
+        Assert.assertNull(m.nullField);
+        Assert.assertEquals(msg.getId(), m.getHeaderEntry("correlationId"));
+
+        Map raw = binary.toRawObject(bdata);
+        Assert.assertEquals(msg.uuid, raw.get("uuid"));
+        Assert.assertEquals("volume", ((Map) raw.get("nested")).get("name"));
+
+        // only the id and headers are read to reply an error to a message failing to decode
+        m = (CodecMsg) binary.decodeForReply(bdata);
+        Assert.assertEquals(msg.getId(), m.getId());
+        Assert.assertEquals(msg.getId(), m.getHeaderEntry("correlationId"));
+        Assert.assertNull(m.uuid);
+        Assert.assertNull(binary.decodeForReply(Arrays.copyOf(bdata, 3)));
+
+        byte[] broken = new String(jdata).replace("\"count\":10", "\"count\":\"ten\"").getBytes();
+        try {
+            json.decode(broken);
+            Assert.fail("the broken message should fail to decode");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        m = (CodecMsg) json.decodeForReply(broken);
+        Assert.assertEquals(msg.getId(), m.getId());
+        Assert.assertEquals(msg.getId(), m.getHeaderEntry("correlationId"));
+        Assert.assertNull(json.decodeForReply("not a message".getBytes()));
+
+        int times = Integer.valueOf(System.getProperty("times", "100000"));
+        // warm up
+        for (int i = 0; i < times / 10; i++) {
+            json.decode(json.encode(msg));
+            binary.decode(binary.encode(msg));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            json.decode(json.encode(msg));
+        }
+        long jsonCost = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < times; i++) {
+            binary.decode(binary.encode(msg));
+        }
+        long binaryCost = System.nanoTime() - start;
+
+        logger.debug(String.format("encode/decode %s messages, json codec: %sms, binary codec: %sms",
+                times, jsonCost / 1000000, binaryCost / 1000000));
+    }
+}
@@ -0,0 +1,59 @@
+package org.zstack.test.core.config;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.test.BeanConstructor;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+/**
+ * the typed values of a global config are parsed once and refreshed by updateValue()
+ */
+public class TestGlobalConfigTypedValue {
+    CLogger logger = Utils.getLogger(TestGlobalConfigTypedValue.class);
+    ComponentLoader loader;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        loader = con.addXml("PortalForUnitTest.xml").build();
+    }
+
+    @Test
+    public void test() {
+        Assert.assertEquals(1000, GlobalConfigForTest.TEST.intValue());
+        Assert.assertEquals(1000L, GlobalConfigForTest.TEST.longValue());
+        Assert.assertEquals(1000d, GlobalConfigForTest.TEST.doubleValue(), 0);
+        Assert.assertEquals(Integer.valueOf(1000), GlobalConfigForTest.TEST.value(Integer.class));
+        // parsed once, the same object is returned every time
+        Assert.assertSame(GlobalConfigForTest.TEST.value(Long.class), GlobalConfigForTest.TEST.value(Long.class));
+
+        GlobalConfigForTest.TEST.updateValue(1200);
+        Assert.assertEquals(1200, GlobalConfigForTest.TEST.intValue());
+        Assert.assertEquals(Long.valueOf(1200), GlobalConfigForTest.TEST.value(Long.class));
+        Assert.assertEquals("1200", GlobalConfigForTest.TEST.value());
+
+        Assert.assertEquals("hello", GlobalConfigForTest.TEST4.value(String.class));
+        Assert.assertFalse(GlobalConfigForTest.TEST4.booleanValue());
+        boolean s = false;
+        try {
+            GlobalConfigForTest.TEST4.intValue();
+        } catch (NumberFormatException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+
+        s = false;
+        try {
+            GlobalConfigForTest.TEST4.value(Integer.class);
+        } catch (NumberFormatException e) {
+            s = true;
+        }
+        Assert.assertTrue(s);
+    }
+}
@@ -0,0 +1,157 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.cloudbus.ResourceDestinationMakerImpl;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DbGlobalProperty;
+import org.zstack.core.db.GLock;
+import org.zstack.core.db.GLockConstant;
+import org.zstack.core.thread.Task;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GLock served by the in-memory lock owner of this management node
+ * <p>
+ * 1. take the lock in 4 threads 3000 times each
+ * <p>
+ * confirm the lock is exclusive and the fencing token increases
+ * <p>
+ * 2. take the lock while it's held
+ * <p>
+ * confirm it times out
+ * <p>
+ * 3. hold the lock longer than the lease timeout
+ * <p>
+ * confirm the lease is renewed, another acquirer times out and unlock succeeds
+ * <p>
+ * 4. take the lock in a thread of the thread pool
+ * <p>
+ * confirm it's refused
+ */
+public class TestDistributedGlobalLock {
+    ComponentLoader loader;
+    CLogger logger = Utils.getLogger(TestDistributedGlobalLock.class);
+    String lockName = "TestDistributedGlobalLock.lock";
+    int num = 3000;
+    int threadNum = 4;
+    CountDownLatch latch = new CountDownLatch(threadNum);
+    AtomicInteger inCriticalSection = new AtomicInteger(0);
+    volatile boolean mutualExclusionBroken = false;
+    volatile long lastToken = 0;
+    volatile boolean tokenNotIncreased = false;
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        DbGlobalProperty.GLOCK_SERVICE = GLockConstant.DISTRIBUTED_LOCK_SERVICE;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        ResourceDestinationMakerImpl destMaker = (ResourceDestinationMakerImpl) loader.getComponent(ResourceDestinationMaker.class);
+        destMaker.nodeJoin(Platform.getManagementServerId());
+    }
+
+    void lock() {
+        for (int i = 0; i < num; i++) {
+            GLock lock = new GLock(lockName, 10);
+            lock.lock();
+            try {
+                if (inCriticalSection.incrementAndGet() != 1) {
+                    mutualExclusionBroken = true;
+                }
+
+                if (lock.getFencingToken() <= lastToken) {
+                    tokenNotIncreased = true;
+                }
+                lastToken = lock.getFencingToken();
+
+                inCriticalSection.decrementAndGet();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        latch.countDown();
+    }
+
+    @Test
+    public void test() throws InterruptedException, ExecutionException {
+        for (int i = 0; i < threadNum; i++) {
+            new Thread(this::lock).start();
+        }
+
+        Assert.assertTrue(latch.await(60, TimeUnit.SECONDS));
+        Assert.assertFalse(mutualExclusionBroken);
+        Assert.assertFalse(tokenNotIncreased);
+
+        GLock lock = new GLock(lockName, 10);
+        lock.lock();
+        boolean timeout = false;
+        try {
+            GLock lock1 = new GLock(lockName, 1);
+            lock1.lock();
+        } catch (CloudRuntimeException e) {
+            logger.debug(e.getMessage());
+            timeout = true;
+        } finally {
+            lock.unlock();
+        }
+        Assert.assertTrue(timeout);
+
+        DbGlobalProperty.GLOCK_LEASE_TIMEOUT = 3;
+        lock = new GLock(lockName, 10);
+        lock.lock();
+        try {
+            TimeUnit.SECONDS.sleep(5);
+            GLock lock1 = new GLock(lockName, 1);
+            lock1.lock();
+            Assert.fail("the lease should have been renewed");
+        } catch (CloudRuntimeException e) {
+            logger.debug(e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+
+        ThreadFacade thdf = loader.getComponent(ThreadFacade.class);
+        Future<Boolean> refused = thdf.submit(new Task<Boolean>() {
+            @Override
+            public String getName() {
+                return "lock-in-the-pool";
+            }
+
+            @Override
+            public Boolean call() {
+                try {
+                    new GLock(lockName, 1).lock();
+                    return false;
+                } catch (CloudRuntimeException e) {
+                    logger.debug(e.getMessage());
+                    return true;
+                }
+            }
+        });
+        Assert.assertTrue(refused.get());
+    }
+
+    @After
+    public void tearDown() {
+        DbGlobalProperty.GLOCK_SERVICE = GLockConstant.MYSQL_LOCK_SERVICE;
+        DbGlobalProperty.GLOCK_LEASE_TIMEOUT = 600;
+    }
+}
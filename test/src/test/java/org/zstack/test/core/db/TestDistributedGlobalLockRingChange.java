@@ -0,0 +1,153 @@
+package org.zstack.test.core.db;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBusIN;
+import org.zstack.core.cloudbus.ResourceDestinationMaker;
+import org.zstack.core.cloudbus.ResourceDestinationMakerImpl;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.*;
+import org.zstack.header.exception.CloudRuntimeException;
+import org.zstack.header.message.MessageReply;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. take a lock served by this management node
+ * 2. a management node joins the hash ring and the lock is mapped to it
+ * <p>
+ * confirm a second acquirer is refused while the lock is held
+ * confirm this node keeps serving the lock, a waiter gets it after it's released
+ * <p>
+ * 3. the joined node says another lock mapped to us is still served by it
+ * <p>
+ * confirm an acquirer of that lock is refused as the serving node can't be reached
+ * <p>
+ * 4. this node joins the ring again
+ * <p>
+ * confirm no lock is granted until the other node hands off its locks
+ * <p>
+ * 5. the other node leaves
+ * <p>
+ * confirm the lock it served can be acquired
+ */
+public class TestDistributedGlobalLockRingChange {
+    ComponentLoader loader;
+    CLogger logger = Utils.getLogger(TestDistributedGlobalLockRingChange.class);
+    CloudBusIN bus;
+    ResourceDestinationMakerImpl destMaker;
+    GLockServiceImpl lockService;
+    String otherNodeUuid = Platform.getUuid();
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        DbGlobalProperty.GLOCK_SERVICE = GLockConstant.DISTRIBUTED_LOCK_SERVICE;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        bus = loader.getComponent(CloudBusIN.class);
+        destMaker = (ResourceDestinationMakerImpl) loader.getComponent(ResourceDestinationMaker.class);
+        destMaker.nodeJoin(Platform.getManagementServerId());
+        lockService = (GLockServiceImpl) loader.getComponent(GLockService.class);
+        bus.registerService(lockService);
+        bus.activeService(lockService);
+    }
+
+    // a lock name mapped to the node when both nodes are in the ring
+    private String findLockName(String prefix, String nodeUuid) {
+        destMaker.nodeJoin(otherNodeUuid);
+        try {
+            for (int i = 0; ; i++) {
+                String name = String.format("TestDistributedGlobalLockRingChange.%s-%s", prefix, i);
+                if (nodeUuid.equals(destMaker.makeDestination(name))) {
+                    return name;
+                }
+            }
+        } finally {
+            destMaker.nodeLeft(otherNodeUuid);
+        }
+    }
+
+    private boolean isRefused(String name, long timeout) {
+        GLock lock = new GLock(name, timeout);
+        try {
+            lock.lock();
+        } catch (CloudRuntimeException e) {
+            logger.debug(e.getMessage());
+            return true;
+        }
+
+        lock.unlock();
+        return false;
+    }
+
+    private void handOff(String name) {
+        HandOffGLockMsg msg = new HandOffGLockMsg();
+        msg.setFromNodeUuid(otherNodeUuid);
+        if (name != null) {
+            msg.getServingNodeUuids().put(name, otherNodeUuid);
+        }
+        bus.makeLocalServiceId(msg, GLockConstant.SERVICE_ID);
+        MessageReply reply = bus.call(msg);
+        Assert.assertTrue(reply.isSuccess());
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        String movedName = findLockName("moved", otherNodeUuid);
+        String fencedName = findLockName("fenced", Platform.getManagementServerId());
+        String freeName = findLockName("free", Platform.getManagementServerId());
+
+        GLock lock = new GLock(movedName, 10);
+        lock.lock();
+        long token = lock.getFencingToken();
+
+        destMaker.nodeJoin(otherNodeUuid);
+        lockService.nodeJoin(otherNodeUuid);
+        Assert.assertEquals(otherNodeUuid, destMaker.makeDestination(movedName));
+
+        Assert.assertTrue(isRefused(movedName, 1));
+
+        CountDownLatch latch = new CountDownLatch(1);
+        long[] waiterToken = new long[1];
+        new Thread(() -> {
+            GLock lock1 = new GLock(movedName, 10);
+            lock1.lock();
+            waiterToken[0] = lock1.getFencingToken();
+            lock1.unlock();
+            latch.countDown();
+        }).start();
+
+        Assert.assertFalse(latch.await(1, TimeUnit.SECONDS));
+        lock.unlock();
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(waiterToken[0] > token);
+
+        Assert.assertFalse(isRefused(fencedName, 1));
+        handOff(fencedName);
+        Assert.assertTrue(isRefused(fencedName, 1));
+
+        lockService.iJoin(Platform.getManagementServerId());
+        Assert.assertTrue(isRefused(freeName, 1));
+        handOff(null);
+        Assert.assertFalse(isRefused(freeName, 1));
+
+        destMaker.nodeLeft(otherNodeUuid);
+        lockService.nodeLeft(otherNodeUuid);
+        Assert.assertFalse(isRefused(fencedName, 1));
+    }
+
+    @After
+    public void tearDown() {
+        DbGlobalProperty.GLOCK_SERVICE = GLockConstant.MYSQL_LOCK_SERVICE;
+    }
+}
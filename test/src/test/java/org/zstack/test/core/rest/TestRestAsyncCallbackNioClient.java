@@ -0,0 +1,109 @@
+package org.zstack.test.core.rest;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.errorcode.ErrorCode;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.rest.HttpCallStatistic;
+import org.zstack.header.rest.JsonAsyncRESTCallback;
+import org.zstack.header.rest.RESTFacade;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. turn on the nio http client and the http call profiler
+ * 2. make 100 async calls at once
+ * <p>
+ * confirm all of them are called back and counted by the profiler
+ * <p>
+ * 3. make an async call never called back and one failing
+ * <p>
+ * confirm they fail by timeout and http error
+ * <p>
+ * 4. make a sync call
+ * <p>
+ * confirm it succeeds
+ */
+public class TestRestAsyncCallbackNioClient {
+    CLogger logger = Utils.getLogger(TestRestAsyncCallbackNioClient.class);
+    WebBeanConstructor wbean;
+    ComponentLoader loader;
+    RESTFacade restf;
+    int callNum = 100;
+
+    @Before
+    public void setUp() throws Exception {
+        System.setProperty("RESTFacade.nioClient", "true");
+        System.setProperty("profiler.httpCall", "true");
+        wbean = new WebBeanConstructor();
+        wbean.addXml("PortalForUnitTest.xml").addXml("AccountManager.xml");
+        loader = wbean.build();
+        restf = loader.getComponent(RESTFacade.class);
+    }
+
+    private JsonAsyncRESTCallback<String> callback(final AtomicInteger successes, final AtomicInteger timeouts, final CountDownLatch latch) {
+        return new JsonAsyncRESTCallback<String>(null) {
+            @Override
+            public void fail(ErrorCode err) {
+                logger.debug(String.format("fail: %s", err));
+                if (SysErrors.TIMEOUT.toString().equals(err.getCode())) {
+                    timeouts.incrementAndGet();
+                }
+                latch.countDown();
+            }
+
+            @Override
+            public void success(String ret) {
+                successes.incrementAndGet();
+                latch.countDown();
+            }
+
+            @Override
+            public Class<String> getReturnClass() {
+                return String.class;
+            }
+        };
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        String url = wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_PATH);
+        AtomicInteger successes = new AtomicInteger(0);
+        AtomicInteger timeouts = new AtomicInteger(0);
+        CountDownLatch latch = new CountDownLatch(callNum);
+        for (int i = 0; i < callNum; i++) {
+            restf.asyncJsonPost(url, "hello", callback(successes, timeouts, latch), TimeUnit.SECONDS, 30);
+        }
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        Assert.assertEquals(callNum, successes.get());
+
+        HttpCallStatistic stat = restf.getStatistics().get(url);
+        Assert.assertNotNull(stat);
+        Assert.assertEquals(callNum, stat.getCount());
+
+        successes.set(0);
+        latch = new CountDownLatch(2);
+        restf.asyncJsonPost(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_TIMEOUT_PATH), "hello",
+                callback(successes, timeouts, latch), TimeUnit.SECONDS, 2);
+        restf.asyncJsonPost(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_FAIL_PATH), "hello",
+                callback(successes, timeouts, latch), TimeUnit.SECONDS, 30);
+        Assert.assertTrue(latch.await(1, TimeUnit.MINUTES));
+        Assert.assertEquals(0, successes.get());
+        Assert.assertEquals(1, timeouts.get());
+
+        restf.syncJsonPost(wbean.buildUrl(RESTBeanForTest.ROOT, RESTBeanForTest.CALLBACK_TIMEOUT_PATH), "hello", String.class);
+    }
+
+    @After
+    public void tearDown() {
+        wbean.stopJetty();
+    }
+}
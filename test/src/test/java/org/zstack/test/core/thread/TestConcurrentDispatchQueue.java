@@ -0,0 +1,143 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * chain tasks and sync tasks running on ConcurrentDispatchQueueImpl keep
+ * the order and the sync level of each signature
+ */
+public class TestConcurrentDispatchQueue {
+    CLogger logger = Utils.getLogger(TestConcurrentDispatchQueue.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int signatureNum = 50;
+    int taskNum = 200;
+    int syncLevel = 2;
+    CountDownLatch latch = new CountDownLatch(signatureNum * taskNum * 2);
+    Map<String, List<Integer>> results = Collections.synchronizedMap(new HashMap<String, List<Integer>>());
+    Map<String, AtomicInteger> running = new HashMap<String, AtomicInteger>();
+    volatile boolean exceedSyncLevel = false;
+
+    class Tester extends ChainTask {
+        int index;
+        String signature;
+
+        Tester(String signature, int index) {
+            super(null);
+            this.signature = signature;
+            this.index = index;
+        }
+
+        @Override
+        public String getName() {
+            return "Test";
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        public void run(SyncTaskChain chain) {
+            results.get(signature).add(index);
+            latch.countDown();
+            chain.next();
+        }
+    }
+
+    class LevelTester implements SyncTask<Void> {
+        String signature;
+
+        LevelTester(String signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            if (running.get(signature).incrementAndGet() > syncLevel) {
+                exceedSyncLevel = true;
+            }
+            TimeUnit.MILLISECONDS.sleep(1);
+            running.get(signature).decrementAndGet();
+            latch.countDown();
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return "LevelTest";
+        }
+
+        @Override
+        public String getSyncSignature() {
+            return signature;
+        }
+
+        @Override
+        public int getSyncLevel() {
+            return syncLevel;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        ThreadGlobalProperty.CONCURRENT_DISPATCH_QUEUE = true;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+
+        for (int i = 0; i < signatureNum; i++) {
+            results.put("chain-" + i, Collections.synchronizedList(new ArrayList<Integer>()));
+            running.put("sync-" + i, new AtomicInteger(0));
+        }
+    }
+
+    @AsyncThread
+    private void feed(String signature) {
+        for (int i = 0; i < taskNum; i++) {
+            thdf.chainSubmit(new Tester(signature, i));
+            thdf.syncSubmit(new LevelTester(signature.replace("chain", "sync")));
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        for (String signature : results.keySet()) {
+            feed(signature);
+        }
+
+        Assert.assertTrue(latch.await(2, TimeUnit.MINUTES));
+        Assert.assertFalse(exceedSyncLevel);
+
+        for (List<Integer> res : results.values()) {
+            Assert.assertEquals(taskNum, res.size());
+            for (int i = 0; i < taskNum; i++) {
+                Assert.assertEquals(i, res.get(i).intValue());
+            }
+        }
+
+        TimeUnit.SECONDS.sleep(1);
+        // all signatures are retired after the tasks complete
+        Assert.assertTrue(((ThreadFacadeMXBean) thdf).getChainTaskStatistics().isEmpty());
+        Assert.assertTrue(((ThreadFacadeMXBean) thdf).getSyncTaskStatistics().isEmpty());
+
+        ThreadGlobalProperty.CONCURRENT_DISPATCH_QUEUE = false;
+    }
+}
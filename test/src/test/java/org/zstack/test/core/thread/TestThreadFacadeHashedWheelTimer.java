@@ -0,0 +1,88 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.test.BeanConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 1. submit 1000 timeout tasks to the hashed wheel timer
+ * 2. cancel half of them
+ * <p>
+ * confirm only the not cancelled ones run, and not earlier than their delay
+ * confirm the pending and expired counts are reported by ThreadFacadeMXBean
+ * <p>
+ * 3. cancel an expired task
+ * <p>
+ * confirm the cancel returns false
+ */
+public class TestThreadFacadeHashedWheelTimer {
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 1000;
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        ThreadGlobalProperty.HASHED_WHEEL_TIMER = true;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        ThreadGlobalProperty.HASHED_WHEEL_TIMER = false;
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        AtomicInteger count = new AtomicInteger(0);
+        AtomicInteger early = new AtomicInteger(0);
+        CountDownLatch latch = new CountDownLatch(taskNum / 2);
+        List<TimeoutTaskReceipt> receipts = new ArrayList<TimeoutTaskReceipt>();
+
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < taskNum; i++) {
+            receipts.add(thdf.submitTimeoutTask(() -> {
+                if (System.currentTimeMillis() - start < 1000) {
+                    early.incrementAndGet();
+                }
+                count.incrementAndGet();
+                latch.countDown();
+            }, TimeUnit.SECONDS, 1));
+        }
+
+        for (int i = 0; i < taskNum; i += 2) {
+            Assert.assertTrue(receipts.get(i).cancel());
+        }
+
+        TimeoutTaskStatistic statistic = ((ThreadFacadeMXBean) thdf).getTimeoutTaskStatistic();
+        Assert.assertTrue(statistic.isHashedWheelTimer());
+        Assert.assertEquals(taskNum / 2, statistic.getPendingTaskNum());
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(taskNum / 2, count.get());
+        Assert.assertEquals(0, early.get());
+
+        statistic = ((ThreadFacadeMXBean) thdf).getTimeoutTaskStatistic();
+        Assert.assertEquals(0, statistic.getPendingTaskNum());
+        Assert.assertEquals(taskNum / 2, statistic.getExpiredTaskNum());
+
+        Assert.assertFalse(receipts.get(1).cancel());
+    }
+}
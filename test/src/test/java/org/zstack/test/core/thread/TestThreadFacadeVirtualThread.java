@@ -0,0 +1,88 @@
+package org.zstack.test.core.thread;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.thread.*;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * submit more blocking tasks than ThreadFacade.maxThreadNum, they all complete
+ * in about one sleep when running in virtual threads
+ */
+public class TestThreadFacadeVirtualThread {
+    private static final CLogger logger = Utils.getLogger(TestThreadFacadeVirtualThread.class);
+    ComponentLoader loader;
+    ThreadFacade thdf;
+    int taskNum = 1000;
+
+    class Tester implements Task<Integer> {
+        int index;
+
+        Tester(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            TimeUnit.MILLISECONDS.sleep(500);
+            return index;
+        }
+
+        @Override
+        public String getName() {
+            return "Tester";
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        ThreadGlobalProperty.VIRTUAL_THREAD = true;
+
+        BeanConstructor con = new BeanConstructor();
+        loader = con.build();
+        thdf = loader.getComponent(ThreadFacade.class);
+    }
+
+    @Test
+    public void test() throws InterruptedException, ExecutionException {
+        VirtualThreadStatistic statistic = ((ThreadFacadeMXBean) thdf).getVirtualThreadStatistic();
+        if (!statistic.isEnabled()) {
+            logger.info(String.format("virtual threads are not supported by JVM[%s], skip the test", System.getProperty("java.version")));
+            ThreadGlobalProperty.VIRTUAL_THREAD = false;
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < taskNum; i++) {
+            futures.add(thdf.submit(new Tester(i)));
+        }
+
+        for (int i = 0; i < taskNum; i++) {
+            Assert.assertEquals(i, futures.get(i).get().intValue());
+        }
+
+        long cost = System.currentTimeMillis() - start;
+        logger.info(String.format("%s blocking tasks cost %sms", taskNum, cost));
+        Assert.assertTrue(cost < TimeUnit.SECONDS.toMillis(10));
+
+        statistic = ((ThreadFacadeMXBean) thdf).getVirtualThreadStatistic();
+        Assert.assertTrue(statistic.getSubmittedTaskNum() >= taskNum);
+        Assert.assertTrue(statistic.getCompletedTaskNum() >= taskNum);
+
+        ThreadGlobalProperty.VIRTUAL_THREAD = false;
+    }
+}
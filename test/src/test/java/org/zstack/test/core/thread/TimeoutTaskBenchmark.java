@@ -0,0 +1,72 @@
+package org.zstack.test.core.thread;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zstack.core.thread.HashedWheelTimer;
+import org.zstack.core.thread.ThreadFacadeImpl.TimeoutTaskReceipt;
+import org.zstack.core.thread.TimerPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares TimerPool and HashedWheelTimer on the common path of timeout tasks: a task is scheduled
+ * and cancelled before it expires, e.g. the timeout of an http call answered in time.
+ *
+ * run it by the main method, it's not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TimeoutTaskBenchmark {
+    // timeout tasks pending in the timers while measuring, as in a busy management node
+    @Param({"0", "100000"})
+    int pendingTaskNum;
+
+    TimerPool timerPool;
+    HashedWheelTimer wheelTimer;
+
+    private static final Runnable NOOP = () -> {};
+
+    @Setup
+    public void setUp() {
+        timerPool = new TimerPool(5);
+        wheelTimer = new HashedWheelTimer("benchmark-timer", 10, TimeUnit.MILLISECONDS, 4096, Runnable::run);
+        for (int i = 0; i < pendingTaskNum; i++) {
+            timerPool.submitTimeoutTask(NOOP, TimeUnit.HOURS, 1);
+            wheelTimer.newTimeout(NOOP, TimeUnit.HOURS, 1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        timerPool.stop();
+        wheelTimer.stop();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean timerPool() {
+        TimeoutTaskReceipt receipt = timerPool.submitTimeoutTask(NOOP, TimeUnit.SECONDS, 30);
+        return receipt.cancel();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean hashedWheelTimer() {
+        TimeoutTaskReceipt receipt = wheelTimer.newTimeout(NOOP, TimeUnit.SECONDS, 30);
+        return receipt.cancel();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(TimeoutTaskBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,137 @@
+package org.zstack.test.identity;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.identity.*;
+import org.zstack.header.identity.AccountConstant.StatementEffect;
+import org.zstack.header.identity.PolicyInventory.Statement;
+import org.zstack.header.vm.*;
+import org.zstack.identity.AccountManager;
+import org.zstack.identity.IdentityGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. allow a user to create VMs by a user policy and to start VMs by a group policy
+ * 2. remove the policy reference behind the manager's back
+ * <p>
+ * confirm the cached decision is used until the cache is invalidated
+ * <p>
+ * 3. detach the user policy, remove the user from the group, delete a policy
+ * <p>
+ * confirm every change is seen by the next check
+ */
+public class TestPermissionCache {
+    CLogger logger = Utils.getLogger(TestPermissionCache.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    AccountManager acntMgr;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        IdentityGlobalProperty.PERMISSION_CACHE = true;
+        deployer = new Deployer("deployerXml/vm/TestPolicyForVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        acntMgr = loader.getComponent(AccountManager.class);
+    }
+
+    private String action(Class apiClass) {
+        return String.format("%s:%s", VmInstanceConstant.ACTION_CATEGORY, apiClass.getName());
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        IdentityCreator identityCreator = new IdentityCreator(api);
+        identityCreator.useAccount("test");
+        UserInventory user = identityCreator.createUser("user", "password");
+
+        Statement s = new Statement();
+        s.setName("allow");
+        s.setEffect(StatementEffect.Allow);
+        s.addAction(action(APICreateVmInstanceMsg.class));
+        s.addAction(action(APIDestroyVmInstanceMsg.class));
+        PolicyInventory allow = identityCreator.createPolicy("allow", s);
+        identityCreator.attachPolicyToUser("user", "allow");
+
+        identityCreator.createGroup("group");
+        identityCreator.addUserToGroup("user", "group");
+        s = new Statement();
+        s.setName("group-allow");
+        s.setEffect(StatementEffect.Allow);
+        s.addAction(action(APIStartVmInstanceMsg.class));
+        identityCreator.createPolicy("group-allow", s);
+        identityCreator.attachPolicyToGroup("group", "group-allow");
+
+        SessionInventory session = identityCreator.userLogin(user.getName(), "password");
+        List<String> apiNames = list(APICreateVmInstanceMsg.class.getName(), APIDestroyVmInstanceMsg.class.getName(),
+                APIStartVmInstanceMsg.class.getName());
+
+        Map<String, String> ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APICreateVmInstanceMsg.class.getName()));
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APIDestroyVmInstanceMsg.class.getName()));
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APIStartVmInstanceMsg.class.getName()));
+
+        // the decisions are cached, a change not going through the identity APIs is not seen
+        SimpleQuery<UserPolicyRefVO> q = dbf.createQuery(UserPolicyRefVO.class);
+        q.add(UserPolicyRefVO_.userUuid, Op.EQ, user.getUuid());
+        q.add(UserPolicyRefVO_.policyUuid, Op.EQ, allow.getUuid());
+        UserPolicyRefVO ref = q.find();
+        dbf.remove(ref);
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APICreateVmInstanceMsg.class.getName()));
+
+        acntMgr.invalidatePermissionCache(list(user.getUuid()));
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Deny.toString(), ret.get(APICreateVmInstanceMsg.class.getName()));
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APIStartVmInstanceMsg.class.getName()));
+
+        identityCreator.attachPolicyToUser("user", "allow");
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APICreateVmInstanceMsg.class.getName()));
+
+        identityCreator.detachPolicyFromUser("user", "allow");
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Deny.toString(), ret.get(APICreateVmInstanceMsg.class.getName()));
+        Assert.assertEquals(StatementEffect.Deny.toString(), ret.get(APIDestroyVmInstanceMsg.class.getName()));
+
+        identityCreator.removeUserFromGroup("user", "group");
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Deny.toString(), ret.get(APIStartVmInstanceMsg.class.getName()));
+
+        identityCreator.addUserToGroup("user", "group");
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Allow.toString(), ret.get(APIStartVmInstanceMsg.class.getName()));
+
+        identityCreator.deletePolicy("group-allow");
+        ret = api.checkUserPolicy(apiNames, null, session);
+        Assert.assertEquals(StatementEffect.Deny.toString(), ret.get(APIStartVmInstanceMsg.class.getName()));
+
+        identityCreator.attachPolicyToUser("user", "allow");
+        int times = 1000;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < times; i++) {
+            api.checkUserPolicy(apiNames, null, session);
+        }
+        logger.debug(String.format("checked permissions %s times in %sms", times, System.currentTimeMillis() - start));
+    }
+}
@@ -0,0 +1,115 @@
+package org.zstack.test.ldap;
+
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPInterface;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.identity.SessionInventory;
+import org.zstack.ldap.*;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSender;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+/**
+ * 1. add a ldap server, authenticate sclaus several times
+ * <p>
+ * confirm the right password is accepted every time and a wrong one is refused
+ * <p>
+ * 2. rename the entry of sclaus whose DN has been cached
+ * <p>
+ * confirm sclaus is still authenticated
+ * <p>
+ * 3. change the base DN of the ldap server by API, then change it back
+ * <p>
+ * confirm sclaus is refused with the wrong base DN and authenticated with the right one
+ * <p>
+ * 4. change the base DN in the database, as another management node does
+ * <p>
+ * confirm sclaus is refused
+ */
+public class TestLdapPooledAuthentication {
+    public static final String DOMAIN_DSN = "dc=example,dc=com";
+    @Rule
+    public EmbeddedLdapRule embeddedLdapRule = EmbeddedLdapRuleBuilder.newInstance().bindingToPort(1888).
+            usingDomainDsn(DOMAIN_DSN).importingLdifs("users-import.ldif").build();
+
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    SessionInventory session;
+    LdapManager ldapManager;
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        LdapGlobalProperty.POOLED = true;
+        LdapGlobalProperty.UID_DN_CACHE_TTL = 60;
+
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/ldap/TestLdap.xml");
+        deployer.addSpringConfig("LdapManagerImpl.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        ldapManager = loader.getComponent(LdapManager.class);
+        dbf = loader.getComponent(DatabaseFacade.class);
+        session = api.loginAsAdmin();
+    }
+
+    private void updateBase(String uuid, String base) throws ApiSenderException {
+        APIUpdateLdapServerMsg msg = new APIUpdateLdapServerMsg();
+        msg.setLdapServerUuid(uuid);
+        msg.setBase(base);
+        msg.setSession(session);
+        api.getApiSender().send(msg, APIUpdateLdapServerEvent.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException, LDAPException {
+        ApiSender sender = api.getApiSender();
+
+        APIAddLdapServerMsg msg = new APIAddLdapServerMsg();
+        msg.setName("ldap");
+        msg.setUrl("ldap://localhost:1888");
+        msg.setBase(DOMAIN_DSN);
+        msg.setUsername("");
+        msg.setPassword("");
+        msg.setEncryption("None");
+        msg.setSession(session);
+        APIAddLdapServerEvent evt = sender.send(msg, APIAddLdapServerEvent.class);
+        String uuid = evt.getInventory().getUuid();
+
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(ldapManager.isValid("sclaus", "password"));
+        }
+        Assert.assertFalse(ldapManager.isValid("sclaus", "wrong password"));
+        Assert.assertFalse(ldapManager.isValid("sclaus", ""));
+        Assert.assertFalse(ldapManager.isValid("not exist user", "password"));
+        Assert.assertTrue(ldapManager.isValid("sclaus", "password"));
+
+        LDAPInterface ldapConnection = embeddedLdapRule.ldapConnection();
+        ldapConnection.modifyDN("cn=Santa Claus,ou=Users," + DOMAIN_DSN, "cn=Father Christmas", true);
+        Assert.assertTrue(ldapManager.isValid("sclaus", "password"));
+
+        updateBase(uuid, "ou=Groups," + DOMAIN_DSN);
+        Assert.assertFalse(ldapManager.isValid("sclaus", "password"));
+        updateBase(uuid, DOMAIN_DSN);
+        Assert.assertTrue(ldapManager.isValid("sclaus", "password"));
+
+        LdapServerVO vo = dbf.findByUuid(uuid, LdapServerVO.class);
+        vo.setBase("ou=Groups," + DOMAIN_DSN);
+        dbf.update(vo);
+        Assert.assertFalse(ldapManager.isValid("sclaus", "password"));
+    }
+}
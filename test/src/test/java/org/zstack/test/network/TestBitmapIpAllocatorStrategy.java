@@ -0,0 +1,147 @@
+package org.zstack.test.network;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.cloudbus.CloudBus;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.header.network.l2.L2NetworkInventory;
+import org.zstack.header.network.l3.*;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.network.l3.IpRangeBitmap;
+import org.zstack.network.l3.L3NetworkGlobalProperty;
+import org.zstack.test.*;
+import org.zstack.utils.network.NetworkUtils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 1. allocate all ips of a range by the bitmap allocator
+ * 2. the range is full
+ * 3. return an ip, it's allocated again
+ * 4. delete an used ip behind the allocator's back, the allocator finds it after the rebuild interval
+ * 5. return an ip loaded when the bitmap is rebuilt, it's allocated again
+ * 6. delete an used ip behind the allocator's back within the rebuild interval
+ * 7. return an ip unknown to the allocator
+ *
+ * confirm the full range is not rebuilt within the interval
+ * <p>
+ * confirm the full range is rebuilt after an unknown ip is returned
+ */
+public class TestBitmapIpAllocatorStrategy {
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    CloudBus bus;
+    String startIp = "10.223.110.10";
+    String endIp = "10.223.110.209";
+    int ipNum = (int) (NetworkUtils.ipv4StringToLong(endIp) - NetworkUtils.ipv4StringToLong(startIp) + 1);
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        BeanConstructor con = new WebBeanConstructor();
+        /* This loads spring application context */
+        loader = con.addXml("PortalForUnitTest.xml").addXml("ZoneManager.xml").addXml("NetworkManager.xml").addXml("AccountManager.xml").build();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        bus = loader.getComponent(CloudBus.class);
+        api = new Api();
+        api.startServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        api.stopServer();
+        L3NetworkGlobalProperty.BITMAP_REBUILD_INTERVAL = 60;
+    }
+
+    private AllocateIpReply allocate(String l3Uuid) {
+        AllocateIpMsg msg = new AllocateIpMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        msg.setAllocateStrategy(L3NetworkConstant.BITMAP_IP_ALLOCATOR_STRATEGY);
+        return (AllocateIpReply) bus.call(msg);
+    }
+
+    private void returnIp(String l3Uuid, String usedIpUuid) {
+        ReturnIpMsg msg = new ReturnIpMsg();
+        msg.setL3NetworkUuid(l3Uuid);
+        msg.setUsedIpUuid(usedIpUuid);
+        msg.setServiceId(bus.makeLocalServiceId(L3NetworkConstant.SERVICE_ID));
+        bus.call(msg);
+    }
+
+    private void testBitmap() {
+        IpRangeBitmap bitmap = new IpRangeBitmap(0, 199);
+        for (int i = 0; i < 200; i++) {
+            Assert.assertEquals(i, bitmap.allocate(0));
+        }
+        Assert.assertEquals(-1, bitmap.allocate(0));
+
+        bitmap.clear(130);
+        bitmap.clear(5);
+        Assert.assertEquals(130, bitmap.allocate(100));
+        Assert.assertEquals(5, bitmap.allocate(100));
+        Assert.assertEquals(200, bitmap.getUsed());
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        testBitmap();
+
+        ZoneInventory zone = api.createZones(1).get(0);
+        L2NetworkInventory linv = api.createNoVlanL2Network(zone.getUuid(), "eth0");
+        L3NetworkInventory l3inv = api.createL3BasicNetwork(linv.getUuid());
+        api.addIpRange(l3inv.getUuid(), startIp, endIp, "10.223.110.1", "255.255.255.0");
+
+        Set<String> ips = new HashSet<String>();
+        UsedIpInventory first = null;
+        UsedIpInventory last = null;
+        for (int i = 0; i < ipNum; i++) {
+            AllocateIpReply reply = allocate(l3inv.getUuid());
+            Assert.assertTrue(reply.isSuccess());
+            last = reply.getIpInventory();
+            Assert.assertTrue(ips.add(last.getIp()));
+            if (first == null) {
+                first = last;
+            }
+        }
+
+        SimpleQuery<UsedIpVO> q = dbf.createQuery(UsedIpVO.class);
+        Assert.assertEquals(ipNum, q.count());
+        Assert.assertFalse(allocate(l3inv.getUuid()).isSuccess());
+
+        returnIp(l3inv.getUuid(), last.getUuid());
+
+        AllocateIpReply reply = allocate(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(last.getIp(), reply.getIpInventory().getIp());
+
+        // the bitmap doesn't know this one is free until it rebuilds the full range
+        dbf.removeByPrimaryKey(reply.getIpInventory().getUuid(), UsedIpVO.class);
+        L3NetworkGlobalProperty.BITMAP_REBUILD_INTERVAL = 0;
+        reply = allocate(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(last.getIp(), reply.getIpInventory().getIp());
+
+        returnIp(l3inv.getUuid(), first.getUuid());
+        reply = allocate(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(first.getIp(), reply.getIpInventory().getIp());
+
+        L3NetworkGlobalProperty.BITMAP_REBUILD_INTERVAL = 3600;
+        dbf.removeByPrimaryKey(reply.getIpInventory().getUuid(), UsedIpVO.class);
+        Assert.assertFalse(allocate(l3inv.getUuid()).isSuccess());
+
+        returnIp(l3inv.getUuid(), Platform.getUuid());
+        reply = allocate(l3inv.getUuid());
+        Assert.assertTrue(reply.isSuccess());
+        Assert.assertEquals(first.getIp(), reply.getIpInventory().getIp());
+        Assert.assertEquals(ipNum, q.count());
+    }
+}
@@ -0,0 +1,155 @@
+package org.zstack.test.portal;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zstack.header.configuration.APICreateInstanceOfferingMsg;
+import org.zstack.header.message.APIMessage;
+import org.zstack.header.message.APIParam;
+import org.zstack.header.network.l3.APIAddIpRangeMsg;
+import org.zstack.header.vm.APICreateVmInstanceMsg;
+import org.zstack.kvm.APIAddKVMHostMsg;
+import org.zstack.portal.apimediator.ApiParamValidator;
+import org.zstack.utils.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * compares validating API parameters by reflection on every call, as ApiMessageProcessorImpl did,
+ * with the ApiParamValidators built once for each message class.
+ *
+ * checks of APIParam.resourceType are left out, they go to the database either way.
+ *
+ * run it by the main method, it's not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ApiParamValidatorBenchmark {
+    List<APIMessage> msgs = new ArrayList<>();
+    Map<Class, Map<Field, APIParam>> fieldApiParams = new HashMap<>();
+    Map<Class, List<ApiParamValidator>> validators = new HashMap<>();
+
+    private static String uuid() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    @Setup
+    public void setUp() {
+        APICreateVmInstanceMsg cmsg = new APICreateVmInstanceMsg();
+        cmsg.setName(" vm ");
+        cmsg.setInstanceOfferingUuid(uuid());
+        cmsg.setImageUuid(uuid());
+        cmsg.setL3NetworkUuids(list(uuid(), uuid()));
+        cmsg.setDataDiskOfferingUuids(list(uuid()));
+        cmsg.setType("UserVm");
+        cmsg.setDescription("a vm for benchmark");
+        msgs.add(cmsg);
+
+        APIAddIpRangeMsg imsg = new APIAddIpRangeMsg();
+        imsg.setL3NetworkUuid(uuid());
+        imsg.setName("range");
+        imsg.setStartIp("10.0.0.10");
+        imsg.setEndIp("10.0.0.100");
+        imsg.setNetmask("255.255.255.0");
+        imsg.setGateway("10.0.0.1");
+        msgs.add(imsg);
+
+        APIAddKVMHostMsg kmsg = new APIAddKVMHostMsg();
+        kmsg.setName("host");
+        kmsg.setManagementIp("10.0.0.2");
+        kmsg.setClusterUuid(uuid());
+        kmsg.setUsername("root");
+        kmsg.setPassword("password");
+        kmsg.setSshPort(22);
+        msgs.add(kmsg);
+
+        APICreateInstanceOfferingMsg omsg = new APICreateInstanceOfferingMsg();
+        omsg.setName("offering");
+        omsg.setCpuNum(2);
+        omsg.setMemorySize(1073741824L);
+        msgs.add(omsg);
+
+        for (APIMessage msg : msgs) {
+            Map<Field, APIParam> params = new HashMap<>();
+            List<ApiParamValidator> vs = new ArrayList<>();
+            for (Field f : FieldUtils.getAllFields(msg.getClass())) {
+                APIParam at = f.getAnnotation(APIParam.class);
+                if (at != null) {
+                    params.put(f, at);
+                    vs.add(new ApiParamValidator(f, at));
+                }
+            }
+            fieldApiParams.put(msg.getClass(), params);
+            validators.put(msg.getClass(), vs);
+        }
+    }
+
+    @Benchmark
+    public void reflection(Blackhole bh) throws IllegalAccessException {
+        for (APIMessage msg : msgs) {
+            for (Map.Entry<Field, APIParam> fp : fieldApiParams.get(msg.getClass()).entrySet()) {
+                Field f = fp.getKey();
+                APIParam at = fp.getValue();
+
+                f.setAccessible(true);
+                Object value = f.get(msg);
+                if (value != null && (value instanceof String) && !at.noTrim()) {
+                    value = ((String) value).trim();
+                }
+
+                if (value != null && at.maxLength() != Integer.MIN_VALUE && (value instanceof String)) {
+                    bh.consume(((String) value).length() > at.maxLength());
+                }
+                if (value != null && at.minLength() != 0 && (value instanceof String)) {
+                    bh.consume(((String) value).length() < at.minLength());
+                }
+                bh.consume(at.required() && value == null);
+                if (value != null && at.validValues().length > 0) {
+                    List vals = Arrays.asList(at.validValues());
+                    bh.consume(vals.contains(value.toString()));
+                }
+                if (value != null && at.validRegexValues() != null && !at.validRegexValues().trim().equals("")) {
+                    bh.consume(Pattern.compile(at.validRegexValues().trim()).matcher(value.toString()).matches());
+                }
+                if (value != null && !at.nullElements() && value instanceof Collection) {
+                    bh.consume(((Collection) value).contains(null));
+                }
+                if (value != null && at.numberRange().length > 0 && value instanceof Number) {
+                    long val = ((Number) value).longValue();
+                    bh.consume(val < at.numberRange()[0] || val > at.numberRange()[1]);
+                }
+                bh.consume(at.resourceType() != Object.class);
+            }
+        }
+    }
+
+    @Benchmark
+    public void validator(Blackhole bh) {
+        for (APIMessage msg : msgs) {
+            for (ApiParamValidator v : validators.get(msg.getClass())) {
+                Object value = v.getValue(msg);
+                v.validate(msg, value);
+                bh.consume(v.getResourceType() != Object.class);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ApiParamValidatorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
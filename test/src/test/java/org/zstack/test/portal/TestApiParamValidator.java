@@ -0,0 +1,129 @@
+package org.zstack.test.portal;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.header.apimediator.ApiMessageInterceptionException;
+import org.zstack.header.errorcode.SysErrors;
+import org.zstack.header.message.APIParam;
+import org.zstack.portal.apimediator.ApiParamValidator;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. validate a message with valid fields
+ * <p>
+ * confirm no error, and a string field is trimmed unless noTrim is set
+ * <p>
+ * 2. validate messages with each kind of invalid field
+ * <p>
+ * confirm the errors are INVALID_ARGUMENT_ERROR with the same details as before
+ */
+public class TestApiParamValidator {
+    List<ApiParamValidator> validators = new ArrayList<>();
+
+    // not an APIMessage, or it would be picked up by scanners of API classes
+    public static class APITestMsg {
+        @APIParam(maxLength = 8)
+        private String name;
+        @APIParam(required = false, noTrim = true)
+        private String password;
+        @APIParam(required = false, validValues = {"a", "b"})
+        private String type;
+        @APIParam(required = false, validRegexValues = "[0-9]+")
+        private String digits;
+        @APIParam(required = false, nonempty = true)
+        private List<String> uuids;
+        @APIParam(required = false, numberRange = {1, 10})
+        private Integer num;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        new BeanConstructor().build();
+        for (Field f : FieldUtils.getAllFields(APITestMsg.class)) {
+            APIParam at = f.getAnnotation(APIParam.class);
+            if (at != null) {
+                validators.add(new ApiParamValidator(f, at));
+            }
+        }
+    }
+
+    private String validate(APITestMsg msg) {
+        try {
+            for (ApiParamValidator v : validators) {
+                v.validate(msg, v.getValue(msg));
+            }
+            return null;
+        } catch (ApiMessageInterceptionException e) {
+            Assert.assertEquals(SysErrors.INVALID_ARGUMENT_ERROR.toString(), e.getError().getCode());
+            return e.getError().getDetails();
+        }
+    }
+
+    private APITestMsg validMsg() {
+        APITestMsg msg = new APITestMsg();
+        msg.name = " name ";
+        msg.password = " pw ";
+        msg.type = "a";
+        msg.digits = "123";
+        msg.uuids = list("uuid");
+        msg.num = 5;
+        return msg;
+    }
+
+    private Object getValue(APITestMsg msg, String fieldName) {
+        for (ApiParamValidator v : validators) {
+            if (v.getField().getName().equals(fieldName)) {
+                return v.getValue(msg);
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void test() {
+        APITestMsg msg = validMsg();
+        Assert.assertNull(validate(msg));
+        Assert.assertEquals("name", getValue(msg, "name"));
+        Assert.assertEquals(" pw ", getValue(msg, "password"));
+
+        msg = validMsg();
+        msg.name = null;
+        Assert.assertEquals(String.format("field[name] of message[%s] is mandatory, can not be null", APITestMsg.class.getName()),
+                validate(msg));
+
+        msg = validMsg();
+        msg.name = "a long name";
+        Assert.assertEquals(String.format("field[name] of message[%s] exceeds max length of string. expected was <= 8, actual was 11",
+                APITestMsg.class.getName()), validate(msg));
+
+        msg = validMsg();
+        msg.type = "c";
+        Assert.assertEquals(String.format("valid value for field[type] of message[%s] are [a, b], but c found", APITestMsg.class.getName()),
+                validate(msg));
+
+        msg = validMsg();
+        msg.digits = "12a";
+        Assert.assertEquals(String.format("valid regex value for field[digits] of message[%s] are [0-9]+, but 12a found", APITestMsg.class.getName()),
+                validate(msg));
+
+        msg = validMsg();
+        msg.uuids = new ArrayList<>();
+        Assert.assertEquals("field[uuids] must be a nonempty list", validate(msg));
+
+        msg = validMsg();
+        msg.uuids = list("uuid", null);
+        Assert.assertEquals("field[uuids] cannot contain a NULL element", validate(msg));
+
+        msg = validMsg();
+        msg.num = 11;
+        Assert.assertEquals("field[num] must be in range of [1, 10]", validate(msg));
+    }
+}
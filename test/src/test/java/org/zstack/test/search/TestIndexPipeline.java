@@ -0,0 +1,156 @@
+package org.zstack.test.search;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.thread.ThreadFacade;
+import org.zstack.search.ESBulkBuilder;
+import org.zstack.search.IndexPipeline;
+import org.zstack.search.IndexPipeline.IndexEvent;
+import org.zstack.search.IndexPipelineStatistic;
+import org.zstack.test.BeanConstructor;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * the index pipeline coalesces events of the same resource, and retries bulks
+ * rejected by a stub elasticsearch server
+ */
+public class TestIndexPipeline {
+    CLogger logger = Utils.getLogger(TestIndexPipeline.class);
+    HttpServer server;
+    AtomicInteger requests = new AtomicInteger(0);
+    volatile int failRequests = 2;
+    List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    String url;
+    ThreadFacade thdf;
+
+    @Before
+    public void setUp() throws Exception {
+        thdf = new BeanConstructor().build().getComponent(ThreadFacade.class);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/_bulk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange ex) throws IOException {
+                InputStream in = ex.getRequestBody();
+                Scanner s = new Scanner(in, "UTF-8").useDelimiter("\\A");
+                String body = s.hasNext() ? s.next() : "";
+
+                int code = 200;
+                if (requests.incrementAndGet() <= failRequests) {
+                    code = 500;
+                } else {
+                    bodies.add(body);
+                }
+
+                ex.sendResponseHeaders(code, -1);
+                ex.close();
+            }
+        });
+        server.start();
+        url = String.format("http://127.0.0.1:%s/_bulk", server.getAddress().getPort());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private void post(String body) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        OutputStream out = conn.getOutputStream();
+        out.write(body.getBytes("UTF-8"));
+        out.close();
+        int code = conn.getResponseCode();
+        conn.disconnect();
+        if (code != 200 && code != 201) {
+            throw new IOException(String.format("bulk failed, status code: %s", code));
+        }
+    }
+
+    @Test
+    public void test() throws InterruptedException {
+        IndexPipeline pipeline = new IndexPipeline(1000, 100, 200, 5, 50, thdf, new IndexPipeline.Flusher() {
+            @Override
+            public void flush(List<IndexEvent> events) throws Exception {
+                ESBulkBuilder builder = new ESBulkBuilder();
+                for (IndexEvent e : events) {
+                    builder.addDeleteBulk("test", e.getVoName(), e.getUuid());
+                }
+                post(builder.build());
+            }
+        });
+
+        // 10 resources updated 50 times each before the pipeline starts
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 10; j++) {
+                pipeline.index("VmInstanceVO", Arrays.asList("uuid-" + j));
+            }
+        }
+        pipeline.delete("VmInstanceVO", Arrays.asList("uuid-0", null));
+
+        IndexPipelineStatistic stat = pipeline.getStatistic();
+        Assert.assertEquals(10, stat.getQueueDepth());
+        Assert.assertEquals(501, stat.getReceivedEvents());
+        Assert.assertEquals(491, stat.getCoalescedEvents());
+
+        pipeline.start();
+        for (int i = 0; i < 100 && pipeline.getStatistic().getFlushedEvents() < 10; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        stat = pipeline.getStatistic();
+        logger.debug(String.format("queue depth: %s, flushed: %s, failed flushes: %s",
+                stat.getQueueDepth(), stat.getFlushedEvents(), stat.getFailedFlushes()));
+        Assert.assertEquals(10, stat.getFlushedEvents());
+        Assert.assertEquals(2, stat.getFailedFlushes());
+        Assert.assertEquals(0, stat.getDroppedEvents());
+        Assert.assertEquals(0, stat.getQueueDepth());
+        // all 10 resources go in one bulk after two failures
+        Assert.assertEquals(3, requests.get());
+        Assert.assertEquals(1, bodies.size());
+        Assert.assertTrue(bodies.get(0).contains("uuid-9"));
+
+        // a queue full of events drops the rest
+        pipeline.stop();
+        failRequests = Integer.MAX_VALUE;
+        IndexPipeline small = new IndexPipeline(5, 100, 200, 0, 50, thdf, new IndexPipeline.Flusher() {
+            @Override
+            public void flush(List<IndexEvent> events) throws Exception {
+                post("{}");
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            small.index("HostVO", Arrays.asList("host-" + i));
+        }
+        Assert.assertEquals(5, small.getStatistic().getQueueDepth());
+        Assert.assertEquals(5, small.getStatistic().getDroppedEvents());
+
+        // no retry allowed, the failed events are dropped
+        small.start();
+        for (int i = 0; i < 50 && small.getStatistic().getQueueDepth() > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        small.stop();
+        Assert.assertEquals(0, small.getStatistic().getQueueDepth());
+        Assert.assertEquals(10, small.getStatistic().getDroppedEvents());
+        Assert.assertEquals(0, small.getStatistic().getFlushedEvents());
+    }
+}
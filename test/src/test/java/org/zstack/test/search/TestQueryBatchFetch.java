@@ -0,0 +1,150 @@
+package org.zstack.test.search;
+
+import junit.framework.Assert;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.vm.*;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.header.volume.VolumeVO;
+import org.zstack.query.QueryFacade;
+import org.zstack.query.QueryGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.ObjectUtils;
+import org.zstack.utils.Utils;
+import org.zstack.utils.logging.CLogger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 1. make 500 vms each having 3 nics and 2 volumes
+ * 2. query a page of 500 vms without batch fetch
+ *
+ * confirm all vms, nics and volumes are returned
+ * confirm the page query costs one statement plus one statement per vm per collection
+ * <p>
+ * 3. query a page of 500 vms with batch fetch
+ *
+ * confirm all vms, nics and volumes are returned
+ * confirm the page query costs 4 statements: primary keys of the page, fields of the vms,
+ * nics of the vms and volumes of the vms
+ */
+public class TestQueryBatchFetch {
+    CLogger logger = Utils.getLogger(TestQueryBatchFetch.class);
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    QueryFacade qf;
+    int vmNum = 500;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/vm/TestCreateVm.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        qf = loader.getComponent(QueryFacade.class);
+    }
+
+    @After
+    public void tearDown() {
+        QueryGlobalProperty.BATCH_FETCH = false;
+    }
+
+    private void cloneVms() {
+        VmInstanceVO vm = dbf.findByUuid(deployer.vms.get("TestVm").getUuid(), VmInstanceVO.class);
+        List entities = new ArrayList();
+        for (int i = 1; i < vmNum; i++) {
+            VmInstanceVO c = ObjectUtils.newAndCopy(vm, VmInstanceVO.class);
+            c.setUuid(Platform.getUuid());
+            c.setName("vm-" + i);
+            c.setInternalId(vm.getInternalId() + i);
+            c.setVmNics(new HashSet<VmNicVO>());
+            c.setAllVolumes(new HashSet<VolumeVO>());
+            entities.add(c);
+
+            int index = 0;
+            for (VmNicVO nic : vm.getVmNics()) {
+                VmNicVO n = ObjectUtils.newAndCopy(nic, VmNicVO.class);
+                n.setUuid(Platform.getUuid());
+                n.setVmInstanceUuid(c.getUuid());
+                n.setUsedIpUuid(null);
+                n.setMac(String.format("fa:00:00:%02x:%02x:%02x", i >> 8, i & 0xff, index++));
+                entities.add(n);
+            }
+
+            for (VolumeVO vol : vm.getAllVolumes()) {
+                VolumeVO v = ObjectUtils.newAndCopy(vol, VolumeVO.class);
+                v.setUuid(Platform.getUuid());
+                v.setVmInstanceUuid(c.getUuid());
+                entities.add(v);
+            }
+        }
+
+        dbf.persistCollection(entities);
+    }
+
+    private long query(Statistics stats) throws ApiSenderException {
+        APIQueryVmInstanceMsg msg = new APIQueryVmInstanceMsg();
+        msg.setLimit(vmNum);
+        msg.setSession(api.getAdminSession());
+        // call the query facade directly, statements of the API pipeline are not counted
+        stats.clear();
+        List<VmInstanceInventory> invs = qf.query(msg, VmInstanceInventory.class);
+        long count = stats.getPrepareStatementCount();
+
+        Assert.assertEquals(vmNum, invs.size());
+        Set<String> vmUuids = new HashSet<String>();
+        Set<String> nicUuids = new HashSet<String>();
+        Set<String> volumeUuids = new HashSet<String>();
+        for (VmInstanceInventory inv : invs) {
+            vmUuids.add(inv.getUuid());
+            Assert.assertEquals(3, inv.getVmNics().size());
+            Assert.assertEquals(2, inv.getAllVolumes().size());
+            for (VmNicInventory nic : inv.getVmNics()) {
+                Assert.assertEquals(inv.getUuid(), nic.getVmInstanceUuid());
+                nicUuids.add(nic.getUuid());
+            }
+            for (VolumeInventory vol : inv.getAllVolumes()) {
+                Assert.assertEquals(inv.getUuid(), vol.getVmInstanceUuid());
+                volumeUuids.add(vol.getUuid());
+            }
+        }
+        Assert.assertEquals(vmNum, vmUuids.size());
+        Assert.assertEquals(vmNum * 3, nicUuids.size());
+        Assert.assertEquals(vmNum * 2, volumeUuids.size());
+        return count;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        cloneVms();
+
+        Statistics stats = dbf.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        stats.setStatisticsEnabled(true);
+
+        QueryGlobalProperty.BATCH_FETCH = false;
+        long withoutBatchFetch = query(stats);
+        QueryGlobalProperty.BATCH_FETCH = true;
+        long withBatchFetch = query(stats);
+        logger.debug(String.format("query %s vms, %s statements without batch fetch, %s statements with batch fetch",
+                vmNum, withoutBatchFetch, withBatchFetch));
+
+        Assert.assertEquals(1 + vmNum * 2, withoutBatchFetch);
+        Assert.assertEquals(4, withBatchFetch);
+    }
+}
@@ -0,0 +1,77 @@
+package org.zstack.test.search;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.header.network.l3.APIQueryL3NetworkMsg;
+import org.zstack.header.network.l3.APIQueryL3NetworkReply;
+import org.zstack.header.network.l3.L3NetworkInventory;
+import org.zstack.header.query.QueryCondition;
+import org.zstack.header.query.QueryOp;
+import org.zstack.query.MysqlQueryBuilderImpl3;
+import org.zstack.query.MysqlQueryBuilderMXBean;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+/**
+ * 1. query l3 networks by conditions of the same shape but different values
+ * 2. confirm the query plan is reused and each query returns its own result
+ * 3. confirm a query of a different shape doesn't hit the plan
+ */
+public class TestQueryPlanCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    MysqlQueryBuilderMXBean qb;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/network/TestQueryL3Network.xml");
+        deployer.addSpringConfig("VirtualRouter.xml");
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        qb = loader.getComponent(MysqlQueryBuilderImpl3.class);
+    }
+
+    private APIQueryL3NetworkMsg makeQuery(String name, String op, String value) {
+        APIQueryL3NetworkMsg msg = new APIQueryL3NetworkMsg();
+        QueryCondition qc = new QueryCondition();
+        qc.setName(name);
+        qc.setOp(op);
+        qc.setValue(value);
+        msg.getConditions().add(qc);
+        return msg;
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        long hits = qb.getQueryPlanCacheHits();
+        for (L3NetworkInventory l3 : deployer.l3Networks.values()) {
+            APIQueryL3NetworkReply reply = api.query(makeQuery("name", QueryOp.EQ.toString(), l3.getName()), APIQueryL3NetworkReply.class);
+            Assert.assertEquals(1, reply.getInventories().size());
+            Assert.assertEquals(l3.getUuid(), reply.getInventories().get(0).getUuid());
+        }
+
+        // the first query may or may not hit, depending on queries made by the deployer
+        Assert.assertTrue(qb.getQueryPlanCacheHits() - hits >= deployer.l3Networks.size() - 1);
+        hits = qb.getQueryPlanCacheHits();
+
+        L3NetworkInventory l3 = deployer.l3Networks.get("TestL3Network2");
+        APIQueryL3NetworkReply reply = api.query(makeQuery("ipRanges.startIp", QueryOp.EQ.toString(), "10.10.2.100"), APIQueryL3NetworkReply.class);
+        Assert.assertEquals(1, reply.getInventories().size());
+        Assert.assertEquals(l3.getUuid(), reply.getInventories().get(0).getUuid());
+        Assert.assertEquals(hits, qb.getQueryPlanCacheHits());
+
+        reply = api.query(makeQuery("ipRanges.startIp", QueryOp.IN.toString(), "10.10.2.100,10.20.3.100"), APIQueryL3NetworkReply.class);
+        Assert.assertEquals(2, reply.getInventories().size());
+        reply = api.query(makeQuery("ipRanges.startIp", QueryOp.IN.toString(), "10.0.0.100"), APIQueryL3NetworkReply.class);
+        Assert.assertEquals(1, reply.getInventories().size());
+        Assert.assertEquals(hits + 1, qb.getQueryPlanCacheHits());
+    }
+}
@@ -146,25 +146,28 @@ public class TestLocalStorage31 {
         Assert.assertEquals(vm.getAllVolumes().size(), config.createEmptyVolumeCmds.size());
         Assert.assertEquals(2, config.verifySnapshotChainCmds.size());
         Assert.assertEquals(1, config.rebaseSnapshotBackingFilesCmds.size());
-        Assert.assertEquals(1, config.copyBitsFromRemoteCmds.size());
+        // every snapshot is copied by its own command
+        Assert.assertEquals(snapshthots.size(), config.copyBitsFromRemoteCmds.size());
         VerifySnapshotChainCmd vcmd = config.verifySnapshotChainCmds.get(0);
         RebaseSnapshotBackingFilesCmd rcmd = config.rebaseSnapshotBackingFilesCmds.get(0);
-        CopyBitsFromRemoteCmd ccmd = config.copyBitsFromRemoteCmds.get(0);
 
         KVMHostVO kvm = dbf.findByUuid(host2.getUuid(), KVMHostVO.class);
-        Assert.assertEquals(kvm.getManagementIp(), ccmd.dstIp);
-        Assert.assertEquals(kvm.getUsername(), ccmd.dstUsername);
-        Assert.assertEquals(kvm.getPassword(), ccmd.dstPassword);
+        for (CopyBitsFromRemoteCmd ccmd : config.copyBitsFromRemoteCmds) {
+            Assert.assertEquals(1, ccmd.paths.size());
+            Assert.assertEquals(kvm.getManagementIp(), ccmd.dstIp);
+            Assert.assertEquals(kvm.getUsername(), ccmd.dstUsername);
+            Assert.assertEquals(kvm.getPassword(), ccmd.dstPassword);
+        }
 
         for (final VolumeSnapshotVO sp : snapshthots) {
             // snapshots are copied on dst host
-            String copyPath = CollectionUtils.find(ccmd.paths, new Function<String, String>() {
+            CopyBitsFromRemoteCmd ccmd = CollectionUtils.find(config.copyBitsFromRemoteCmds, new Function<CopyBitsFromRemoteCmd, CopyBitsFromRemoteCmd>() {
                 @Override
-                public String call(String arg) {
-                    return arg.equals(sp.getPrimaryStorageInstallPath()) ? arg : null;
+                public CopyBitsFromRemoteCmd call(CopyBitsFromRemoteCmd arg) {
+                    return arg.paths.contains(sp.getPrimaryStorageInstallPath()) ? arg : null;
                 }
             });
-            Assert.assertNotNull(copyPath);
+            Assert.assertNotNull(ccmd);
 
             // snapshots are verified
             SnapshotTO to = CollectionUtils.find(vcmd.snapshots, new Function<SnapshotTO, SnapshotTO>() {
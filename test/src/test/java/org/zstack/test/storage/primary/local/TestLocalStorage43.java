@@ -173,36 +173,33 @@ public class TestLocalStorage43 {
         Assert.assertEquals(vm.getUuid(), mcmd.getVmUuid());
         Assert.assertEquals(StorageMigrationPolicy.IncCopy.toString(), mcmd.getStorageMigrationPolicy());
 
-        Assert.assertEquals(1, config.getMd5Cmds.size());
-        LocalStorageKvmBackend.GetMd5Cmd getMd5Cmd = config.getMd5Cmds.get(0);
-        goOn0:
-        for (VolumeSnapshotInventory sp : sps) {
-            for (LocalStorageKvmBackend.GetMd5TO to : getMd5Cmd.md5s) {
-                if (to.path.equals(sp.getPrimaryStorageInstallPath())) {
-                    break goOn0;
-                }
-            }
+        // every snapshot is copied by its own commands
+        Assert.assertEquals(sps.size(), config.getMd5Cmds.size());
+        Assert.assertEquals(sps.size(), config.copyBitsFromRemoteCmds.size());
+        Assert.assertEquals(sps.size(), config.checkMd5sumCmds.size());
+
+        List<String> md5Paths = new ArrayList<>();
+        for (LocalStorageKvmBackend.GetMd5Cmd getMd5Cmd : config.getMd5Cmds) {
+            Assert.assertEquals(1, getMd5Cmd.md5s.size());
+            md5Paths.add(getMd5Cmd.md5s.get(0).path);
+        }
 
-            Assert.fail(sp.getUuid());
+        List<String> copyPaths = new ArrayList<>();
+        for (LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd copyBitsFromRemoteCmd : config.copyBitsFromRemoteCmds) {
+            Assert.assertEquals(1, copyBitsFromRemoteCmd.paths.size());
+            copyPaths.add(copyBitsFromRemoteCmd.paths.get(0));
         }
 
-        Assert.assertEquals(1, config.copyBitsFromRemoteCmds.size());
-        LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd copyBitsFromRemoteCmd = config.copyBitsFromRemoteCmds.get(0);
-        for (VolumeSnapshotInventory sp : sps) {
-            Assert.assertTrue(sp.getPrimaryStorageInstallPath(), copyBitsFromRemoteCmd.paths.contains(sp.getPrimaryStorageInstallPath()));
+        List<String> checkPaths = new ArrayList<>();
+        for (LocalStorageKvmBackend.CheckMd5sumCmd checkMd5sumCmd : config.checkMd5sumCmds) {
+            Assert.assertEquals(1, checkMd5sumCmd.md5s.size());
+            checkPaths.add(checkMd5sumCmd.md5s.get(0).path);
         }
 
-        Assert.assertEquals(1, config.checkMd5sumCmds.size());
-        LocalStorageKvmBackend.CheckMd5sumCmd checkMd5sumCmd = config.checkMd5sumCmds.get(0);
-        goOn:
         for (VolumeSnapshotInventory sp : sps) {
-            for (LocalStorageKvmBackend.Md5TO to : checkMd5sumCmd.md5s) {
-                if (to.path.equals(sp.getPrimaryStorageInstallPath())) {
-                    break goOn;
-                }
-            }
-
-            Assert.fail(sp.getUuid());
+            Assert.assertTrue(sp.getUuid(), md5Paths.contains(sp.getPrimaryStorageInstallPath()));
+            Assert.assertTrue(sp.getUuid(), copyPaths.contains(sp.getPrimaryStorageInstallPath()));
+            Assert.assertTrue(sp.getUuid(), checkPaths.contains(sp.getPrimaryStorageInstallPath()));
         }
 
         Assert.assertEquals(1, config.rebaseSnapshotBackingFilesCmds.size());
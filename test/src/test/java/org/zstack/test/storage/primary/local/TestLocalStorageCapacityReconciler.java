@@ -0,0 +1,140 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.storage.primary.PrimaryStorageCapacityVO;
+import org.zstack.header.storage.primary.PrimaryStorageInventory;
+import org.zstack.header.storage.primary.PrimaryStorageVO;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.primary.local.*;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.data.SizeUnit;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1. use local storage
+ * 2. create a vm
+ * 3. make the available capacity of the host off by 1G
+ * 4. reconnect the host whose disk is not changed
+ * <p>
+ * confirm the available capacity is not re-calculated
+ * <p>
+ * 5. reconcile the capacity
+ * <p>
+ * confirm the drift of 1G is reported and the capacity of the host and local storage is repaired
+ * <p>
+ * 6. reconcile again
+ * <p>
+ * confirm no drift is reported
+ * <p>
+ * 7. reserve 1G on the host as a reservation whose volume is not created yet
+ * 8. reconcile with a quiet period
+ * <p>
+ * confirm the host is skipped and the reservation is kept
+ * <p>
+ * 9. reconcile after the host has been quiet longer than the quiet period
+ * <p>
+ * confirm the host is reconciled
+ */
+public class TestLocalStorageCapacityReconciler {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    LocalStorageSimulatorConfig config;
+    LocalStorageCapacityReconciler reconciler;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        LocalStorageGlobalProperty.INCREMENTAL_CAPACITY = true;
+        // the capacity of host1 is changed by the deployment
+        LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD = 0;
+
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage1.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+        reconciler = loader.getComponent(LocalStorageCapacityReconciler.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+
+        deployer.build();
+        api = deployer.getApi();
+    }
+
+    @Test
+    public void test() throws ApiSenderException, InterruptedException {
+        HostInventory host1 = deployer.hosts.get("host1");
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        String psUuid = vm.getRootVolume().getPrimaryStorageUuid();
+
+        LocalStorageHostRefVO href = new LocalStorageHostRefVOFinder().findByPrimaryKey(host1.getUuid(), psUuid);
+        long avail = href.getAvailableCapacity();
+        long drift = SizeUnit.GIGABYTE.toByte(1);
+        href.setAvailableCapacity(avail + drift);
+        dbf.update(href);
+
+        api.reconnectHost(host1.getUuid());
+        TimeUnit.SECONDS.sleep(2);
+        href = new LocalStorageHostRefVOFinder().findByPrimaryKey(host1.getUuid(), psUuid);
+        Assert.assertEquals(avail + drift, href.getAvailableCapacity());
+
+        Map<String, Map<String, Long>> drifts = reconciler.reconcile();
+        Assert.assertEquals(1, drifts.size());
+        Assert.assertEquals(drift, drifts.get(psUuid).get(host1.getUuid()).longValue());
+
+        href = new LocalStorageHostRefVOFinder().findByPrimaryKey(host1.getUuid(), psUuid);
+        Assert.assertEquals(avail, href.getAvailableCapacity());
+        PrimaryStorageCapacityVO pscap = dbf.findByUuid(psUuid, PrimaryStorageCapacityVO.class);
+        Assert.assertEquals(avail, pscap.getAvailableCapacity());
+
+        Assert.assertTrue(reconciler.reconcile().isEmpty());
+
+        PrimaryStorageInventory ps = PrimaryStorageInventory.valueOf(dbf.findByUuid(psUuid, PrimaryStorageVO.class));
+        new LocalStorageCapacityUpdater().reserveCapacityOnHost(ps, host1.getUuid(), drift);
+        LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD = 3600;
+        Assert.assertTrue(reconciler.reconcile().isEmpty());
+        href = new LocalStorageHostRefVOFinder().findByPrimaryKey(host1.getUuid(), psUuid);
+        Assert.assertEquals(avail - drift, href.getAvailableCapacity());
+
+        LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD = 1;
+        TimeUnit.SECONDS.sleep(2);
+        drifts = reconciler.reconcile();
+        Assert.assertEquals(-drift, drifts.get(psUuid).get(host1.getUuid()).longValue());
+        href = new LocalStorageHostRefVOFinder().findByPrimaryKey(host1.getUuid(), psUuid);
+        Assert.assertEquals(avail, href.getAvailableCapacity());
+    }
+
+    @After
+    public void tearDown() {
+        LocalStorageGlobalProperty.INCREMENTAL_CAPACITY = false;
+        LocalStorageGlobalProperty.CAPACITY_RECONCILE_QUIET_PERIOD = 300;
+    }
+}
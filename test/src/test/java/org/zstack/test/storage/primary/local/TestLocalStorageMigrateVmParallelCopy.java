@@ -0,0 +1,139 @@
+package org.zstack.test.storage.primary.local;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.host.HostInventory;
+import org.zstack.header.storage.snapshot.VolumeSnapshotInventory;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.header.volume.VolumeInventory;
+import org.zstack.header.volume.VolumeType;
+import org.zstack.storage.primary.local.LocalStorageGlobalProperty;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.CheckMd5sumCmd;
+import org.zstack.storage.primary.local.LocalStorageKvmBackend.GetMd5Cmd;
+import org.zstack.storage.primary.local.LocalStorageKvmMigrateVmFlow.CopyBitsFromRemoteCmd;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig;
+import org.zstack.storage.primary.local.LocalStorageSimulatorConfig.Capacity;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.CollectionUtils;
+import org.zstack.utils.data.SizeUnit;
+import org.zstack.utils.function.Function;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 1. set the parallelism of copying bits between hosts to 3
+ * 2. create snapshots on the root volume and the data volume of a vm
+ * 3. make every copy take a while, then migrate the vm
+ * <p>
+ * confirm every snapshot is md5-summed, copied and checked by its own commands
+ * confirm the snapshots are copied concurrently, but no more than 3 at the same time
+ * confirm the vm is migrated
+ */
+public class TestLocalStorageMigrateVmParallelCopy {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    LocalStorageSimulatorConfig config;
+    long totalSize = SizeUnit.GIGABYTE.toByte(100);
+    int parallelism = 3;
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        LocalStorageGlobalProperty.KVM_MIGRATE_BITS_PARALLELISM = parallelism;
+
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/localStorage/TestLocalStorage28.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.addSpringConfig("localStorageSimulator.xml");
+        deployer.addSpringConfig("localStorage.xml");
+        deployer.load();
+
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        config = loader.getComponent(LocalStorageSimulatorConfig.class);
+
+        Capacity c = new Capacity();
+        c.total = totalSize;
+        c.avail = totalSize;
+
+        config.capacityMap.put("host1", c);
+        config.capacityMap.put("host2", c);
+
+        deployer.build();
+        api = deployer.getApi();
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        HostInventory host2 = deployer.hosts.get("host2");
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        VolumeInventory data = CollectionUtils.find(vm.getAllVolumes(), new Function<VolumeInventory, VolumeInventory>() {
+            @Override
+            public VolumeInventory call(VolumeInventory arg) {
+                return VolumeType.Data.toString().equals(arg.getType()) ? arg : null;
+            }
+        });
+
+        List<VolumeSnapshotInventory> sps = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            sps.add(api.createSnapshot(vm.getRootVolumeUuid()));
+            sps.add(api.createSnapshot(data.getUuid()));
+        }
+
+        config.copyBitsFromRemoteDelay = 500;
+        vm = api.migrateVmInstance(vm.getUuid(), host2.getUuid());
+        Assert.assertEquals(host2.getUuid(), vm.getHostUuid());
+
+        Assert.assertEquals(sps.size(), config.getMd5Cmds.size());
+        Assert.assertEquals(sps.size(), config.copyBitsFromRemoteCmds.size());
+        Assert.assertEquals(sps.size(), config.checkMd5sumCmds.size());
+
+        for (final VolumeSnapshotInventory sp : sps) {
+            GetMd5Cmd gcmd = CollectionUtils.find(config.getMd5Cmds, new Function<GetMd5Cmd, GetMd5Cmd>() {
+                @Override
+                public GetMd5Cmd call(GetMd5Cmd arg) {
+                    return arg.md5s.get(0).path.equals(sp.getPrimaryStorageInstallPath()) ? arg : null;
+                }
+            });
+            Assert.assertNotNull(sp.getUuid(), gcmd);
+            Assert.assertEquals(1, gcmd.md5s.size());
+
+            CopyBitsFromRemoteCmd ccmd = CollectionUtils.find(config.copyBitsFromRemoteCmds, new Function<CopyBitsFromRemoteCmd, CopyBitsFromRemoteCmd>() {
+                @Override
+                public CopyBitsFromRemoteCmd call(CopyBitsFromRemoteCmd arg) {
+                    return arg.paths.get(0).equals(sp.getPrimaryStorageInstallPath()) ? arg : null;
+                }
+            });
+            Assert.assertNotNull(sp.getUuid(), ccmd);
+            Assert.assertEquals(1, ccmd.paths.size());
+            Assert.assertEquals(sp.getVolumeUuid(), ccmd.uuid);
+            Assert.assertEquals(host2.getManagementIp(), ccmd.dstIp);
+
+            CheckMd5sumCmd kcmd = CollectionUtils.find(config.checkMd5sumCmds, new Function<CheckMd5sumCmd, CheckMd5sumCmd>() {
+                @Override
+                public CheckMd5sumCmd call(CheckMd5sumCmd arg) {
+                    return arg.md5s.get(0).path.equals(sp.getPrimaryStorageInstallPath()) ? arg : null;
+                }
+            });
+            Assert.assertNotNull(sp.getUuid(), kcmd);
+            Assert.assertEquals(sp.getUuid(), kcmd.md5s.get(0).resourceUuid);
+        }
+
+        int max = config.maxCopyBitsFromRemoteConcurrency.get();
+        Assert.assertTrue(String.format("max concurrency %s", max), max > 1);
+        Assert.assertTrue(String.format("max concurrency %s", max), max <= parallelism);
+    }
+}
@@ -0,0 +1,146 @@
+package org.zstack.test.storage.snapshot;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.core.db.SimpleQuery;
+import org.zstack.core.db.SimpleQuery.Op;
+import org.zstack.header.storage.snapshot.*;
+import org.zstack.header.storage.snapshot.VolumeSnapshotTree.SnapshotLeaf;
+import org.zstack.header.vm.VmInstanceInventory;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeCache;
+import org.zstack.storage.snapshot.VolumeSnapshotTreeIndex;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.WebBeanConstructor;
+import org.zstack.test.deployer.Deployer;
+import org.zstack.utils.function.Function;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. take snapshots a, b, c, d of the root volume
+ * <p>
+ * confirm the cached tree has the same ancestors and descendants as the tree loaded from database
+ * confirm the version of the tree is bumped by every snapshot but the first one
+ * <p>
+ * 2. stop the vm, revert the volume to b, take snapshot e
+ * <p>
+ * confirm e is added to the cached tree as a child of b
+ * <p>
+ * 3. delete c
+ * <p>
+ * confirm c and d are removed from the cached tree
+ * <p>
+ * 4. bump the version of the tree as another management node does
+ * <p>
+ * confirm the tree is loaded again
+ */
+public class TestVolumeSnapshotTreeCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+    VolumeSnapshotTreeCache treeCache;
+
+    @Before
+    public void setUp() throws Exception {
+        DBUtil.reDeployDB();
+        WebBeanConstructor con = new WebBeanConstructor();
+        deployer = new Deployer("deployerXml/kvm/TestCreateVmOnKvm.xml", con);
+        deployer.addSpringConfig("KVMRelated.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+        treeCache = loader.getComponent(VolumeSnapshotTreeCache.class);
+    }
+
+    private VolumeSnapshotTree loadTree(String treeUuid) {
+        SimpleQuery<VolumeSnapshotVO> q = dbf.createQuery(VolumeSnapshotVO.class);
+        q.add(VolumeSnapshotVO_.treeUuid, Op.EQ, treeUuid);
+        return VolumeSnapshotTree.fromVOs(q.list());
+    }
+
+    private List<String> toUuids(List<VolumeSnapshotInventory> invs) {
+        List<String> uuids = new ArrayList<>();
+        for (VolumeSnapshotInventory inv : invs) {
+            uuids.add(inv.getUuid());
+        }
+        return uuids;
+    }
+
+    private void checkIndex(String treeUuid) {
+        VolumeSnapshotTreeVO tvo = dbf.findByUuid(treeUuid, VolumeSnapshotTreeVO.class);
+        VolumeSnapshotTreeIndex index = treeCache.get(treeUuid);
+        Assert.assertEquals(tvo.getVersion(), index.getVersion());
+
+        VolumeSnapshotTree tree = loadTree(treeUuid);
+        List<VolumeSnapshotInventory> all = tree.getRoot().getDescendants();
+        Assert.assertEquals(all.size(), index.size());
+        for (final VolumeSnapshotInventory inv : all) {
+            SnapshotLeaf leaf = tree.findSnapshot(new Function<Boolean, VolumeSnapshotInventory>() {
+                @Override
+                public Boolean call(VolumeSnapshotInventory arg) {
+                    return arg.getUuid().equals(inv.getUuid());
+                }
+            });
+
+            Assert.assertEquals(toUuids(leaf.getAncestors()), index.getAncestorUuids(inv.getUuid()));
+            Assert.assertEquals(new HashSet<>(toUuids(leaf.getDescendants())), new HashSet<>(index.getDescendantUuids(inv.getUuid())));
+            Assert.assertEquals(inv.getUuid(), index.getDescendantUuids(inv.getUuid()).get(0));
+            Assert.assertEquals(inv.getParentUuid(), index.getParentUuid(inv.getUuid()));
+        }
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        VmInstanceInventory vm = deployer.vms.get("TestVm");
+        String volUuid = vm.getRootVolumeUuid();
+        VolumeSnapshotInventory a = api.createSnapshot(volUuid);
+        String treeUuid = a.getTreeUuid();
+        Assert.assertEquals(1, treeCache.get(treeUuid).size());
+
+        VolumeSnapshotInventory b = api.createSnapshot(volUuid);
+        VolumeSnapshotInventory c = api.createSnapshot(volUuid);
+        VolumeSnapshotInventory d = api.createSnapshot(volUuid);
+        checkIndex(treeUuid);
+        VolumeSnapshotTreeIndex index = treeCache.get(treeUuid);
+        Assert.assertEquals(3, index.getVersion());
+        Assert.assertEquals(list(a.getUuid(), b.getUuid(), c.getUuid()), index.getAncestorUuids(c.getUuid()));
+        Assert.assertEquals(list(b.getUuid(), c.getUuid(), d.getUuid()), index.getDescendantUuids(b.getUuid()));
+        Assert.assertTrue(index.isDescendant(b.getUuid(), d.getUuid()));
+        Assert.assertFalse(index.isDescendant(c.getUuid(), b.getUuid()));
+
+        api.stopVmInstance(vm.getUuid());
+        api.revertVolumeToSnapshot(b.getUuid());
+        VolumeSnapshotInventory e = api.createSnapshot(volUuid);
+        Assert.assertEquals(treeUuid, e.getTreeUuid());
+        index = treeCache.get(treeUuid);
+        Assert.assertEquals(4, index.getVersion());
+        Assert.assertEquals(b.getUuid(), index.getParentUuid(e.getUuid()));
+        Assert.assertFalse(index.isDescendant(c.getUuid(), e.getUuid()));
+        checkIndex(treeUuid);
+
+        api.deleteSnapshot(c.getUuid());
+        Assert.assertNull(dbf.findByUuid(c.getUuid(), VolumeSnapshotVO.class));
+        index = treeCache.get(treeUuid);
+        Assert.assertEquals(5, index.getVersion());
+        Assert.assertFalse(index.contains(c.getUuid()));
+        Assert.assertFalse(index.contains(d.getUuid()));
+        Assert.assertEquals(list(b.getUuid(), e.getUuid()), index.getDescendantUuids(b.getUuid()));
+        checkIndex(treeUuid);
+
+        treeCache.bumpVersion(treeUuid);
+        index = treeCache.get(treeUuid);
+        Assert.assertEquals(6, index.getVersion());
+        checkIndex(treeUuid);
+    }
+}
@@ -0,0 +1,110 @@
+package org.zstack.test.tag;
+
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.zstack.core.Platform;
+import org.zstack.core.componentloader.ComponentLoader;
+import org.zstack.core.db.DatabaseFacade;
+import org.zstack.header.tag.SystemTagVO;
+import org.zstack.header.tag.TagDefinition;
+import org.zstack.header.tag.TagInventory;
+import org.zstack.header.tag.TagType;
+import org.zstack.header.zone.ZoneInventory;
+import org.zstack.header.zone.ZoneVO;
+import org.zstack.tag.PatternedSystemTag;
+import org.zstack.tag.SystemTag;
+import org.zstack.tag.TagGlobalProperty;
+import org.zstack.test.Api;
+import org.zstack.test.ApiSenderException;
+import org.zstack.test.DBUtil;
+import org.zstack.test.deployer.Deployer;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.zstack.utils.CollectionDSL.list;
+
+/**
+ * 1. create system tags on zone1 and zone2
+ * <p>
+ * confirm hasTag/getTags/getTokensByResourceUuid return them
+ * confirm the bulk getTags returns them for zone1 and zone2, nothing for zone3
+ * <p>
+ * 2. add a tag to zone3 behind the tag manager
+ * <p>
+ * confirm the cached result of zone3 is returned
+ * <p>
+ * 3. update and delete tags by API
+ * <p>
+ * confirm the changes are seen at once
+ */
+public class TestSystemTagCache {
+    Deployer deployer;
+    Api api;
+    ComponentLoader loader;
+    DatabaseFacade dbf;
+
+    @TagDefinition
+    public static class TestSystemTags {
+        public static SystemTag big = new SystemTag("big", ZoneVO.class);
+        public static PatternedSystemTag size = new PatternedSystemTag("size::{size}", ZoneVO.class);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // initialize properties
+        Platform.getUuid();
+        TagGlobalProperty.SYSTEM_TAG_CACHE = true;
+
+        DBUtil.reDeployDB();
+        deployer = new Deployer("deployerXml/tag/TestUserTag.xml");
+        deployer.build();
+        api = deployer.getApi();
+        loader = deployer.getComponentLoader();
+        dbf = loader.getComponent(DatabaseFacade.class);
+    }
+
+    @Test
+    public void test() throws ApiSenderException {
+        ZoneInventory zone1 = deployer.zones.get("Zone1");
+        ZoneInventory zone2 = deployer.zones.get("Zone2");
+        ZoneInventory zone3 = deployer.zones.get("Zone3");
+
+        Assert.assertFalse(TestSystemTags.big.hasTag(zone1.getUuid()));
+
+        api.createSystemTag(zone1.getUuid(), "big", ZoneVO.class);
+        TagInventory size1 = api.createSystemTag(zone1.getUuid(), "size::10", ZoneVO.class);
+        api.createSystemTag(zone2.getUuid(), "size::20", ZoneVO.class);
+
+        Assert.assertTrue(TestSystemTags.big.hasTag(zone1.getUuid()));
+        Assert.assertFalse(TestSystemTags.big.hasTag(zone2.getUuid()));
+        Assert.assertEquals("10", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Assert.assertEquals(list("size::20"), TestSystemTags.size.getTags(zone2.getUuid()));
+
+        Map<String, List<String>> tags = TestSystemTags.size.getTags(list(zone1.getUuid(), zone2.getUuid(), zone3.getUuid()));
+        Assert.assertEquals(2, tags.size());
+        Assert.assertEquals(list("size::10"), tags.get(zone1.getUuid()));
+        Assert.assertEquals(list("size::20"), tags.get(zone2.getUuid()));
+
+        // zone3 is cached as having no tag
+        SystemTagVO vo = new SystemTagVO();
+        vo.setUuid(Platform.getUuid());
+        vo.setResourceUuid(zone3.getUuid());
+        vo.setResourceType(ZoneVO.class.getSimpleName());
+        vo.setTag("big");
+        vo.setType(TagType.System);
+        dbf.persist(vo);
+        Assert.assertFalse(TestSystemTags.big.hasTag(zone3.getUuid()));
+
+        api.updateSystemTag(size1.getUuid(), "size::11", null);
+        Assert.assertEquals("11", TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+
+        api.deleteTag(size1.getUuid());
+        Assert.assertNull(TestSystemTags.size.getTokenByResourceUuid(zone1.getUuid(), "size"));
+        Assert.assertTrue(TestSystemTags.big.hasTag(zone1.getUuid()));
+
+        TestSystemTags.big.delete(zone1.getUuid());
+        Assert.assertFalse(TestSystemTags.big.hasTag(zone1.getUuid()));
+    }
+}
@@ -0,0 +1,96 @@
+package org.zstack.test.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.zstack.utils.hash.ApacheHash;
+import org.zstack.utils.hash.ConsistentHash;
+import org.zstack.utils.hash.HashFunction;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * compares lookups of the consistent hash ring of management nodes: a TreeMap ring as before,
+ * the array ring of ConsistentHash and the array ring with the resource cache.
+ *
+ * run it by the main method, it's not a unit test
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConsistentHashBenchmark {
+    @Param({"5"})
+    int nodeNum;
+
+    @Param({"500"})
+    int replicas;
+
+    @Param({"10000"})
+    int resourceNum;
+
+    HashFunction hashFunction = new ApacheHash();
+    SortedMap<Integer, String> circle;
+    ConsistentHash<String> ring;
+    ConsistentHash<String> cachedRing;
+    String[] resources;
+    int index;
+
+    @Setup
+    public void setUp() {
+        circle = new TreeMap<Integer, String>();
+        List<String> nodes = new ArrayList<String>();
+        for (int i = 0; i < nodeNum; i++) {
+            String node = UUID.randomUUID().toString();
+            nodes.add(node);
+            for (int j = 0; j < replicas; j++) {
+                circle.put(hashFunction.hash(node + j), node);
+            }
+        }
+
+        ring = new ConsistentHash<String>(hashFunction, replicas, nodes);
+        cachedRing = new ConsistentHash<String>(hashFunction, replicas, nodes, resourceNum);
+
+        resources = new String[resourceNum];
+        for (int i = 0; i < resourceNum; i++) {
+            resources[i] = UUID.randomUUID().toString().replace("-", "");
+        }
+    }
+
+    private String nextResource() {
+        index = (index + 1) % resourceNum;
+        return resources[index];
+    }
+
+    @Benchmark
+    public String treeMap() {
+        int hash = hashFunction.hash(nextResource());
+        if (!circle.containsKey(hash)) {
+            SortedMap<Integer, String> tailMap = circle.tailMap(hash);
+            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+        }
+        return circle.get(hash);
+    }
+
+    @Benchmark
+    public String arrayRing() {
+        return ring.get(nextResource());
+    }
+
+    @Benchmark
+    public String arrayRingWithCache() {
+        return cachedRing.get(nextResource());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ConsistentHashBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
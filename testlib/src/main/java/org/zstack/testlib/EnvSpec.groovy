@@ -572,6 +572,47 @@ class EnvSpec implements Node {
         httpPostHandlers[path] = c
     }
 
+    private Object runSimulator(String url, Closure handler, HttpEntity<String> entity) {
+        def ret
+        if (handler.maximumNumberOfParameters == 0) {
+            ret = handler()
+        } else if (handler.maximumNumberOfParameters == 1) {
+            ret = handler(entity)
+        } else {
+            ret = handler(entity, this)
+        }
+
+        Closure postHandler = httpPostHandlers[url]
+        if (postHandler != null) {
+            if (postHandler.maximumNumberOfParameters <= 1) {
+                ret = postHandler(ret)
+            } else if (postHandler.maximumNumberOfParameters == 2) {
+                ret = postHandler(ret, entity)
+            } else {
+                ret = postHandler(ret, entity, this)
+            }
+        }
+
+        if (ret == null) {
+            ret = [:]
+        }
+
+        return ret
+    }
+
+    // runs the simulator of the url as if the entity was posted to it and calls back the response,
+    // for simulators of agents receiving commands embedded in a request, e.g. batched commands
+    void callSimulator(String url, HttpEntity<String> entity) {
+        assert entity.getHeaders().getFirst(RESTConstant.TASK_UUID) != null: "the command to $url has no taskUuid to call back"
+
+        def handler = httpHandlers[url]
+        if (handler == null) {
+            throw new HttpError(HttpStatus.NOT_FOUND.value(), "no handler found for the path $url")
+        }
+
+        replyHttpCall(entity, null, runSimulator(url, handler, entity))
+    }
+
     void handleSimulatorHttpRequests(HttpServletRequest req, HttpServletResponse rsp) {
         def url = req.getRequestURI()
         def handler = httpHandlers[url]
@@ -595,31 +636,7 @@ class EnvSpec implements Node {
 
         def entity = new HttpEntity<String>(sb.toString(), header)
         try {
-            def ret
-            if (handler.maximumNumberOfParameters == 0) {
-                ret = handler()
-            } else if (handler.maximumNumberOfParameters == 1) {
-                ret = handler(entity)
-            } else {
-                ret = handler(entity, this)
-            }
-
-            Closure postHandler = httpPostHandlers[url]
-            if (postHandler != null) {
-                if (postHandler.maximumNumberOfParameters <= 1) {
-                    ret = postHandler(ret)
-                } else if (postHandler.maximumNumberOfParameters == 2) {
-                    ret = postHandler(ret, entity)
-                } else {
-                    ret = postHandler(ret, entity, this)
-                }
-            }
-
-            if (ret == null) {
-                ret = [:]
-            }
-
-            replyHttpCall(entity, rsp, ret)
+            replyHttpCall(entity, rsp, runSimulator(url, handler, entity))
         } catch (HttpError he) {
             logger.warn("the simulator[$url] reports a http error[status code:${he.status}, message:${he.message}]", he)
             rsp.sendError(he.status, he.message)
@@ -1,8 +1,10 @@
 package org.zstack.testlib
 
 import org.springframework.http.HttpEntity
+import org.springframework.http.HttpHeaders
 import org.zstack.core.db.Q
 import org.zstack.header.Constants
+import org.zstack.header.rest.RESTConstant
 import org.zstack.header.vm.VmInstanceState
 import org.zstack.header.vm.VmInstanceVO
 import org.zstack.header.vm.VmInstanceVO_
@@ -152,6 +154,19 @@ class KVMHostSpec extends HostSpec {
             return [:]
         }
 
+        simulator(KVMConstant.KVM_BATCH_COMMANDS_PATH) { HttpEntity<String> e, EnvSpec espec ->
+            KVMAgentCommands.BatchCommandsCmd cmd = JSONObjectUtil.toObject(e.body, KVMAgentCommands.BatchCommandsCmd.class)
+            cmd.commands.each { c ->
+                HttpHeaders headers = new HttpHeaders()
+                headers.set(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID, e.getHeaders().getFirst(Constants.AGENT_HTTP_HEADER_RESOURCE_UUID))
+                headers.set(RESTConstant.CALLBACK_URL, e.getHeaders().getFirst(RESTConstant.CALLBACK_URL))
+                headers.set(RESTConstant.TASK_UUID, c.taskUuid)
+                espec.callSimulator(c.path, new HttpEntity<String>(c.body, headers))
+            }
+
+            return new KVMAgentCommands.BatchCommandsRsp()
+        }
+
         simulator(KVMConstant.KVM_DETACH_VOLUME) {
             return new KVMAgentCommands.DetachDataVolumeResponse()
         }
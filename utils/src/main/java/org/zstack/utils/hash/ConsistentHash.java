@@ -4,40 +4,117 @@ import org.zstack.utils.Utils;
 import org.zstack.utils.logging.CLogger;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ConsistentHash<T> {
     private final CLogger logger = Utils.getLogger(ConsistentHash.class);
     private final HashFunction hashFunction;
     private final int numberOfReplicas;
+    private final int cacheSize;
     private final SortedMap<Integer, T> circle = new TreeMap<Integer, T>();
     private final Set<T> nodes = new HashSet<T>();
+    private volatile Ring ring;
+
+    /**
+     * An immutable copy of the circle for lookups, the virtual nodes are in a sorted
+     * int array searched by binary search. A new ring is made every time a node is added or
+     * removed, along with a new cache of the keys looked up, so readers never lock and never
+     * see a key cached by an old ring.
+     */
+    private class Ring {
+        final int[] hashes;
+        final Object[] owners;
+        final Set<T> nodes;
+        final Map<Object, T> cache;
+
+        Ring() {
+            hashes = new int[circle.size()];
+            owners = new Object[circle.size()];
+            int i = 0;
+            for (Map.Entry<Integer, T> e : circle.entrySet()) {
+                hashes[i] = e.getKey();
+                owners[i] = e.getValue();
+                i++;
+            }
+
+            nodes = Collections.unmodifiableSet(new HashSet<T>(ConsistentHash.this.nodes));
+            cache = cacheSize > 0 ? new ConcurrentHashMap<Object, T>() : null;
+        }
+
+        T lookup(Object key) {
+            if (hashes.length == 0) {
+                return null;
+            }
+
+            int index = Arrays.binarySearch(hashes, hashFunction.hash(key));
+            if (index < 0) {
+                index = -index - 1;
+                if (index == hashes.length) {
+                    index = 0;
+                }
+            }
+
+            return (T) owners[index];
+        }
+
+        T get(Object key) {
+            if (cache == null) {
+                return lookup(key);
+            }
+
+            T node = cache.get(key);
+            if (node == null) {
+                node = lookup(key);
+                if (node != null) {
+                    if (cache.size() >= cacheSize) {
+                        cache.clear();
+                    }
+                    cache.put(key, node);
+                }
+            }
+
+            return node;
+        }
+    }
 
     public ConsistentHash(HashFunction hashFunction, int numberOfReplicas,
                           Collection<T> nodes) {
+        this(hashFunction, numberOfReplicas, nodes, 0);
+    }
+
+    /**
+     * @param cacheSize the max number of keys whose nodes are cached, 0 to disable the cache.
+     *                  The cache is dropped when it's full or the ring changes
+     */
+    public ConsistentHash(HashFunction hashFunction, int numberOfReplicas,
+                          Collection<T> nodes, int cacheSize) {
         this.hashFunction = hashFunction;
         this.numberOfReplicas = numberOfReplicas;
+        this.cacheSize = cacheSize;
 
         for (T node : nodes) {
             add(node);
         }
+        ring = new Ring();
     }
 
     public Set<T> getNodes() {
-        return nodes;
+        return ring.nodes;
     }
 
-    public void add(T node) {
+    public synchronized void add(T node) {
         nodes.add(node);
 
         for (int i = 0; i < numberOfReplicas; i++) {
             String nodeName = node.toString() + i;
             circle.put(hashFunction.hash(nodeName), node);
         }
+        ring = new Ring();
         logger.debug(String.format("after adding, consistent hash circle has management nodes%s, %s virtual nodes now",
                 nodes, circle.size()));
     }
 
-    public void remove(T node) {
+    public synchronized void remove(T node) {
         nodes.remove(node);
         logger.debug(String.format("the consistent hash ring currently has nodes%s", nodes));
 
@@ -45,11 +122,12 @@ public class ConsistentHash<T> {
             String nodeName = node.toString() + i;
             circle.remove(hashFunction.hash(nodeName));
         }
+        ring = new Ring();
         logger.debug(String.format("after removing, consistent hash circle has management nodes%s, %s virtual nodes now",
                 nodes, circle.size()));
     }
 
-    public boolean hasNode(T node) {
+    public synchronized boolean hasNode(T node) {
         for (int i = 0; i < numberOfReplicas; i++) {
             String nodeName = node.toString() + i;
             if (circle.containsKey(hashFunction.hash(nodeName))) {
@@ -61,14 +139,6 @@ public class ConsistentHash<T> {
     }
 
     public T get(Object key) {
-        if (circle.isEmpty()) {
-            return null;
-        }
-        int hash = hashFunction.hash(key);
-        if (!circle.containsKey(hash)) {
-            SortedMap<Integer, T> tailMap = circle.tailMap(hash);
-            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
-        }
-        return circle.get(hash);
+        return ring.get(key);
     }
 }
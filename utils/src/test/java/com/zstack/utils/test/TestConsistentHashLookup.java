@@ -0,0 +1,63 @@
+package com.zstack.utils.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.zstack.utils.hash.ApacheHash;
+import org.zstack.utils.hash.ConsistentHash;
+import org.zstack.utils.hash.HashFunction;
+
+import java.util.*;
+
+/**
+ * compare the array ring of ConsistentHash with a TreeMap ring, the lookup
+ * throughput is measured by ConsistentHashBenchmark in the test module
+ */
+public class TestConsistentHashLookup {
+    int nodeNum = 5;
+    int replicas = 500;
+    int resourceNum = 10000;
+    HashFunction hashFunction = new ApacheHash();
+    SortedMap<Integer, String> circle = new TreeMap<Integer, String>();
+
+    private String treeMapGet(String key) {
+        int hash = hashFunction.hash(key);
+        if (!circle.containsKey(hash)) {
+            SortedMap<Integer, String> tailMap = circle.tailMap(hash);
+            hash = tailMap.isEmpty() ? circle.firstKey() : tailMap.firstKey();
+        }
+        return circle.get(hash);
+    }
+
+    @Test
+    public void test() {
+        List<String> nodes = new ArrayList<String>();
+        for (int i = 0; i < nodeNum; i++) {
+            String node = UUID.randomUUID().toString();
+            nodes.add(node);
+            for (int j = 0; j < replicas; j++) {
+                circle.put(hashFunction.hash(node + j), node);
+            }
+        }
+
+        ConsistentHash<String> ring = new ConsistentHash<String>(hashFunction, replicas, nodes);
+        ConsistentHash<String> cachedRing = new ConsistentHash<String>(hashFunction, replicas, nodes, resourceNum);
+
+        String[] resources = new String[resourceNum];
+        for (int i = 0; i < resourceNum; i++) {
+            resources[i] = UUID.randomUUID().toString().replace("-", "");
+            Assert.assertEquals(treeMapGet(resources[i]), ring.get(resources[i]));
+            Assert.assertEquals(treeMapGet(resources[i]), cachedRing.get(resources[i]));
+        }
+
+        // the cache is dropped when the ring changes
+        String removed = nodes.get(0);
+        cachedRing.remove(removed);
+        for (int j = 0; j < replicas; j++) {
+            circle.remove(hashFunction.hash(removed + j));
+        }
+        for (String r : resources) {
+            Assert.assertFalse(removed.equals(cachedRing.get(r)));
+            Assert.assertEquals(treeMapGet(r), cachedRing.get(r));
+        }
+    }
+}